@@ -1,5 +1,9 @@
 package org.sgdtk;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Adagrad-trained Linear model for classification
  *
@@ -18,7 +22,8 @@ package org.sgdtk;
  *
  * Having the training method coupled to the model is undesriable, this is caused by coupling in the updateWeights(),
  * which maybe doesnt belong here, but nothing here is persisted post training, so all the training details are
- * only required at train time.
+ * only required at train time.  To continue training later, {@link org.sgdtk.TrainingState} saves the accumulated
+ * gradients along with the model.
  *
  * @author dpressel
  */
@@ -57,6 +62,15 @@ public class AdagradLinearModel extends LinearModel
         gg = new ArrayDouble(weights.size());
     }
 
+    // Copy, including the accumulated gradients, so a copy can keep training where this left off
+    protected AdagradLinearModel(AdagradLinearModel other)
+    {
+        super(other.weights, other.wdiv, other.wbias);
+        gg = new ArrayDouble(other.gg.size());
+        other.gg.copyTo(gg);
+        sumEta = other.sumEta;
+    }
+
     /**
      * Empty constructor
      */
@@ -86,7 +100,62 @@ public class AdagradLinearModel extends LinearModel
     @Override
     public Model prototype()
     {
-        return new AdagradLinearModel(weights, wdiv, wbias);
+        return new AdagradLinearModel(this);
+    }
+
+    // The regularization step depends on every weight's learning rate, so a trial can't be run on part of the weights
+    @Override
+    LinearModel compact(int[] indices, int numUpdates)
+    {
+        return null;
+    }
+
+    /**
+     * Save the accumulated squared gradients, which are not part of the model file, but are needed to continue
+     * training with the same per-weight learning rates
+     * @param output Where to write
+     * @throws IOException
+     */
+    public void saveOptimizerState(DataOutput output) throws IOException
+    {
+        int sz = gg.size();
+        output.writeInt(sz);
+        for (int i = 0; i < sz; ++i)
+        {
+            output.writeDouble(gg.get(i));
+        }
+        output.writeDouble(sumEta);
+    }
+
+    /**
+     * Load the accumulated squared gradients written by {@link #saveOptimizerState(java.io.DataOutput)}
+     * @param input Where to read
+     * @throws IOException
+     */
+    public void loadOptimizerState(DataInput input) throws IOException
+    {
+        int sz = input.readInt();
+        gg = new ArrayDouble(sz);
+        for (int i = 0; i < sz; ++i)
+        {
+            gg.set(i, input.readDouble());
+        }
+        sumEta = input.readDouble();
+    }
+
+    // Take the accumulated gradients from another model, which only holds optimizer state
+    void copyOptimizerState(AdagradLinearModel from)
+    {
+        gg = from.gg;
+        sumEta = from.sumEta;
+    }
+
+    // Continue training a loaded plain model, which is what a multi-class model loads its sub-models as
+    static AdagradLinearModel withOptimizerState(LinearModel model, AdagradLinearModel from)
+    {
+        AdagradLinearModel adagrad = new AdagradLinearModel(model.weights, model.wdiv, model.wbias);
+        adagrad.copyOptimizerState(from);
+        return adagrad;
     }
 
     @Override
@@ -16,4 +16,9 @@ public interface AsyncTrainingRunner
     Model finish() throws IOException;
 
     void addListener(TrainingEventListener listener);
+
+    /**
+     * Stop training early, skipping whatever passes are left
+     */
+    void cancel();
 }
@@ -0,0 +1,347 @@
+package org.sgdtk;
+
+import java.io.*;
+
+/**
+ * Linear model trained by averaged SGD (ASGD), following Bottou's svmasgd
+ *
+ * Training updates the usual SGD weights, but the model predicts with the running average of those weights over
+ * every update since averaging started.  The average settles much faster than the SGD weights themselves, which keep
+ * bouncing around the optimum by an amount that depends on the learning rate, so it usually gets to the same error
+ * in one or two passes, where plain SGD needs several.  Use it with a learning rate that decays more slowly than
+ * usual, for instance a {@link RobbinsMonroUpdateSchedule} with a power of 0.75.
+ *
+ * Keeping the average doesn't cost a pass over the weights per example.  The SGD weights are stored as
+ * <i>w</i>/wdiv, exactly as in {@link LinearModel}, and the average as (<i>a</i> + wfrac * <i>w</i>)/adiv, so
+ * each update only touches <i>w</i> and <i>a</i> at the example's non-zero features, and the scalars absorb the rest.
+ * Both vectors are rescaled from time to time when the divisors get large.
+ *
+ * Until the averaging start, this is plain SGD and predicts with the SGD weights.  Averaging from the very start is
+ * sound but slow to forget the early, poor weights, so a start of about one epoch is a good choice.
+ *
+ * The averaged weights are what is predicted with, evaluated and saved, and the saved model is an ordinary
+ * {@link LinearModel}.  Loading starts both the SGD weights and the average from the saved weights.
+ *
+ * @author dpressel
+ */
+public class AveragedLinearModel extends LinearModel
+{
+    private ArrayDouble avg;
+    private double adiv = 1.;
+    private double wfrac;
+    private double abias;
+    private long numUpdates;
+    private long averageStart;
+    private boolean averaging;
+
+    public AveragedLinearModel(int wlength)
+    {
+        super(wlength);
+        avg = new ArrayDouble(wlength, 0);
+    }
+
+    /**
+     * Create empty but initialized model
+     *
+     * @param wlength      The length of the feature vector
+     * @param averageStart The number of updates before averaging starts
+     */
+    public AveragedLinearModel(int wlength, long averageStart)
+    {
+        this(wlength);
+        this.averageStart = averageStart;
+    }
+
+    protected AveragedLinearModel(AveragedLinearModel other)
+    {
+        super(other.weights, other.wdiv, other.wbias);
+        avg = new ArrayDouble(other.avg.size());
+        other.avg.copyTo(avg);
+        adiv = other.adiv;
+        wfrac = other.wfrac;
+        abias = other.abias;
+        numUpdates = other.numUpdates;
+        averageStart = other.averageStart;
+        averaging = other.averaging;
+    }
+
+    /**
+     * Empty constructor
+     */
+    public AveragedLinearModel()
+    {
+
+    }
+
+    /**
+     * An SGD update, followed by folding the new weights into the average
+     *
+     * @see LinearModel#updateWeights(VectorN, double, double, double, double)
+     */
+    @Override
+    public void updateWeights(VectorN vectorN, double eta, double lambda, double dLoss, double y)
+    {
+        if (!averaging)
+        {
+            super.updateWeights(vectorN, eta, lambda, dLoss, y);
+            if (++numUpdates > averageStart)
+            {
+                startAveraging();
+            }
+            return;
+        }
+        if (wdiv > 1e5 || adiv > 1e5)
+        {
+            renorm();
+        }
+        wdiv /= (1 - eta * lambda);
+
+        double etd = -eta * dLoss * wdiv;
+        if (etd != 0)
+        {
+            for (Offset offset : vectorN.getNonZeroOffsets())
+            {
+                weights.addi(offset.index, offset.value * etd);
+                avg.addi(offset.index, -offset.value * wfrac * etd);
+            }
+        }
+        wbias += -eta * BIAS_LR_SCALE * dLoss;
+
+        ++numUpdates;
+        double mu = 1. / (numUpdates - averageStart);
+        adiv /= (1 - mu);
+        wfrac += mu * adiv / wdiv;
+        abias += mu * (wbias - abias);
+    }
+
+    // The average starts out as the current weights, which count as one update, so the next one is averaged in
+    // with mu = 1/2.  After a load, the weights are all there is, and without that the next mu would be 1
+    private void startAveraging()
+    {
+        numUpdates = Math.max(numUpdates, averageStart + 1);
+        avg.constant(0.);
+        adiv = wdiv;
+        wfrac = 1.;
+        abias = wbias;
+        averaging = true;
+    }
+
+    // Fold the scalars back into the vectors
+    private void renorm()
+    {
+        if (wdiv != 1. || adiv != 1. || wfrac != 0.)
+        {
+            double[] a = avg.v;
+            double[] w = weights.v;
+            for (int i = 0, sz = avg.size(); i < sz; ++i)
+            {
+                a[i] = (a[i] + wfrac * w[i]) / adiv;
+                w[i] /= wdiv;
+            }
+            wdiv = adiv = 1.;
+            wfrac = 0.;
+        }
+    }
+
+    /**
+     * Predict with the averaged weights
+     *
+     * @param fv feature vector
+     * @return The score
+     */
+    @Override
+    public double predict(FeatureVector fv)
+    {
+        if (!averaging)
+        {
+            return super.predict(fv);
+        }
+        return (fv.dot(avg) + wfrac * fv.dot(weights)) / adiv + abias;
+    }
+
+    /**
+     * Predict with the SGD weights, which is what the gradient is taken at
+     *
+     * @param fv feature vector
+     * @return The score
+     */
+    @Override
+    public double predictForUpdate(FeatureVector fv)
+    {
+        return super.predict(fv);
+    }
+
+    /**
+     * Magnitude of the averaged weights
+     *
+     * @return mag
+     */
+    @Override
+    public double mag()
+    {
+        if (!averaging)
+        {
+            return super.mag();
+        }
+        ArrayDouble averaged = averagedWeights();
+        return averaged.dot(averaged);
+    }
+
+    // The averaged weights, with no scalars left over
+    private ArrayDouble averagedWeights()
+    {
+        int sz = avg.size();
+        ArrayDouble averaged = new ArrayDouble(sz);
+        double[] a = avg.v;
+        double[] w = weights.v;
+        for (int i = 0; i < sz; ++i)
+        {
+            averaged.v[i] = (a[i] + wfrac * w[i]) / adiv;
+        }
+        return averaged;
+    }
+
+    @Override
+    public Model prototype()
+    {
+        return new AveragedLinearModel(this);
+    }
+
+    // Only a trial that ends before averaging starts is plain SGD, which is all the copy does
+    @Override
+    LinearModel compact(int[] indices, int numUpdates)
+    {
+        return averaging || numUpdates + this.numUpdates > averageStart ? null : super.compact(indices, numUpdates);
+    }
+
+    /**
+     * Save the averaged weights, as a {@link LinearModel}
+     *
+     * @param outputStream target
+     * @throws IOException
+     */
+    @Override
+    public void save(OutputStream outputStream) throws IOException
+    {
+        if (!averaging)
+        {
+            super.save(outputStream);
+            return;
+        }
+        new LinearModel(averagedWeights(), 1., abias).save(outputStream);
+    }
+
+    /**
+     * Load a {@link LinearModel}, and start both the SGD weights and the average from it
+     *
+     * @param inputStream source
+     * @throws IOException
+     */
+    @Override
+    public void load(InputStream inputStream) throws IOException
+    {
+        super.load(inputStream);
+        avg = new ArrayDouble(weights.size(), 0);
+        startAveraging();
+    }
+
+    /**
+     * Average the SGD weights as {@link LinearModel#average(LinearModel[])} does, and if the models are all averaging,
+     * their averages too
+     *
+     * @param models The models to average
+     */
+    @Override
+    public void average(LinearModel[] models)
+    {
+        super.average(models);
+        int sz = weights.size();
+        if (avg == null || avg.size() != sz)
+        {
+            avg = new ArrayDouble(sz);
+        }
+        else
+        {
+            avg.constant(0.);
+        }
+        double[] a = avg.v;
+        double bias = 0.;
+        for (LinearModel model : models)
+        {
+            if (!(model instanceof AveragedLinearModel) || !((AveragedLinearModel) model).averaging)
+            {
+                // Just the SGD weights, as averaged above
+                averaging = false;
+                return;
+            }
+            AveragedLinearModel averaged = (AveragedLinearModel) model;
+            double[] ma = averaged.avg.v;
+            double[] mw = averaged.weights.v;
+            double scale = 1. / (averaged.adiv * models.length);
+            for (int i = 0; i < sz; ++i)
+            {
+                a[i] += (ma[i] + averaged.wfrac * mw[i]) * scale;
+            }
+            bias += averaged.abias;
+        }
+        adiv = 1.;
+        wfrac = 0.;
+        abias = bias / models.length;
+        averaging = true;
+    }
+
+    /**
+     * Copy another model in place.  If it is an averaged model, its average is copied too, otherwise the average
+     * starts over from its weights
+     *
+     * @param from The model to copy
+     */
+    @Override
+    public void copyFrom(LinearModel from)
+    {
+        super.copyFrom(from);
+        if (from instanceof AveragedLinearModel)
+        {
+            AveragedLinearModel averaged = (AveragedLinearModel) from;
+            averaged.avg.copyTo(avg);
+            adiv = averaged.adiv;
+            wfrac = averaged.wfrac;
+            abias = averaged.abias;
+            averaging = averaged.averaging;
+        }
+        else
+        {
+            startAveraging();
+        }
+    }
+
+    public long getNumUpdates()
+    {
+        return numUpdates;
+    }
+
+    /**
+     * Whether averaging has started, so that the model predicts with the average
+     *
+     * @return true once past the averaging start
+     */
+    public boolean isAveraging()
+    {
+        return averaging;
+    }
+
+    public long getAverageStart()
+    {
+        return averageStart;
+    }
+
+    /**
+     * Start averaging after this many updates
+     *
+     * @param averageStart The number of updates, typically about one epoch
+     */
+    public void setAverageStart(long averageStart)
+    {
+        this.averageStart = averageStart;
+    }
+}
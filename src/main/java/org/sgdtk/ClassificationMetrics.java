@@ -0,0 +1,424 @@
+package org.sgdtk;
+
+/**
+ * Metrics for binary and one-vs-all classifiers, beyond the loss and error, in a single pass
+ *
+ * Pass one of these anywhere a {@link Metrics} goes, such as {@link Learner#eval(Model, java.util.List, Metrics)},
+ * and along with the usual loss and error, it keeps:
+ * <ul>
+ *     <li>a confusion matrix, and from it each class's precision, recall and F1</li>
+ *     <li>AUC for each class against the rest, from a histogram of scores</li>
+ *     <li>the log loss of the scores taken as probabilities, and a calibration table to go with it</li>
+ * </ul>
+ *
+ * No scores are stored, so memory doesn't grow with the evaluation set.  Instead, each score is counted in fixed
+ * histograms, separately for positives and negatives.  For AUC, the bins are over asinh of the score, which is close to
+ * the score itself near 0 and to its log further out.  A bin is 1/128 wide on that scale, so near the decision
+ * boundary it holds scores less than 0.01 apart, and far out it holds scores within 1% of each other.  AUC is exact up
+ * to ties within a bin, which are counted as half right, and a model that pushes most of its scores into the tails,
+ * at probabilities like 1e-6, still has them told apart, where equal-width probability bins would lump them all into
+ * the end bins.  AUC only depends on the order of the scores, so it doesn't care that the scores of a hinge loss
+ * model aren't really probabilities.  For calibration, each score is squashed to a probability with a sigmoid and
+ * counted in equal-width bins, and the log loss and calibration table only make sense for a model trained with log
+ * loss.
+ *
+ * A binary model's labels are -1 and 1, and class 1 is the positive class.  A multi-class model's labels are 1 through
+ * the number of classes, and the prediction is the class with the highest score.  These merge, so each thread of a
+ * {@link ParallelEvaluator} gets its own.
+ *
+ * @author dpressel
+ */
+public class ClassificationMetrics extends Metrics
+{
+    public static final int DEFAULT_BINS = 1000;
+
+    // AUC bins over asinh(score), which covers scores out to about 4 million either way
+    private static final int AUC_BINS = 1 << 12;
+    private static final double AUC_RANGE = 16.;
+
+    // Probabilities are clamped this far from 0 and 1 for the log loss
+    private static final double EPS = 1e-15;
+
+    private final int numClasses;
+    private final int numBins;
+    // For a binary model, index 0 is the negative class and 1 the positive.  For multi-class, the index is label - 1
+    private final long[][] confusion;
+    // One histogram per class scored against the rest, of that class's score for its positives and negatives
+    private final long[][] positives;
+    private final long[][] negatives;
+    // And of its probability, for calibration
+    private final long[][] probPositives;
+    private final long[][] probCounts;
+    private final double[][] sumProb;
+    private double logLoss;
+    private long numScored;
+
+    /**
+     * Create metrics for a classifier
+     * @param numClasses 2 for a binary model, or the number of classes
+     */
+    public ClassificationMetrics(int numClasses)
+    {
+        this(numClasses, DEFAULT_BINS);
+    }
+
+    /**
+     * Create metrics for a classifier
+     * @param numClasses 2 for a binary model, or the number of classes
+     * @param numBins Histogram bins for calibration
+     */
+    public ClassificationMetrics(int numClasses, int numBins)
+    {
+        this.numClasses = numClasses;
+        this.numBins = numBins;
+        int numScoredClasses = isBinary() ? 1 : numClasses;
+        confusion = new long[numClasses][numClasses];
+        positives = new long[numScoredClasses][AUC_BINS];
+        negatives = new long[numScoredClasses][AUC_BINS];
+        probPositives = new long[numScoredClasses][numBins];
+        probCounts = new long[numScoredClasses][numBins];
+        sumProb = new double[numScoredClasses][numBins];
+    }
+
+    private boolean isBinary()
+    {
+        return numClasses <= 2;
+    }
+
+    private static double sigmoid(double score)
+    {
+        return 1. / (1. + Math.exp(-score));
+    }
+
+    private int probBin(double p)
+    {
+        return Math.min(numBins - 1, (int) (p * numBins));
+    }
+
+    private static int aucBin(double score)
+    {
+        double t = Math.signum(score) * Math.log(Math.abs(score) + Math.sqrt(score * score + 1.));
+        int bin = (int) ((t + AUC_RANGE) * (AUC_BINS / (2. * AUC_RANGE)));
+        return Math.max(0, Math.min(AUC_BINS - 1, bin));
+    }
+
+    // Count one class's score against the rest
+    private void addScore(int scoredClass, double score, boolean isPositive)
+    {
+        double p = sigmoid(score);
+        int bin = probBin(p);
+        if (isPositive)
+        {
+            ++positives[scoredClass][aucBin(score)];
+            ++probPositives[scoredClass][bin];
+            logLoss -= Math.log(Math.max(p, EPS));
+        }
+        else
+        {
+            ++negatives[scoredClass][aucBin(score)];
+            if (isBinary())
+            {
+                logLoss -= Math.log(Math.max(1. - p, EPS));
+            }
+        }
+        ++probCounts[scoredClass][bin];
+        sumProb[scoredClass][bin] += p;
+    }
+
+    @Override
+    public void addScores(double y, double[] scores)
+    {
+        ++numScored;
+        if (isBinary())
+        {
+            int truth = y > 0 ? 1 : 0;
+            int predicted = scores[0] > 0 ? 1 : 0;
+            ++confusion[truth][predicted];
+            addScore(0, scores[0], truth == 1);
+            return;
+        }
+
+        int truth = (int) y - 1;
+        int predicted = 0;
+        for (int i = 1; i < scores.length; ++i)
+        {
+            if (scores[i] > scores[predicted])
+            {
+                predicted = i;
+            }
+        }
+        ++confusion[truth][predicted];
+        for (int i = 0; i < scores.length; ++i)
+        {
+            addScore(i, scores[i], i == truth);
+        }
+    }
+
+    @Override
+    public Metrics emptyCopy()
+    {
+        return new ClassificationMetrics(numClasses, numBins);
+    }
+
+    @Override
+    public void merge(Metrics other)
+    {
+        super.merge(other);
+        if (!(other instanceof ClassificationMetrics))
+        {
+            return;
+        }
+        ClassificationMetrics that = (ClassificationMetrics) other;
+        if (that.numClasses != numClasses || that.numBins != numBins)
+        {
+            throw new IllegalArgumentException("Can't merge metrics of different shapes");
+        }
+        for (int i = 0; i < numClasses; ++i)
+        {
+            for (int j = 0; j < numClasses; ++j)
+            {
+                confusion[i][j] += that.confusion[i][j];
+            }
+        }
+        for (int i = 0; i < positives.length; ++i)
+        {
+            for (int j = 0; j < AUC_BINS; ++j)
+            {
+                positives[i][j] += that.positives[i][j];
+                negatives[i][j] += that.negatives[i][j];
+            }
+            for (int j = 0; j < numBins; ++j)
+            {
+                probPositives[i][j] += that.probPositives[i][j];
+                probCounts[i][j] += that.probCounts[i][j];
+                sumProb[i][j] += that.sumProb[i][j];
+            }
+        }
+        logLoss += that.logLoss;
+        numScored += that.numScored;
+    }
+
+    /**
+     * The number of examples with a true label of one class that were predicted as another
+     * @param truth The true class, 1-based, or -1/1 for binary
+     * @param predicted The predicted class, in the same form
+     * @return The count
+     */
+    public long getConfusion(int truth, int predicted)
+    {
+        return confusion[index(truth)][index(predicted)];
+    }
+
+    // Confusion matrix index of a label
+    private int index(int label)
+    {
+        return isBinary() ? (label > 0 ? 1 : 0) : label - 1;
+    }
+
+    /**
+     * Of the examples predicted as a class, the fraction that were
+     * @param label The class, 1-based, or -1/1 for binary
+     * @return Precision, or 0 if nothing was predicted as the class
+     */
+    public double getPrecision(int label)
+    {
+        int c = index(label);
+        long predicted = 0;
+        for (int i = 0; i < numClasses; ++i)
+        {
+            predicted += confusion[i][c];
+        }
+        return predicted == 0 ? 0. : confusion[c][c] / (double) predicted;
+    }
+
+    /**
+     * Of the examples of a class, the fraction predicted as it
+     * @param label The class, 1-based, or -1/1 for binary
+     * @return Recall, or 0 if there were no examples of the class
+     */
+    public double getRecall(int label)
+    {
+        int c = index(label);
+        long actual = 0;
+        for (int j = 0; j < numClasses; ++j)
+        {
+            actual += confusion[c][j];
+        }
+        return actual == 0 ? 0. : confusion[c][c] / (double) actual;
+    }
+
+    public double getF1(int label)
+    {
+        double p = getPrecision(label);
+        double r = getRecall(label);
+        return p + r == 0. ? 0. : 2 * p * r / (p + r);
+    }
+
+    /**
+     * The unweighted mean F1 over classes
+     * @return Macro-averaged F1
+     */
+    public double getMacroF1()
+    {
+        double sum = 0.;
+        for (int c = 0; c < numClasses; ++c)
+        {
+            sum += getF1(label(c));
+        }
+        return sum / numClasses;
+    }
+
+    // Label of a confusion matrix index
+    private int label(int c)
+    {
+        return isBinary() ? (c == 0 ? -1 : 1) : c + 1;
+    }
+
+    /**
+     * Area under the ROC curve for the positive class of a binary model, or the mean over classes for a multi-class one
+     * @return AUC, or 0.5 if there were no positives or no negatives
+     */
+    public double getAuc()
+    {
+        if (isBinary())
+        {
+            return getAuc(1);
+        }
+        double sum = 0.;
+        for (int c = 0; c < numClasses; ++c)
+        {
+            sum += getAuc(c + 1);
+        }
+        return sum / numClasses;
+    }
+
+    /**
+     * Area under the ROC curve for one class against the rest
+     * @param label The class, 1-based.  For a binary model, this is ignored and the positive class is used
+     * @return AUC, or 0.5 if the class had no positives or no negatives
+     */
+    public double getAuc(int label)
+    {
+        int c = isBinary() ? 0 : label - 1;
+        long[] pos = positives[c];
+        long[] neg = negatives[c];
+        // Walk up from the lowest scores, counting the negatives each positive outranks
+        double numRight = 0.;
+        long negativesBelow = 0;
+        long numPositives = 0;
+        for (int bin = 0; bin < AUC_BINS; ++bin)
+        {
+            numRight += pos[bin] * (negativesBelow + 0.5 * neg[bin]);
+            negativesBelow += neg[bin];
+            numPositives += pos[bin];
+        }
+        if (numPositives == 0 || negativesBelow == 0)
+        {
+            return 0.5;
+        }
+        return numRight / ((double) numPositives * negativesBelow);
+    }
+
+    /**
+     * Log loss of the scores taken as probabilities.  For a multi-class model, this is over the true class's score
+     * @return Mean log loss
+     */
+    public double getLogLoss()
+    {
+        return numScored == 0 ? 0. : logLoss / numScored;
+    }
+
+    /**
+     * Calibration of the probabilities, in equal-width buckets.  Each row is the bucket's lower edge, the number of
+     * scores in it, their mean probability and the fraction that were positive.  A well calibrated model has the last
+     * two close in every bucket.  For a multi-class model, every class's scores against the rest are pooled
+     * @param numBuckets The number of buckets, which should divide the number of bins
+     * @return One row per bucket
+     */
+    public double[][] getCalibration(int numBuckets)
+    {
+        return calibration(0, positives.length, numBuckets);
+    }
+
+    /**
+     * Calibration of one class's probabilities against the rest
+     * @param label The class, 1-based.  For a binary model, this is ignored and the positive class is used
+     * @param numBuckets The number of buckets, which should divide the number of bins
+     * @return One row per bucket of lower edge, count, mean probability and fraction positive
+     */
+    public double[][] getCalibration(int label, int numBuckets)
+    {
+        int c = isBinary() ? 0 : label - 1;
+        return calibration(c, c + 1, numBuckets);
+    }
+
+    // Calibration pooled over a range of scored classes
+    private double[][] calibration(int from, int to, int numBuckets)
+    {
+        double[][] table = new double[numBuckets][4];
+        for (int c = from; c < to; ++c)
+        {
+            for (int bin = 0; bin < numBins; ++bin)
+            {
+                int bucket = (int) ((long) bin * numBuckets / numBins);
+                table[bucket][1] += probCounts[c][bin];
+                table[bucket][2] += sumProb[c][bin];
+                table[bucket][3] += probPositives[c][bin];
+            }
+        }
+        for (int bucket = 0; bucket < numBuckets; ++bucket)
+        {
+            table[bucket][0] = bucket / (double) numBuckets;
+            if (table[bucket][1] > 0)
+            {
+                table[bucket][2] /= table[bucket][1];
+                table[bucket][3] /= table[bucket][1];
+            }
+        }
+        return table;
+    }
+
+    public int getNumClasses()
+    {
+        return numClasses;
+    }
+
+    /**
+     * Describe everything, for printing
+     * @return A multi-line report
+     */
+    public String report()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("\t%s = %.4f%n", isBinary() ? "AUC" : "Mean AUC", getAuc()));
+        sb.append(String.format("\tLog loss = %.4f%n", getLogLoss()));
+        sb.append(String.format("\tMacro F1 = %.4f%n", getMacroF1()));
+        sb.append(String.format("\t%8s %10s %10s %10s%s%n", "class", "precision", "recall", "F1", isBinary() ? "" : String.format(" %10s", "AUC")));
+        for (int c = 0; c < numClasses; ++c)
+        {
+            int label = label(c);
+            sb.append(String.format("\t%8d %10.4f %10.4f %10.4f", label, getPrecision(label), getRecall(label), getF1(label)));
+            if (!isBinary())
+            {
+                sb.append(String.format(" %10.4f", getAuc(label)));
+            }
+            sb.append(String.format("%n"));
+        }
+        sb.append(String.format("\tConfusion (rows are true, columns predicted)%n"));
+        for (int i = 0; i < numClasses; ++i)
+        {
+            sb.append(String.format("\t%8d", label(i)));
+            for (int j = 0; j < numClasses; ++j)
+            {
+                sb.append(String.format(" %10d", confusion[i][j]));
+            }
+            sb.append(String.format("%n"));
+        }
+        sb.append(String.format("\tCalibration%n\t%8s %10s %10s %10s%n", "from", "count", "predicted", "actual"));
+        for (double[] row : getCalibration(10))
+        {
+            sb.append(String.format("\t%8.2f %10d %10.4f %10.4f%n", row[0], (long) row[1], row[2], row[3]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,112 @@
+package org.sgdtk;
+
+/**
+ * Memory-bounded approximate frequency counter
+ *
+ * A count-min sketch keeps depth rows of width counters.  Each key hashes to one counter per row, and the estimated
+ * count is the minimum over those counters.  Estimates never undercount, and with conservative update (only the
+ * counters currently at the minimum are incremented) the overcount stays small for heavy-tailed feature distributions.
+ * This makes it a good fit for frequency cutoffs over feature sets too large to hold in a HashMap: a feature whose
+ * true count clears the cutoff always clears it in the sketch, and a few rare ones may slip through.
+ *
+ * The row hashes are derived from a single 64-bit {@link org.sgdtk.MurmurHash} using double hashing, so each
+ * operation hashes the key just once.
+ *
+ * @author dpressel
+ */
+public class CountMinSketch
+{
+    private final int[] counters;
+    private final int depth;
+    private final int mask;
+
+    /**
+     * Create a sketch
+     * @param width Number of counters per row.  This is rounded up to the next power of 2
+     * @param depth Number of rows (independent hashes)
+     */
+    public CountMinSketch(int width, int depth)
+    {
+        int w = ArrayDouble.nextPowerOf2(Math.max(width, 2));
+        this.depth = depth;
+        this.mask = w - 1;
+        this.counters = new int[w * depth];
+    }
+
+    /**
+     * Increment the count for this key
+     * @param key The key
+     */
+    public void add(String key)
+    {
+        long h = MurmurHash.hash64(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        int width = mask + 1;
+
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; ++i)
+        {
+            int c = counters[i * width + ((h1 + i * h2) & mask)];
+            if (c < min)
+            {
+                min = c;
+            }
+        }
+        if (min == Integer.MAX_VALUE)
+        {
+            return;
+        }
+
+        // Conservative update, only bump the counters that are holding the minimum
+        for (int i = 0; i < depth; ++i)
+        {
+            int j = i * width + ((h1 + i * h2) & mask);
+            if (counters[j] == min)
+            {
+                counters[j] = min + 1;
+            }
+        }
+    }
+
+    /**
+     * Estimate the count for this key.  This is never lower than the true count
+     * @param key The key
+     * @return The estimate
+     */
+    public int estimate(String key)
+    {
+        long h = MurmurHash.hash64(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        int width = mask + 1;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; ++i)
+        {
+            int c = counters[i * width + ((h1 + i * h2) & mask)];
+            if (c < min)
+            {
+                min = c;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Number of counters per row
+     * @return width
+     */
+    public int getWidth()
+    {
+        return mask + 1;
+    }
+
+    /**
+     * Number of rows
+     * @return depth
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+}
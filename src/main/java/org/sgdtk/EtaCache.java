@@ -0,0 +1,161 @@
+package org.sgdtk;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A file of learning rates picked before, so that training again on the same data doesn't have to pick them again
+ *
+ * Picking eta trains a copy of the model on a sample several times over, which can take as long as an epoch or more.
+ * The eta only depends on the data and the learner's settings, so the learners look it up here under a key built
+ * from those, and store it once they've picked it.  The data is named by the cache, if it was given a name with
+ * {@link #forData(String)}, and otherwise by a fingerprint of the sample's contents, which only matches if the sample
+ * is the same examples in the same order.  The file is a plain properties file, written out after every new entry.
+ *
+ * @author dpressel
+ */
+public class EtaCache
+{
+    private static final Logger log = LoggerFactory.getLogger(EtaCache.class);
+
+    private final File file;
+    private final Properties etas;
+    private final String data;
+
+    /**
+     * Open the cache, reading it in if the file exists
+     * @param file The cache file
+     * @throws IOException
+     */
+    public EtaCache(File file) throws IOException
+    {
+        this.file = file;
+        this.etas = new Properties();
+        this.data = null;
+        if (file.exists())
+        {
+            try (InputStream inputStream = new FileInputStream(file))
+            {
+                etas.load(inputStream);
+            }
+        }
+    }
+
+    private EtaCache(EtaCache parent, String data)
+    {
+        this.file = parent.file;
+        this.etas = parent.etas;
+        this.data = parent.data == null ? data : parent.data + "/" + data;
+    }
+
+    /**
+     * The same cache, for learning rates picked on the named data
+     * @param data A name for the data, for instance from {@link #describe(File)}.  If this cache already has a
+     *             name, this is added to it
+     * @return A view of this cache, sharing its file
+     */
+    public EtaCache forData(String data)
+    {
+        return new EtaCache(this, data);
+    }
+
+    /**
+     * The name of the data, if there is one
+     * @return The name or null
+     */
+    public String getData()
+    {
+        return data;
+    }
+
+    /**
+     * The part of a key that names the data
+     * @param sampleFingerprint The sample's {@link #fingerprint(List)}, used when the data has no name
+     * @return The name of the data, or else the fingerprint
+     */
+    public String dataKey(long sampleFingerprint)
+    {
+        return data != null ? data : Long.toHexString(sampleFingerprint);
+    }
+
+    /**
+     * Name a file by its path, length and modification time, so the name changes when the file does
+     * @param file The file
+     * @return The name
+     */
+    public static String describe(File file)
+    {
+        return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    }
+
+    /**
+     * Look up a learning rate
+     * @param key The key, built by the learner from {@link #dataKey(long)} and its settings
+     * @return The learning rate, or null if there isn't one
+     */
+    public Double get(String key)
+    {
+        synchronized (etas)
+        {
+            String eta = etas.getProperty(key);
+            return eta == null ? null : Double.valueOf(eta);
+        }
+    }
+
+    /**
+     * Store a learning rate, and write out the file.  If the file can't be written, the rate is still kept in memory
+     * @param key The key, built by the learner from {@link #dataKey(long)} and its settings
+     * @param eta The learning rate
+     */
+    public void put(String key, double eta)
+    {
+        synchronized (etas)
+        {
+            etas.setProperty(key, Double.toString(eta));
+            try (OutputStream outputStream = new FileOutputStream(file))
+            {
+                etas.store(outputStream, "Learning rates picked by sgdtk");
+            }
+            catch (IOException ioEx)
+            {
+                log.warn("Could not write eta cache " + file + ": " + ioEx.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A fingerprint of a sample's labels and features, in order
+     * @param sample The sample
+     * @return The fingerprint
+     */
+    public static long fingerprint(List<FeatureVector> sample)
+    {
+        long hash = mix(0L, sample.size());
+        for (FeatureVector fv : sample)
+        {
+            hash = mix(hash, fv.getY());
+            for (Offset offset : fv.getNonZeroOffsets())
+            {
+                hash = mix(hash, offset.index);
+                hash = mix(hash, offset.value);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Fold a value into a fingerprint
+     * @param hash The fingerprint so far
+     * @param value The value
+     * @return The new fingerprint
+     */
+    public static long mix(long hash, double value)
+    {
+        long h = (hash ^ Double.doubleToLongBits(value)) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+}
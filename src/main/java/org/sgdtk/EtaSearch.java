@@ -0,0 +1,154 @@
+package org.sgdtk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Memoized, optionally parallel trials for picking a learning rate
+ *
+ * The learners pick eta by walking a geometric grid of candidates, eta = base * factor^k, training a copy of the model
+ * on a sample at each candidate and keeping the one with the lowest cost.  Each step of the walk depends on the last,
+ * so on its own it can only run one trial at a time.  This runs the trials for the walk: each candidate's cost is only
+ * ever computed once, and with more than one thread, a trial that isn't known yet is run along with the next few
+ * candidates in the direction the walk is going, on their own threads.  The walk then finds most of its next steps
+ * already done.  The costs are the same as running the trials one at a time, so the walk ends on the same eta; the
+ * extra trials are just thrown away.
+ *
+ * @author dpressel
+ */
+public class EtaSearch
+{
+    private final IntToDoubleFunction trial;
+    private final int numThreads;
+    private final Map<Integer, Double> costs = new HashMap<Integer, Double>();
+    private ExecutorService pool;
+    private Integer lastK;
+
+    /**
+     * Create a search
+     * @param trial Runs a trial for a candidate exponent k, returning its cost.  With more than one thread, this is
+     *              called from several threads at once
+     * @param numThreads The number of trials to run at once
+     */
+    public EtaSearch(IntToDoubleFunction trial, int numThreads)
+    {
+        this.trial = trial;
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * The cost of a candidate, running its trial if it hasn't been yet
+     * @param k The candidate's exponent
+     * @return The cost
+     */
+    public double cost(int k)
+    {
+        Double cost = costs.get(k);
+        if (cost == null)
+        {
+            run(candidates(k));
+            cost = costs.get(k);
+        }
+        lastK = k;
+        return cost;
+    }
+
+    // This candidate, and the ones the walk is likely to want next
+    private List<Integer> candidates(int k)
+    {
+        List<Integer> ks = new ArrayList<Integer>(numThreads);
+        ks.add(k);
+        int step = lastK == null ? 0 : Integer.signum(k - lastK);
+        for (int i = 1; ks.size() < numThreads; ++i)
+        {
+            if (step != 0)
+            {
+                ks.add(k + i * step);
+            }
+            else
+            {
+                // No direction yet, so go both ways
+                ks.add(k + i);
+                if (ks.size() < numThreads)
+                {
+                    ks.add(k - i);
+                }
+            }
+        }
+        ks.removeAll(costs.keySet());
+        return ks;
+    }
+
+    private void run(List<Integer> ks)
+    {
+        if (numThreads == 1)
+        {
+            for (int k : ks)
+            {
+                costs.put(k, trial.applyAsDouble(k));
+            }
+            return;
+        }
+        if (pool == null)
+        {
+            pool = Executors.newFixedThreadPool(numThreads, runnable ->
+            {
+                Thread thread = new Thread(runnable, "sgdtk-eta");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(ks.size());
+        for (final int k : ks)
+        {
+            tasks.add(() -> trial.applyAsDouble(k));
+        }
+        try
+        {
+            List<Future<Double>> results = pool.invokeAll(tasks);
+            for (int i = 0; i < ks.size(); ++i)
+            {
+                costs.put(ks.get(i), results.get(i).get());
+            }
+        }
+        catch (InterruptedException interruptedEx)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while picking eta", interruptedEx);
+        }
+        catch (ExecutionException executionEx)
+        {
+            Throwable cause = executionEx.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Number of trials run, including any that the walk didn't end up needing
+     * @return The count
+     */
+    public int getNumTrials()
+    {
+        return costs.size();
+    }
+
+    /**
+     * Stop the trial threads
+     */
+    public void close()
+    {
+        if (pool != null)
+        {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+}
@@ -16,5 +16,25 @@ public interface FeatureProvider
      */
     public FeatureVector next() throws IOException;
 
+    /**
+     * Fill in an existing feature vector, which should have been reset, with the next one from the source.  This
+     * lets a consumer recycle its vectors.  By default this just copies, but a provider that can read straight into
+     * the vector should override it
+     *
+     * @param fv The feature vector to fill in
+     * @return false if end of stream reached
+     * @throws IOException
+     */
+    default boolean next(FeatureVector fv) throws IOException
+    {
+        FeatureVector source = next();
+        if (source == null)
+        {
+            return false;
+        }
+        fv.from(source);
+        return true;
+    }
+
     public int getLargestVectorSeen();
 }
@@ -9,6 +9,7 @@ public class FeatureVector
 {
     VectorN x;
     double y;
+    double weight = 1.;
 
     public static final double UNLABELED = Double.MIN_VALUE;
 
@@ -55,6 +56,21 @@ public class FeatureVector
     {
         this.y = y;
     }
+
+    /**
+     * The importance weight, which scales this example's loss gradient in training.  It is 1 unless the example was
+     * subsampled, and it is not serialized, since it belongs to one pass over the data
+     * @return The weight
+     */
+    public double getWeight()
+    {
+        return weight;
+    }
+
+    public void setWeight(double weight)
+    {
+        this.weight = weight;
+    }
     public void add(Offset offset)
     {
         x.add(offset);
@@ -79,6 +95,7 @@ public class FeatureVector
     public void from(FeatureVector source)
     {
         this.y = source.getY();
+        this.weight = source.getWeight();
         this.x.from(source.getX());
     }
 
@@ -191,7 +208,18 @@ public class FeatureVector
 
     public static FeatureVector deserializeSparse(byte[] buffer)
     {
-        UnsafeMemory memory = new UnsafeMemory(buffer);
+        return deserializeSparse(buffer, 0);
+    }
+
+    /**
+     * Read a sparse vector from a buffer holding a serialized vector at some offset
+     * @param buffer The buffer
+     * @param offset The start of the vector in the buffer
+     * @return A feature vector
+     */
+    public static FeatureVector deserializeSparse(byte[] buffer, int offset)
+    {
+        UnsafeMemory memory = new UnsafeMemory(buffer, offset);
         double y = memory.getDouble();
         FeatureVector fv = FeatureVector.newSparse(y);
         int sparseSz = memory.getInt();
@@ -206,7 +234,18 @@ public class FeatureVector
 
     public static FeatureVector deserializeDense(byte[] buffer)
     {
-        UnsafeMemory memory = new UnsafeMemory(buffer);
+        return deserializeDense(buffer, 0);
+    }
+
+    /**
+     * Read a dense vector from a buffer holding a serialized vector at some offset
+     * @param buffer The buffer
+     * @param offset The start of the vector in the buffer
+     * @return A feature vector
+     */
+    public static FeatureVector deserializeDense(byte[] buffer, int offset)
+    {
+        UnsafeMemory memory = new UnsafeMemory(buffer, offset);
         double y = memory.getDouble();
         int denseSz = memory.getInt();
 
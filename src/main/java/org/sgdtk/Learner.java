@@ -1,6 +1,7 @@
 package org.sgdtk;
 
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A trainer for unstructured classification.
@@ -46,4 +47,35 @@ public interface Learner
      */
     void eval(Model model, List<FeatureVector> testingExamples, Metrics metrics);
 
+    /**
+     * Evaluate a set of examples in parallel.  By default, this is {@link ParallelEvaluator} over evalOne
+     * @param model The model to use for evaluation, which must not be trained while this runs
+     * @param testingExamples The examples
+     * @param metrics Metrics to add to
+     * @param pool The pool to evaluate on
+     */
+    default void eval(Model model, List<FeatureVector> testingExamples, Metrics metrics, ForkJoinPool pool)
+    {
+        ParallelEvaluator.eval(this, model, testingExamples, metrics, pool);
+    }
+
+    /**
+     * Number of examples trained on, as far as the learning rate schedule is concerned
+     * @return The schedule position, or 0 if the learner has no schedule
+     */
+    default long getNumSeen()
+    {
+        return 0L;
+    }
+
+    /**
+     * Move the learning rate schedule to a position, for instance when resuming from a checkpoint.  Call this after
+     * {@link #create(Object)}, which resets the schedule
+     * @param numSeen The number of examples already trained on
+     */
+    default void setNumSeen(long numSeen)
+    {
+
+    }
+
 }
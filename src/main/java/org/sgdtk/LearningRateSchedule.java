@@ -4,4 +4,22 @@ public interface LearningRateSchedule
 {
     void reset(double eta0, double lambda);
     double update();
+
+    /**
+     * Number of updates so far, which is the schedule's position
+     * @return The number of updates since reset, or 0 if the schedule doesn't depend on it
+     */
+    default long getNumSeen()
+    {
+        return 0L;
+    }
+
+    /**
+     * Move the schedule to a position, for instance when resuming training
+     * @param numSeen The number of updates already made
+     */
+    default void setNumSeen(long numSeen)
+    {
+
+    }
 }
@@ -169,7 +169,7 @@ public class LinearModel implements WeightModel
      * @return
      */
     @Override
-    public final double predict(final FeatureVector fv)
+    public double predict(final FeatureVector fv)
     {
         double acc = fv.dot(weights);
         return acc / wdiv + wbias;
@@ -194,13 +194,31 @@ public class LinearModel implements WeightModel
         return new LinearModel(weights, wdiv, wbias);
     }
 
+    /**
+     * Copy just some of the weights into a smaller model, for trying out a learning rate on a sample that only
+     * touches those.  The copy's weight i is this model's weight at indices[i], and it has the same scale and bias
+     *
+     * @param indices The weights to copy
+     * @param numUpdates The number of updates the trial will make
+     * @return The copy, or null if training it wouldn't train those weights the same as training this model would
+     */
+    LinearModel compact(int[] indices, int numUpdates)
+    {
+        ArrayDouble compact = new ArrayDouble(indices.length);
+        for (int i = 0; i < indices.length; ++i)
+        {
+            compact.v[i] = weights.v[indices[i]];
+        }
+        return new LinearModel(compact, wdiv, wbias);
+    }
+
     /**
      * Magnitude of weight vector
      *
      * @return mag
      */
     @Override
-    public final double mag()
+    public double mag()
     {
         double dotProd = weights.dot(weights);
         return dotProd / wdiv / wdiv;
@@ -210,4 +228,51 @@ public class LinearModel implements WeightModel
         return eta;
     }
 
+    /**
+     * Set this to the average of several models of the same width, for parameter mixing.  Each model's weights are
+     * divided by its own wdiv first, so this averages the weights the models actually predict with, and the result
+     * has a wdiv of 1.  This must not be one of the models
+     *
+     * @param models The models to average
+     */
+    public void average(LinearModel[] models)
+    {
+        int sz = models[0].weights.size();
+        if (weights == null || weights.size() != sz)
+        {
+            weights = new ArrayDouble(sz);
+        }
+        else
+        {
+            weights.constant(0.);
+        }
+        double[] avg = weights.v;
+        double bias = 0.;
+        for (LinearModel model : models)
+        {
+            double scale = 1. / (model.wdiv * models.length);
+            double[] w = model.weights.v;
+            for (int i = 0; i < sz; ++i)
+            {
+                avg[i] += w[i] * scale;
+            }
+            bias += model.wbias;
+        }
+        wdiv = 1.;
+        wbias = bias / models.length;
+    }
+
+    /**
+     * Overwrite this model's weights with another's, in place.  Anything a subclass keeps for training, such as
+     * Adagrad's accumulated gradients, is left alone
+     *
+     * @param from The model to copy
+     */
+    public void copyFrom(LinearModel from)
+    {
+        from.weights.copyTo(weights);
+        wdiv = from.wdiv;
+        wbias = from.wbias;
+    }
+
 }
@@ -17,9 +17,11 @@ public class LinearModelFactory implements ModelFactory
 {
     public static final String OPTIM = "optim";
     public static final String W_LENGTH = "wlength";
+    public static final String AVERAGE_START = "averageStart";
 
     String className = LinearModel.class.getTypeName();
     Integer wLength = null;
+    Long averageStart = null;
 
     public LinearModelFactory()
     {
@@ -42,6 +44,19 @@ public class LinearModelFactory implements ModelFactory
         {
             className = (String)config.get(OPTIM);
         }
+        if (config.containsKey(AVERAGE_START))
+        {
+            averageStart = ((Number)config.get(AVERAGE_START)).longValue();
+        }
+    }
+
+    /**
+     * For an {@link AveragedLinearModel}, the number of updates before averaging starts
+     * @param averageStart The number of updates
+     */
+    public void setAverageStart(long averageStart)
+    {
+        this.averageStart = averageStart;
     }
 
     // TODO: rework this so params is more flexible!
@@ -53,6 +68,10 @@ public class LinearModelFactory implements ModelFactory
 
         Constructor cons = negotiateConstructor();
         WeightModel model = (WeightModel)cons.newInstance(v == null ? wLength : v);
+        if (averageStart != null && model instanceof AveragedLinearModel)
+        {
+            ((AveragedLinearModel)model).setAverageStart(averageStart);
+        }
         return model;
     }
 
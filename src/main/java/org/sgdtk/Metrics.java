@@ -116,4 +116,48 @@ public class Metrics
     {
         this.numEventsSeen += length;
     }
+
+    /**
+     * Called by the learner with each example's label and scores, for metrics that need more than the loss and error.
+     * This does nothing here
+     * @param y The label, -1 or 1 for a binary model, or the 1-based class for a multi-class one
+     * @param scores The model's scores
+     */
+    public void addScores(double y, double[] scores)
+    {
+
+    }
+
+    /**
+     * Called by a sequential learner with each sequence's true and predicted labels, for metrics over spans of
+     * labels.  This does nothing here
+     * @param gold The true label of each step
+     * @param guess The predicted label of each step
+     */
+    public void addSequence(int[] gold, int[] guess)
+    {
+
+    }
+
+    /**
+     * Create an empty metrics of the same kind as this, for instance to give each thread its own
+     * @return An empty metrics
+     */
+    public Metrics emptyCopy()
+    {
+        return new Metrics();
+    }
+
+    /**
+     * Add another set of counts into this one, for instance from another thread's share of an evaluation.  The cost
+     * depends on the whole model, not the examples, so it is left for the caller to set
+     * @param other The metrics to add
+     */
+    public void merge(Metrics other)
+    {
+        this.totalLoss += other.totalLoss;
+        this.numExamplesSeen += other.numExamplesSeen;
+        this.numEventsSeen += other.numEventsSeen;
+        this.totalError += other.totalError;
+    }
 }
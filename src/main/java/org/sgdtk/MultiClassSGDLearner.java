@@ -3,11 +3,16 @@ package org.sgdtk;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Handle multi-class one-vs-all training.
  *
+ * Each one-vs-all learner sees an example relabeled as 1 or -1.  The relabeling is done on a view that shares the
+ * example's features, so the examples themselves are never written to, and can be shared with other learners training
+ * or evaluating at the same time.
+ *
  * @author dpressel
  */
 public class MultiClassSGDLearner implements Learner
@@ -19,6 +24,9 @@ public class MultiClassSGDLearner implements Learner
     Loss lossFunction;
     double lambda;
     double eta0;
+    int calibrationThreads = 1;
+    EtaCache etaCache;
+
     /**
      * Default constructor, use hinge loss
      */
@@ -62,6 +70,10 @@ public class MultiClassSGDLearner implements Learner
         for (int i = 0; i < learners.length; ++i)
         {
             learners[i] = new SGDLearner(lossFunction, lambda, eta0);
+            learners[i].setCalibrationThreads(calibrationThreads);
+            // With a named dataset, each class needs its own name.  Otherwise its relabeled sample tells it apart
+            learners[i].setEtaCache(etaCache == null || etaCache.getData() == null ? etaCache :
+                    etaCache.forData("class" + (i + 1)));
             models[i] = learners[i].create(params);
         }
         return new MultiClassWeightModel(models);
@@ -91,22 +103,26 @@ public class MultiClassSGDLearner implements Learner
         MultiClassWeightModel mclm = (MultiClassWeightModel)model;
 
         double yReal = fv.getY();
+        FeatureVector binary = new FeatureVector(yReal, fv.getX());
+        binary.setWeight(fv.getWeight());
         for (int i = 0; i < mclm.models.length; ++i)
         {
             boolean isCorrect = (i + 1) == yReal;
-            fv.setY(isCorrect ? 1: -1);
-            learners[i].trainOne(mclm.models[i], fv);
+            binary.setY(isCorrect ? 1: -1);
+            learners[i].trainOne(mclm.models[i], binary);
         }
-        fv.setY(yReal);
     }
 
     @Override
     public void preprocess(Model model, List<FeatureVector> sample)
     {
         double [] yReal = new double[sample.size()];
+        List<FeatureVector> binary = new ArrayList<FeatureVector>(sample.size());
         for (int i = 0; i < yReal.length; ++i)
         {
-            yReal[i] = sample.get(i).getY();
+            FeatureVector fv = sample.get(i);
+            yReal[i] = fv.getY();
+            binary.add(new FeatureVector(yReal[i], fv.getX()));
         }
 
         MultiClassWeightModel mclm = (MultiClassWeightModel)model;
@@ -116,14 +132,10 @@ public class MultiClassSGDLearner implements Learner
             for (int j = 0; j < yReal.length; ++j)
             {
                 boolean isCorrect = (i + 1) == yReal[j];
-                sample.get(j).setY(isCorrect ? 1 : -1);
+                binary.get(j).setY(isCorrect ? 1 : -1);
             }
 
-            learners[i].preprocess(mclm.models[i], sample);
-        }
-        for (int j = 0; j < yReal.length; ++j)
-        {
-            sample.get(j).setY(yReal[j]);
+            learners[i].preprocess(mclm.models[i], binary);
         }
 
     }
@@ -134,15 +146,18 @@ public class MultiClassSGDLearner implements Learner
         MultiClassWeightModel mclm = (MultiClassWeightModel)model;
 
         double yReal = fv.getY();
+        FeatureVector binary = new FeatureVector(yReal, fv.getX());
 
+        double[] scores = new double[mclm.models.length];
+        Metrics others = new Metrics();
         for (int i = 0; i < mclm.models.length; ++i)
         {
             boolean isCorrect = (i + 1) == yReal;
-            fv.setY(isCorrect ? 1: -1);
+            binary.setY(isCorrect ? 1: -1);
 
-            learners[i].evalOne(mclm.models[i], fv, isCorrect ? metrics : new Metrics());
+            scores[i] = learners[i].evalScores(mclm.models[i], binary, isCorrect ? metrics : others)[0];
         }
-        fv.setY(yReal);
+        metrics.addScores(yReal, scores);
 
     }
 
@@ -155,4 +170,43 @@ public class MultiClassSGDLearner implements Learner
             evalOne(model, fv, metrics);
         }
     }
+
+    /**
+     * Every one-vs-all learner sees every example, so they are all at the same position
+     * @return The schedule position
+     */
+    @Override
+    public long getNumSeen()
+    {
+        return learners[0] == null ? 0L : learners[0].getNumSeen();
+    }
+
+    @Override
+    public void setNumSeen(long numSeen)
+    {
+        for (SGDLearner learner : learners)
+        {
+            learner.setNumSeen(numSeen);
+        }
+    }
+
+    /**
+     * Try this many candidate learning rates at once when picking eta0 for each class.  Call before
+     * {@link #create(Object)}
+     * @param calibrationThreads The number of threads
+     */
+    public void setCalibrationThreads(int calibrationThreads)
+    {
+        this.calibrationThreads = calibrationThreads;
+    }
+
+    /**
+     * Look up each class's eta0 in a cache before picking it, and store it there after.  Call before
+     * {@link #create(Object)}
+     * @param etaCache The cache, or null to always pick eta0
+     */
+    public void setEtaCache(EtaCache etaCache)
+    {
+        this.etaCache = etaCache;
+    }
 }
@@ -141,4 +141,33 @@ public class MultiClassWeightModel implements Model
     {
         return new MultiClassWeightModel(models);
     }
+
+    /**
+     * Set each class's model to the average of that class's models, for parameter mixing
+     * @param from The models to average, which must have the same number of classes as this
+     */
+    public void average(MultiClassWeightModel[] from)
+    {
+        LinearModel[] perClass = new LinearModel[from.length];
+        for (int i = 0; i < models.length; ++i)
+        {
+            for (int j = 0; j < from.length; ++j)
+            {
+                perClass[j] = (LinearModel) from[j].models[i];
+            }
+            ((LinearModel) models[i]).average(perClass);
+        }
+    }
+
+    /**
+     * Overwrite each class's weights with another model's, in place
+     * @param from The model to copy
+     */
+    public void copyFrom(MultiClassWeightModel from)
+    {
+        for (int i = 0; i < models.length; ++i)
+        {
+            ((LinearModel) models[i]).copyFrom((LinearModel) from.models[i]);
+        }
+    }
 }
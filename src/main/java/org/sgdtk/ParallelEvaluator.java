@@ -0,0 +1,87 @@
+package org.sgdtk;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Evaluate a model over a list of examples on a fork-join pool
+ *
+ * The list is split in halves until the pieces are small, each piece is evaluated into its own {@link Metrics} (of
+ * the same kind as the one passed in, see {@link Metrics#emptyCopy()}) with
+ * {@link Learner#evalOne(Model, FeatureVector, Metrics)}, and the results are merged on the way back up, so there is
+ * no sharing between threads while evaluating.  This requires that evalOne only reads the model, which is true of
+ * the linear learners.  It may change an example, as long as it puts it back, since each example is only seen by one
+ * thread.
+ *
+ * The losses are summed in a different order than a sequential pass, so they can differ in the last few digits.  The
+ * error counts are exact.
+ *
+ * @author dpressel
+ */
+public class ParallelEvaluator
+{
+    // Below this many examples, a piece isn't worth splitting
+    private static final int MIN_SPLIT = 1024;
+
+    private static class EvalTask extends RecursiveTask<Metrics>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Learner learner;
+        private final Model model;
+        private final List<FeatureVector> examples;
+        private final int lo;
+        private final int hi;
+        private final int grain;
+        private final Metrics prototype;
+
+        EvalTask(Learner learner, Model model, List<FeatureVector> examples, int lo, int hi, int grain, Metrics prototype)
+        {
+            this.prototype = prototype;
+            this.learner = learner;
+            this.model = model;
+            this.examples = examples;
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+        }
+
+        @Override
+        protected Metrics compute()
+        {
+            if (hi - lo <= grain)
+            {
+                Metrics metrics = prototype.emptyCopy();
+                for (int i = lo; i < hi; ++i)
+                {
+                    learner.evalOne(model, examples.get(i), metrics);
+                }
+                return metrics;
+            }
+            int mid = (lo + hi) >>> 1;
+            EvalTask left = new EvalTask(learner, model, examples, lo, mid, grain, prototype);
+            EvalTask right = new EvalTask(learner, model, examples, mid, hi, grain, prototype);
+            left.fork();
+            Metrics metrics = right.compute();
+            metrics.merge(left.join());
+            return metrics;
+        }
+    }
+
+    /**
+     * Evaluate every example, adding to metrics
+     * @param learner The learner, whose evalOne is called from several threads at once
+     * @param model The model, which must not be trained while this runs
+     * @param examples The examples.  This should support fast random access
+     * @param metrics Metrics to add to
+     * @param pool The pool to run on
+     */
+    public static void eval(Learner learner, Model model, List<FeatureVector> examples, Metrics metrics, ForkJoinPool pool)
+    {
+        int sz = examples.size();
+        // A few pieces per thread, so a slow one doesn't hold up the rest
+        int grain = Math.max(MIN_SPLIT, sz / (4 * pool.getParallelism()));
+        metrics.merge(pool.invoke(new EvalTask(learner, model, examples, 0, sz, grain, metrics)));
+    }
+}
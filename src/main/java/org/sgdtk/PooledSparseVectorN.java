@@ -0,0 +1,298 @@
+package org.sgdtk;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A sparse vector that owns and recycles its {@link org.sgdtk.Offset}s
+ *
+ * This behaves like {@link org.sgdtk.SparseVectorN}, but it is meant to be filled, used and {@link #reset()} over and
+ * over, for instance as the storage in a ring buffer slot.  Adding an offset copies its index and value into an
+ * offset from the pool, and the pool only grows, so once it has seen the largest vector, filling it allocates nothing.
+ * Callers should not hold on to the offsets from {@link #getNonZeroOffsets()} after a reset.
+ *
+ * @author dpressel
+ */
+public class PooledSparseVectorN implements VectorN
+{
+    private Offset[] pool;
+    private int size;
+    private final List<Offset> view = new AbstractList<Offset>()
+    {
+        @Override
+        public Offset get(int index)
+        {
+            return pool[index];
+        }
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+    };
+
+    /**
+     * Create with a default initial capacity
+     */
+    public PooledSparseVectorN()
+    {
+        this(64);
+    }
+
+    /**
+     * Create with a given initial capacity
+     * @param capacity The number of offsets to pre-allocate
+     */
+    public PooledSparseVectorN(int capacity)
+    {
+        pool = new Offset[Math.max(capacity, 1)];
+        for (int i = 0; i < pool.length; ++i)
+        {
+            pool[i] = new Offset();
+        }
+    }
+
+    private void ensureCapacity(int n)
+    {
+        if (n > pool.length)
+        {
+            int old = pool.length;
+            pool = Arrays.copyOf(pool, ArrayDouble.nextPowerOf2(n));
+            for (int i = old; i < pool.length; ++i)
+            {
+                pool[i] = new Offset();
+            }
+        }
+    }
+
+    /**
+     * Add an index and value, without allocating an offset
+     * @param index The index
+     * @param value The value
+     */
+    public final void add(int index, double value)
+    {
+        ensureCapacity(size + 1);
+        Offset offset = pool[size++];
+        offset.index = index;
+        offset.value = value;
+    }
+
+    /**
+     * Copy the offset's index and value in.  The offset itself is not kept
+     * @param offset
+     */
+    @Override
+    public final void add(Offset offset)
+    {
+        add(offset.index, offset.value);
+    }
+
+    @Override
+    public final List<Offset> getNonZeroOffsets()
+    {
+        return view;
+    }
+
+    /**
+     * Number of offsets
+     * @return size
+     */
+    public final int size()
+    {
+        return size;
+    }
+
+    @Override
+    public final int length()
+    {
+        return size == 0 ? 0 : (pool[size - 1].index + 1);
+    }
+
+    private int realIndex(int i)
+    {
+        for (int j = 0; j < size; ++j)
+        {
+            int index = pool[j].index;
+            if (index > i)
+            {
+                return -1;
+            }
+            else if (index == i)
+            {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    // Dont use this for anything significant, slow...
+    @Override
+    public void set(int i, double v)
+    {
+        int j = realIndex(i);
+        if (j < 0)
+        {
+            add(i, v);
+            organize();
+        }
+        else
+        {
+            pool[j].value = v;
+        }
+    }
+
+    @Override
+    public double update(int i, double v)
+    {
+        int j = realIndex(i);
+        if (j < 0)
+        {
+            add(i, v);
+            organize();
+            return v;
+        }
+        double acc = pool[j].value + v;
+        pool[j].value = acc;
+        return acc;
+    }
+
+    @Override
+    public double at(int i)
+    {
+        int j = realIndex(i);
+        return j < 0 ? 0. : pool[j].value;
+    }
+
+    @Override
+    public void add(double[] vec)
+    {
+        for (int i = 0; i < vec.length; ++i)
+        {
+            if (vec[i] != 0.0)
+            {
+                update(i, vec[i]);
+            }
+        }
+    }
+
+    @Override
+    public void add(VectorN vec)
+    {
+        for (Offset offset : vec.getNonZeroOffsets())
+        {
+            update(offset.index, offset.value);
+        }
+    }
+
+    @Override
+    public void scale(double scalar)
+    {
+        for (int i = 0; i < size; ++i)
+        {
+            pool[i].value *= scalar;
+        }
+    }
+
+    @Override
+    public double mag()
+    {
+        double acc = 0.0;
+        for (int i = 0; i < size; ++i)
+        {
+            double v = pool[i].value;
+            acc += v * v;
+        }
+        return acc;
+    }
+
+    @Override
+    public final double dot(double[] vec)
+    {
+        double acc = 0.;
+        for (int i = 0; i < size; ++i)
+        {
+            Offset offset = pool[i];
+            acc += offset.value * vec[offset.index];
+        }
+        return acc;
+    }
+
+    @Override
+    public double dot(ArrayDouble vec)
+    {
+        return dot(vec.v);
+    }
+
+    @Override
+    public double dot(VectorN vectorN)
+    {
+        double acc = 0.;
+        for (int i = 0; i < size; ++i)
+        {
+            Offset offset = pool[i];
+            acc += offset.value * vectorN.at(offset.index);
+        }
+        return acc;
+    }
+
+    @Override
+    public void from(VectorN source)
+    {
+        for (Offset offset : source.getNonZeroOffsets())
+        {
+            add(offset.index, offset.value);
+        }
+    }
+
+    /**
+     * Sort by index and drop repeated indices, keeping the first, like {@link org.sgdtk.SparseVectorN#organize()}.
+     * Data that is already sorted (the usual case) is checked and left alone
+     */
+    @Override
+    public final void organize()
+    {
+        boolean ordered = true;
+        for (int i = 1; i < size && ordered; ++i)
+        {
+            ordered = pool[i - 1].index < pool[i].index;
+        }
+        if (ordered)
+        {
+            return;
+        }
+
+        // Stable, so the first of any repeated index stays first
+        Arrays.sort(pool, 0, size);
+        int j = 0;
+        for (int i = 0; i < size; ++i)
+        {
+            if (j == 0 || pool[i].index != pool[j - 1].index)
+            {
+                // Swap rather than copy, so every pooled offset stays unique
+                Offset t = pool[j];
+                pool[j] = pool[i];
+                pool[i] = t;
+                ++j;
+            }
+        }
+        size = j;
+    }
+
+    /**
+     * Empty the vector, keeping the pool
+     */
+    @Override
+    public void reset()
+    {
+        size = 0;
+    }
+
+    @Override
+    public Type getType()
+    {
+        return Type.SPARSE;
+    }
+}
@@ -5,11 +5,22 @@ public class RobbinsMonroUpdateSchedule implements LearningRateSchedule
     long numSeenTotal;
     double eta0;
     double lambda;
+    double power = 1.;
 
     public RobbinsMonroUpdateSchedule()
     {
 
     }
+
+    /**
+     * A schedule of eta0 / (1 + lambda * eta0 * t)^power.  A power under 1 decays more slowly, which suits averaged
+     * SGD, where Bottou uses 0.75
+     * @param power The power
+     */
+    public RobbinsMonroUpdateSchedule(double power)
+    {
+        this.power = power;
+    }
     @Override
     public void reset(double eta0, double lambda)
     {
@@ -21,8 +32,21 @@ public class RobbinsMonroUpdateSchedule implements LearningRateSchedule
     @Override
     public double update()
     {
-        double eta = eta0 / (1 + lambda * eta0 * numSeenTotal);
+        double decay = 1 + lambda * eta0 * numSeenTotal;
+        double eta = eta0 / (power == 1. ? decay : Math.pow(decay, power));
         ++numSeenTotal;
         return eta;
     }
+
+    @Override
+    public long getNumSeen()
+    {
+        return numSeenTotal;
+    }
+
+    @Override
+    public void setNumSeen(long numSeen)
+    {
+        this.numSeenTotal = numSeen;
+    }
 }
@@ -1,8 +1,11 @@
 package org.sgdtk;
+import org.sgdtk.exec.TrainingStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntToDoubleFunction;
 
 /**
  * Classification using SGD
@@ -22,6 +25,9 @@ public class SGDLearner implements Learner
     ///double numSeenTotal = 0;
     //boolean regularizedBias = false;
     private ModelFactory modelFactory = null;
+    private TrainingStats stats;
+    private int calibrationThreads = 1;
+    private EtaCache etaCache;
     /**
      * Default constructor, use hinge loss
      */
@@ -108,9 +114,25 @@ public class SGDLearner implements Learner
             learningRateSchedule.reset(eta0, lambda);
         }
 
-        for (FeatureVector fv : trainingExamples)
+        if (stats == null)
         {
-            trainOne(model, fv);
+            for (FeatureVector fv : trainingExamples)
+            {
+                trainOne(model, fv);
+            }
+        }
+        else
+        {
+            long cpu0 = TrainingStats.currentThreadCpuNanos();
+            long numFeatures = 0;
+            for (FeatureVector fv : trainingExamples)
+            {
+                trainOne(model, fv);
+                numFeatures += TrainingStats.countFeatures(fv);
+            }
+            stats.addExamples(trainingExamples.size());
+            stats.addFeatures(numFeatures);
+            stats.addCpu(TrainingStats.currentThreadCpuNanos() - cpu0);
         }
 
         WeightModel lm = (WeightModel)model;
@@ -141,58 +163,158 @@ public class SGDLearner implements Learner
 
         double eta = learningRateSchedule.update();
         double y = fv.getY();
-        double fx = weightModel.predict(fv);
-        double dLoss = lossFunction.dLoss(fx, y);
+        double fx = weightModel.predictForUpdate(fv);
+        // A subsampled example stands in for 1/rate of them
+        double dLoss = lossFunction.dLoss(fx, y) * fv.getWeight();
         weightModel.updateWeights(fv.getX(), eta, lambda, dLoss, y);
 
     }
 
+    /**
+     * Pick eta0 by training a copy of the model on the sample at candidate rates, walking down or up by
+     * {@link #ETA_FACTOR} from {@link #LOW_ETA_0} while the cost keeps dropping.  With more than one calibration
+     * thread, candidates the walk is headed for are tried at the same time (see {@link EtaSearch}).  Trials only copy
+     * the weights the sample touches, unless the model can't be trained that way.  If there is an eta cache that
+     * already has a rate for this sample and these settings, that is used instead
+     *
+     * @param model The model, which is left as it is
+     * @param sample A sample of the training examples
+     */
     @Override
     public final void preprocess(Model model, List<FeatureVector> sample)
     {
-        double lowEta = LOW_ETA_0;
-        double lowCost = evalEta(model, sample, lowEta);
-        double highEta = lowEta * ETA_FACTOR;
-        double highCost = evalEta(model, sample, highEta);
-        if (lowCost < highCost)
+        String cacheKey = null;
+        if (etaCache != null)
         {
-            while (lowCost < highCost)
+            cacheKey = cacheKey(model, sample);
+            Double cached = etaCache.get(cacheKey);
+            if (cached != null)
             {
-                highEta = lowEta;
-                highCost = lowCost;
-                lowEta = highEta / ETA_FACTOR;
-                lowCost = evalEta(model, sample, lowEta);
+                eta0 = cached;
+                log.info("cached eta0=" + eta0);
+                return;
             }
         }
-        else if (highCost < lowCost)
+
+        EtaSearch search = new EtaSearch(trialsFor(model, sample), calibrationThreads);
+        try
         {
-            while (highCost < lowCost)
+            int lowK = 0;
+            double lowCost = search.cost(lowK);
+            int highK = lowK + 1;
+            double highCost = search.cost(highK);
+            if (lowCost < highCost)
             {
-                lowEta = highEta;
-                lowCost = highCost;
-                highEta = lowEta * ETA_FACTOR;
-                highCost = evalEta(model, sample, highEta);
+                while (lowCost < highCost)
+                {
+                    highK = lowK;
+                    highCost = lowCost;
+                    lowK = highK - 1;
+                    lowCost = search.cost(lowK);
+                }
             }
+            else if (highCost < lowCost)
+            {
+                while (highCost < lowCost)
+                {
+                    lowK = highK;
+                    lowCost = highCost;
+                    highK = lowK + 1;
+                    highCost = search.cost(highK);
+                }
+            }
+            eta0 = etaFor(lowK);
+        }
+        finally
+        {
+            search.close();
+        }
+
+        log.info("selected eta0=" + eta0 + " after " + search.getNumTrials() + " trials");
+        if (etaCache != null)
+        {
+            etaCache.put(cacheKey, eta0);
         }
-        eta0 = lowEta;
+    }
+
+    private static double etaFor(int k)
+    {
+        return LOW_ETA_0 * Math.pow(ETA_FACTOR, k);
+    }
 
-        log.info("selected eta0=" + eta0);
+    private String cacheKey(Model model, List<FeatureVector> sample)
+    {
+        return "linear/" + etaCache.dataKey(EtaCache.fingerprint(sample)) + "/" +
+                lossFunction.getClass().getSimpleName() + "/" + model.getClass().getSimpleName() + "/" +
+                lambda + "/" + LOW_ETA_0 + "/" + ETA_FACTOR;
+    }
 
+    // The cost after training on the sample at each candidate eta
+    private IntToDoubleFunction trialsFor(final Model model, final List<FeatureVector> sample)
+    {
+        if (model instanceof LinearModel)
+        {
+            // Number the features the sample touches from 0
+            Map<Integer, Integer> compactIndices = new HashMap<Integer, Integer>();
+            for (FeatureVector fv : sample)
+            {
+                for (Offset offset : fv.getNonZeroOffsets())
+                {
+                    if (!compactIndices.containsKey(offset.index))
+                    {
+                        compactIndices.put(offset.index, compactIndices.size());
+                    }
+                }
+            }
+            int[] indices = new int[compactIndices.size()];
+            for (Map.Entry<Integer, Integer> entry : compactIndices.entrySet())
+            {
+                indices[entry.getValue()] = entry.getKey();
+            }
+            final LinearModel compact = ((LinearModel) model).compact(indices, sample.size());
+            if (compact != null)
+            {
+                final List<FeatureVector> compactSample = new ArrayList<FeatureVector>(sample.size());
+                for (FeatureVector fv : sample)
+                {
+                    SparseVectorN x = new SparseVectorN();
+                    for (Offset offset : fv.getNonZeroOffsets())
+                    {
+                        x.add(new Offset(compactIndices.get(offset.index), offset.value));
+                    }
+                    Collections.sort(x.getNonZeroOffsets());
+                    compactSample.add(new FeatureVector(fv.getY(), x));
+                }
+                final double restMag = Math.max(0., ((WeightModel) model).mag() - compact.mag());
+                return k -> evalEta(compact, compactSample, etaFor(k), restMag);
+            }
+        }
+        return k -> evalEta(model, sample, etaFor(k), 0.);
     }
 
-    private double evalEta(Model model, List<FeatureVector> sample, double eta)
+    /**
+     * Train a copy of the model on the sample at a fixed eta, and get its cost on the sample
+     * @param model The model
+     * @param sample The sample
+     * @param eta The learning rate to try
+     * @param restMag The magnitude of any weights the model is missing, which the sample doesn't touch, so that they
+     *                only shrink by regularization
+     * @return The cost
+     */
+    private double evalEta(Model model, List<FeatureVector> sample, double eta, double restMag)
     {
         WeightModel clone = (WeightModel)model.prototype();
         for (FeatureVector fv : sample)
         {
             double y = fv.getY();
-            double fx = clone.predict(fv);
+            double fx = clone.predictForUpdate(fv);
             double dLoss = lossFunction.dLoss(fx, y);
             clone.updateWeights(fv.getX(), eta, lambda, dLoss, y);
         }
         Metrics metrics = new Metrics();
         eval(clone, sample, metrics);
-        return metrics.getCost();
+        double decay = Math.pow(1 - eta * lambda, sample.size());
+        return metrics.getCost() + 0.5 * lambda * restMag * decay * decay;
     }
 
     /**
@@ -204,6 +326,13 @@ public class SGDLearner implements Learner
      */
     @Override
     public final void evalOne(Model model, FeatureVector fv, Metrics metrics)
+    {
+        double[] scores = evalScores(model, fv, metrics);
+        metrics.addScores(fv.getY(), scores);
+    }
+
+    // Add the loss and error, and return the scores so a caller can report them itself
+    final double[] evalScores(Model model, FeatureVector fv, Metrics metrics)
     {
 
         double y = fv.getY();
@@ -244,6 +373,7 @@ public class SGDLearner implements Learner
         double loss = lossFunction.loss(fx, y);
 
         metrics.add(loss, error);
+        return scores;
     }
 
     /**
@@ -259,7 +389,18 @@ public class SGDLearner implements Learner
         {
             evalOne(model, fv, metrics);
         }
+        setCost(model, metrics);
+    }
+
+    @Override
+    public final void eval(Model model, List<FeatureVector> testingExamples, Metrics metrics, ForkJoinPool pool)
+    {
+        ParallelEvaluator.eval(this, model, testingExamples, metrics, pool);
+        setCost(model, metrics);
+    }
 
+    private void setCost(Model model, Metrics metrics)
+    {
         WeightModel weightModel = (WeightModel)model;
         double normW = weightModel.mag();
         //if (regularizedBias)
@@ -271,6 +412,94 @@ public class SGDLearner implements Learner
 
     }
 
+    @Override
+    public long getNumSeen()
+    {
+        return learningRateSchedule.getNumSeen();
+    }
+
+    @Override
+    public void setNumSeen(long numSeen)
+    {
+        learningRateSchedule.setNumSeen(numSeen);
+    }
+
+    /**
+     * Continue a previous run's learning rate schedule, instead of starting over.  Call this after
+     * {@link #create(Object)}, which resets the schedule
+     * @param eta0 The previous run's initial learning rate, which also means preprocessing is skipped.  If this is not
+     *             positive, the learner's own eta0 is kept
+     * @param numSeen The number of examples the previous run trained on
+     */
+    public void warmStart(double eta0, long numSeen)
+    {
+        if (eta0 > 0)
+        {
+            this.eta0 = eta0;
+        }
+        learningRateSchedule.reset(this.eta0, lambda);
+        learningRateSchedule.setNumSeen(numSeen);
+    }
+
+    public double getEta0()
+    {
+        return eta0;
+    }
+
+    public double getLambda()
+    {
+        return lambda;
+    }
+
+    public TrainingStats getStats()
+    {
+        return stats;
+    }
+
+    /**
+     * Report examples, features and CPU time from {@link #trainEpoch(Model, java.util.List)} into stats.  A call isn't
+     * always a whole epoch, for instance with parameter mixing, so whoever runs the epochs ends each one with
+     * {@link TrainingStats#endEpoch(double)}.  When training through an executor, give the stats to the executor instead
+     * @param stats The stats, or null to not keep any
+     */
+    public void setStats(TrainingStats stats)
+    {
+        this.stats = stats;
+    }
+
+    public int getCalibrationThreads()
+    {
+        return calibrationThreads;
+    }
+
+    /**
+     * Try this many candidate learning rates at once when picking eta0
+     * @param calibrationThreads The number of threads
+     */
+    public void setCalibrationThreads(int calibrationThreads)
+    {
+        this.calibrationThreads = calibrationThreads;
+    }
+
+    public EtaCache getEtaCache()
+    {
+        return etaCache;
+    }
+
+    /**
+     * Look up eta0 in a cache before picking it, and store it there after
+     * @param etaCache The cache, or null to always pick eta0
+     */
+    public void setEtaCache(EtaCache etaCache)
+    {
+        this.etaCache = etaCache;
+    }
+
+    public LearningRateSchedule getLearningRateSchedule()
+    {
+        return learningRateSchedule;
+    }
+
     public ModelFactory getModelFactory()
     {
         return modelFactory;
@@ -63,7 +63,8 @@ public class SGDLearnerCreator implements LearnerCreator
             type += "Factory";
         }
 
-        ModelFactory modelFactory = models.get(type);
+        // Each learner gets its own factory, so one config's model settings don't carry over to the next
+        ModelFactory modelFactory = models.get(type).getClass().getDeclaredConstructor().newInstance();
         modelFactory.configure(modelParams);
         Double lambda = (Double)learnerParams.get(LAMBDA);
         if (lambda == null)
@@ -0,0 +1,250 @@
+package org.sgdtk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Everything needed to continue training a model, not just to use it
+ *
+ * A saved model has only its weights, so a run that starts from one would begin the learning rate schedule over, at
+ * a step size meant for an untrained model.  This also keeps each learner's eta0 (so preprocessing can be skipped),
+ * lambda and schedule position, and the optimizer's accumulators, which for now means Adagrad's squared gradients.
+ * For a multi-class model, there is one of each per class.
+ *
+ * The file is a header holding that state, followed by the model in its own format.  To continue training, create
+ * the model from the learner as usual, then {@link #load(java.io.File, Learner, Model)} into both.
+ *
+ * @author dpressel
+ */
+public class TrainingState
+{
+    public static final int MAGIC = 0x53475453;
+    public static final int VERSION = 1;
+
+    private final double[] eta0;
+    private final double[] lambda;
+    private final long[] numSeen;
+    private final Model model;
+
+    private TrainingState(double[] eta0, double[] lambda, long[] numSeen, Model model)
+    {
+        this.eta0 = eta0;
+        this.lambda = lambda;
+        this.numSeen = numSeen;
+        this.model = model;
+    }
+
+    // The learners that own a schedule, one per class for one-vs-all
+    private static SGDLearner[] sgdLearners(Learner learner)
+    {
+        if (learner instanceof MultiClassSGDLearner)
+        {
+            return ((MultiClassSGDLearner) learner).learners;
+        }
+        if (learner instanceof SGDLearner)
+        {
+            return new SGDLearner[] { (SGDLearner) learner };
+        }
+        return new SGDLearner[0];
+    }
+
+    // The models that may hold optimizer state
+    private static Model[] subModels(Model model)
+    {
+        return model instanceof MultiClassWeightModel ? ((MultiClassWeightModel) model).models : new Model[] { model };
+    }
+
+    /**
+     * Capture the state of a learner and model.  This doesn't copy the model, so if training will go on, pass a
+     * {@link Model#prototype()}
+     * @param learner The learner
+     * @param model The model
+     * @return The state
+     */
+    public static TrainingState capture(Learner learner, Model model)
+    {
+        SGDLearner[] learners = sgdLearners(learner);
+        double[] eta0 = new double[learners.length];
+        double[] lambda = new double[learners.length];
+        long[] numSeen = new long[learners.length];
+        for (int i = 0; i < learners.length; ++i)
+        {
+            eta0[i] = learners[i].getEta0();
+            lambda[i] = learners[i].getLambda();
+            numSeen[i] = learners[i].getNumSeen();
+        }
+        return new TrainingState(eta0, lambda, numSeen, model);
+    }
+
+    /**
+     * Write the state.  The stream is closed afterwards
+     * @param outputStream Where to write
+     * @throws IOException
+     */
+    public void write(OutputStream outputStream) throws IOException
+    {
+        DataOutputStream output = new DataOutputStream(outputStream);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(eta0.length);
+        for (int i = 0; i < eta0.length; ++i)
+        {
+            output.writeDouble(eta0[i]);
+            output.writeDouble(lambda[i]);
+            output.writeLong(numSeen[i]);
+        }
+        Model[] models = subModels(model);
+        output.writeInt(models.length);
+        for (Model subModel : models)
+        {
+            boolean hasState = subModel instanceof AdagradLinearModel;
+            output.writeBoolean(hasState);
+            if (hasState)
+            {
+                ((AdagradLinearModel) subModel).saveOptimizerState(output);
+            }
+        }
+        output.flush();
+        // The model closes the stream
+        model.save(outputStream);
+    }
+
+    /**
+     * Read a state, loading the model part into an existing model.  The stream is closed afterwards
+     * @param inputStream Where to read
+     * @param model A model of the same type that was saved, as created by the learner
+     * @return The state, which still needs to be {@link #restore(Learner)}d to a learner
+     * @throws IOException
+     */
+    public static TrainingState read(InputStream inputStream, Model model) throws IOException
+    {
+        DataInputStream input = new DataInputStream(inputStream);
+        if (input.readInt() != MAGIC)
+        {
+            throw new IOException("Not a training state");
+        }
+        int version = input.readInt();
+        if (version != VERSION)
+        {
+            throw new IOException("Unsupported training state version " + version);
+        }
+        int numLearners = input.readInt();
+        double[] eta0 = new double[numLearners];
+        double[] lambda = new double[numLearners];
+        long[] numSeen = new long[numLearners];
+        for (int i = 0; i < numLearners; ++i)
+        {
+            eta0[i] = input.readDouble();
+            lambda[i] = input.readDouble();
+            numSeen[i] = input.readLong();
+        }
+
+        // The model can replace its sub-models when it loads, so hold on to the optimizer state until after
+        int numModels = input.readInt();
+        AdagradLinearModel[] optimizerStates = new AdagradLinearModel[numModels];
+        for (int i = 0; i < numModels; ++i)
+        {
+            if (input.readBoolean())
+            {
+                optimizerStates[i] = new AdagradLinearModel();
+                optimizerStates[i].loadOptimizerState(input);
+            }
+        }
+        model.load(input);
+
+        Model[] models = subModels(model);
+        if (models.length != numModels)
+        {
+            throw new IOException("Training state has " + numModels + " models, but the model has " + models.length);
+        }
+        for (int i = 0; i < numModels; ++i)
+        {
+            if (optimizerStates[i] == null)
+            {
+                continue;
+            }
+            if (models[i] instanceof AdagradLinearModel)
+            {
+                ((AdagradLinearModel) models[i]).copyOptimizerState(optimizerStates[i]);
+            }
+            else if (models[i] instanceof LinearModel && model instanceof MultiClassWeightModel)
+            {
+                models[i] = AdagradLinearModel.withOptimizerState((LinearModel) models[i], optimizerStates[i]);
+            }
+        }
+        return new TrainingState(eta0, lambda, numSeen, model);
+    }
+
+    /**
+     * Continue the saved learning rate schedules in a learner.  The learner's own lambda is kept, so it may be changed
+     * between runs
+     * @param learner A learner of the same type that was saved, after {@link Learner#create(Object)}
+     * @throws IOException If the learner doesn't match the state
+     */
+    public void restore(Learner learner) throws IOException
+    {
+        SGDLearner[] learners = sgdLearners(learner);
+        if (learners.length != eta0.length)
+        {
+            throw new IOException("Training state has " + eta0.length + " learners, but the learner has " + learners.length);
+        }
+        for (int i = 0; i < learners.length; ++i)
+        {
+            learners[i].warmStart(eta0[i], numSeen[i]);
+        }
+    }
+
+    /**
+     * Save a learner and model to continue training later
+     * @param file The file
+     * @param learner The learner
+     * @param model The model
+     * @throws IOException
+     */
+    public static void save(File file, Learner learner, Model model) throws IOException
+    {
+        capture(learner, model).write(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    /**
+     * Load a saved training state into a freshly created learner and model
+     * @param file The file
+     * @param learner The learner, after {@link Learner#create(Object)}
+     * @param model The model, which is loaded from the file
+     * @return The state
+     * @throws IOException
+     */
+    public static TrainingState load(File file, Learner learner, Model model) throws IOException
+    {
+        TrainingState state = read(new BufferedInputStream(new FileInputStream(file), 1 << 16), model);
+        state.restore(learner);
+        return state;
+    }
+
+    /**
+     * The schedule position, which is the same for every learner of a one-vs-all model
+     * @return The number of examples trained on, or 0 if there is no schedule
+     */
+    public long getNumSeen()
+    {
+        return numSeen.length == 0 ? 0L : numSeen[0];
+    }
+
+    public double getEta0()
+    {
+        return eta0.length == 0 ? 0. : eta0[0];
+    }
+
+    public Model getModel()
+    {
+        return model;
+    }
+}
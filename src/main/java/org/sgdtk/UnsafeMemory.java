@@ -40,6 +40,8 @@ public class UnsafeMemory
     public static final int SIZE_OF_INT = 4;
     public static final int SIZE_OF_LONG = 8;
     public static final int SIZE_OF_DOUBLE = 8;
+    public static final int SIZE_OF_FLOAT = 4;
+    public static final int MAX_SIZE_OF_VAR_INT = 5;
 
     private int pos = 0;
     private final byte[] buffer;
@@ -54,6 +56,17 @@ public class UnsafeMemory
         this.buffer = buffer;
     }
 
+    /**
+     * Wrap a buffer, starting at some position other than the beginning
+     * @param buffer The buffer
+     * @param pos The starting position
+     */
+    public UnsafeMemory(byte[] buffer, int pos)
+    {
+        this.buffer = buffer;
+        this.pos = pos;
+    }
+
     public void reset()
     {
         this.pos = 0;
@@ -82,6 +95,59 @@ public class UnsafeMemory
         return value;
     }
 
+    public void putByte(final byte value)
+    {
+        buffer[pos++] = value;
+    }
+
+    public byte getByte()
+    {
+        return buffer[pos++];
+    }
+
+    /**
+     * Write an unsigned LEB128 varint, which takes 1 byte for values under 128 and at most 5 bytes
+     * @param value The value, treated as unsigned
+     */
+    public void putVarInt(int value)
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+    }
+
+    public int getVarInt()
+    {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            byte b = buffer[pos++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+            {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    public void putFloat(final float value)
+    {
+        unsafe.putFloat(buffer, byteArrayOffset + pos, value);
+        pos += SIZE_OF_FLOAT;
+    }
+
+    public float getFloat()
+    {
+        float value = unsafe.getFloat(buffer, byteArrayOffset + pos);
+        pos += SIZE_OF_FLOAT;
+
+        return value;
+    }
+
     public void putInt(final int value)
     {
         unsafe.putInt(buffer, byteArrayOffset + pos, value);
@@ -8,6 +8,16 @@ public interface VectorN
 
     void add(Offset offset);
 
+    /**
+     * Add an index and value.  Vectors that can store these without allocating an {@link org.sgdtk.Offset} override this
+     * @param index The index
+     * @param value The value
+     */
+    default void add(int index, double value)
+    {
+        add(new Offset(index, value));
+    }
+
     void set(int i, double v);
 
     double dot(double[] vec);
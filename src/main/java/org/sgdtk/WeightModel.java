@@ -5,4 +5,16 @@ public interface WeightModel extends Model
     double mag();
 
     void updateWeights(VectorN vectorN, double eta, double lambda, double dLoss, double y);
+
+    /**
+     * The score to take the loss gradient at in training.  This is the same as {@link #predict(FeatureVector)}, except
+     * for a model such as {@link AveragedLinearModel}, which trains one set of weights and predicts with another
+     *
+     * @param fv feature vector
+     * @return The score
+     */
+    default double predictForUpdate(FeatureVector fv)
+    {
+        return predict(fv);
+    }
 }
@@ -0,0 +1,158 @@
+package org.sgdtk.exec;
+
+import org.sgdtk.Model;
+import org.sgdtk.TrainingState;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A model snapshot, along with where in training it was taken
+ *
+ * The position is the epoch and the number of examples into that epoch.  Along with the {@link TrainingState}, which
+ * holds the learning rate schedule and any optimizer state, that is what is needed to pick training back up where it
+ * left off.  The file is a small header followed by the training state.  It is written to a temporary file next to the target and renamed over it, so a crash mid-write
+ * never leaves a torn checkpoint behind, and the previous one survives.
+ *
+ * @author dpressel
+ */
+public class Checkpoint
+{
+    public static final int MAGIC = 0x5347434b;
+    public static final int VERSION = 2;
+
+    private final int epoch;
+    private final long examplesInEpoch;
+    private final TrainingState state;
+    private final long timestamp;
+
+    /**
+     * Describe a position in training
+     * @param epoch The current (0-based) epoch
+     * @param examplesInEpoch Number of examples trained on so far in this epoch
+     * @param state The learner and model state, captured from a model snapshot
+     */
+    public Checkpoint(int epoch, long examplesInEpoch, TrainingState state)
+    {
+        this(epoch, examplesInEpoch, state, System.currentTimeMillis());
+    }
+
+    private Checkpoint(int epoch, long examplesInEpoch, TrainingState state, long timestamp)
+    {
+        this.epoch = epoch;
+        this.examplesInEpoch = examplesInEpoch;
+        this.state = state;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Write a checkpoint, replacing any previous one atomically
+     * @param file The checkpoint file
+     * @throws IOException
+     */
+    public void write(File file) throws IOException
+    {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        try
+        {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(epoch);
+            output.writeLong(examplesInEpoch);
+            output.writeLong(timestamp);
+            // The state closes the stream
+            state.write(output);
+        }
+        catch (IOException ioEx)
+        {
+            output.close();
+            tmp.delete();
+            throw ioEx;
+        }
+        try
+        {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException atomicEx)
+        {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Read a checkpoint
+     * @param file The checkpoint file
+     * @param model A model of the same type that was saved, which is loaded from the checkpoint
+     * @return The position the checkpoint was taken at, and the state to {@link TrainingState#restore(org.sgdtk.Learner)}
+     * @throws IOException
+     */
+    public static Checkpoint read(File file, Model model) throws IOException
+    {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        int epoch;
+        long examplesInEpoch;
+        long timestamp;
+        try
+        {
+            if (input.readInt() != MAGIC)
+            {
+                throw new IOException("Not a checkpoint: " + file);
+            }
+            int version = input.readInt();
+            if (version != VERSION)
+            {
+                throw new IOException("Unsupported checkpoint version " + version + ": " + file);
+            }
+            epoch = input.readInt();
+            examplesInEpoch = input.readLong();
+            timestamp = input.readLong();
+        }
+        catch (IOException ioEx)
+        {
+            input.close();
+            throw ioEx;
+        }
+        return new Checkpoint(epoch, examplesInEpoch, TrainingState.read(input, model), timestamp);
+    }
+
+    public int getEpoch()
+    {
+        return epoch;
+    }
+
+    public long getExamplesInEpoch()
+    {
+        return examplesInEpoch;
+    }
+
+    public long getNumSeen()
+    {
+        return state.getNumSeen();
+    }
+
+    public TrainingState getState()
+    {
+        return state;
+    }
+
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "epoch=" + (epoch + 1) + " examples=" + examplesInEpoch + " numSeen=" + getNumSeen();
+    }
+}
@@ -0,0 +1,139 @@
+package org.sgdtk.exec;
+
+import org.sgdtk.Learner;
+import org.sgdtk.Model;
+import org.sgdtk.TrainingState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Take {@link Checkpoint}s every so many examples or seconds, without making the trainer wait on the disk
+ *
+ * This is called by the training thread after each example.  When a checkpoint is due, the model is copied with
+ * {@link org.sgdtk.Model#prototype()}, which copies the weights and any optimizer state, and the copy is written on a background
+ * thread.  If the last checkpoint is still being written when the next one comes due, the new one is put off until
+ * the write finishes rather than queued, so a slow disk means fewer checkpoints, never a stalled trainer.
+ *
+ * @author dpressel
+ */
+public class Checkpointer implements TrainingExampleListener
+{
+    private static final Logger log = LoggerFactory.getLogger(Checkpointer.class);
+
+    private final File file;
+    private final long everyExamples;
+    private final long everyNanos;
+    private final ExecutorService writer;
+    private long sinceLast;
+    private long lastNanos;
+    private Future<?> pending;
+    private volatile IOException failure;
+
+    /**
+     * Create a checkpointer.  At least one of the intervals should be positive
+     * @param file The checkpoint file
+     * @param everyExamples Checkpoint after this many examples, or 0 to not count examples
+     * @param everySec Checkpoint after this many seconds, or 0 to not watch the clock
+     */
+    public Checkpointer(File file, long everyExamples, double everySec)
+    {
+        this.file = file;
+        this.everyExamples = everyExamples;
+        this.everyNanos = (long) (everySec * 1e9);
+        this.lastNanos = System.nanoTime();
+        this.writer = Executors.newSingleThreadExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "sgdtk-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void onExample(Learner learner, Model model, int epoch, long examplesInEpoch)
+    {
+        ++sinceLast;
+        boolean due = everyExamples > 0 && sinceLast >= everyExamples;
+        // A slow trainer may not see many examples in an interval, so look at the clock on every one
+        if (!due && everyNanos > 0)
+        {
+            due = System.nanoTime() - lastNanos >= everyNanos;
+        }
+        if (!due || (pending != null && !pending.isDone()))
+        {
+            return;
+        }
+        checkpoint(learner, model, epoch, examplesInEpoch);
+    }
+
+    /**
+     * Snapshot the model now, and write it in the background
+     * @param learner The learner
+     * @param model The live model
+     * @param epoch The current (0-based) epoch
+     * @param examplesInEpoch Number of examples trained on so far in this epoch
+     */
+    public void checkpoint(Learner learner, Model model, int epoch, long examplesInEpoch)
+    {
+        final Checkpoint checkpoint = new Checkpoint(epoch, examplesInEpoch,
+                TrainingState.capture(learner, model.prototype()));
+        sinceLast = 0;
+        lastNanos = System.nanoTime();
+        pending = writer.submit(() ->
+        {
+            try
+            {
+                checkpoint.write(file);
+                failure = null;
+                log.info("Checkpoint at " + checkpoint + " written to " + file);
+            }
+            catch (IOException ioEx)
+            {
+                // Keep training, the next checkpoint may well succeed
+                log.error("Checkpoint to " + file + " failed", ioEx);
+                failure = ioEx;
+            }
+        });
+    }
+
+    /**
+     * Wait for any checkpoint being written to finish, and stop the writer
+     * @throws IOException If the most recent checkpoint failed
+     */
+    public void close() throws IOException
+    {
+        writer.shutdown();
+        if (pending != null)
+        {
+            try
+            {
+                pending.get();
+            }
+            catch (InterruptedException interruptedEx)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException(interruptedEx);
+            }
+            catch (ExecutionException executionEx)
+            {
+                throw new IOException(executionEx.getCause());
+            }
+        }
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+}
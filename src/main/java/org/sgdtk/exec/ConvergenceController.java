@@ -0,0 +1,337 @@
+package org.sgdtk.exec;
+
+import org.sgdtk.FeatureVector;
+import org.sgdtk.Learner;
+import org.sgdtk.Metrics;
+import org.sgdtk.Model;
+import org.sgdtk.struct.FeatureVectorSequence;
+import org.sgdtk.struct.SGDSequentialLearner;
+import org.sgdtk.struct.SequentialLearner;
+import org.sgdtk.struct.SequentialModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Stop training once it stops getting better, and keep the best model seen so far
+ *
+ * After each epoch, the model is scored, lower being better, and a copy of it is kept if it is the best yet.  An
+ * epoch only counts as progress if it beats the best score by more than the minimum improvement, relative to that
+ * score.  Once there have been patience epochs in a row without progress (and at least the minimum number of epochs),
+ * training has converged, and the stop action is run.  The trainer should then stop and use the best model.
+ *
+ * As a listener, the controller scores the model by evaluating it on a watch set, which is either held-out data, or
+ * for the training loss, a sample of the training data.  Give it to an {@link OverlappedTrainingRunner} or
+ * {@link OverlappedSequentialTrainingRunner} along with a stop action that cancels the runner, and the rest of the
+ * replays are passed over.  It is called on the training thread, so its evaluation holds up training, but the
+ * decision to stop has to be made before the next epoch goes ahead anyway.  A trainer running its own epochs can
+ * instead call {@link #observe(double, java.util.function.Supplier)} with whatever score it already has.
+ *
+ * For a sequential model, the score is the token error, or if the learner is an {@link SGDSequentialLearner}, the
+ * training objective (loss plus regularization) can be used instead.
+ *
+ * @author dpressel
+ */
+public class ConvergenceController implements TrainingEventListener, SequentialTrainingEventListener
+{
+    private static final Logger log = LoggerFactory.getLogger(ConvergenceController.class);
+
+    /**
+     * What to score the model by
+     */
+    public enum Criterion
+    {
+        COST, LOSS, ERROR;
+
+        /**
+         * Get the score from the metrics
+         * @param metrics Metrics from an evaluation
+         * @return The score
+         */
+        public double score(Metrics metrics)
+        {
+            return this == COST ? metrics.getCost() : this == LOSS ? metrics.getLoss() : metrics.getError();
+        }
+    }
+
+    private final List<FeatureVector> watchSet;
+    private final List<FeatureVectorSequence> sequenceWatchSet;
+    private final Criterion criterion;
+    private double minImprovement = 1e-3;
+    private int patience = 1;
+    private int minEpochs = 1;
+    private Metrics prototype = new Metrics();
+    private ForkJoinPool pool;
+    private EvaluationListener.Reporter reporter;
+    private Runnable onConverged;
+
+    private int epoch;
+    private double bestScore = Double.POSITIVE_INFINITY;
+    private int bestEpoch;
+    private Object best;
+    private int epochsWithoutProgress;
+    private volatile boolean converged;
+
+    /**
+     * Create a controller that is only given scores, through {@link #observe(double, java.util.function.Supplier)}
+     */
+    public ConvergenceController()
+    {
+        this(null, null, Criterion.ERROR);
+    }
+
+    /**
+     * Create a controller that evaluates a linear model on a watch set after each epoch
+     * @param watchSet Held-out data, or a sample of the training data
+     * @param criterion What to score the model by
+     */
+    public ConvergenceController(List<FeatureVector> watchSet, Criterion criterion)
+    {
+        this(watchSet, null, criterion);
+    }
+
+    private ConvergenceController(List<FeatureVector> watchSet, List<FeatureVectorSequence> sequenceWatchSet,
+                                  Criterion criterion)
+    {
+        this.watchSet = watchSet;
+        this.sequenceWatchSet = sequenceWatchSet;
+        this.criterion = criterion;
+    }
+
+    /**
+     * Create a controller that evaluates a sequential model on a watch set after each epoch
+     * @param watchSet Held-out data, or a sample of the training data
+     * @param criterion What to score the model by.  Anything but error needs an {@link SGDSequentialLearner}, and is
+     *                  the training objective on the watch set, with or without regularization
+     * @return The controller
+     */
+    public static ConvergenceController forSequences(List<FeatureVectorSequence> watchSet, Criterion criterion)
+    {
+        return new ConvergenceController(null, watchSet, criterion);
+    }
+
+    /**
+     * Take the score of an epoch's model
+     * @param score The score, lower being better
+     * @param snapshot Copies the model, only called if this is the best score so far
+     * @return true if training has converged
+     */
+    public synchronized boolean observe(double score, Supplier<?> snapshot)
+    {
+        ++epoch;
+        boolean progress = false;
+        if (score < bestScore)
+        {
+            progress = bestScore == Double.POSITIVE_INFINITY || bestScore - score > minImprovement * Math.abs(bestScore);
+            bestScore = score;
+            bestEpoch = epoch;
+            best = snapshot.get();
+        }
+        epochsWithoutProgress = progress ? 0 : epochsWithoutProgress + 1;
+        log.info("Epoch " + epoch + " score=" + score + " best=" + bestScore + " at epoch " + bestEpoch);
+        if (!converged && epoch >= minEpochs && epochsWithoutProgress >= patience)
+        {
+            converged = true;
+            log.info("Converged after " + epoch + " epochs, best was epoch " + bestEpoch);
+            if (onConverged != null)
+            {
+                onConverged.run();
+            }
+        }
+        return converged;
+    }
+
+    @Override
+    public void onEpochEnd(Learner learner, Model model, double epochSeconds)
+    {
+        if (converged)
+        {
+            return;
+        }
+        Metrics metrics = prototype.emptyCopy();
+        if (pool == null)
+        {
+            learner.eval(model, watchSet, metrics);
+        }
+        else
+        {
+            learner.eval(model, watchSet, metrics, pool);
+        }
+        if (reporter != null)
+        {
+            reporter.report(epoch + 1, metrics);
+        }
+        observe(criterion.score(metrics), model::prototype);
+    }
+
+    @Override
+    public void onEpochEnd(SequentialLearner learner, SequentialModel model, double epochSeconds)
+    {
+        if (converged)
+        {
+            return;
+        }
+        observe(score(learner, model), model::prototype);
+    }
+
+    /**
+     * Score a sequential model on the watch set
+     * @param learner The learner
+     * @param model The model
+     * @return The score
+     */
+    public double score(SequentialLearner learner, SequentialModel model)
+    {
+        if (criterion != Criterion.ERROR && learner instanceof SGDSequentialLearner)
+        {
+            return ((SGDSequentialLearner) learner).objective(model, sequenceWatchSet, criterion == Criterion.COST);
+        }
+        Metrics metrics = prototype.emptyCopy();
+        learner.eval(model, sequenceWatchSet, metrics);
+        if (reporter != null)
+        {
+            reporter.report(epoch + 1, metrics);
+        }
+        return metrics.getError();
+    }
+
+    public boolean isConverged()
+    {
+        return converged;
+    }
+
+    public synchronized double getBestScore()
+    {
+        return bestScore;
+    }
+
+    /**
+     * The (1-based) epoch of the best model
+     * @return The epoch, or 0 if there hasn't been one
+     */
+    public synchronized int getBestEpoch()
+    {
+        return bestEpoch;
+    }
+
+    /**
+     * The best linear model so far
+     * @return A copy of the model, or null if there hasn't been one
+     */
+    public synchronized Model getBestModel()
+    {
+        return (Model) best;
+    }
+
+    /**
+     * The best sequential model so far
+     * @return A copy of the model, or null if there hasn't been one
+     */
+    public synchronized SequentialModel getBestSequentialModel()
+    {
+        return (SequentialModel) best;
+    }
+
+    public double getMinImprovement()
+    {
+        return minImprovement;
+    }
+
+    /**
+     * The smallest improvement that counts as progress
+     * @param minImprovement A fraction of the best score so far
+     */
+    public void setMinImprovement(double minImprovement)
+    {
+        this.minImprovement = minImprovement;
+    }
+
+    public int getPatience()
+    {
+        return patience;
+    }
+
+    /**
+     * Stop after this many epochs in a row without progress
+     * @param patience The number of epochs
+     */
+    public void setPatience(int patience)
+    {
+        this.patience = patience;
+    }
+
+    public int getMinEpochs()
+    {
+        return minEpochs;
+    }
+
+    /**
+     * Never stop before this many epochs
+     * @param minEpochs The number of epochs
+     */
+    public void setMinEpochs(int minEpochs)
+    {
+        this.minEpochs = minEpochs;
+    }
+
+    public Metrics getPrototype()
+    {
+        return prototype;
+    }
+
+    /**
+     * Evaluate into a kind of metrics other than the plain one, as for
+     * {@link EvaluationListener#setPrototype(Metrics)}
+     * @param prototype An empty metrics
+     */
+    public void setPrototype(Metrics prototype)
+    {
+        this.prototype = prototype;
+    }
+
+    public ForkJoinPool getPool()
+    {
+        return pool;
+    }
+
+    /**
+     * Evaluate a linear model in parallel on a pool
+     * @param pool The pool, or null to evaluate on a single thread
+     */
+    public void setPool(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    public EvaluationListener.Reporter getReporter()
+    {
+        return reporter;
+    }
+
+    /**
+     * Pass on the metrics of each evaluation, so that the watch set doesn't have to be evaluated again to report them
+     * @param reporter The reporter, or null
+     */
+    public void setReporter(EvaluationListener.Reporter reporter)
+    {
+        this.reporter = reporter;
+    }
+
+    public Runnable getOnConverged()
+    {
+        return onConverged;
+    }
+
+    /**
+     * Run this once training converges, for instance to cancel a runner.  It is run on the thread that observed the
+     * score
+     * @param onConverged The stop action, or null
+     */
+    public void setOnConverged(Runnable onConverged)
+    {
+        this.onConverged = onConverged;
+    }
+}
@@ -0,0 +1,341 @@
+package org.sgdtk.exec;
+
+import org.sgdtk.FeatureVector;
+import org.sgdtk.Learner;
+import org.sgdtk.Metrics;
+import org.sgdtk.Model;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.RandomAccess;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * K-fold cross-validation, training the folds at the same time
+ *
+ * The examples are dealt out to the folds by a seeded shuffle of their indices, so the folds are the same from run to
+ * run for the same seed and number of examples.  Each fold trains a new learner and model on the examples in the
+ * other folds and evaluates it on its own.  The folds are views on the dataset by index, so the feature vectors are
+ * never copied, and all the folds share them.  The learners only read them, so the folds can all train at once, each
+ * on its own thread, shuffling its own indices each epoch.
+ *
+ * The result has each fold's metrics, the metrics pooled over all of the held-out examples, and the mean and standard
+ * deviation of the fold scores.
+ *
+ * @author dpressel
+ */
+public class CrossValidator
+{
+    private static final Logger log = LoggerFactory.getLogger(CrossValidator.class);
+
+    /**
+     * Makes a new learner for each fold
+     */
+    public interface LearnerSupplier
+    {
+        /**
+         * Create the learner for a fold
+         * @param fold The fold, from 0
+         * @return A new learner, not shared with any other fold
+         * @throws Exception
+         */
+        Learner get(int fold) throws Exception;
+    }
+
+    /**
+     * The metrics from each fold, and a summary of them
+     */
+    public static class Result
+    {
+        private final List<Metrics> folds;
+        private final Metrics pooled;
+
+        Result(List<Metrics> folds, Metrics pooled)
+        {
+            this.folds = folds;
+            this.pooled = pooled;
+        }
+
+        /**
+         * Each fold's metrics on its held-out examples
+         * @return The metrics, in fold order
+         */
+        public List<Metrics> getFolds()
+        {
+            return folds;
+        }
+
+        /**
+         * The metrics over all of the held-out examples, as if they were one test set.  The cost is the mean of the
+         * folds' costs
+         * @return The pooled metrics
+         */
+        public Metrics getPooled()
+        {
+            return pooled;
+        }
+
+        /**
+         * The mean of a score over the folds
+         * @param criterion The score
+         * @return The mean
+         */
+        public double mean(ConvergenceController.Criterion criterion)
+        {
+            double sum = 0.;
+            for (Metrics metrics : folds)
+            {
+                sum += criterion.score(metrics);
+            }
+            return sum / folds.size();
+        }
+
+        /**
+         * The sample standard deviation of a score over the folds
+         * @param criterion The score
+         * @return The standard deviation, or 0 for a single fold
+         */
+        public double std(ConvergenceController.Criterion criterion)
+        {
+            if (folds.size() < 2)
+            {
+                return 0.;
+            }
+            double mean = mean(criterion);
+            double sumSq = 0.;
+            for (Metrics metrics : folds)
+            {
+                double d = criterion.score(metrics) - mean;
+                sumSq += d * d;
+            }
+            return Math.sqrt(sumSq / (folds.size() - 1));
+        }
+    }
+
+    // A list of examples picked out of another by index
+    static class IndexedView extends AbstractList<FeatureVector> implements RandomAccess
+    {
+        private final List<FeatureVector> examples;
+        private final int[] indices;
+
+        IndexedView(List<FeatureVector> examples, int[] indices)
+        {
+            this.examples = examples;
+            this.indices = indices;
+        }
+
+        @Override
+        public FeatureVector get(int i)
+        {
+            return examples.get(indices[i]);
+        }
+
+        @Override
+        public int size()
+        {
+            return indices.length;
+        }
+    }
+
+    private final int numFolds;
+    private int numEpochs = 5;
+    private int numThreads;
+    private long seed = 1L;
+    private Metrics prototype = new Metrics();
+
+    /**
+     * Create a cross-validator
+     * @param numFolds The number of folds, at least 2
+     */
+    public CrossValidator(int numFolds)
+    {
+        if (numFolds < 2)
+        {
+            throw new IllegalArgumentException("Cross-validation needs at least 2 folds");
+        }
+        this.numFolds = numFolds;
+        this.numThreads = numFolds;
+    }
+
+    /**
+     * Deal out examples to the folds.  The folds differ in size by at most one
+     * @param numExamples The number of examples
+     * @param numFolds The number of folds
+     * @param seed The seed for the shuffle
+     * @return The fold of each example
+     */
+    public static int[] assignFolds(int numExamples, int numFolds, long seed)
+    {
+        int[] order = new int[numExamples];
+        for (int i = 0; i < numExamples; ++i)
+        {
+            order[i] = i;
+        }
+        shuffle(order, new Random(seed));
+        int[] folds = new int[numExamples];
+        for (int i = 0; i < numExamples; ++i)
+        {
+            folds[order[i]] = i % numFolds;
+        }
+        return folds;
+    }
+
+    private static void shuffle(int[] indices, Random random)
+    {
+        for (int i = indices.length - 1; i > 0; --i)
+        {
+            int j = random.nextInt(i + 1);
+            int t = indices[i];
+            indices[i] = indices[j];
+            indices[j] = t;
+        }
+    }
+
+    /**
+     * Cross-validate on a dataset
+     * @param examples The dataset, which is only read
+     * @param learners Makes each fold's learner
+     * @param featureVectorWidth The width of the models to create
+     * @return The metrics
+     * @throws Exception If any fold fails
+     */
+    public Result run(final List<FeatureVector> examples, final LearnerSupplier learners, final int featureVectorWidth) throws Exception
+    {
+        if (examples.size() < numFolds)
+        {
+            throw new IllegalArgumentException("Need at least " + numFolds + " examples for " + numFolds + " folds");
+        }
+        final int[] folds = assignFolds(examples.size(), numFolds, seed);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(numThreads, numFolds));
+        try
+        {
+            List<Future<Metrics>> futures = new ArrayList<Future<Metrics>>(numFolds);
+            for (int i = 0; i < numFolds; ++i)
+            {
+                final int fold = i;
+                futures.add(pool.submit(() -> runFold(examples, folds, fold, learners.get(fold), featureVectorWidth)));
+            }
+            List<Metrics> results = new ArrayList<Metrics>(numFolds);
+            Metrics pooled = prototype.emptyCopy();
+            double cost = 0.;
+            for (Future<Metrics> future : futures)
+            {
+                Metrics metrics = future.get();
+                results.add(metrics);
+                pooled.merge(metrics);
+                cost += metrics.getCost();
+            }
+            pooled.setCost(cost / numFolds);
+            return new Result(Collections.unmodifiableList(results), pooled);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    private Metrics runFold(List<FeatureVector> examples, int[] folds, int fold, Learner learner, int featureVectorWidth)
+            throws Exception
+    {
+        int numHeldOut = 0;
+        for (int f : folds)
+        {
+            if (f == fold)
+            {
+                ++numHeldOut;
+            }
+        }
+        int[] trainIndices = new int[folds.length - numHeldOut];
+        int[] heldOutIndices = new int[numHeldOut];
+        for (int i = 0, t = 0, h = 0; i < folds.length; ++i)
+        {
+            if (folds[i] == fold)
+            {
+                heldOutIndices[h++] = i;
+            }
+            else
+            {
+                trainIndices[t++] = i;
+            }
+        }
+
+        Model model = learner.create(featureVectorWidth);
+        List<FeatureVector> trainingSet = new IndexedView(examples, trainIndices);
+        Random random = new Random(seed + fold + 1);
+        for (int epoch = 0; epoch < numEpochs; ++epoch)
+        {
+            shuffle(trainIndices, random);
+            learner.trainEpoch(model, trainingSet);
+        }
+        Metrics metrics = prototype.emptyCopy();
+        learner.eval(model, new IndexedView(examples, heldOutIndices), metrics);
+        log.info("Fold " + (fold + 1) + " of " + numFolds + ": trained on " + trainIndices.length + ", error " +
+                metrics.getError() + " on " + numHeldOut);
+        return metrics;
+    }
+
+    public int getNumFolds()
+    {
+        return numFolds;
+    }
+
+    public int getNumEpochs()
+    {
+        return numEpochs;
+    }
+
+    public void setNumEpochs(int numEpochs)
+    {
+        this.numEpochs = numEpochs;
+    }
+
+    public int getNumThreads()
+    {
+        return numThreads;
+    }
+
+    /**
+     * Train this many folds at once
+     * @param numThreads The number of threads, by default one per fold
+     */
+    public void setNumThreads(int numThreads)
+    {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    /**
+     * Seed for dealing out the folds, and for each fold's shuffling
+     * @param seed The seed
+     */
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    public Metrics getPrototype()
+    {
+        return prototype;
+    }
+
+    /**
+     * Evaluate into a kind of metrics other than the plain one, as for
+     * {@link EvaluationListener#setPrototype(Metrics)}
+     * @param prototype An empty metrics
+     */
+    public void setPrototype(Metrics prototype)
+    {
+        this.prototype = prototype;
+    }
+}
@@ -8,12 +8,20 @@ import org.sgdtk.io.CRFXXTemplateLoader;
 import org.sgdtk.struct.*;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  *  Example to mark up and evaluate a CONLL2000 test file using SequentialLearner.  Based loosely on crfsgd.cpp
  *  with -t option
  *
+ *  Along with the marked up file, this prints chunk precision, recall and F1 per type, as conlleval would on the
+ *  output, using {@link ChunkMetrics}.  With more than one thread, the file is split into contiguous blocks, each
+ *  thread tags and scores its own, and the output is written in the original order
+ *
  *  @author dpressel
  *
  */
@@ -37,6 +45,9 @@ public class EvalStruct
         @Parameter(description = "Template file", names = {"--template" })
         public String templateFile;
 
+        @Parameter(description = "Number of threads to evaluate on", names = {"--threads"})
+        public Integer threads = 1;
+
     }
 
     public static void evalAndWrite(PrintStream os, SequentialLearner learner, SequentialModel model, FeatureVectorSequence sequence, FeatureNameEncoder labelEncoder, Metrics metrics)
@@ -61,6 +72,53 @@ public class EvalStruct
 
     }
 
+    /**
+     * Mark up and evaluate a set of sequences on several threads.  The model is only read, so the threads share it
+     * @param os Where to write the marked up sequences, in their original order
+     * @param learner The learner
+     * @param model The model
+     * @param data The sequences
+     * @param labelEncoder The label encoder
+     * @param metrics The metrics to add every thread's results to
+     * @param numThreads The number of threads
+     * @throws Exception If a thread failed
+     */
+    public static void evalAndWrite(PrintStream os, final SequentialLearner learner, final SequentialModel model, List<FeatureVectorSequence> data, final FeatureNameEncoder labelEncoder, Metrics metrics, int numThreads) throws Exception
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try
+        {
+            List<Future<Metrics>> results = new ArrayList<Future<Metrics>>(numThreads);
+            List<ByteArrayOutputStream> outputs = new ArrayList<ByteArrayOutputStream>(numThreads);
+            int sz = data.size();
+            for (int i = 0; i < numThreads; ++i)
+            {
+                final List<FeatureVectorSequence> block = data.subList((int) ((long) sz * i / numThreads), (int) ((long) sz * (i + 1) / numThreads));
+                final Metrics blockMetrics = metrics.emptyCopy();
+                final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                outputs.add(output);
+                results.add(pool.submit(() ->
+                {
+                    PrintStream blockOs = new PrintStream(output);
+                    for (FeatureVectorSequence sequence : block)
+                    {
+                        evalAndWrite(blockOs, learner, model, sequence, labelEncoder, blockMetrics);
+                    }
+                    blockOs.flush();
+                    return blockMetrics;
+                }));
+            }
+            for (int i = 0; i < numThreads; ++i)
+            {
+                metrics.merge(results.get(i).get());
+                outputs.get(i).writeTo(os);
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
 
     public static void main(String[] args)
     {
@@ -82,15 +140,24 @@ public class EvalStruct
             jointFeatureEncoder.load(new FileInputStream(params.featureMap));
             List<FeatureVectorSequence> data = ExecUtils.load(params.eval, template, jointFeatureEncoder, true);
 
-            Metrics metrics = new Metrics();
             SGDSequentialLearner evaluator = new SGDSequentialLearner();
             FeatureNameEncoder labelEncoder = jointFeatureEncoder.getLabelEncoder();
+            ChunkMetrics metrics = new ChunkMetrics(labelEncoder);
             PrintStream os = params.output == null ? System.out : new PrintStream(new FileOutputStream(params.output));
-            for (FeatureVectorSequence sequence : data)
+            if (params.threads > 1)
+            {
+                evalAndWrite(os, evaluator, model, data, labelEncoder, metrics, params.threads);
+            }
+            else
             {
-                evalAndWrite(os, evaluator, model, sequence, labelEncoder, metrics);
+                for (FeatureVectorSequence sequence : data)
+                {
+                    evalAndWrite(os, evaluator, model, sequence, labelEncoder, metrics);
+                }
             }
+            os.flush();
 
+            System.out.print(metrics.report());
             double pctError = metrics.getError() * 100.;
             System.out.println(String.format("error=%.2f%%", pctError));
 
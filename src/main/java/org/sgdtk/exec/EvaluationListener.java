@@ -0,0 +1,164 @@
+package org.sgdtk.exec;
+
+import org.sgdtk.FeatureVector;
+import org.sgdtk.Learner;
+import org.sgdtk.Metrics;
+import org.sgdtk.Model;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluate on a held-out set at the end of each epoch
+ *
+ * The listener is called on the training thread, so by default the trainer waits for the evaluation.  With a pool,
+ * the evaluation is split across its threads (see {@link org.sgdtk.ParallelEvaluator}).  With async set, the model is
+ * copied with {@link Model#prototype()} and evaluated in the background, so the trainer only waits for the copy and
+ * goes straight on with the next epoch.  Background evaluations run one at a time, in epoch order, so their reports
+ * come out in order too.
+ *
+ * @author dpressel
+ */
+public class EvaluationListener implements TrainingEventListener
+{
+    private static final Logger log = LoggerFactory.getLogger(EvaluationListener.class);
+
+    /**
+     * Gets the metrics for each epoch
+     */
+    public interface Reporter
+    {
+        /**
+         * Called with an epoch's metrics, on the training thread or, if async, the evaluation thread
+         * @param epoch The (1-based) epoch
+         * @param metrics The metrics
+         */
+        void report(int epoch, Metrics metrics);
+    }
+
+    private final List<FeatureVector> evalSet;
+    private final Reporter reporter;
+    private ForkJoinPool pool;
+    private Metrics prototype = new Metrics();
+    private boolean async;
+    private ExecutorService evaluator;
+    private int epoch;
+
+    /**
+     * Create a listener
+     * @param evalSet The held-out examples, which are not changed
+     * @param reporter Gets the results
+     */
+    public EvaluationListener(List<FeatureVector> evalSet, Reporter reporter)
+    {
+        this.evalSet = evalSet;
+        this.reporter = reporter;
+    }
+
+    @Override
+    public void onEpochEnd(Learner learner, Model model, double epochSeconds)
+    {
+        final int thisEpoch = ++epoch;
+        if (!async)
+        {
+            evaluate(learner, model, thisEpoch);
+            return;
+        }
+        if (evaluator == null)
+        {
+            evaluator = Executors.newSingleThreadExecutor(runnable ->
+            {
+                Thread thread = new Thread(runnable, "sgdtk-eval");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        final Model snapshot = model.prototype();
+        evaluator.submit(() ->
+        {
+            try
+            {
+                evaluate(learner, snapshot, thisEpoch);
+            }
+            catch (RuntimeException runtimeEx)
+            {
+                log.error("Evaluation of epoch " + thisEpoch + " failed", runtimeEx);
+            }
+        });
+    }
+
+    private void evaluate(Learner learner, Model model, int thisEpoch)
+    {
+        Metrics metrics = prototype.emptyCopy();
+        if (pool == null)
+        {
+            learner.eval(model, evalSet, metrics);
+        }
+        else
+        {
+            learner.eval(model, evalSet, metrics, pool);
+        }
+        reporter.report(thisEpoch, metrics);
+    }
+
+    /**
+     * Wait for any background evaluations to finish
+     * @throws InterruptedException
+     */
+    public void await() throws InterruptedException
+    {
+        if (evaluator != null)
+        {
+            evaluator.shutdown();
+            evaluator.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public ForkJoinPool getPool()
+    {
+        return pool;
+    }
+
+    /**
+     * Evaluate in parallel on a pool
+     * @param pool The pool, or null to evaluate on a single thread
+     */
+    public void setPool(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    public Metrics getPrototype()
+    {
+        return prototype;
+    }
+
+    /**
+     * Evaluate into a kind of metrics other than the plain one, for instance
+     * {@link org.sgdtk.ClassificationMetrics}.  Each epoch gets an {@link Metrics#emptyCopy()} of it
+     * @param prototype An empty metrics
+     */
+    public void setPrototype(Metrics prototype)
+    {
+        this.prototype = prototype;
+    }
+
+    public boolean isAsync()
+    {
+        return async;
+    }
+
+    /**
+     * Evaluate a copy of the model in the background, instead of stalling training
+     * @param async Whether to evaluate in the background
+     */
+    public void setAsync(boolean async)
+    {
+        this.async = async;
+    }
+}
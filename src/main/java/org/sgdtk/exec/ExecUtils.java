@@ -5,10 +5,16 @@ import org.sgdtk.io.CONLLFileSentenceProvider;
 import org.sgdtk.io.SequenceToFeatures;
 import org.sgdtk.struct.*;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
@@ -26,6 +32,69 @@ public final class ExecUtils
         return odds / (odds + 1.0);
     }
 
+    /**
+     * Expand an input specification into a list of files.  The spec is a comma-separated list, where each entry is
+     * a file, a directory, or a glob in its last path component (e.g. <code>out/part-*</code>).  A directory means all
+     * of the files in it, except hidden files and markers like <code>_SUCCESS</code>, which is what Hadoop and Spark
+     * jobs leave behind.  Matches within a directory or glob are sorted by name
+     * @param spec The input specification
+     * @return The files, in order
+     * @throws IOException If an entry matches nothing
+     */
+    public static List<File> expandInputs(String spec) throws IOException
+    {
+        List<File> files = new ArrayList<File>();
+        for (String entry : spec.split(","))
+        {
+            entry = entry.trim();
+            if (entry.isEmpty())
+            {
+                continue;
+            }
+            File file = new File(entry);
+            String name = file.getName();
+            boolean isGlob = name.indexOf('*') >= 0 || name.indexOf('?') >= 0 || name.indexOf('[') >= 0;
+            if (!isGlob && !file.isDirectory())
+            {
+                if (!file.isFile())
+                {
+                    throw new IOException("No such input: " + entry);
+                }
+                files.add(file);
+                continue;
+            }
+
+            File dir = isGlob ? file.getAbsoluteFile().getParentFile() : file;
+            PathMatcher matcher = isGlob ? FileSystems.getDefault().getPathMatcher("glob:" + name) : null;
+            File[] children = dir.listFiles();
+            if (children == null)
+            {
+                throw new IOException("No such input: " + entry);
+            }
+            Arrays.sort(children);
+            int found = 0;
+            for (File child : children)
+            {
+                String childName = child.getName();
+                if (!child.isFile() || childName.startsWith(".") || childName.startsWith("_"))
+                {
+                    continue;
+                }
+                if (isGlob && !matcher.matches(child.toPath().getFileName()))
+                {
+                    continue;
+                }
+                files.add(child);
+                ++found;
+            }
+            if (found == 0)
+            {
+                throw new IOException("No input matched: " + entry);
+            }
+        }
+        return files;
+    }
+
     public static int nextPowerOf2(int n)
     {
         n--;
@@ -123,5 +192,89 @@ public final class ExecUtils
         return new JointFixedFeatureNameEncoder(ftable, minValue, attestedLabels);
     }
 
+    /**
+     * Start a joint encoder from a CONLL2000 training file without holding a frequency table in memory.
+     * This is the first of two streaming passes: features are counted into a {@link org.sgdtk.CountMinSketch}, and
+     * the labels are collected.  The returned encoder is still admitting features, so it must be driven through
+     * the data once more (e.g. by {@link #cacheSequences(String, FeatureTemplate, JointFixedFeatureNameEncoder, java.io.File)})
+     * and then frozen before its length is used to size a model.
+     *
+     * @param trainingFileName This is a CONLL2000 file to read
+     * @param minValue Min occurs for each feature
+     * @param featureTemplate This is a CRF++ style template representation
+     * @param sketchWidth Counters per sketch row
+     * @param sketchDepth Sketch rows
+     * @return A joint encoder which admits features on lookup
+     * @throws IOException
+     */
+    public static JointFixedFeatureNameEncoder createJointEncoder(String trainingFileName, int minValue,
+                                                                  FeatureTemplate featureTemplate,
+                                                                  int sketchWidth, int sketchDepth) throws IOException
+    {
+        CONLLFileSentenceProvider sequenceProvider = new CONLLFileSentenceProvider(new File(trainingFileName));
+
+        CountMinSketch counts = new CountMinSketch(sketchWidth, sketchDepth);
+        LazyFeatureDictionaryEncoder attestedLabels = new LazyFeatureDictionaryEncoder();
+        List<State> states;
+        while ((states = sequenceProvider.next()) != null)
+        {
+            for (int pos = 0, nPos = states.size(); pos < nPos; ++pos)
+            {
+                attestedLabels.lookupOrCreate(states.get(pos).getLabel());
+                for (FeatureExtractorInterface extractor : featureTemplate.getExtractors())
+                {
+                    String[] features = extractor.run(states, pos);
+                    if (features == null)
+                    {
+                        continue;
+                    }
+                    for (String feature : features)
+                    {
+                        counts.add(feature);
+                    }
+                }
+            }
+        }
+        sequenceProvider.close();
+
+        return new JointFixedFeatureNameEncoder(counts, minValue, attestedLabels);
+    }
+
+    /**
+     * Encode each sequence in a CONLL2000 file and append it to a binary cache.  Training passes can then stream
+     * the cache back with a {@link org.sgdtk.io.SequenceCacheFeatureProvider} instead of holding the whole set in
+     * memory or re-running feature extraction.
+     *
+     * @param fileName This is a CONLL2000 file to read
+     * @param template This is a CRF++ style template representation
+     * @param featureEncoder A joint feature encoder
+     * @param cacheFile The file to write
+     * @return The number of sequences written
+     * @throws IOException
+     */
+    public static int cacheSequences(String fileName, FeatureTemplate template,
+                                     JointFixedFeatureNameEncoder featureEncoder, File cacheFile) throws IOException
+    {
+        CONLLFileSentenceProvider sequenceProvider = new CONLLFileSentenceProvider(new File(fileName));
+        SequentialFeatureProvider featureProvider = new SequenceToFeatures(sequenceProvider, template, featureEncoder, false);
+
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile), 1 << 16));
+        byte[] buffer = null;
+        int n = 0;
+        FeatureVectorSequence sequence;
+        while ((sequence = featureProvider.next()) != null)
+        {
+            int numBytes = sequence.getSerializationSize();
+            if (buffer == null || numBytes > buffer.length)
+            {
+                buffer = new byte[nextPowerOf2(numBytes)];
+            }
+            sequence.serializeTo(output, buffer);
+            ++n;
+        }
+        output.close();
+        sequenceProvider.close();
+        return n;
+    }
 
 }
@@ -0,0 +1,309 @@
+package org.sgdtk.exec;
+
+import org.sgdtk.FeatureVector;
+import org.sgdtk.Learner;
+import org.sgdtk.Model;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Train and serve the same model at once, for labels that keep streaming in
+ *
+ * A single training thread consumes labeled examples from a {@link RingBufferTrainingExecutor} and updates the live
+ * model, exactly as in {@link OverlappedTrainingRunner}, except that there are no epochs: it trains on whatever
+ * arrives, for as long as the server runs.  Any number of other threads can add examples with
+ * {@link #train(org.sgdtk.FeatureVector)}.
+ *
+ * Predictions never touch the live model.  Every so many examples or seconds, the training thread copies it with
+ * {@link Model#prototype()} and swaps the copy in as the current {@link Snapshot}.  Readers just fetch the current
+ * snapshot, which is a single volatile read, and score against it, so they never block on the trainer or on each
+ * other, and every prediction made from one snapshot sees the same weights.  A snapshot is never changed once
+ * published, and an old one goes away once no reader holds on to it.
+ *
+ * The copy is the cost of this: the trainer stops for as long as it takes to copy the weights, so for a large model,
+ * publish in the thousands of examples, not every few.  {@link #flush()} publishes right away, once everything added
+ * before it has been trained on.
+ *
+ * The learner must have its eta0 set, or be warm started from a {@link org.sgdtk.TrainingState}, since there is no
+ * sample to calibrate on.
+ *
+ * @author dpressel
+ */
+public class OnlineTrainingServer implements TrainingExampleListener, TrainingEventListener
+{
+    private static final Logger log = LoggerFactory.getLogger(OnlineTrainingServer.class);
+
+    /**
+     * An immutable copy of the model, and how much training went into it
+     */
+    public static class Snapshot
+    {
+        private final Model model;
+        private final long version;
+        private final long numTrained;
+        private final long timestamp;
+
+        Snapshot(Model model, long version, long numTrained)
+        {
+            this.model = model;
+            this.version = version;
+            this.numTrained = numTrained;
+            this.timestamp = System.currentTimeMillis();
+        }
+
+        /**
+         * The model.  This is shared by every reader of this snapshot, so it must only be used to predict
+         * @return The model
+         */
+        public Model getModel()
+        {
+            return model;
+        }
+
+        public long getVersion()
+        {
+            return version;
+        }
+
+        public long getNumTrained()
+        {
+            return numTrained;
+        }
+
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+    }
+
+    private final Learner learner;
+    private final Model model;
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+    private final Object flushLock = new Object();
+    private RingBufferTrainingExecutor trainEx;
+    private long publishEvery = 10000;
+    private double publishSec = 1.;
+    private int bufferSz = 1024;
+    private RingBufferTrainingExecutor.Strategy strategy = RingBufferTrainingExecutor.Strategy.BLOCKING;
+    private volatile long numTrained;
+    private long sinceLast;
+    private long lastNanos;
+    private long flushRequests;
+    private long flushesDone;
+
+    /**
+     * Create a server
+     * @param learner The learner
+     * @param model The model to start from, either newly created by the learner or loaded.  This becomes the live
+     *              model, so the caller should not use it once the server is started
+     */
+    public OnlineTrainingServer(Learner learner, Model model)
+    {
+        this.learner = learner;
+        this.model = model;
+    }
+
+    /**
+     * Publish the first snapshot and start the training thread
+     */
+    public void start()
+    {
+        current.set(new Snapshot(model.prototype(), 0, 0));
+        lastNanos = System.nanoTime();
+        trainEx = new RingBufferTrainingExecutor(strategy, true);
+        trainEx.addExampleListener(this);
+        trainEx.initialize(learner, model, Integer.MAX_VALUE, null, bufferSz,
+                Collections.<TrainingEventListener>singletonList(this));
+        trainEx.start();
+    }
+
+    /**
+     * Queue a labeled example for training.  This is safe to call from any number of threads, and blocks only if the
+     * trainer has fallen a full buffer behind.  The vector is trained on later, so the caller must not reuse it
+     * @param fv A labeled feature vector
+     */
+    public void train(FeatureVector fv)
+    {
+        trainEx.add(fv);
+    }
+
+    /**
+     * Queue several labeled examples with a single claim on the buffer
+     * @param fvs Labeled feature vectors
+     * @param n The number of vectors to take from the front of the array
+     */
+    public void train(FeatureVector[] fvs, int n)
+    {
+        trainEx.add(fvs, n);
+    }
+
+    /**
+     * Get the most recently published snapshot.  This never blocks
+     * @return The snapshot
+     */
+    public Snapshot getSnapshot()
+    {
+        return current.get();
+    }
+
+    /**
+     * Predict with the current snapshot
+     * @param fv A feature vector
+     * @return The prediction
+     */
+    public double predict(FeatureVector fv)
+    {
+        return current.get().getModel().predict(fv);
+    }
+
+    /**
+     * Score with the current snapshot
+     * @param fv A feature vector
+     * @return The scores
+     */
+    public double[] score(FeatureVector fv)
+    {
+        return current.get().getModel().score(fv);
+    }
+
+    /**
+     * Publish a snapshot that includes every example added before this call, and wait for it
+     * @throws InterruptedException
+     */
+    public void flush() throws InterruptedException
+    {
+        long ticket;
+        // Hand out tickets in the same order as the markers go onto the buffer
+        synchronized (this)
+        {
+            ticket = ++flushRequests;
+            trainEx.publishEndOfEpoch(trainEx.claim());
+        }
+        synchronized (flushLock)
+        {
+            while (flushesDone < ticket)
+            {
+                flushLock.wait();
+            }
+        }
+    }
+
+    /**
+     * Train on everything queued, publish it, and stop the training thread
+     * @return The final snapshot
+     * @throws InterruptedException
+     */
+    public Snapshot stop() throws InterruptedException
+    {
+        flush();
+        trainEx.kill();
+        return current.get();
+    }
+
+    // Swap in a copy of the live model, on the training thread
+    private void publish()
+    {
+        Snapshot last = current.get();
+        current.set(new Snapshot(model.prototype(), last.getVersion() + 1, numTrained));
+        sinceLast = 0;
+        lastNanos = System.nanoTime();
+    }
+
+    @Override
+    public void onExample(Learner learner, Model model, int epoch, long examplesInEpoch)
+    {
+        ++numTrained;
+        ++sinceLast;
+        boolean due = publishEvery > 0 && sinceLast >= publishEvery;
+        // Labels may trickle in, so look at the clock on every one rather than every so many
+        if (!due && publishSec > 0)
+        {
+            due = System.nanoTime() - lastNanos >= publishSec * 1e9;
+        }
+        if (due)
+        {
+            publish();
+        }
+    }
+
+    // Every end of epoch marker is a flush
+    @Override
+    public void onEpochEnd(Learner learner, Model model, double epochSeconds)
+    {
+        if (sinceLast > 0)
+        {
+            publish();
+        }
+        synchronized (flushLock)
+        {
+            ++flushesDone;
+            flushLock.notifyAll();
+        }
+        log.debug("Flushed at version " + current.get().getVersion() + " after " + numTrained + " examples");
+    }
+
+    /**
+     * Number of examples trained on so far, which may be ahead of the current snapshot
+     * @return The count
+     */
+    public long getNumTrained()
+    {
+        return numTrained;
+    }
+
+    public long getPublishEvery()
+    {
+        return publishEvery;
+    }
+
+    /**
+     * Publish a snapshot every so many examples.  Call before start
+     * @param publishEvery Number of examples, or 0 to not publish by count
+     */
+    public void setPublishEvery(long publishEvery)
+    {
+        this.publishEvery = publishEvery;
+    }
+
+    public double getPublishSec()
+    {
+        return publishSec;
+    }
+
+    /**
+     * Publish a snapshot every so many seconds, as long as examples are arriving.  Call before start
+     * @param publishSec Number of seconds, or 0 to not publish by time
+     */
+    public void setPublishSec(double publishSec)
+    {
+        this.publishSec = publishSec;
+    }
+
+    public int getBufferSz()
+    {
+        return bufferSz;
+    }
+
+    public void setBufferSz(int bufferSz)
+    {
+        this.bufferSz = bufferSz;
+    }
+
+    public RingBufferTrainingExecutor.Strategy getStrategy()
+    {
+        return strategy;
+    }
+
+    /**
+     * How the training thread waits for examples.  The default, BLOCKING, doesn't spin a core while labels are
+     * slow to arrive.  Call before start
+     * @param strategy The strategy
+     */
+    public void setStrategy(RingBufferTrainingExecutor.Strategy strategy)
+    {
+        this.strategy = strategy;
+    }
+}
@@ -0,0 +1,350 @@
+package org.sgdtk.exec;
+
+import org.sgdtk.io.SequenceCacheFeatureProvider;
+import org.sgdtk.struct.FeatureVectorSequence;
+import org.sgdtk.struct.SGDSequentialLearner;
+import org.sgdtk.struct.SequentialLearner;
+import org.sgdtk.struct.SequentialModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Overlapped, out-of-core training for {@link org.sgdtk.struct.SequentialLearner}s
+ *
+ * This is the CRF analog of {@link org.sgdtk.exec.OverlappedTrainingRunner}.  Sequences that are added on the first
+ * pass are written to a binary cache (see {@link org.sgdtk.struct.FeatureVectorSequence#serializeTo(java.io.DataOutput, byte[])})
+ * and pushed onto a ring buffer, where a consumer thread trains on them.  Later passes replay the cache, so only
+ * the ring buffer's worth of sequences is ever in memory.
+ *
+ * The phases of the lifecycle are
+ * <ul>
+ *     <li>constructor</li>
+ *     <li>start()</li>
+ *     <li>add(sequence) - do this for each piece of training data</li>
+ *     <li>finish() - this runs the remaining passes over the training data and returns the model</li>
+ * </ul>
+ *
+ * Unlike the linear learners, the SGD CRF learner must be preprocessed before it can train: its regularization
+ * depends on the number of examples, and its learning rate is picked on a sample.  The first
+ * {@link org.sgdtk.struct.SGDSequentialLearner#MAX_SAMPLE_SZ} sequences are held back for this.  If the number of
+ * examples was given with {@link #setNumExamples(int)}, training overlaps with the first pass as soon as the sample
+ * is full.  Otherwise the first pass only fills the cache, and training starts on the replay once the count is known.
+ *
+ * If the cache was already written (e.g. by {@link org.sgdtk.exec.ExecUtils#cacheSequences}), call
+ * {@link #setCacheReady(boolean)} and skip the adds: every epoch is then replayed from the cache.
+ *
+ * @author dpressel
+ */
+public class OverlappedSequentialTrainingRunner
+{
+    private static final Logger log = LoggerFactory.getLogger(OverlappedSequentialTrainingRunner.class);
+    private static final int PACK_BUFFER_SZ = 65536;
+
+    private int epochs = 5;
+    private int bufferSz = 1024;
+    private int numExamples = 0;
+    private File cacheFile;
+    private boolean cacheReady = false;
+    private List<SequentialTrainingEventListener> listeners = new ArrayList<>();
+
+    private final SequentialLearner learner;
+    private final int numFeatures;
+    private final int numLabels;
+    private SequentialModel model;
+    private RingBufferSequentialTrainingExecutor trainEx;
+    private DataOutputStream cacheOutput;
+    private byte[] packBuffer;
+    private List<FeatureVectorSequence> sample;
+    private boolean preprocessed;
+    private int numAdded;
+    private volatile boolean cancelled;
+
+    /**
+     * Create, don't start
+     * @param learner The learner
+     * @param numFeatures The number of features (the length of the joint feature encoder)
+     * @param numLabels The number of labels
+     */
+    public OverlappedSequentialTrainingRunner(SequentialLearner learner, int numFeatures, int numLabels)
+    {
+        this.learner = learner;
+        this.numFeatures = numFeatures;
+        this.numLabels = numLabels;
+    }
+
+    /**
+     * Create the model and the executor.  On a fresh cache, this also opens the cache for writing
+     * @throws IOException
+     */
+    public void start() throws IOException
+    {
+        if (cacheFile == null)
+        {
+            if (cacheReady)
+            {
+                throw new IllegalStateException("A ready cache requires a cache file");
+            }
+            cacheFile = File.createTempFile("olstc", "cache");
+            cacheFile.deleteOnExit();
+        }
+        model = learner.create(numFeatures, numLabels);
+        trainEx = new RingBufferSequentialTrainingExecutor();
+        trainEx.initialize(learner, model, epochs, bufferSz, listeners);
+        trainEx.start();
+
+        preprocessed = false;
+        numAdded = 0;
+        sample = new ArrayList<FeatureVectorSequence>();
+        if (!cacheReady)
+        {
+            cacheOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile), PACK_BUFFER_SZ));
+            packBuffer = new byte[PACK_BUFFER_SZ];
+        }
+    }
+
+    /**
+     * Add a sequence on the first pass.  It is cached, and trained on if the learner is ready
+     * @param sequence A sequence
+     * @throws IOException
+     */
+    public void add(FeatureVectorSequence sequence) throws IOException
+    {
+        try
+        {
+            int numBytes = sequence.getSerializationSize();
+            if (numBytes > packBuffer.length)
+            {
+                packBuffer = new byte[ExecUtils.nextPowerOf2(numBytes)];
+            }
+            sequence.serializeTo(cacheOutput, packBuffer);
+            ++numAdded;
+
+            if (preprocessed)
+            {
+                trainEx.add(sequence);
+                return;
+            }
+
+            // Until the learner is ready, keep the head of the data around
+            if (sample.size() < SGDSequentialLearner.MAX_SAMPLE_SZ)
+            {
+                sample.add(sequence);
+                if (sample.size() == SGDSequentialLearner.MAX_SAMPLE_SZ && numExamples > 0)
+                {
+                    preprocess(numExamples);
+                    flushSample();
+                }
+            }
+        }
+        catch (IOException ioEx)
+        {
+            kill();
+            throw ioEx;
+        }
+    }
+
+    private void preprocess(int n)
+    {
+        learner.preprocess(model, sample, n);
+        preprocessed = true;
+    }
+
+    private void flushSample()
+    {
+        for (FeatureVectorSequence sequence : sample)
+        {
+            trainEx.add(sequence);
+        }
+        sample = null;
+    }
+
+    /**
+     * Finish the first pass and run the rest.  This blocks until the model is trained
+     * @return The trained model
+     * @throws IOException
+     */
+    public SequentialModel finish() throws IOException
+    {
+        try
+        {
+            int firstReplay = 0;
+            if (cacheReady)
+            {
+                sample = SequenceCacheFeatureProvider.sample(cacheFile, SGDSequentialLearner.MAX_SAMPLE_SZ);
+                preprocess(numExamples > 0 ? numExamples : countCache());
+                sample = null;
+            }
+            else
+            {
+                cacheOutput.close();
+                cacheOutput = null;
+                if (preprocessed)
+                {
+                    signalEndEpoch();
+                    firstReplay = 1;
+                }
+                else if (numAdded <= SGDSequentialLearner.MAX_SAMPLE_SZ)
+                {
+                    // Everything fit in the sample, so the first pass can still be trained from memory
+                    preprocess(numAdded);
+                    flushSample();
+                    signalEndEpoch();
+                    firstReplay = 1;
+                }
+                else
+                {
+                    log.info("Number of examples was not given, training will start after the first pass");
+                    preprocess(numAdded);
+                    sample = null;
+                }
+            }
+
+            for (int i = firstReplay; i < epochs && !cancelled; ++i)
+            {
+                passN();
+                log.info("Completed pass " + (i + 1));
+            }
+            if (cancelled)
+            {
+                log.info("Cancelled, the remaining passes were skipped");
+            }
+            trainEx.join();
+            return model;
+        }
+        catch (IOException ioEx)
+        {
+            kill();
+            throw ioEx;
+        }
+    }
+
+    private int countCache() throws IOException
+    {
+        SequenceCacheFeatureProvider provider = new SequenceCacheFeatureProvider(cacheFile);
+        int n = 0;
+        while (provider.next() != null)
+        {
+            ++n;
+        }
+        provider.close();
+        return n;
+    }
+
+    private void passN() throws IOException
+    {
+        SequenceCacheFeatureProvider provider = new SequenceCacheFeatureProvider(cacheFile);
+        FeatureVectorSequence sequence;
+        while (!cancelled && (sequence = provider.next()) != null)
+        {
+            trainEx.add(sequence);
+        }
+        provider.close();
+        signalEndEpoch();
+    }
+
+    private void signalEndEpoch()
+    {
+        trainEx.add(null);
+    }
+
+    private void kill() throws IOException
+    {
+        if (cacheOutput != null)
+        {
+            cacheOutput.close();
+            cacheOutput = null;
+        }
+        trainEx.kill();
+    }
+
+    /**
+     * Stop training early, skipping the rest of the current replay and any later ones.  This can be called from any
+     * thread, including the training thread in a listener
+     */
+    public void cancel()
+    {
+        cancelled = true;
+        if (trainEx != null)
+        {
+            trainEx.stop();
+        }
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    public void addListener(SequentialTrainingEventListener listener)
+    {
+        this.listeners.add(listener);
+    }
+
+    public int getEpochs()
+    {
+        return epochs;
+    }
+
+    public void setEpochs(int epochs)
+    {
+        this.epochs = epochs;
+    }
+
+    public int getBufferSz()
+    {
+        return bufferSz;
+    }
+
+    public void setBufferSz(int bufferSz)
+    {
+        this.bufferSz = bufferSz;
+    }
+
+    public int getNumExamples()
+    {
+        return numExamples;
+    }
+
+    public void setNumExamples(int numExamples)
+    {
+        this.numExamples = numExamples;
+    }
+
+    public File getCacheFile()
+    {
+        return cacheFile;
+    }
+
+    public void setCacheFile(File cacheFile)
+    {
+        this.cacheFile = cacheFile;
+    }
+
+    public boolean isCacheReady()
+    {
+        return cacheReady;
+    }
+
+    public void setCacheReady(boolean cacheReady)
+    {
+        this.cacheReady = cacheReady;
+    }
+
+    public List<SequentialTrainingEventListener> getListeners()
+    {
+        return listeners;
+    }
+
+    public void setListeners(List<SequentialTrainingEventListener> listeners)
+    {
+        this.listeners = listeners;
+    }
+}
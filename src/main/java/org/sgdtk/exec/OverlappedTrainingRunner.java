@@ -2,14 +2,28 @@ package org.sgdtk.exec;
 
 
 import org.sgdtk.*;
+import org.sgdtk.io.CacheMetadata;
+import org.sgdtk.io.CompactFeatureVectorCodec;
+import org.sgdtk.io.FeatureVectorCacheIndex;
+import org.sgdtk.io.FeatureVectorCacheReader;
+import org.sgdtk.io.FeatureVectorCacheWriter;
+import org.sgdtk.io.FeatureVectorCodec;
+import org.sgdtk.io.RawFeatureVectorCodec;
+import org.sgdtk.io.ShuffledFeatureVectorCacheReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Utility class to make it easy to do VW-like overlapped trainining as part of an API.
@@ -48,15 +62,84 @@ public class OverlappedTrainingRunner implements AsyncTrainingRunner
     private int epochs = 5;
     TrainingExecutor trainEx;
     private File cacheFile;
-    RandomAccessFile randomAccessFile;
-    byte[] packBuffer;
-    private Boolean dense = null;
+    private boolean tempCache = false;
+    private final List<CacheSegment> segments = new ArrayList<>();
+    private CacheFormat cacheFormat = CacheFormat.RAW;
+    private boolean compressCache = false;
+    private boolean shuffle = false;
+    private int shuffleWindow = 16;
+    private long shuffleSeed = 0L;
+    private CacheMetadata cacheMetadata;
+    private List<CacheMetadata> shardMetadata;
+    private boolean cacheReady = false;
+    private boolean recycleVectors = false;
+    private boolean multiProducer = false;
+    private int numReaders = 1;
+    private ExecutorService readerPool;
+    private int batchSz = 64;
+    private volatile Boolean dense = null;
     private List<TrainingEventListener> listeners = new ArrayList<>();
-    private double probAdd = 1.0;
+    private Sampler sampler;
+    private Reservoir reservoir;
+    private volatile boolean firstPass = true;
     private Learner learner;
     private Model model;
     private int bufferSz = 1024;
     private Object learnerUserData;
+    private File checkpointFile;
+    private long checkpointEvery = 0;
+    private double checkpointSec = 0;
+    private File resumeFrom;
+    private File warmStart;
+    private File saveStateTo;
+    private Checkpointer checkpointer;
+    private TrainingStats stats;
+    private volatile boolean cancelled;
+
+    /**
+     * Record encoding for the cache
+     */
+    public enum CacheFormat { RAW, COMPACT, COMPACT_FLOAT }
+
+    // One cache file, written by a single producer and replayed as a unit
+    private class CacheSegment
+    {
+        final File file;
+        final CacheMetadata metadata;
+        FeatureVectorCacheWriter writer;
+        FeatureVectorCacheIndex index;
+
+        CacheSegment(File file, CacheMetadata metadata)
+        {
+            this.file = file;
+            this.metadata = metadata;
+        }
+
+        void write(FeatureVector fv) throws IOException
+        {
+            // The raw codec needs to know if we are dense, so wait for the first vector
+            if (writer == null)
+            {
+                boolean isDense = fv.getX().getType() == VectorN.Type.DENSE;
+                noteDense(isDense);
+                writer = new FeatureVectorCacheWriter(file, createCodec(isDense), compressCache);
+                writer.setMetadata(metadata);
+            }
+            writer.write(fv);
+        }
+    }
+
+    /**
+     * Get the file for a cache segment.  The first segment is the cache file itself
+     * @param cacheFile The cache file
+     * @param segment The segment number
+     * @return The segment file
+     */
+    public static File getSegmentFile(File cacheFile, int segment)
+    {
+        return segment == 0 ? cacheFile : new File(cacheFile.getPath() + "." + segment);
+    }
+
     // Create, don't start
     public OverlappedTrainingRunner(Learner learner)
     {
@@ -66,68 +149,273 @@ public class OverlappedTrainingRunner implements AsyncTrainingRunner
     {
         if (cacheFile == null)
         {
+            if (cacheReady)
+            {
+                throw new IllegalStateException("A ready cache requires a cache file");
+            }
             cacheFile = File.createTempFile("oltc", "cache");
             cacheFile.deleteOnExit();
+            tempCache = true;
         }
         model = learner.create(getLearnerUserData());
-        trainEx = new RingBufferTrainingExecutor();
-        initCache();
+        trainEx = new RingBufferTrainingExecutor(RingBufferTrainingExecutor.Strategy.YIELD, multiProducer || numReaders > 1);
+        trainEx.setStats(stats);
+        if (warmStart != null && resumeFrom == null)
+        {
+            TrainingState state = TrainingState.load(warmStart, learner, model);
+            log.info("Warm start from " + warmStart + " at numSeen=" + state.getNumSeen());
+        }
+        if (resumeFrom != null)
+        {
+            if (multiProducer || numReaders > 1)
+            {
+                // The examples are skipped by count, which only works if they come in the same order every run
+                throw new IllegalStateException("Can't resume with several producers, since their examples interleave differently each run");
+            }
+            Checkpoint checkpoint = Checkpoint.read(resumeFrom, model);
+            checkpoint.getState().restore(learner);
+            trainEx.setResumePosition(checkpoint.getEpoch(), checkpoint.getExamplesInEpoch());
+            log.info("Resuming from " + resumeFrom + " at " + checkpoint);
+        }
+        if (checkpointFile != null)
+        {
+            checkpointer = new Checkpointer(checkpointFile, checkpointEvery, checkpointSec);
+            trainEx.setCheckpointer(checkpointer);
+        }
+        if (numReaders > 1)
+        {
+            readerPool = Executors.newFixedThreadPool(numReaders, runnable ->
+            {
+                Thread thread = new Thread(runnable, "sgdtk-reader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
         trainEx.initialize(learner, model, epochs, cacheFile, bufferSz, listeners);
         trainEx.start();
     }
 
     private static final Logger log = LoggerFactory.getLogger(OverlappedTrainingRunner.class);
 
+    private synchronized void noteDense(boolean isDense)
+    {
+        if (dense == null)
+        {
+            dense = isDense;
+        }
+    }
+
+    private boolean isCaching()
+    {
+        return getEpochs() > 1 || cacheMetadata != null || shardMetadata != null;
+    }
+
+    private CacheSegment segment(int i)
+    {
+        while (segments.size() <= i)
+        {
+            int n = segments.size();
+            CacheMetadata metadata = shardMetadata != null && n < shardMetadata.size() ? shardMetadata.get(n) :
+                    (n == 0 ? cacheMetadata : null);
+            File file = getSegmentFile(getCacheFile(), n);
+            if (tempCache)
+            {
+                file.deleteOnExit();
+            }
+            segments.add(new CacheSegment(file, metadata));
+        }
+        return segments.get(i);
+    }
+
+
+    // Offer the example to the reservoir on the first pass, then decide whether to train on it
+    private boolean sampled(FeatureVector fv)
+    {
+        if (reservoir != null && firstPass)
+        {
+            reservoir.offer(fv);
+        }
+        return sampler == null || sampler.sample(fv);
+    }
 
-    // Randomly sample in time
     private void addWithProb(FeatureVector fv)
     {
-        if (probAdd >= 1.0 || Math.random() < probAdd)
+        if (sampled(fv))
         {
             trainEx.add(fv);
         }
     }
 
-    private void passN() throws IOException
+    // Don't let a batch tie up more than its share of the buffer
+    private int batchSzFor(int producers)
     {
+        return Math.max(1, Math.min(batchSz, bufferSz / (2 * Math.max(1, producers))));
+    }
 
-        // Get FV from file
-        randomAccessFile = new RandomAccessFile(getCacheFile(), "r");
+    // Drain a provider into the ring buffer a batch at a time, caching what we see if there is a segment.  If there is
+    // nothing to cache, stop when cancelled
+    private void produce(FeatureProvider provider, CacheSegment segment, int producers) throws IOException
+    {
+        int n = batchSzFor(producers);
 
-        while (randomAccessFile.getFilePointer() < randomAccessFile.length())
+        if (recycleVectors && !Boolean.TRUE.equals(dense))
         {
-            int recordLength = (int) randomAccessFile.readLong();
-            packBuffer = growIfNeeded(packBuffer, recordLength);
-            randomAccessFile.read(packBuffer, 0, recordLength);
-            FeatureVector fv = toFeatureVector();
-            // add to ring buffer
-            addWithProb(fv);
-
+            // Fill the claimed slots in place.  A slot that isn't sampled is just reused
+            boolean more = true;
+            while (more && !(cancelled && segment == null))
+            {
+                long hi = trainEx.claim(n);
+                long lo = hi - n + 1;
+                long sequence = lo;
+                while (sequence <= hi)
+                {
+                    FeatureVector slot = trainEx.slot(sequence);
+                    if (!provider.next(slot))
+                    {
+                        more = false;
+                        break;
+                    }
+                    if (segment != null)
+                    {
+                        segment.write(slot);
+                    }
+                    if (sampled(slot))
+                    {
+                        ++sequence;
+                    }
+                }
+                trainEx.publish(lo, sequence - 1);
+                trainEx.publishSkip(sequence, hi);
+            }
+            return;
         }
 
-        randomAccessFile.close();
+        FeatureVector[] batch = new FeatureVector[n];
+        int k = 0;
+        FeatureVector fv;
+        while (!(cancelled && segment == null) && (fv = provider.next()) != null)
+        {
+            if (segment != null)
+            {
+                segment.write(fv);
+            }
+            if (sampled(fv))
+            {
+                batch[k++] = fv;
+                if (k == n)
+                {
+                    trainEx.add(batch, k);
+                    k = 0;
+                }
+            }
+        }
+        if (k > 0)
+        {
+            trainEx.add(batch, k);
+        }
+    }
 
-        signalEndEpoch();
+    // Run each provider to exhaustion, on the reader pool if there is one.  Segments, if given, line up with providers
+    private void produceAll(List<? extends FeatureProvider> providers, List<CacheSegment> cacheTo) throws IOException
+    {
+        if (readerPool == null || providers.size() < 2)
+        {
+            for (int i = 0; i < providers.size(); ++i)
+            {
+                produce(providers.get(i), cacheTo == null ? null : cacheTo.get(i), 1);
+            }
+            return;
+        }
 
+        final int producers = Math.min(numReaders, providers.size());
+        List<Future<Void>> futures = new ArrayList<>(providers.size());
+        for (int i = 0; i < providers.size(); ++i)
+        {
+            final FeatureProvider provider = providers.get(i);
+            final CacheSegment segment = cacheTo == null ? null : cacheTo.get(i);
+            futures.add(readerPool.submit(() ->
+            {
+                produce(provider, segment, producers);
+                return null;
+            }));
+        }
+        try
+        {
+            for (Future<Void> future : futures)
+            {
+                future.get();
+            }
+        }
+        catch (InterruptedException interruptedEx)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException(interruptedEx);
+        }
+        catch (ExecutionException executionEx)
+        {
+            Throwable cause = executionEx.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
     }
 
-    private FeatureVector toFeatureVector()
+    private void passN(int epoch) throws IOException
     {
-        if (dense)
+        Random random = new Random(shuffleSeed + epoch);
+        List<CacheSegment> replay = new ArrayList<>();
+        for (CacheSegment segment : segments)
         {
-            return FeatureVector.deserializeDense(packBuffer);
+            // Nothing was ever cached in this one
+            if (segment.index != null)
+            {
+                replay.add(segment);
+            }
         }
-        return FeatureVector.deserializeSparse(packBuffer);
+        if (shuffle)
+        {
+            Collections.shuffle(replay, random);
+        }
+
+        // Get FVs from the files
+        List<FeatureProvider> readers = new ArrayList<>(replay.size());
+        try
+        {
+            for (CacheSegment segment : replay)
+            {
+                readers.add(shuffle ?
+                        new ShuffledFeatureVectorCacheReader(segment.file, segment.index, shuffleWindow, new Random(random.nextLong())) :
+                        new FeatureVectorCacheReader(segment.file));
+            }
+            produceAll(readers, null);
+            if (stats != null)
+            {
+                for (CacheSegment segment : replay)
+                {
+                    stats.addCacheBytesRead(segment.file.length());
+                }
+            }
+        }
+        finally
+        {
+            for (FeatureProvider reader : readers)
+            {
+                ((Closeable) reader).close();
+            }
+        }
+
+        signalEndEpoch();
+
     }
 
-    private static final int PACK_BUFFER_SZ = 262144;
-    private void initCache() throws IOException
+    private FeatureVectorCodec createCodec(boolean isDense)
     {
-        if (getEpochs() > 1)
+        switch (cacheFormat)
         {
-            packBuffer = new byte[PACK_BUFFER_SZ];
-            randomAccessFile = new RandomAccessFile(getCacheFile(), "rw");
+            case COMPACT:
+                return new CompactFeatureVectorCodec(false);
+            case COMPACT_FLOAT:
+                return new CompactFeatureVectorCodec(true);
         }
+        return new RawFeatureVectorCodec(isDense);
     }
 
     @Override
@@ -135,15 +423,20 @@ public class OverlappedTrainingRunner implements AsyncTrainingRunner
     {
         try
         {
-            FeatureVector featureVector = fv;
-
-            if (dense == null)
+            // We can save this as-is even if sparse
+            if (isCaching())
             {
-                dense = fv.getX().getType() == VectorN.Type.DENSE;
+                if (shardMetadata != null && shardMetadata.size() > 1)
+                {
+                    throw new IllegalStateException("With more than one shard, add them with addShards, so each is cached to its own segment");
+                }
+                segment(0).write(fv);
             }
-            // We can save this as-is even if sparse
-            saveCachedFeatureVector(fv);
-            addWithProb(featureVector);
+            else
+            {
+                noteDense(fv.getX().getType() == VectorN.Type.DENSE);
+            }
+            addWithProb(fv);
 
         }
         catch (IOException ioEx)
@@ -153,38 +446,81 @@ public class OverlappedTrainingRunner implements AsyncTrainingRunner
         }
     }
 
-    private void kill() throws IOException
+    /**
+     * Add everything from a provider on the first pass.  If vectors are being recycled, the provider fills in
+     * the ring buffer slots directly, otherwise this is the same as calling {@link #add(FeatureVector)} on each,
+     * but published in batches
+     * @param provider A source of feature vectors
+     * @throws IOException
+     */
+    public void addAll(FeatureProvider provider) throws IOException
     {
-        if (randomAccessFile != null)
+        try
         {
-            randomAccessFile.close();
-            randomAccessFile = null;
+            if (recycleVectors && dense == null)
+            {
+                // Slots are always sparse
+                dense = false;
+            }
+            produce(provider, isCaching() ? segment(0) : null, 1);
+        }
+        catch (IOException ioEx)
+        {
+            kill();
+            throw ioEx;
         }
-        trainEx.kill();
     }
 
-    private void saveCachedFeatureVector(FeatureVector fv) throws IOException
+    /**
+     * Add everything from several providers on the first pass.  If there is a reader pool, the shards are parsed
+     * concurrently on it, otherwise they are read one after the other.  Either way, each shard caches to its own
+     * segment, and this returns once every shard is exhausted.  The shards are not closed
+     * @param shards Sources of feature vectors
+     * @throws IOException
+     */
+    public void addShards(List<? extends FeatureProvider> shards) throws IOException
     {
-        if (getEpochs() > 1)
+        try
         {
-            // Figure out how many bytes we need to make this work
-            int numBytes = fv.getSerializationSize();
-            packBuffer = growIfNeeded(packBuffer, numBytes);
-            // Serialize
-            fv.serializeTo(randomAccessFile, packBuffer);
+            if (recycleVectors && dense == null)
+            {
+                // Slots are always sparse
+                dense = false;
+            }
+            List<CacheSegment> cacheTo = null;
+            if (isCaching())
+            {
+                cacheTo = new ArrayList<>(shards.size());
+                int first = segments.size();
+                for (int i = 0; i < shards.size(); ++i)
+                {
+                    cacheTo.add(segment(first + i));
+                }
+            }
+            produceAll(shards, cacheTo);
+        }
+        catch (IOException ioEx)
+        {
+            kill();
+            throw ioEx;
         }
     }
 
-    private byte[] growIfNeeded(byte[] buffer, int numBytes)
+    private void kill() throws IOException
     {
-        // Reallocate serialization buffer if necessary
-        if (buffer == null || numBytes > buffer.length)
+        for (CacheSegment segment : segments)
         {
-            int newBufSz = ExecUtils.nextPowerOf2(numBytes);
-            log.debug("Reallocating serialization packBuffer to " + newBufSz);
-            buffer = new byte[newBufSz];
+            if (segment.writer != null)
+            {
+                // Never leave something that looks like a complete cache
+                segment.writer.abort();
+            }
+        }
+        if (readerPool != null)
+        {
+            readerPool.shutdownNow();
         }
-        return buffer;
+        trainEx.kill();
     }
 
     @Override
@@ -193,19 +529,68 @@ public class OverlappedTrainingRunner implements AsyncTrainingRunner
 
         try
         {
-            if (randomAccessFile != null)
+            int firstReplay = 1;
+            if (cacheReady)
             {
-                randomAccessFile.close();
+                int numSegments = shardMetadata == null ? 1 : shardMetadata.size();
+                for (int i = 0; i < numSegments; ++i)
+                {
+                    CacheSegment segment = segment(i);
+                    CacheMetadata metadata = FeatureVectorCacheReader.readMetadata(segment.file);
+                    if (metadata == null)
+                    {
+                        throw new IOException("Cache is missing or incomplete: " + segment.file);
+                    }
+                    segment.index = metadata.getIndex();
+                }
+                firstReplay = 0;
+            }
+            else
+            {
+                for (CacheSegment segment : segments)
+                {
+                    if (segment.writer != null)
+                    {
+                        segment.writer.close();
+                        segment.index = segment.writer.getIndex();
+                        log.info("Cached " + segment.writer.getNumRecords() + " vectors in " + segment.writer.getBytesWritten() + " bytes to " + segment.file);
+                        if (stats != null)
+                        {
+                            stats.addCacheBytesWritten(segment.writer.getBytesWritten());
+                        }
+                    }
+                }
+                signalEndEpoch();
             }
 
-            signalEndEpoch();
-            for (int i = 1; i < getEpochs(); ++i)
+            for (int i = firstReplay; i < getEpochs() && !cancelled; ++i)
             {
-                passN();
+                passN(i);
                 log.info("Completed pass " + (i + 1));
             }
-            signalEndEpoch();
+            if (cancelled)
+            {
+                log.info("Cancelled, the remaining passes were skipped");
+            }
+            // Every pass ended with its own marker, so the trainer is done after the last one
             trainEx.join();
+            if (sampler != null)
+            {
+                log.info("Sampler " + sampler);
+            }
+            if (checkpointer != null)
+            {
+                checkpointer.close();
+            }
+            if (saveStateTo != null)
+            {
+                TrainingState.save(saveStateTo, learner, model);
+                log.info("Training state saved to " + saveStateTo);
+            }
+            if (readerPool != null)
+            {
+                readerPool.shutdown();
+            }
             return model;
         }
         catch (IOException ioEx)
@@ -219,6 +604,27 @@ public class OverlappedTrainingRunner implements AsyncTrainingRunner
 
     }
 
+    /**
+     * Stop training early, for instance from a {@link ConvergenceController} listener.  The rest of the current replay
+     * and any later ones are passed over, and {@link #finish()} returns the model as it was when cancelled.  The first
+     * pass still runs to the end when it is being cached, so the cache is never left short.  This can be called from
+     * any thread, including the training thread in a listener
+     */
+    @Override
+    public void cancel()
+    {
+        cancelled = true;
+        if (trainEx != null)
+        {
+            trainEx.stop();
+        }
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
     @Override
     public void addListener(TrainingEventListener listener)
     {
@@ -228,6 +634,7 @@ public class OverlappedTrainingRunner implements AsyncTrainingRunner
 
     private void signalEndEpoch()
     {
+        firstPass = false;
         trainEx.add(null);
 
     }
@@ -247,6 +654,11 @@ public class OverlappedTrainingRunner implements AsyncTrainingRunner
         return cacheFile;
     }
 
+    /**
+     * Cache to this file instead of a temporary one.  Sharded input caches to segments next to it, see
+     * {@link #getSegmentFile(java.io.File, int)}
+     * @param cacheFile The cache file
+     */
     public void setCacheFile(File cacheFile)
     {
         this.cacheFile = cacheFile;
@@ -262,6 +674,287 @@ public class OverlappedTrainingRunner implements AsyncTrainingRunner
         this.dense = dense;
     }
 
+    public CacheFormat getCacheFormat()
+    {
+        return cacheFormat;
+    }
+
+    /**
+     * Pick the cache encoding.  RAW is the native {@link org.sgdtk.FeatureVector} serialization, COMPACT uses
+     * delta/varint indices and drops values for all-ones vectors, and COMPACT_FLOAT also stores values as floats.
+     * When replay is disk-bound, a smaller cache means a faster pass
+     * @param cacheFormat The format, RAW by default
+     */
+    public void setCacheFormat(CacheFormat cacheFormat)
+    {
+        this.cacheFormat = cacheFormat;
+    }
+
+    public boolean isCompressCache()
+    {
+        return compressCache;
+    }
+
+    /**
+     * Block compress the cache, in any format
+     * @param compressCache Whether to compress
+     */
+    public void setCompressCache(boolean compressCache)
+    {
+        this.compressCache = compressCache;
+    }
+
+    public boolean isShuffle()
+    {
+        return shuffle;
+    }
+
+    /**
+     * Replay later epochs through a {@link org.sgdtk.io.ShuffledFeatureVectorCacheReader} instead of in the order the
+     * examples were added.  It permutes the cache blocks and shuffles a window of blocks at a time, seeded differently
+     * for each epoch.  With shards, the segment order is shuffled too
+     * @param shuffle Whether to shuffle
+     */
+    public void setShuffle(boolean shuffle)
+    {
+        this.shuffle = shuffle;
+    }
+
+    public int getShuffleWindow()
+    {
+        return shuffleWindow;
+    }
+
+    public void setShuffleWindow(int shuffleWindow)
+    {
+        this.shuffleWindow = shuffleWindow;
+    }
+
+    public long getShuffleSeed()
+    {
+        return shuffleSeed;
+    }
+
+    public void setShuffleSeed(long shuffleSeed)
+    {
+        this.shuffleSeed = shuffleSeed;
+    }
+
+    public CacheMetadata getCacheMetadata()
+    {
+        return cacheMetadata;
+    }
+
+    /**
+     * Describe the source of the cache, to persist it.  With a cache file and metadata, the cache is kept after the
+     * run, even for a single epoch, and can be reused with {@link #setCacheReady(boolean)}
+     * @param cacheMetadata A description of the source
+     */
+    public void setCacheMetadata(CacheMetadata cacheMetadata)
+    {
+        this.cacheMetadata = cacheMetadata;
+    }
+
+    public List<CacheMetadata> getShardMetadata()
+    {
+        return shardMetadata;
+    }
+
+    /**
+     * Describe the source of each shard passed to {@link #addShards(java.util.List)}, in order, to persist a
+     * sharded cache.  Shard i caches to {@link #getSegmentFile(java.io.File, int)} i
+     * @param shardMetadata A description of each shard
+     */
+    public void setShardMetadata(List<CacheMetadata> shardMetadata)
+    {
+        this.shardMetadata = shardMetadata;
+    }
+
+    public boolean isCacheReady()
+    {
+        return cacheReady;
+    }
+
+    /**
+     * Say the cache file is already complete, for instance when
+     * {@link org.sgdtk.io.FeatureVectorCacheReader#readMetadata(java.io.File)} shows it matches the source.  Skip the
+     * adds and go straight to {@link #finish()}, which replays every epoch from the cache
+     * @param cacheReady Whether the cache can be replayed as is
+     */
+    public void setCacheReady(boolean cacheReady)
+    {
+        this.cacheReady = cacheReady;
+    }
+
+    public boolean isRecycleVectors()
+    {
+        return recycleVectors;
+    }
+
+    /**
+     * Let the ring buffer slots own their (sparse) feature vector storage, and decode from the cache, or parse with a
+     * provider passed to {@link #addAll(FeatureProvider)}, straight into the claimed slot.  In the steady state
+     * nothing is allocated per example, which keeps young-gen collections from stalling the consumer on long runs
+     * @param recycleVectors Whether to recycle the vectors
+     */
+    public void setRecycleVectors(boolean recycleVectors)
+    {
+        this.recycleVectors = recycleVectors;
+    }
+
+    public boolean isMultiProducer()
+    {
+        return multiProducer;
+    }
+
+    /**
+     * Only needed if the caller adds from several threads itself.  The reader pool from
+     * {@link #setNumReaders(int)} sets this up on its own
+     * @param multiProducer Whether there are several adding threads
+     */
+    public void setMultiProducer(boolean multiProducer)
+    {
+        this.multiProducer = multiProducer;
+    }
+
+    public int getNumReaders()
+    {
+        return numReaders;
+    }
+
+    /**
+     * Parse the shards given to {@link #addShards(java.util.List)} on a pool of this many threads, all feeding the same
+     * trainer, for when parsing is slower than training.  Examples from different shards are interleaved in whatever
+     * order they arrive.  Each shard caches to its own segment, so the readers never contend on a writer, and the
+     * segments are replayed on the same pool in later epochs.  This can't be combined with
+     * {@link #setResumeFrom(java.io.File)}
+     * @param numReaders Number of reader threads, 1 to read the shards one after the other
+     */
+    public void setNumReaders(int numReaders)
+    {
+        this.numReaders = numReaders;
+    }
+
+    public int getBatchSz()
+    {
+        return batchSz;
+    }
+
+    /**
+     * Feed providers to the ring buffer this many slots at a time, with one claim and one publish per batch
+     * @param batchSz The batch size
+     */
+    public void setBatchSz(int batchSz)
+    {
+        this.batchSz = batchSz;
+    }
+
+    public File getCheckpointFile()
+    {
+        return checkpointFile;
+    }
+
+    /**
+     * Take {@link Checkpoint}s to this file in the background as training goes, at the interval from
+     * {@link #setCheckpointEvery(long)} or {@link #setCheckpointSec(double)}
+     * @param checkpointFile The checkpoint file, or null to not checkpoint
+     */
+    public void setCheckpointFile(File checkpointFile)
+    {
+        this.checkpointFile = checkpointFile;
+    }
+
+    public long getCheckpointEvery()
+    {
+        return checkpointEvery;
+    }
+
+    /**
+     * Checkpoint every so many examples
+     * @param checkpointEvery Number of examples, or 0 to not checkpoint by count
+     */
+    public void setCheckpointEvery(long checkpointEvery)
+    {
+        this.checkpointEvery = checkpointEvery;
+    }
+
+    public double getCheckpointSec()
+    {
+        return checkpointSec;
+    }
+
+    /**
+     * Checkpoint every so many seconds
+     * @param checkpointSec Number of seconds, or 0 to not checkpoint by time
+     */
+    public void setCheckpointSec(double checkpointSec)
+    {
+        this.checkpointSec = checkpointSec;
+    }
+
+    public File getResumeFrom()
+    {
+        return resumeFrom;
+    }
+
+    /**
+     * Pick up after a crash from a checkpoint, running again over the same data in the same order.  The model and
+     * learning rate schedule are restored, and the examples before the checkpoint are passed over without training.
+     * Since that needs the examples to arrive in the same order every run, it isn't supported with several readers
+     * or producers
+     * @param resumeFrom The checkpoint file, or null to start from the beginning
+     */
+    public void setResumeFrom(File resumeFrom)
+    {
+        this.resumeFrom = resumeFrom;
+    }
+
+    public TrainingStats getStats()
+    {
+        return stats;
+    }
+
+    /**
+     * Keep {@link TrainingStats} for this run.  The executor counts examples and features, buffer occupancy, and how
+     * long each side of the buffer waits on the other, and the runner adds the cache traffic.  Call before start
+     * @param stats The stats, or null to not keep any
+     */
+    public void setStats(TrainingStats stats)
+    {
+        this.stats = stats;
+    }
+
+    public File getWarmStart()
+    {
+        return warmStart;
+    }
+
+    /**
+     * Start from a saved {@link TrainingState} instead of an empty model, to keep training on new data.  The model,
+     * its optimizer state and the learning rate schedule carry over, so the new run continues the old one rather
+     * than starting from a fresh, large step size.  A checkpoint to resume from takes precedence, since it already
+     * includes the warm start
+     * @param warmStart The state file, or null to start fresh
+     */
+    public void setWarmStart(File warmStart)
+    {
+        this.warmStart = warmStart;
+    }
+
+    public File getSaveStateTo()
+    {
+        return saveStateTo;
+    }
+
+    /**
+     * Save the {@link TrainingState} when training finishes, to warm start a later run from
+     * @param saveStateTo The state file, or null to not save it
+     */
+    public void setSaveStateTo(File saveStateTo)
+    {
+        this.saveStateTo = saveStateTo;
+    }
+
     public List<TrainingEventListener> getListeners()
     {
         return listeners;
@@ -274,12 +967,55 @@ public class OverlappedTrainingRunner implements AsyncTrainingRunner
 
     public double getProbAdd()
     {
-        return probAdd;
+        return sampler == null ? 1.0 : sampler.getDefaultRate();
     }
 
+    /**
+     * Train on a uniform sample of the examples, without weighting them.  This is the same as an unweighted
+     * {@link Sampler} with this rate
+     * @param probAdd The fraction of examples to train on
+     */
     public void setProbAdd(double probAdd)
     {
-        this.probAdd = probAdd;
+        if (probAdd >= 1.0)
+        {
+            this.sampler = null;
+            return;
+        }
+        Sampler uniform = new Sampler(probAdd);
+        uniform.setImportanceWeighted(false);
+        this.sampler = uniform;
+    }
+
+    public Sampler getSampler()
+    {
+        return sampler;
+    }
+
+    /**
+     * Sample the examples on each pass before training on them, for instance downsampling the common class with
+     * importance weights.  The sampler can keep each class at its own rate, and weight the examples it keeps so the
+     * model isn't biased towards the rarer class.  Everything is still cached, so each pass draws a new sample
+     * @param sampler The sampler, or null to train on every example
+     */
+    public void setSampler(Sampler sampler)
+    {
+        this.sampler = sampler;
+    }
+
+    public Reservoir getReservoir()
+    {
+        return reservoir;
+    }
+
+    /**
+     * Keep a uniform sample of the examples seen on the first pass, before any sampling, for instance as a watch set
+     * for early stopping.  It is complete once the first epoch ends
+     * @param reservoir The reservoir, or null
+     */
+    public void setReservoir(Reservoir reservoir)
+    {
+        this.reservoir = reservoir;
     }
 
     public int getBufferSz()
@@ -0,0 +1,224 @@
+package org.sgdtk.exec;
+
+import org.sgdtk.FeatureVector;
+import org.sgdtk.Learner;
+import org.sgdtk.LinearModel;
+import org.sgdtk.Model;
+import org.sgdtk.MultiClassWeightModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Data-parallel training by iterative parameter mixing
+ *
+ * Each worker has its own learner and its own copy of the model, and trains on its own disjoint partition of the
+ * data, with no sharing at all while it does.  A few times per epoch, the workers stop, their models are averaged
+ * (see {@link LinearModel#average(org.sgdtk.LinearModel[])}), and the average is copied back to every worker before
+ * they go on.  Unlike Hogwild-style training on one shared weight vector, the workers never write to the same cache
+ * lines, so this speeds up with the number of workers as long as the partitions are large compared to the cost of
+ * mixing, which is a pass over every worker's weights.  Mix more often for a model closer to what a single learner
+ * would get, less often for more speed.
+ *
+ * Each worker runs on a thread here, but the workers only exchange whole weight vectors at the mixing points, so
+ * they could as well be processes or machines.
+ *
+ * This works for {@link LinearModel}s (including Adagrad) and {@link MultiClassWeightModel}s.  An Adagrad worker keeps
+ * its own accumulated gradients across mixes, since those describe its own partition.
+ *
+ * @author dpressel
+ */
+public class ParameterMixingTrainer
+{
+    private static final Logger log = LoggerFactory.getLogger(ParameterMixingTrainer.class);
+
+    private final List<Learner> learners;
+    private final Model[] workerModels;
+    private Model model;
+    private int mixesPerEpoch = 1;
+    private final ExecutorService pool;
+
+    /**
+     * Create a trainer
+     * @param learners One learner for each worker, all configured the same way
+     */
+    public ParameterMixingTrainer(List<Learner> learners)
+    {
+        this.learners = learners;
+        this.workerModels = new Model[learners.size()];
+        this.pool = Executors.newFixedThreadPool(learners.size(), runnable ->
+        {
+            Thread thread = new Thread(runnable, "sgdtk-mixing");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Create the models
+     * @param params The learner's model params, for a linear model the feature vector width
+     * @return The mixed model, which is updated at every mix
+     * @throws Exception
+     */
+    public Model create(Object params) throws Exception
+    {
+        for (int i = 0; i < workerModels.length; ++i)
+        {
+            workerModels[i] = learners.get(i).create(params);
+        }
+        model = workerModels[0].prototype();
+        return model;
+    }
+
+    /**
+     * Train one pass over the data.  The data is split into one contiguous partition per worker, so shuffle it first
+     * @param trainingExamples The training examples
+     * @return The mixed model
+     * @throws Exception If a worker failed
+     */
+    public Model trainEpoch(List<FeatureVector> trainingExamples) throws Exception
+    {
+        int numWorkers = workerModels.length;
+        int sz = trainingExamples.size();
+        for (int round = 0; round < mixesPerEpoch; ++round)
+        {
+            List<Callable<Void>> tasks = new ArrayList<>(numWorkers);
+            for (int i = 0; i < numWorkers; ++i)
+            {
+                // Worker i's partition, and this round's share of it
+                long partStart = (long) sz * i / numWorkers;
+                long partSz = (long) sz * (i + 1) / numWorkers - partStart;
+                int lo = (int) (partStart + partSz * round / mixesPerEpoch);
+                int hi = (int) (partStart + partSz * (round + 1) / mixesPerEpoch);
+                final Learner learner = learners.get(i);
+                final Model workerModel = workerModels[i];
+                final List<FeatureVector> slice = trainingExamples.subList(lo, hi);
+                tasks.add(() ->
+                {
+                    if (!slice.isEmpty())
+                    {
+                        learner.trainEpoch(workerModel, slice);
+                    }
+                    return null;
+                });
+            }
+            try
+            {
+                for (Future<Void> future : pool.invokeAll(tasks))
+                {
+                    future.get();
+                }
+            }
+            catch (ExecutionException executionEx)
+            {
+                Throwable cause = executionEx.getCause();
+                throw cause instanceof Exception ? (Exception) cause : executionEx;
+            }
+            mix();
+        }
+        return model;
+    }
+
+    // Average the workers into the mixed model, and send it back out
+    private void mix()
+    {
+        long t0 = System.nanoTime();
+        average(workerModels, model);
+        for (Model workerModel : workerModels)
+        {
+            copy(model, workerModel);
+        }
+        log.debug("Mixed " + workerModels.length + " models in " + (System.nanoTime() - t0) / 1e6 + "ms");
+    }
+
+    /**
+     * Average several models into another
+     * @param models The models, which must all be the same type and shape
+     * @param into The model to overwrite with their average
+     */
+    public static void average(Model[] models, Model into)
+    {
+        if (into instanceof LinearModel)
+        {
+            LinearModel[] linearModels = new LinearModel[models.length];
+            for (int i = 0; i < models.length; ++i)
+            {
+                linearModels[i] = (LinearModel) models[i];
+            }
+            ((LinearModel) into).average(linearModels);
+        }
+        else if (into instanceof MultiClassWeightModel)
+        {
+            MultiClassWeightModel[] multiClassModels = new MultiClassWeightModel[models.length];
+            for (int i = 0; i < models.length; ++i)
+            {
+                multiClassModels[i] = (MultiClassWeightModel) models[i];
+            }
+            ((MultiClassWeightModel) into).average(multiClassModels);
+        }
+        else
+        {
+            throw new IllegalArgumentException("Can't mix " + into.getClass().getName());
+        }
+    }
+
+    /**
+     * Copy one model's weights over another's, in place
+     * @param from The model to copy
+     * @param into The model to overwrite
+     */
+    public static void copy(Model from, Model into)
+    {
+        if (into instanceof LinearModel)
+        {
+            ((LinearModel) into).copyFrom((LinearModel) from);
+        }
+        else if (into instanceof MultiClassWeightModel)
+        {
+            ((MultiClassWeightModel) into).copyFrom((MultiClassWeightModel) from);
+        }
+        else
+        {
+            throw new IllegalArgumentException("Can't mix " + into.getClass().getName());
+        }
+    }
+
+    /**
+     * Stop the worker threads
+     */
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    public Model getModel()
+    {
+        return model;
+    }
+
+    public int getNumWorkers()
+    {
+        return workerModels.length;
+    }
+
+    public int getMixesPerEpoch()
+    {
+        return mixesPerEpoch;
+    }
+
+    /**
+     * How many times to mix per epoch.  The last mix is always at the end of the epoch
+     * @param mixesPerEpoch The number of mixes, at least 1
+     */
+    public void setMixesPerEpoch(int mixesPerEpoch)
+    {
+        this.mixesPerEpoch = Math.max(1, mixesPerEpoch);
+    }
+}
@@ -0,0 +1,100 @@
+package org.sgdtk.exec;
+
+import org.sgdtk.DenseVectorN;
+import org.sgdtk.FeatureVector;
+import org.sgdtk.Offset;
+import org.sgdtk.SparseVectorN;
+import org.sgdtk.VectorN;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A fixed-size uniform sample of a stream of examples
+ *
+ * Every example offered has the same chance of ending up in the sample, however long the stream is, without knowing
+ * its length up front (Vitter's algorithm R).  This is how to get a watch set of training data for a
+ * {@link ConvergenceController}, or a sample for {@link org.sgdtk.Learner#preprocess(org.sgdtk.Model, java.util.List)},
+ * out of a stream that is too big to hold.  The examples are offered before any {@link Sampler}, so the sample has the
+ * original class balance.
+ *
+ * The examples kept are copies, since a producer may be recycling its vectors.  Offering is synchronized, so several
+ * producers can share a reservoir.
+ *
+ * @author dpressel
+ */
+public class Reservoir
+{
+    private final int capacity;
+    private final List<FeatureVector> sample;
+    private final Random random;
+    private long numSeen;
+
+    /**
+     * Create a reservoir
+     * @param capacity The sample size
+     * @param seed The seed for choosing examples
+     */
+    public Reservoir(int capacity, long seed)
+    {
+        this.capacity = capacity;
+        this.sample = new ArrayList<FeatureVector>(capacity);
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Offer an example to the sample
+     * @param fv The example, which is copied if it is kept
+     */
+    public synchronized void offer(FeatureVector fv)
+    {
+        ++numSeen;
+        if (sample.size() < capacity)
+        {
+            sample.add(copy(fv));
+            return;
+        }
+        long j = (long) (random.nextDouble() * numSeen);
+        if (j < capacity)
+        {
+            sample.set((int) j, copy(fv));
+        }
+    }
+
+    // A deep copy, since a recycled vector's offsets are reused too
+    private static FeatureVector copy(FeatureVector fv)
+    {
+        VectorN x = fv.getX();
+        if (x.getType() == VectorN.Type.DENSE)
+        {
+            return new FeatureVector(fv.getY(), new DenseVectorN(x));
+        }
+        SparseVectorN sparse = new SparseVectorN();
+        for (Offset offset : x.getNonZeroOffsets())
+        {
+            sparse.add(new Offset(offset.index, offset.value));
+        }
+        return new FeatureVector(fv.getY(), sparse);
+    }
+
+    /**
+     * The sample so far.  This is the reservoir's own list, so only read it once the offers are done
+     * @return The sample, at most the capacity
+     */
+    public List<FeatureVector> getSample()
+    {
+        return Collections.unmodifiableList(sample);
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public synchronized long getNumSeen()
+    {
+        return numSeen;
+    }
+}
@@ -0,0 +1,230 @@
+package org.sgdtk.exec;
+
+import com.lmax.disruptor.*;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import org.sgdtk.struct.FeatureVectorSequence;
+import org.sgdtk.struct.SequentialLearner;
+import org.sgdtk.struct.SequentialModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Use LMAX Disruptor ring buffer to feed a {@link org.sgdtk.struct.SequentialLearner}
+ *
+ * This is the sequential analog of {@link org.sgdtk.exec.RingBufferTrainingExecutor}.  A single consumer thread
+ * pulls {@link org.sgdtk.struct.FeatureVectorSequence}s off the buffer and calls trainOne, and a null sequence
+ * marks the end of an epoch.  The learner must already have been preprocessed before the first sequence is added.
+ *
+ * @author dpressel
+ */
+public class RingBufferSequentialTrainingExecutor
+{
+
+    private static final Logger log = LoggerFactory.getLogger(RingBufferSequentialTrainingExecutor.class);
+    Disruptor<MessageEvent> disruptor;
+    MessageEventHandler handler;
+    int numEpochs;
+    private RingBufferTrainingExecutor.Strategy strategy;
+
+    /**
+     * Create one
+     */
+    public RingBufferSequentialTrainingExecutor()
+    {
+        this(RingBufferTrainingExecutor.Strategy.YIELD);
+    }
+
+    /**
+     * Create one
+     */
+    public RingBufferSequentialTrainingExecutor(RingBufferTrainingExecutor.Strategy strategy)
+    {
+        this.strategy = strategy;
+    }
+
+    public int getNumEpochs()
+    {
+        return numEpochs;
+    }
+
+    /**
+     * Class that holds our sequence
+     */
+    public static class MessageEvent
+    {
+        private FeatureVectorSequence sequence;
+
+        public void set(FeatureVectorSequence sequence)
+        {
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Class that produces our sequence holder
+     */
+    public static class MessageEventFactory implements EventFactory<MessageEvent>
+    {
+        public MessageEvent newInstance()
+        {
+            return new MessageEvent();
+        }
+    }
+
+    /**
+     * This is our processor.  It is triggered when an event is placed onto the RingBuffer.
+     */
+    public static class MessageEventHandler implements EventHandler<MessageEvent>
+    {
+        SequentialLearner learner;
+        SequentialModel model;
+        private long lastTime;
+        private AtomicInteger currentEpoch = new AtomicInteger();
+        private List<SequentialTrainingEventListener> listeners;
+        private volatile boolean stopped;
+
+        /**
+         * Take in the learner and model and train
+         * @param learner The learner, which has been preprocessed
+         * @param model The initialized model
+         * @param listeners Epoch listeners
+         */
+        public MessageEventHandler(SequentialLearner learner, SequentialModel model, List<SequentialTrainingEventListener> listeners)
+        {
+            this.learner = learner;
+            this.model = model;
+            lastTime = System.currentTimeMillis();
+            this.listeners = listeners;
+        }
+
+        /**
+         * On a message, check if it is a null sequence.  If so, we are at the end of an epoch.
+         * @param messageEvent A sequence holder
+         * @param l Sequence number (which is increasing)
+         * @param b not used
+         * @throws Exception
+         */
+        @Override
+        public void onEvent(MessageEvent messageEvent, long l, boolean b) throws Exception
+        {
+            FeatureVectorSequence sequence = messageEvent.sequence;
+            // Let go of it, since the ring would otherwise pin bufferSize sequences after training
+            messageEvent.sequence = null;
+            if (stopped)
+            {
+                return;
+            }
+            if (sequence == null)
+            {
+                long tNow = System.currentTimeMillis();
+                double diff = (tNow - lastTime)/1000.;
+                lastTime = tNow;
+                int currentEpoch1Based = currentEpoch.incrementAndGet();
+
+                for (SequentialTrainingEventListener listener : listeners)
+                {
+                    listener.onEpochEnd(learner, model, diff);
+                }
+                log.info("Epoch " + currentEpoch1Based + " completed in " + diff + "s");
+                return;
+            }
+            learner.trainOne(model, sequence);
+        }
+
+        /**
+         * Get the current epoch
+         * @return
+         */
+        public int getCurrentEpoch()
+        {
+            return currentEpoch.get();
+        }
+    }
+
+    /**
+     * Initialize the Disruptor.  The buffer size is rounded up to a power of 2
+     *
+     * @param learner The learner, which should be preprocessed before anything is added
+     * @param model The initialized model
+     * @param numEpochs The number of epochs
+     * @param bufferSize The size of the internal buffer to train from
+     * @param listeners Any listeners which should be triggered on key lifecycle events
+     */
+    public void initialize(SequentialLearner learner, SequentialModel model, int numEpochs, int bufferSize,
+                           List<SequentialTrainingEventListener> listeners)
+    {
+        this.numEpochs = numEpochs;
+        MessageEventFactory factory = new MessageEventFactory();
+        WaitStrategy waitStrategy = (strategy == RingBufferTrainingExecutor.Strategy.YIELD) ? new YieldingWaitStrategy(): new BusySpinWaitStrategy();
+        disruptor = new Disruptor<MessageEvent>(factory, ExecUtils.nextPowerOf2(bufferSize), RingBufferTrainingExecutor.TRAINER_THREADS, ProducerType.SINGLE, waitStrategy);
+        handler = new MessageEventHandler(learner, model, listeners);
+        disruptor.handleEventsWith(handler);
+    }
+
+    /**
+     * Start the disruptor
+     */
+    public void start()
+    {
+        disruptor.start();
+    }
+
+    /**
+     * Add a sequence onto the RingBuffer.  This blocks if the buffer is full
+     * @param sequence A sequence, or null to signal the end of an epoch
+     */
+    public void add(FeatureVectorSequence sequence)
+    {
+        RingBuffer<MessageEvent> ringBuffer = disruptor.getRingBuffer();
+        long seq = ringBuffer.next();
+        try
+        {
+            MessageEvent event = ringBuffer.get(seq);
+            event.sequence = sequence;
+        }
+        finally
+        {
+            ringBuffer.publish(seq);
+        }
+    }
+
+    public void kill()
+    {
+        // Drains the buffer, then halts the training thread, which exits on its own
+        disruptor.shutdown();
+    }
+
+    /**
+     * Stop training early.  Anything still in the buffer, or added after this, is passed over without training, and
+     * {@link #join()} no longer waits for the rest of the epochs
+     */
+    public void stop()
+    {
+        handler.stopped = true;
+    }
+
+    /**
+     * Wait until all epochs have been consumed, or training was stopped, then shutdown the disruptor, which ends
+     * the training thread.
+     */
+    public void join()
+    {
+        while (handler.getCurrentEpoch() < this.numEpochs && !handler.stopped)
+        {
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch (InterruptedException intEx)
+            {
+
+            }
+        }
+
+        kill();
+    }
+}
@@ -6,14 +6,14 @@ import com.lmax.disruptor.dsl.ProducerType;
 import org.sgdtk.FeatureVector;
 import org.sgdtk.Learner;
 import org.sgdtk.Model;
+import org.sgdtk.PooledSparseVectorN;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -22,20 +22,38 @@ import java.util.concurrent.atomic.AtomicInteger;
  * LMAX Disruptor is one of my favorite toys for processing.  It is simple to use and very effective performance-wise.
  * Here we can operate contention-free -- unlike VW we dont even have condition variables bounding our buffer!
  *
+ * By default there is a single producer.  If several threads need to feed the same trainer (e.g. one parser per
+ * input shard), create the executor with multiProducer set, and have a single coordinator post the end of each epoch
+ * once every producer has finished it.  Producers should claim and publish in batches where they can, since that
+ * amortizes the sequencer's cost over the batch.
+ *
  * @author dpressel
  */
 public class RingBufferTrainingExecutor implements TrainingExecutor
 {
 
     private static final Logger log = LoggerFactory.getLogger(RingBufferTrainingExecutor.class);
-    ExecutorService executor;
+
+    // The disruptor starts one thread for the single consumer, the trainer
+    static final ThreadFactory TRAINER_THREADS = runnable -> new Thread(runnable, "sgdtk-trainer");
+
     Disruptor<MessageEvent> disruptor;
     MessageEventHandler handler;
     int numEpochs;
     private File cacheFile;
     private Strategy strategy;
+    private boolean multiProducer;
+    private Checkpointer checkpointer;
+    private final List<TrainingExampleListener> exampleListeners = new ArrayList<>();
+    private TrainingStats stats;
+    private int resumeEpoch;
+    private long resumeExamples;
 
-    public enum Strategy { YIELD, BUSY };
+    /**
+     * How the training thread waits for work.  YIELD and BUSY are lowest latency when data is always flowing, but
+     * keep a core spinning, so BLOCKING is better when examples arrive only now and then
+     */
+    public enum Strategy { YIELD, BUSY, BLOCKING };
 
     @Override
     public int getNumEpochs()
@@ -61,16 +79,37 @@ public class RingBufferTrainingExecutor implements TrainingExecutor
      * Create one
      */
     public RingBufferTrainingExecutor(Strategy strategy)
+    {
+        this(strategy, false);
+    }
+
+    /**
+     * Create one
+     * @param strategy The consumer wait strategy
+     * @param multiProducer Allow more than one thread to add to the buffer
+     */
+    public RingBufferTrainingExecutor(Strategy strategy, boolean multiProducer)
     {
         this.strategy = strategy;
+        this.multiProducer = multiProducer;
+    }
+
+    public boolean isMultiProducer()
+    {
+        return multiProducer;
     }
 
     /**
-     * Class that holds our feature vector
+     * Class that holds our feature vector.  The fv is what gets trained on, and null signals the end of an epoch.
+     * It is either a reference handed to {@link #add(org.sgdtk.FeatureVector)}, or the slot's own recycled storage
+     * if the producer is using {@link #claim()}, {@link #slot(long)} and {@link #publish(long)}.  That storage is only
+     * created the first time the slot is asked for, so producers that only ever add references don't pay for it
      */
     public static class MessageEvent
     {
         private FeatureVector fv;
+        private boolean skip;
+        private FeatureVector slot;
 
         public void set(FeatureVector fv)
         {
@@ -100,6 +139,17 @@ public class RingBufferTrainingExecutor implements TrainingExecutor
         private long lastTime;
         private AtomicInteger currentEpoch = new AtomicInteger();
         private List<TrainingEventListener> listeners;
+        private long examplesInEpoch;
+        private TrainingExampleListener[] exampleListeners = new TrainingExampleListener[0];
+        private int resumeEpoch;
+        private long resumeExamples;
+        private TrainingStats stats;
+        // Counted locally and added to the stats at the end of each batch
+        private long batchExamples;
+        private long batchFeatures;
+        private long batchEndNanos;
+        private long epochStartCpuNanos = -1;
+        private volatile boolean stopped;
         /**
          * Take in the learner and model and train
          * @param learner The learner
@@ -123,15 +173,62 @@ public class RingBufferTrainingExecutor implements TrainingExecutor
          */
         @Override
         public void onEvent(MessageEvent messageEvent, long l, boolean b) throws Exception
+        {
+            if (stats == null)
+            {
+                handle(messageEvent);
+                return;
+            }
+
+            // Time between batches is time spent waiting on the producers
+            if (batchEndNanos != 0)
+            {
+                stats.addConsumerIdle(System.nanoTime() - batchEndNanos);
+                batchEndNanos = 0;
+            }
+            if (epochStartCpuNanos < 0)
+            {
+                epochStartCpuNanos = TrainingStats.currentThreadCpuNanos();
+            }
+            handle(messageEvent);
+            if (b)
+            {
+                stats.addExamples(batchExamples);
+                stats.addFeatures(batchFeatures);
+                batchExamples = 0;
+                batchFeatures = 0;
+                batchEndNanos = System.nanoTime();
+            }
+        }
+
+        private void handle(MessageEvent messageEvent)
         {
             // get the message off the buffer and train on it
 
+            if (messageEvent.skip || stopped)
+            {
+                return;
+            }
             if (messageEvent.fv == null)
             {
+                examplesInEpoch = 0;
+                if (currentEpoch.get() < resumeEpoch)
+                {
+                    // Already done before the checkpoint we resumed from
+                    log.info("Epoch " + currentEpoch.incrementAndGet() + " skipped");
+                    lastTime = System.currentTimeMillis();
+                    return;
+                }
                 long tNow = System.currentTimeMillis();
                 double diff = (tNow - lastTime)/1000.;
                 lastTime = tNow;
                 int currentEpoch1Based = currentEpoch.incrementAndGet();
+                if (stats != null)
+                {
+                    long cpuNanos = TrainingStats.currentThreadCpuNanos();
+                    stats.endEpoch(diff, (cpuNanos - epochStartCpuNanos) / 1e9);
+                    epochStartCpuNanos = cpuNanos;
+                }
 
 
                 for (TrainingEventListener listener : listeners)
@@ -142,7 +239,23 @@ public class RingBufferTrainingExecutor implements TrainingExecutor
                 return;
 
             }
+            int epoch = currentEpoch.get();
+            if (epoch < resumeEpoch || (epoch == resumeEpoch && examplesInEpoch < resumeExamples))
+            {
+                ++examplesInEpoch;
+                return;
+            }
             learner.trainOne(model, messageEvent.fv);
+            ++examplesInEpoch;
+            if (stats != null)
+            {
+                ++batchExamples;
+                batchFeatures += TrainingStats.countFeatures(messageEvent.fv);
+            }
+            for (TrainingExampleListener listener : exampleListeners)
+            {
+                listener.onExample(learner, model, epoch, examplesInEpoch);
+            }
 
         }
 
@@ -156,6 +269,15 @@ public class RingBufferTrainingExecutor implements TrainingExecutor
             return currentEpoch.get();
         }
 
+        /**
+         * Whether training was stopped early
+         * @return true if stopped
+         */
+        public boolean isStopped()
+        {
+            return stopped;
+        }
+
     }
 
     /**
@@ -172,16 +294,57 @@ public class RingBufferTrainingExecutor implements TrainingExecutor
     {
 
         this.numEpochs = numEpochs;
-        executor = Executors.newSingleThreadExecutor();
         MessageEventFactory factory = new MessageEventFactory();
-        WaitStrategy waitStrategy = (strategy == Strategy.YIELD) ? new YieldingWaitStrategy(): new BusySpinWaitStrategy();
-        disruptor = new Disruptor<MessageEvent>(factory, ExecUtils.nextPowerOf2(bufferSize), executor, ProducerType.SINGLE, waitStrategy);
+        WaitStrategy waitStrategy = (strategy == Strategy.YIELD) ? new YieldingWaitStrategy():
+                (strategy == Strategy.BLOCKING) ? new BlockingWaitStrategy() : new BusySpinWaitStrategy();
+        disruptor = new Disruptor<MessageEvent>(factory, ExecUtils.nextPowerOf2(bufferSize), TRAINER_THREADS,
+                multiProducer ? ProducerType.MULTI : ProducerType.SINGLE, waitStrategy);
         handler = new MessageEventHandler(learner, model, listeners);
+        List<TrainingExampleListener> onExample = new ArrayList<>(exampleListeners);
+        if (checkpointer != null)
+        {
+            onExample.add(checkpointer);
+        }
+        handler.exampleListeners = onExample.toArray(new TrainingExampleListener[onExample.size()]);
+        handler.resumeEpoch = resumeEpoch;
+        handler.stats = stats;
+        if (stats != null)
+        {
+            final RingBuffer<MessageEvent> ringBuffer = disruptor.getRingBuffer();
+            stats.setBuffer(() -> (int) (ringBuffer.getBufferSize() - ringBuffer.remainingCapacity()),
+                    ringBuffer.getBufferSize());
+        }
+        handler.resumeExamples = resumeExamples;
         disruptor.handleEventsWith(handler);
         this.cacheFile = cacheFile;
 
     }
 
+    @Override
+    public void setCheckpointer(Checkpointer checkpointer)
+    {
+        this.checkpointer = checkpointer;
+    }
+
+    @Override
+    public void setStats(TrainingStats stats)
+    {
+        this.stats = stats;
+    }
+
+    @Override
+    public void addExampleListener(TrainingExampleListener listener)
+    {
+        exampleListeners.add(listener);
+    }
+
+    @Override
+    public void setResumePosition(int epoch, long examplesInEpoch)
+    {
+        this.resumeEpoch = epoch;
+        this.resumeExamples = examplesInEpoch;
+    }
+
     /**
      * Start the disruptor
      */
@@ -200,11 +363,12 @@ public class RingBufferTrainingExecutor implements TrainingExecutor
     public void add(FeatureVector fv)
     {
         RingBuffer<MessageEvent> ringBuffer = disruptor.getRingBuffer();
-        long sequence = ringBuffer.next();
+        long sequence = next(1);
         try
         {
             MessageEvent event = ringBuffer.get(sequence);
             event.fv = fv;
+            event.skip = false;
         }
         finally
         {
@@ -213,31 +377,166 @@ public class RingBufferTrainingExecutor implements TrainingExecutor
 
     }
 
+    /**
+     * Add several feature vectors onto the RingBuffer with one claim and publish
+     * @param fvs feature vectors
+     * @param n number of vectors to add
+     */
     @Override
-    public void kill()
+    public void add(FeatureVector[] fvs, int n)
     {
-        disruptor.shutdown();
-        executor.shutdownNow();
+        RingBuffer<MessageEvent> ringBuffer = disruptor.getRingBuffer();
+        long hi = next(n);
+        long lo = hi - n + 1;
         try
         {
-            executor.awaitTermination(100, TimeUnit.MICROSECONDS);
+            for (int i = 0; i < n; ++i)
+            {
+                MessageEvent event = ringBuffer.get(lo + i);
+                event.fv = fvs[i];
+                event.skip = false;
+            }
+        }
+        finally
+        {
+            ringBuffer.publish(lo, hi);
+        }
+    }
+
+    /**
+     * Get the size of the underlying buffer, which is the largest batch that can be claimed
+     * @return buffer size
+     */
+    public int getBufferSize()
+    {
+        return disruptor.getRingBuffer().getBufferSize();
+    }
+
+    // Claim n slots.  When keeping stats, try first without waiting, so only a full buffer pays for the clock
+    private long next(int n)
+    {
+        RingBuffer<MessageEvent> ringBuffer = disruptor.getRingBuffer();
+        if (stats == null)
+        {
+            return ringBuffer.next(n);
+        }
+        try
+        {
+            return ringBuffer.tryNext(n);
         }
-        catch (InterruptedException intEx)
+        catch (InsufficientCapacityException capacityEx)
         {
+            long t0 = System.nanoTime();
+            long sequence = ringBuffer.next(n);
+            stats.addProducerWait(System.nanoTime() - t0);
+            return sequence;
+        }
+    }
+
+    @Override
+    public long claim()
+    {
+        return next(1);
+    }
+
+    @Override
+    public long claim(int n)
+    {
+        return next(n);
+    }
 
+    @Override
+    public FeatureVector slot(long sequence)
+    {
+        MessageEvent event = disruptor.getRingBuffer().get(sequence);
+        if (event.slot == null)
+        {
+            // Only the claiming producer touches this until it is published
+            event.slot = new FeatureVector(0, new PooledSparseVectorN());
+            return event.slot;
         }
+        FeatureVector slot = event.slot;
+        slot.getX().reset();
+        slot.setY(0);
+        slot.setWeight(1.);
+        return slot;
+    }
 
+    @Override
+    public void publish(long sequence)
+    {
+        RingBuffer<MessageEvent> ringBuffer = disruptor.getRingBuffer();
+        MessageEvent event = ringBuffer.get(sequence);
+        event.fv = event.slot;
+        event.skip = false;
+        ringBuffer.publish(sequence);
+    }
+
+    @Override
+    public void publish(long lo, long hi)
+    {
+        if (hi < lo)
+        {
+            return;
+        }
+        RingBuffer<MessageEvent> ringBuffer = disruptor.getRingBuffer();
+        for (long sequence = lo; sequence <= hi; ++sequence)
+        {
+            MessageEvent event = ringBuffer.get(sequence);
+            event.fv = event.slot;
+            event.skip = false;
+        }
+        ringBuffer.publish(lo, hi);
+    }
+
+    @Override
+    public void publishSkip(long lo, long hi)
+    {
+        if (hi < lo)
+        {
+            return;
+        }
+        RingBuffer<MessageEvent> ringBuffer = disruptor.getRingBuffer();
+        for (long sequence = lo; sequence <= hi; ++sequence)
+        {
+            ringBuffer.get(sequence).skip = true;
+        }
+        ringBuffer.publish(lo, hi);
+    }
+
+    @Override
+    public void publishEndOfEpoch(long sequence)
+    {
+        RingBuffer<MessageEvent> ringBuffer = disruptor.getRingBuffer();
+        MessageEvent event = ringBuffer.get(sequence);
+        event.fv = null;
+        event.skip = false;
+        ringBuffer.publish(sequence);
+    }
+
+    @Override
+    public void kill()
+    {
+        // Drains the buffer, then halts the training thread, which exits on its own
+        disruptor.shutdown();
+
+    }
+
+    @Override
+    public void stop()
+    {
+        handler.stopped = true;
     }
 
     /**
-     * Pretty much busy-wait our way through this check seeing if all epochs have passed yet
-     * Then shutdown the disruptor and our ExecutorService.
+     * Pretty much busy-wait our way through this check seeing if all epochs have passed yet, or training was stopped.
+     * Then shutdown the disruptor, which ends the training thread.
      */
     @Override
     public void join()
     {
 
-        while (handler.getCurrentEpoch() < this.numEpochs)
+        while (handler.getCurrentEpoch() < this.numEpochs && !handler.stopped)
         {
             try
             {
@@ -0,0 +1,242 @@
+package org.sgdtk.exec;
+
+import org.sgdtk.FeatureVector;
+import org.sgdtk.pipeline.Emitter;
+import org.sgdtk.pipeline.Stage;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Subsample training examples, at a rate that can depend on the class, and weight the ones kept to make up for it
+ *
+ * Each example is kept with the rate for its label, and otherwise dropped.  For imbalanced data, the common class can
+ * be downsampled hard, for instance negatives at 0.001 and positives at 1, which cuts the training volume by orders
+ * of magnitude.  With importance weighting (the default), a kept example gets a weight of 1/rate, which
+ * {@link org.sgdtk.SGDLearner} multiplies into its loss gradient, so each one stands in for the examples that were
+ * dropped, and the model is trained for the original class balance rather than the sampled one.  A large weight is a
+ * large step, so a hard downsampling may need a smaller eta0, or Adagrad.  Without weighting, the examples are left
+ * at weight 1, which is plain uniform or stratified subsampling.
+ *
+ * The sampler is called by the producer threads, so each thread draws from its own random generator, split off a
+ * seeded one, rather than all of them contending on {@link Math#random()}.  With a single producer, the sample is the
+ * same from run to run for the same seed.  It is also a {@link Stage}, so it can be put in a
+ * {@link org.sgdtk.pipeline.Pipeline} in front of training.
+ *
+ * @author dpressel
+ */
+public class Sampler implements Stage<FeatureVector, FeatureVector>
+{
+    // Labels from -1 up to this get their own rate, others get the default
+    private static final int MAX_LABEL = 1023;
+
+    private double defaultRate;
+    private double[] rates = new double[0];
+    private boolean importanceWeighted = true;
+    private SplittableRandom seeds;
+    private final ThreadLocal<SplittableRandom> random = ThreadLocal.withInitial(this::newRandom);
+    private final LongAdder numSeen = new LongAdder();
+    private final LongAdder numKept = new LongAdder();
+
+    /**
+     * Create a sampler that keeps every example
+     */
+    public Sampler()
+    {
+        this(1.);
+    }
+
+    /**
+     * Create a sampler with the same rate for every class
+     * @param rate The fraction of examples to keep
+     */
+    public Sampler(double rate)
+    {
+        this.defaultRate = checkRate(rate);
+        this.seeds = new SplittableRandom();
+    }
+
+    private static double checkRate(double rate)
+    {
+        if (!(rate > 0.))
+        {
+            throw new IllegalArgumentException("Sampling rate must be positive, not " + rate);
+        }
+        return Math.min(1., rate);
+    }
+
+    private synchronized SplittableRandom newRandom()
+    {
+        return seeds.split();
+    }
+
+    /**
+     * Set rates per class from a list like -1:0.001,1:1
+     * @param classRates Comma-separated label:rate pairs
+     */
+    public void setClassRates(String classRates)
+    {
+        for (String pair : classRates.split(","))
+        {
+            String[] labelRate = pair.trim().split(":");
+            if (labelRate.length != 2)
+            {
+                throw new IllegalArgumentException("Expected label:rate, not " + pair);
+            }
+            setClassRate(Integer.parseInt(labelRate[0].trim()), Double.parseDouble(labelRate[1].trim()));
+        }
+    }
+
+    /**
+     * Sample a class at its own rate
+     * @param label The class label, from -1 up
+     * @param rate The fraction of examples of this class to keep
+     */
+    public synchronized void setClassRate(int label, double rate)
+    {
+        if (label < -1 || label > MAX_LABEL)
+        {
+            throw new IllegalArgumentException("Can't set a rate for label " + label);
+        }
+        int i = label + 1;
+        if (i >= rates.length)
+        {
+            int n = rates.length;
+            rates = Arrays.copyOf(rates, i + 1);
+            Arrays.fill(rates, n, rates.length, Double.NaN);
+        }
+        rates[i] = checkRate(rate);
+    }
+
+    /**
+     * The rate an example is kept at
+     * @param y The example's label
+     * @return The rate
+     */
+    public double rateFor(double y)
+    {
+        int i = (int) y + 1;
+        double[] rates = this.rates;
+        if (i >= 0 && i < rates.length && i - 1 == y)
+        {
+            double rate = rates[i];
+            if (rate == rate)
+            {
+                return rate;
+            }
+        }
+        return defaultRate;
+    }
+
+    /**
+     * Decide whether to keep an example, and if it is kept and weighting is on, set its weight
+     * @param fv The example
+     * @return true to keep it
+     */
+    public boolean sample(FeatureVector fv)
+    {
+        numSeen.increment();
+        double rate = rateFor(fv.getY());
+        if (rate < 1. && random.get().nextDouble() >= rate)
+        {
+            return false;
+        }
+        if (importanceWeighted)
+        {
+            fv.setWeight(1. / rate);
+        }
+        numKept.increment();
+        return true;
+    }
+
+    @Override
+    public void process(FeatureVector item, Emitter<FeatureVector> emitter) throws InterruptedException
+    {
+        if (sample(item))
+        {
+            emitter.emit(item);
+        }
+    }
+
+    /**
+     * Whether every example is kept, so the sampler can be passed over
+     * @return true if every rate is 1
+     */
+    public boolean isKeepAll()
+    {
+        if (defaultRate < 1.)
+        {
+            return false;
+        }
+        for (double rate : rates)
+        {
+            if (rate < 1.)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public double getDefaultRate()
+    {
+        return defaultRate;
+    }
+
+    /**
+     * The rate for labels without one of their own
+     * @param defaultRate The fraction of examples to keep
+     */
+    public void setDefaultRate(double defaultRate)
+    {
+        this.defaultRate = checkRate(defaultRate);
+    }
+
+    public boolean isImportanceWeighted()
+    {
+        return importanceWeighted;
+    }
+
+    /**
+     * Weight each kept example by 1/rate, so the sampling doesn't bias the model
+     * @param importanceWeighted false to leave the weights alone
+     */
+    public void setImportanceWeighted(boolean importanceWeighted)
+    {
+        this.importanceWeighted = importanceWeighted;
+    }
+
+    /**
+     * Seed the random generators.  Call before sampling, since a thread keeps the generator it started with
+     * @param seed The seed
+     */
+    public synchronized void setSeed(long seed)
+    {
+        this.seeds = new SplittableRandom(seed);
+    }
+
+    /**
+     * Number of examples looked at
+     * @return The count
+     */
+    public long getNumSeen()
+    {
+        return numSeen.sum();
+    }
+
+    /**
+     * Number of examples kept
+     * @return The count
+     */
+    public long getNumKept()
+    {
+        return numKept.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "kept " + getNumKept() + " of " + getNumSeen();
+    }
+}
@@ -0,0 +1,14 @@
+package org.sgdtk.exec;
+
+import org.sgdtk.struct.SequentialLearner;
+import org.sgdtk.struct.SequentialModel;
+
+/**
+ * Lifecycle hooks for overlapped sequential (CRF) training
+ *
+ * @author dpressel
+ */
+public interface SequentialTrainingEventListener
+{
+    void onEpochEnd(SequentialLearner learner, SequentialModel model, double epochSeconds);
+}
@@ -0,0 +1,292 @@
+package org.sgdtk.exec;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import org.sgdtk.*;
+import org.sgdtk.io.Config;
+import org.sgdtk.io.ConfigGrid;
+import org.sgdtk.io.JsonConfigReader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Train a grid of configurations on the same data at once, and rank them
+ *
+ * The data is loaded once, and every configuration trains its own model over the same feature vectors, on its own
+ * thread, visiting them in its own shuffled order.  Nothing writes to the feature vectors while training or
+ * evaluating, so they are shared without copying.  After each epoch, the model is scored on the test set if there is
+ * one, otherwise on the training set, and each configuration keeps its best epoch.  At the end, the configurations are
+ * listed from best to worst, and the best model can be saved.
+ *
+ * The grid is a JSON config where any setting can be a list of values, see {@link ConfigGrid}.
+ *
+ * @author dpressel
+ */
+public class Sweep
+{
+    public static class Params
+    {
+        @Parameter(description = "Training file", names = {"--train", "-t"}, required = true)
+        public String train;
+
+        @Parameter(description = "Testing file", names = {"--eval", "-e"})
+        public String eval;
+
+        @Parameter(description = "Grid of configs, where any setting can be a list of values", names = {"--grid", "-g"}, required = true)
+        public String grid;
+
+        @Parameter(description = "Best model to write out", names = {"--model", "-s"})
+        public String model;
+
+        @Parameter(description = "Number of epochs", names = {"--epochs", "-epochs"})
+        public Integer epochs = 5;
+
+        @Parameter(description = "File type", names = {"--ftype"})
+        public String fileType = "svm";
+
+        @Parameter(description = "Shingled N-Grams", names = {"--ngrams"})
+        public Integer ngrams = 1;
+
+        @Parameter(description = "Number of configs to train at once, 0 for one per processor", names = {"--threads"})
+        public Integer threads = 0;
+
+        @Parameter(description = "Score to rank by (cost|loss|error), on the test set if there is one, otherwise the training set", names = {"--rank-by"})
+        public String rankBy = "error";
+
+        @Parameter(description = "Number of configs to list, 0 for all", names = {"--top"})
+        public Integer top = 0;
+
+        @Parameter(description = "Seed for each config's shuffling", names = {"--seed"})
+        public Long seed = 1L;
+
+        @Parameter(description = "Number of candidate learning rates to try at once when picking eta0", names = {"--calibration-threads"})
+        public Integer calibrationThreads = 1;
+
+        @Parameter(description = "File of learning rates picked before, to reuse when training on the same data", names = {"--eta-cache"})
+        public String etaCache;
+
+        @Parameter(description = "Stop each config once its score stops improving", names = {"--early-stop"})
+        public Boolean earlyStop = false;
+
+        @Parameter(description = "Smallest relative improvement that counts as progress", names = {"--min-improvement"})
+        public Double minImprovement = 1e-3;
+
+        @Parameter(description = "Epochs in a row without progress before stopping", names = {"--patience"})
+        public Integer patience = 1;
+
+        @Parameter(description = "Epochs to train before stopping is allowed", names = {"--min-epochs"})
+        public Integer minEpochs = 1;
+
+        @Parameter(description = "Seconds between training stats reports, 0 to only report at the end", names = {"--report-sec"})
+        public Integer reportSec = 0;
+    }
+
+    /**
+     * One configuration's training run, and how it did
+     */
+    static class Trial
+    {
+        final String name;
+        final Learner learner;
+        final ConvergenceController convergence;
+        final List<FeatureVector> order;
+        final Random random;
+        Model model;
+        Metrics bestMetrics;
+        int epochs;
+        double seconds;
+        Exception failure;
+
+        Trial(String name, Learner learner, ConvergenceController convergence, List<FeatureVector> trainingSet,
+              long seed)
+        {
+            this.name = name;
+            this.learner = learner;
+            this.convergence = convergence;
+            this.order = new ArrayList<FeatureVector>(trainingSet);
+            this.random = new Random(seed);
+        }
+
+        double getBestScore()
+        {
+            return failure == null && bestMetrics != null ? convergence.getBestScore() : Double.POSITIVE_INFINITY;
+        }
+
+        void run(int numEpochs, List<FeatureVector> watchSet, ConvergenceController.Criterion criterion,
+                 boolean earlyStop)
+        {
+            try
+            {
+                for (int i = 0; i < numEpochs; ++i)
+                {
+                    Collections.shuffle(order, random);
+                    long t0 = System.nanoTime();
+                    learner.trainEpoch(model, order);
+                    seconds += (System.nanoTime() - t0) / 1e9;
+                    ++epochs;
+
+                    Metrics metrics = new Metrics();
+                    learner.eval(model, watchSet, metrics);
+                    double before = convergence.getBestScore();
+                    boolean converged = convergence.observe(criterion.score(metrics), model::prototype);
+                    if (convergence.getBestScore() < before)
+                    {
+                        bestMetrics = metrics;
+                    }
+                    if (earlyStop && converged)
+                    {
+                        break;
+                    }
+                }
+            }
+            catch (Exception ex)
+            {
+                failure = ex;
+            }
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            Params params = new Params();
+            JCommander jc = new JCommander(params, args);
+            jc.parse();
+
+            Config grid = new JsonConfigReader().read(new File(params.grid));
+            List<Config> configs = ConfigGrid.expand(grid);
+            System.out.println("Sweeping " + configs.size() + " configs from " + params.grid);
+
+            // Read the data once, for all of the configs
+            Train loader = new Train();
+            List<FeatureVector> trainingSet = loader.load(params.train, params.fileType, params.ngrams);
+            List<FeatureVector> evalSet = loader.load(params.eval, params.fileType, params.ngrams);
+            List<FeatureVector> watchSet = evalSet == null ? trainingSet : evalSet;
+            ConvergenceController.Criterion criterion = ConvergenceController.Criterion.valueOf(params.rankBy.toUpperCase());
+
+            TrainingStats stats = new TrainingStats();
+            stats.register(Sweep.class.getSimpleName());
+            if (params.reportSec > 0)
+            {
+                stats.startReporting(params.reportSec);
+            }
+            EtaCache etaCache = null;
+            if (params.etaCache != null)
+            {
+                etaCache = new EtaCache(new File(params.etaCache)).forData(
+                        EtaCache.describe(new File(params.train)) + "/" + params.fileType + "/" + params.ngrams);
+            }
+
+            List<Trial> trials = new ArrayList<Trial>(configs.size());
+            LearnerCreator creator = new SGDLearnerCreator();
+            for (int i = 0; i < configs.size(); ++i)
+            {
+                Config config = configs.get(i);
+                Learner learner = creator.newInstance(config);
+                if (learner instanceof SGDLearner)
+                {
+                    SGDLearner sgdLearner = (SGDLearner) learner;
+                    // The trials only share the example and feature counts, since their epochs run side by side
+                    sgdLearner.setStats(stats);
+                    sgdLearner.setCalibrationThreads(params.calibrationThreads);
+                    sgdLearner.setEtaCache(etaCache);
+                }
+                else if (learner instanceof MultiClassSGDLearner)
+                {
+                    MultiClassSGDLearner multiClassLearner = (MultiClassSGDLearner) learner;
+                    multiClassLearner.setCalibrationThreads(params.calibrationThreads);
+                    multiClassLearner.setEtaCache(etaCache);
+                }
+                ConvergenceController convergence = new ConvergenceController();
+                convergence.setMinImprovement(params.minImprovement);
+                convergence.setPatience(params.patience);
+                convergence.setMinEpochs(params.minEpochs);
+                Trial trial = new Trial(config.getName(), learner, convergence, trainingSet, params.seed + i);
+                trial.model = learner.create(loader.featureVectorWidth);
+                trials.add(trial);
+            }
+
+            int numThreads = params.threads > 0 ? params.threads : Runtime.getRuntime().availableProcessors();
+            numThreads = Math.min(numThreads, trials.size());
+            System.out.println("Training " + trials.size() + " configs, " + numThreads + " at a time");
+            ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+            long t0 = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<Future<?>>(trials.size());
+            for (final Trial trial : trials)
+            {
+                futures.add(pool.submit(() ->
+                {
+                    trial.run(params.epochs, watchSet, criterion, params.earlyStop);
+                    System.out.println(String.format("Finished %s after %d epochs, best %s %.6f at epoch %d",
+                            trial.name, trial.epochs, params.rankBy, trial.getBestScore(),
+                            trial.convergence.getBestEpoch()));
+                }));
+            }
+            for (Future<?> future : futures)
+            {
+                future.get();
+            }
+            pool.shutdown();
+            double elapsed = (System.nanoTime() - t0) / 1e9;
+
+            List<Trial> ranked = new ArrayList<Trial>(trials);
+            ranked.sort(Comparator.comparingDouble(Trial::getBestScore));
+            showLeaderboard(ranked, params.top > 0 ? Math.min(params.top, ranked.size()) : ranked.size());
+
+            System.out.println("Total sweep time " + elapsed + "s");
+            System.out.println("Training stats: " + stats);
+            stats.close();
+
+            Trial best = ranked.get(0);
+            if (params.model != null && best.bestMetrics != null)
+            {
+                System.out.println("Saving " + best.name + ": " + params.model);
+                best.convergence.getBestModel().save(new FileOutputStream(params.model));
+            }
+        }
+        catch (Exception ex)
+        {
+            ex.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static void showLeaderboard(List<Trial> ranked, int top)
+    {
+        System.out.println("========================================================");
+        System.out.println(String.format("%-4s %10s %12s %12s %10s %6s %8s  %s",
+                "Rank", "Error", "Loss", "Cost", "Eta0", "Epoch", "Time", "Config"));
+        System.out.println("========================================================");
+        for (int i = 0; i < top; ++i)
+        {
+            Trial trial = ranked.get(i);
+            if (trial.failure != null)
+            {
+                System.out.println(String.format("%-4d %s failed: %s", i + 1, trial.name, trial.failure));
+                continue;
+            }
+            Metrics metrics = trial.bestMetrics;
+            if (metrics == null)
+            {
+                System.out.println(String.format("%-4d %s had no finite score", i + 1, trial.name));
+                continue;
+            }
+            String eta0 = trial.learner instanceof SGDLearner ?
+                    String.format("%.4g", ((SGDLearner) trial.learner).getEta0()) : "-";
+            System.out.println(String.format("%-4d %9.2f%% %12.6f %12.6f %10s %6d %7.1fs  %s",
+                    i + 1, 100 * metrics.getError(), metrics.getLoss(), metrics.getCost(), eta0,
+                    trial.convergence.getBestEpoch(), trial.seconds, trial.name));
+        }
+        System.out.println("--------------------------------------------------------");
+    }
+}
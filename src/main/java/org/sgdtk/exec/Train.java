@@ -6,6 +6,7 @@ import com.beust.jcommander.Parameter;
 import org.sgdtk.*;
 import org.sgdtk.SGDLearner;
 import org.sgdtk.io.Config;
+import org.sgdtk.io.FeatureVectorCacheReader;
 import org.sgdtk.io.FixedWidthDatasetReader;
 import org.sgdtk.io.JsonConfigReader;
 import org.sgdtk.io.SVMLightFileFeatureProvider;
@@ -13,8 +14,10 @@ import org.sgdtk.SquaredHingeLoss;
 import org.sgdtk.MultiClassSGDLearner;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Train a classifier using some loss function using SGD
@@ -51,9 +54,12 @@ public class Train
         @Parameter(description = "Number of classes", names = {"--nc"})
         public Integer numClasses = 2;
 
-        @Parameter(description = "Learning method (sgd|adagrad)", names = {"--method"})
+        @Parameter(description = "Learning method (sgd|adagrad|asgd)", names = {"--method"})
         public String method = LearningMethod.SGD.toString();
 
+        @Parameter(description = "Epochs to train before averaging starts, for asgd", names = {"--average-start"})
+        public Double averageStart = 1.;
+
         @Parameter(description = "Config file", names = {"--config", "--conf"})
         public String configFile;
 
@@ -62,12 +68,65 @@ public class Train
 
         @Parameter(description = "Shingled N-Grams", names = {"--ngrams"})
         public Integer ngrams = 1;
+
+        @Parameter(description = "Number of parallel workers, mixed by averaging their models", names = {"--workers"})
+        public Integer workers = 1;
+
+        @Parameter(description = "Number of times to mix the workers per epoch", names = {"--mixes"})
+        public Integer mixesPerEpoch = 1;
+
+        @Parameter(description = "Report AUC, log loss, per-class precision, recall and F1, confusion and calibration", names = {"--detailed-eval"})
+        public Boolean detailedEval = false;
+
+        @Parameter(description = "Number of threads to evaluate on", names = {"--eval-threads"})
+        public Integer evalThreads = 1;
+
+        @Parameter(description = "Seconds between training stats reports, 0 to only report at the end", names = {"--report-sec"})
+        public Integer reportSec = 0;
+
+        @Parameter(description = "Number of candidate learning rates to try at once when picking eta0", names = {"--calibration-threads"})
+        public Integer calibrationThreads = 1;
+
+        @Parameter(description = "File of learning rates picked before, to reuse when training on the same data", names = {"--eta-cache"})
+        public String etaCache;
+
+        @Parameter(description = "Stop once the watched score stops improving, and keep the best model", names = {"--early-stop"})
+        public Boolean earlyStop = false;
+
+        @Parameter(description = "Score to watch for early stopping (cost|loss|error), on the test set if there is one, otherwise the training set", names = {"--stop-on"})
+        public String stopOn = "loss";
+
+        @Parameter(description = "Smallest relative improvement that counts as progress", names = {"--min-improvement"})
+        public Double minImprovement = 1e-3;
+
+        @Parameter(description = "Epochs in a row without progress before stopping", names = {"--patience"})
+        public Integer patience = 1;
+
+        @Parameter(description = "Epochs to train before stopping is allowed", names = {"--min-epochs"})
+        public Integer minEpochs = 1;
+
+        @Parameter(description = "Cross-validate on the training set with this many folds, before training the model if there is one to write out", names = {"--folds"})
+        public Integer folds = 0;
+
+        @Parameter(description = "Number of folds to train at once, 0 for all of them", names = {"--cv-threads"})
+        public Integer cvThreads = 0;
+
+        @Parameter(description = "Seed for dealing out the folds", names = {"--cv-seed"})
+        public Long cvSeed = 1L;
     }
 
     int featureVectorWidth = 0;
     int epoch = 1;
     Learner learner;
     Model model;
+    ParameterMixingTrainer mixer;
+    TrainingStats stats = new TrainingStats();
+    ForkJoinPool evalPool;
+    Metrics evalMetrics = new Metrics();
+    int calibrationThreads = 1;
+    EtaCache etaCache;
+    ConvergenceController.Criterion watchCriterion;
+    double watchScore;
     double trainingBest = 100.;
     double testBest = 100.;
 
@@ -78,7 +137,7 @@ public class Train
 
     enum LearningMethod
     {
-        SGD, ADAGRAD
+        SGD, ADAGRAD, ASGD
     }
     public static Loss lossFor(String loss)
     {
@@ -99,7 +158,7 @@ public class Train
         return new HingeLoss();
     }
 
-    enum FileType { SVM, TSV, TXT }
+    enum FileType { SVM, TSV, TXT, CACHE }
 
     public List<FeatureVector> load(String file, String ftype, int ngrams) throws IOException
     {
@@ -121,6 +180,19 @@ public class Train
             reader = fixedWidthDatasetReader;
             dataset = fixedWidthDatasetReader.load(new File(file));
         }
+        else if (fileType == FileType.CACHE)
+        {
+            System.out.println("Loading feature vector cache");
+            try (FeatureVectorCacheReader cacheReader = new FeatureVectorCacheReader(new File(file)))
+            {
+                reader = cacheReader;
+                dataset = new ArrayList<>();
+                for (FeatureVector fv; (fv = cacheReader.next()) != null; )
+                {
+                    dataset.add(fv);
+                }
+            }
+        }
         else
         {
             System.out.println("Loading SVM light file");
@@ -140,12 +212,36 @@ public class Train
         return dataset;
     }
 
+    // Set up what the trainer shares with the learner before its model is created
+    private void configure(Learner learner)
+    {
+        configure(learner, etaCache, stats);
+    }
+
+    private void configure(Learner learner, EtaCache etaCache, TrainingStats stats)
+    {
+        if (learner instanceof SGDLearner)
+        {
+            SGDLearner sgdLearner = (SGDLearner) learner;
+            sgdLearner.setStats(stats);
+            sgdLearner.setCalibrationThreads(calibrationThreads);
+            sgdLearner.setEtaCache(etaCache);
+        }
+        else if (learner instanceof MultiClassSGDLearner)
+        {
+            MultiClassSGDLearner multiClassLearner = (MultiClassSGDLearner) learner;
+            multiClassLearner.setCalibrationThreads(calibrationThreads);
+            multiClassLearner.setEtaCache(etaCache);
+        }
+    }
+
     void initFromConfig(String configFile) throws Exception
     {
         LearnerCreator creator = new SGDLearnerCreator();
         JsonConfigReader configReader = new JsonConfigReader();
         Config config = configReader.read(new File(configFile));
         learner = creator.newInstance(config);
+        configure(learner);
         System.out.println("Creating model with vector of size " + featureVectorWidth);
         model = learner.create(featureVectorWidth);
     }
@@ -153,11 +249,71 @@ public class Train
     void init(Learner learner) throws Exception
     {
         this.learner = learner;
+        configure(learner);
         System.out.println("Creating model with vector of size " + featureVectorWidth);
         model = learner.create(featureVectorWidth);
     }
 
-    double runEpoch(List<FeatureVector> trainingSet, List<FeatureVector> evalSet)
+    void initMixing(List<Learner> learners, int mixesPerEpoch) throws Exception
+    {
+        this.learner = learners.get(0);
+        for (Learner worker : learners)
+        {
+            configure(worker);
+        }
+        mixer = new ParameterMixingTrainer(learners);
+        mixer.setMixesPerEpoch(mixesPerEpoch);
+        System.out.println("Creating " + learners.size() + " models with vector of size " + featureVectorWidth);
+        model = mixer.create(featureVectorWidth);
+    }
+
+    void crossValidate(Params params, List<FeatureVector> trainingSet) throws Exception
+    {
+        System.out.println("~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~");
+        System.out.println("CROSS-VALIDATING: " + params.folds + " folds");
+        CrossValidator crossValidator = new CrossValidator(params.folds);
+        crossValidator.setNumEpochs(params.epochs);
+        crossValidator.setSeed(params.cvSeed);
+        crossValidator.setPrototype(evalMetrics.emptyCopy());
+        if (params.cvThreads > 0)
+        {
+            crossValidator.setNumThreads(params.cvThreads);
+        }
+
+        Config config = params.configFile == null ? null : new JsonConfigReader().read(new File(params.configFile));
+        Loss lossFunction = config == null ? lossFor(params.loss) : null;
+        Class<? extends LinearModel> classType = config == null ? learningMethodFor(params.method) : null;
+        // Each fold trains on the others
+        long averageStart = (long) (params.averageStart * trainingSet.size() * (params.folds - 1) / params.folds);
+        double t0 = System.currentTimeMillis();
+        CrossValidator.Result result = crossValidator.run(trainingSet, fold ->
+        {
+            Learner foldLearner = config != null ? new SGDLearnerCreator().newInstance(config) :
+                    learnerFor(params, lossFunction, classType, averageStart);
+            // Each fold trains on different data, so it picks its own eta.  The folds' epochs aren't the main run's,
+            // so they don't go into its stats
+            configure(foldLearner, etaCache == null ? null :
+                    etaCache.forData("fold" + (fold + 1) + "of" + params.folds + "/" + params.cvSeed), null);
+            return foldLearner;
+        }, featureVectorWidth);
+        System.out.println("Cross-validation time " + (System.currentTimeMillis() - t0) / 1000. + "s");
+
+        for (int i = 0; i < params.folds; ++i)
+        {
+            Metrics metrics = result.getFolds().get(i);
+            System.out.println(String.format("Fold %d: Loss = %.6f Cost = %.6f Error = %.2f", i + 1,
+                    metrics.getLoss(), metrics.getCost(), 100 * metrics.getError()));
+        }
+        showMetrics(result.getPooled(), "Cross-Validation Metrics, Pooled Over Folds");
+        for (ConvergenceController.Criterion criterion : ConvergenceController.Criterion.values())
+        {
+            double scale = criterion == ConvergenceController.Criterion.ERROR ? 100 : 1;
+            System.out.println(String.format("\tMean %s = %.6f +/- %.6f", criterion.toString().toLowerCase(),
+                    scale * result.mean(criterion), scale * result.std(criterion)));
+        }
+    }
+
+    double runEpoch(List<FeatureVector> trainingSet, List<FeatureVector> evalSet) throws Exception
     {
         Collections.shuffle(trainingSet);
         System.out.println("~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~");
@@ -165,31 +321,61 @@ public class Train
         Metrics metrics = new Metrics();
         double t0 = System.currentTimeMillis();
 
-        learner.trainEpoch(model, trainingSet);
+        if (mixer != null)
+        {
+            mixer.trainEpoch(trainingSet);
+        }
+        else
+        {
+            learner.trainEpoch(model, trainingSet);
+        }
         double elapsedThisEpoch = (System.currentTimeMillis() - t0) / 1000.;
+        // Counted here, since with mixing, every worker trains several times an epoch
+        stats.endEpoch(elapsedThisEpoch);
         System.out.println("Epoch training time " + elapsedThisEpoch + "s");
 
-        learner.eval(model, trainingSet, metrics);
+        eval(trainingSet, metrics);
         if (metrics.getError() < trainingBest)
         {
             trainingBest = metrics.getError();
         }
+        if (watchCriterion != null)
+        {
+            watchScore = watchCriterion.score(metrics);
+        }
         showMetrics(metrics, "Training Set Eval Metrics");
         metrics.clear();
 
         if (evalSet != null)
         {
-            learner.eval(model, evalSet, metrics);
+            metrics = evalMetrics.emptyCopy();
+            eval(evalSet, metrics);
             if (metrics.getError() < testBest)
             {
                 testBest = metrics.getError();
             }
+            if (watchCriterion != null)
+            {
+                watchScore = watchCriterion.score(metrics);
+            }
             showMetrics(metrics, "Test Set Eval Metrics");
         }
         ++epoch;
         return elapsedThisEpoch;
     }
 
+    void eval(List<FeatureVector> examples, Metrics metrics)
+    {
+        if (evalPool == null)
+        {
+            learner.eval(model, examples, metrics);
+        }
+        else
+        {
+            learner.eval(model, examples, metrics, evalPool);
+        }
+    }
+
     public void saveIf(String modelName) throws IOException
     {
         if (modelName != null)
@@ -199,12 +385,37 @@ public class Train
         }
     }
 
-    public static Class learningMethodFor(String method)
+    public static Class<? extends LinearModel> learningMethodFor(String method)
     {
         LearningMethod learningMethod = LearningMethod.valueOf(method.toUpperCase());
         System.out.println("Using " + learningMethod.toString() + " learning method");
-        return learningMethod == LearningMethod.ADAGRAD ? AdagradLinearModel.class : LinearModel.class;
+        if (learningMethod == LearningMethod.ADAGRAD)
+        {
+            return AdagradLinearModel.class;
+        }
+        return learningMethod == LearningMethod.ASGD ? AveragedLinearModel.class : LinearModel.class;
+    }
+
+    static LearningRateSchedule scheduleFor(Class<? extends LinearModel> classType)
+    {
+        if (classType.equals(AdagradLinearModel.class))
+        {
+            return new FixedLearningRateSchedule();
+        }
+        // Averaging makes up for a learning rate that stays large for longer
+        return classType.equals(AveragedLinearModel.class) ? new RobbinsMonroUpdateSchedule(0.75) : new RobbinsMonroUpdateSchedule();
     }
+
+    static Learner learnerFor(Params params, Loss lossFunction, Class<? extends LinearModel> classType, long averageStart)
+    {
+        LinearModelFactory modelFactory = new LinearModelFactory(classType);
+        modelFactory.setAverageStart(averageStart);
+        return params.numClasses > 2 ? new MultiClassSGDLearner(params.numClasses, lossFunction, params.lambda, params.eta0) :
+                new SGDLearner(lossFunction, params.lambda, params.eta0,
+                        modelFactory,
+                        scheduleFor(classType));
+    }
+
     public static void main(String[] args)
     {
         try
@@ -214,12 +425,68 @@ public class Train
             jc.parse();
 
             Train trainer = new Train();
+            trainer.stats.register(Train.class.getSimpleName());
+            if (params.detailedEval)
+            {
+                trainer.evalMetrics = new ClassificationMetrics(params.numClasses);
+            }
+            if (params.evalThreads > 1)
+            {
+                trainer.evalPool = new ForkJoinPool(params.evalThreads);
+            }
+            if (params.reportSec > 0)
+            {
+                trainer.stats.startReporting(params.reportSec);
+            }
+            trainer.calibrationThreads = params.calibrationThreads;
+            if (params.etaCache != null)
+            {
+                // The features also depend on how the file is read
+                trainer.etaCache = new EtaCache(new File(params.etaCache)).forData(
+                        EtaCache.describe(new File(params.train)) + "/" + params.fileType + "/" + params.ngrams);
+            }
 
             List<FeatureVector> trainingSet = trainer.load(params.train, params.fileType, params.ngrams);
             List<FeatureVector> evalSet = trainer.load(params.eval, params.fileType, params.ngrams);
 
+            if (params.folds > 1)
+            {
+                trainer.crossValidate(params, trainingSet);
+                // Without a model to write out, the estimate is all that was wanted
+                if (params.model == null)
+                {
+                    trainer.stats.close();
+                    return;
+                }
+            }
+
+            // Each worker gets its own learner, configured the same way
+            if (params.workers > 1)
+            {
+                List<Learner> learners = new ArrayList<>();
+                if (params.configFile != null)
+                {
+                    Config config = new JsonConfigReader().read(new File(params.configFile));
+                    for (int i = 0; i < params.workers; ++i)
+                    {
+                        learners.add(new SGDLearnerCreator().newInstance(config));
+                    }
+                }
+                else
+                {
+                    Loss lossFunction = lossFor(params.loss);
+                    Class<? extends LinearModel> classType = learningMethodFor(params.method);
+                    // Each worker sees its own partition
+                    long averageStart = (long) (params.averageStart * trainingSet.size() / params.workers);
+                    for (int i = 0; i < params.workers; ++i)
+                    {
+                        learners.add(learnerFor(params, lossFunction, classType, averageStart));
+                    }
+                }
+                trainer.initMixing(learners, params.mixesPerEpoch);
+            }
             // Read all params from a config stream (easy, way)
-            if (params.configFile != null)
+            else if (params.configFile != null)
             {
                 trainer.initFromConfig(params.configFile);
             }
@@ -227,23 +494,41 @@ public class Train
             else
             {
                 Loss lossFunction = lossFor(params.loss);
-                Class classType = learningMethodFor(params.method);
-                ModelFactory modelFactory = new LinearModelFactory(classType);
-                trainer.init(params.numClasses > 2 ? new MultiClassSGDLearner(params.numClasses, lossFunction, params.lambda, params.eta0) :
-                        new SGDLearner(lossFunction, params.lambda, params.eta0,
-                                modelFactory,
-                                classType.equals(AdagradLinearModel.class) ? new FixedLearningRateSchedule() : new RobbinsMonroUpdateSchedule()));
+                Class<? extends LinearModel> classType = learningMethodFor(params.method);
+                trainer.init(learnerFor(params, lossFunction, classType, (long) (params.averageStart * trainingSet.size())));
             }
 
 
+            ConvergenceController convergence = null;
+            if (params.earlyStop)
+            {
+                trainer.watchCriterion = ConvergenceController.Criterion.valueOf(params.stopOn.toUpperCase());
+                convergence = new ConvergenceController();
+                convergence.setMinImprovement(params.minImprovement);
+                convergence.setPatience(params.patience);
+                convergence.setMinEpochs(params.minEpochs);
+            }
+
             double totalTrainingElapsed = 0.;
             for (int i = 0; i < params.epochs; ++i)
             {
 
                 totalTrainingElapsed += trainer.runEpoch(trainingSet, evalSet);
+                if (convergence != null && convergence.observe(trainer.watchScore, trainer.model::prototype))
+                {
+                    System.out.println("Stopping early after " + (i + 1) + " epochs");
+                    break;
+                }
+            }
+            if (convergence != null && convergence.getBestModel() != null)
+            {
+                System.out.println("Keeping the model from epoch " + convergence.getBestEpoch());
+                trainer.model = convergence.getBestModel();
             }
 
             System.out.println("Total training time " + totalTrainingElapsed + "s");
+            System.out.println("Training stats: " + trainer.stats);
+            trainer.stats.close();
 
             System.out.println("~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~");
             System.out.println(String.format("Highest training acc: %.02f %%", 100 * (1 - trainer.trainingBest)));
@@ -252,6 +537,10 @@ public class Train
                 System.out.println(String.format("Highest test acc: %.02f %%", 100 * (1 - trainer.testBest)));
             }
             trainer.saveIf(params.model);
+            if (trainer.mixer != null)
+            {
+                trainer.mixer.shutdown();
+            }
 
         }
         catch (Exception ex)
@@ -270,6 +559,10 @@ public class Train
         System.out.println("\tLoss = " + metrics.getLoss());
         System.out.println("\tCost = " + metrics.getCost());
         System.out.println("\tError = " + 100 * metrics.getError());
+        if (metrics instanceof ClassificationMetrics)
+        {
+            System.out.print(((ClassificationMetrics) metrics).report());
+        }
         System.out.println("--------------------------------------------------------");
     }
 
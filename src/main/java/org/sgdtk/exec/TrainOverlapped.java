@@ -3,13 +3,21 @@ package org.sgdtk.exec;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import org.sgdtk.*;
+import org.sgdtk.io.CacheMetadata;
 import org.sgdtk.io.Config;
+import org.sgdtk.io.FeatureVectorCacheReader;
+import org.sgdtk.io.InputFiles;
 import org.sgdtk.io.JsonConfigReader;
+import org.sgdtk.io.PrefetchingInputStream;
 import org.sgdtk.io.SVMLightFileFeatureProvider;
+import org.sgdtk.pipeline.LineSource;
+import org.sgdtk.pipeline.Pipeline;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Train a classifier using some loss function using SGD.  Unlike Train, File IO is overlapped with processing
@@ -32,7 +40,7 @@ public class TrainOverlapped
     public static class Params
     {
 
-        @Parameter(description = "Training file", names = {"--train", "-t"}, required = true)
+        @Parameter(description = "Training file, directory or glob, or a comma-separated list of them.  Each file is a shard", names = {"--train", "-t"}, required = true)
         public String train;
 
         @Parameter(description = "Testing file", names = {"--eval", "-e"})
@@ -62,12 +70,117 @@ public class TrainOverlapped
         @Parameter(description = "Number of classes", names = {"--nc"})
         public Integer numClasses = 2;
 
-        @Parameter(description = "Learning method (sgd|adagrad)", names = {"--method"})
+        @Parameter(description = "Learning method (sgd|adagrad|asgd)", names = {"--method"})
         public String method = "sgd";
 
+        @Parameter(description = "Examples to train on before averaging starts, for asgd (about one epoch is good)", names = {"--average-start-examples"})
+        public Long averageStart = 0L;
+
         @Parameter(description = "Config file", names = {"--config", "--conf"})
         public String configFile;
 
+        @Parameter(description = "Cache record format (raw|compact|compact-float)", names = {"--cache-format"})
+        public String cacheFormat = "raw";
+
+        @Parameter(description = "Compress cache blocks", names = {"--compress"})
+        public Boolean compress = false;
+
+        @Parameter(description = "Persistent cache file, reused if it was built from the same training file", names = {"--cache"})
+        public String cacheFile;
+
+        @Parameter(description = "Check if the persistent cache can be reused, then exit", names = {"--check-cache"})
+        public Boolean checkCache = false;
+
+        @Parameter(description = "Recycle feature vectors owned by the ring buffer slots", names = {"--recycle"})
+        public Boolean recycle = false;
+
+        @Parameter(description = "Shuffle the cache on each replayed epoch", names = {"--shuffle"})
+        public Boolean shuffle = false;
+
+        @Parameter(description = "Number of cache blocks to shuffle together", names = {"--shuffle-window"})
+        public Integer shuffleWindow = 16;
+
+        @Parameter(description = "Shuffle seed", names = {"--seed"})
+        public Long seed = 0L;
+
+        @Parameter(description = "Number of threads parsing training shards and replaying cache segments", names = {"--readers"})
+        public Integer numReaders = 1;
+
+        @Parameter(description = "Number of examples to publish to the ring buffer at once", names = {"--batch"})
+        public Integer batchSize = 64;
+
+        @Parameter(description = "Checkpoint file, written in the background while training", names = {"--checkpoint"})
+        public String checkpoint;
+
+        @Parameter(description = "Checkpoint every this many examples", names = {"--checkpoint-every"})
+        public Long checkpointEvery = 0L;
+
+        @Parameter(description = "Checkpoint every this many seconds", names = {"--checkpoint-sec"})
+        public Double checkpointSec = 0.;
+
+        @Parameter(description = "Resume from the checkpoint, if there is one", names = {"--resume"})
+        public Boolean resume = false;
+
+        @Parameter(description = "Continue training from a saved training state, whose eta0 replaces --eta0", names = {"--warm-start"})
+        public String warmStart;
+
+        @Parameter(description = "Save the training state at the end, to warm start from later", names = {"--save-state"})
+        public String saveState;
+
+        @Parameter(description = "Read, parse and train as a staged pipeline", names = {"--pipeline"})
+        public Boolean pipeline = false;
+
+        @Parameter(description = "Number of parser threads in pipeline mode", names = {"--parse-threads"})
+        public Integer parseThreads = 2;
+
+        @Parameter(description = "Number of lines handed between pipeline stages at once", names = {"--chunk"})
+        public Integer chunkSize = 256;
+
+        @Parameter(description = "Seconds between training and pipeline stats reports, 0 to only report at the end", names = {"--report-sec"})
+        public Integer reportSec = 0;
+
+        @Parameter(description = "Report AUC, log loss, per-class precision, recall and F1, confusion and calibration", names = {"--detailed-eval"})
+        public Boolean detailedEval = false;
+
+        @Parameter(description = "Number of threads to evaluate on", names = {"--eval-threads"})
+        public Integer evalThreads = 1;
+
+        @Parameter(description = "Evaluate a copy of the model in the background, while training goes on", names = {"--async-eval"})
+        public Boolean asyncEval = false;
+
+        @Parameter(description = "Size of each read-ahead buffer for input files", names = {"--prefetch-size"})
+        public Integer prefetchSize = PrefetchingInputStream.DEFAULT_BUFFER_SZ;
+
+        @Parameter(description = "Stop once the watched score stops improving, and keep the best model", names = {"--early-stop"})
+        public Boolean earlyStop = false;
+
+        @Parameter(description = "Score to watch for early stopping (cost|loss|error), on the test set, or the watch sample if there is no test set", names = {"--stop-on"})
+        public String stopOn = "loss";
+
+        @Parameter(description = "Smallest relative improvement that counts as progress", names = {"--min-improvement"})
+        public Double minImprovement = 1e-3;
+
+        @Parameter(description = "Epochs in a row without progress before stopping", names = {"--patience"})
+        public Integer patience = 1;
+
+        @Parameter(description = "Epochs to train before stopping is allowed", names = {"--min-epochs"})
+        public Integer minEpochs = 1;
+
+        @Parameter(description = "Number of read-ahead buffers per input file, 0 to read on the parsing thread", names = {"--prefetch-buffers"})
+        public Integer prefetchBuffers = PrefetchingInputStream.DEFAULT_NUM_BUFFERS;
+
+        @Parameter(description = "Fraction of examples to train on in each pass, for classes without a rate of their own", names = {"--sample-rate"})
+        public Double sampleRate = 1.0;
+
+        @Parameter(description = "Fraction of each class to train on in each pass, as label:rate pairs, e.g. -1:0.001,1:1", names = {"--class-rates"})
+        public String classRates;
+
+        @Parameter(description = "Don't weight sampled examples by 1/rate", names = {"--unweighted"})
+        public Boolean unweighted = false;
+
+        @Parameter(description = "Keep a uniform sample of this many training examples, to evaluate and stop early on when there is no test set", names = {"--watch-sample"})
+        public Integer watchSample = 0;
+
     }
 
     private static void showMetrics(Metrics metrics, String pre)
@@ -79,9 +192,81 @@ public class TrainOverlapped
         System.out.println("\tLoss = " + metrics.getLoss());
         System.out.println("\tCost = " + metrics.getCost());
         System.out.println("\tError = " + 100*metrics.getError());
+        if (metrics instanceof ClassificationMetrics)
+        {
+            System.out.print(((ClassificationMetrics) metrics).report());
+        }
         System.out.println("--------------------------------------------------------");
     }
 
+    // Read each shard on its own thread, parse on a pool, and train in one place
+    private static void trainPipelined(final Params params, List<File> trainFiles, final OverlappedTrainingRunner asyncTrainer) throws Exception
+    {
+        List<LineSource> sources = new ArrayList<LineSource>();
+        for (File trainFile : trainFiles)
+        {
+            sources.add(new LineSource(trainFile, params.chunkSize));
+        }
+        final int maxFeatures = params.widthFV == null ? 0 : params.widthFV;
+        int queueSz = 4 * params.parseThreads;
+        final Pipeline pipeline = Pipeline.from("read", sources)
+                .<List<FeatureVector>>then("parse", (lines, emitter) ->
+                {
+                    List<FeatureVector> fvs = new ArrayList<FeatureVector>(lines.size());
+                    for (String line : lines)
+                    {
+                        FeatureVector fv = FeatureVector.newSparse();
+                        SVMLightFileFeatureProvider.parse(line, fv, maxFeatures);
+                        fvs.add(fv);
+                    }
+                    emitter.emit(fvs);
+                }, params.parseThreads, queueSz)
+                .to("train", fvs ->
+                {
+                    for (FeatureVector fv : fvs)
+                    {
+                        asyncTrainer.add(fv);
+                    }
+                }, 1, queueSz);
+
+        Thread reporter = null;
+        if (params.reportSec > 0)
+        {
+            reporter = new Thread(() ->
+            {
+                try
+                {
+                    while (true)
+                    {
+                        Thread.sleep(params.reportSec * 1000L);
+                        System.out.print(pipeline.report());
+                    }
+                }
+                catch (InterruptedException interruptedEx)
+                {
+                    // Done
+                }
+            }, "sgdtk-pipeline-report");
+            reporter.setDaemon(true);
+            reporter.start();
+        }
+
+        pipeline.start();
+        try
+        {
+            pipeline.await();
+        }
+        finally
+        {
+            if (reporter != null)
+            {
+                reporter.interrupt();
+            }
+            System.out.println("Pipeline stats:");
+            System.out.print(pipeline.report());
+        }
+    }
+
     public static void main(String[] args)
     {
         try
@@ -90,11 +275,73 @@ public class TrainOverlapped
             JCommander jc = new JCommander(params, args);
             jc.parse();
 
-            File trainFile = new File(params.train);
+            InputFiles.setPrefetch(params.prefetchSize, params.prefetchBuffers);
+            List<File> trainFiles = ExecUtils.expandInputs(params.train);
+            System.out.println("Training on " + trainFiles.size() + " shard(s)");
+
+            // A persistent cache is good if every shard's segment was completed, and the shards and the way we read
+            // them are unchanged
+            // Everything that changes how a line is parsed goes into the cache settings, so a cache isn't reused
+            // by a run that would have read the shards differently
+            final int maxFeatures = params.widthFV == null ? 0 : params.widthFV;
+            String cacheSettings = "svmlight format=" + params.cacheFormat + " maxFeatures=" + maxFeatures;
+            List<CacheMetadata> shardSources = null;
+            boolean reuseCache = false;
+            int cachedWidth = 0;
+            long cachedRecords = 0;
+            if (params.cacheFile != null)
+            {
+                shardSources = new ArrayList<CacheMetadata>();
+                reuseCache = true;
+                for (int i = 0; i < trainFiles.size(); ++i)
+                {
+                    CacheMetadata source = CacheMetadata.describe(trainFiles.get(i), cacheSettings);
+                    File segmentFile = OverlappedTrainingRunner.getSegmentFile(new File(params.cacheFile), i);
+                    CacheMetadata cached = FeatureVectorCacheReader.readMetadata(segmentFile);
+                    boolean fresh = source.isSameSource(cached);
+                    if (params.checkCache)
+                    {
+                        System.out.println("Source: " + source);
+                        System.out.println("Cache:  " + segmentFile + " " + (cached == null ? "missing or incomplete" : cached));
+                    }
+                    if (fresh)
+                    {
+                        cachedWidth = Math.max(cachedWidth, cached.getWidth());
+                        cachedRecords += cached.getNumRecords();
+                    }
+                    reuseCache &= fresh;
+                    shardSources.add(source);
+                }
+                if (params.checkCache)
+                {
+                    System.out.println(reuseCache ? "Cache is up to date" : "Cache is stale");
+                    System.exit(reuseCache ? 0 : 1);
+                }
+            }
+            // The pipeline loses track of which shard a vector came from, so it can only cache to one segment
+            if (params.pipeline && params.cacheFile != null && !reuseCache && trainFiles.size() > 1)
+            {
+                throw new IllegalArgumentException("--pipeline can't build a persistent --cache from more than one shard");
+            }
+
             SVMLightFileFeatureProvider.Dims dims;
-            if (params.widthFV == null)
+            if (reuseCache)
+            {
+                dims = new SVMLightFileFeatureProvider.Dims(params.widthFV == null ? cachedWidth : params.widthFV,
+                        (int) cachedRecords);
+                System.out.println("Reusing cache " + params.cacheFile + ", dims: " + dims.width + " x " + dims.height);
+            }
+            else if (params.widthFV == null)
             {
-                dims = SVMLightFileFeatureProvider.findDims(trainFile);
+                int width = 0;
+                int height = 0;
+                for (File trainFile : trainFiles)
+                {
+                    SVMLightFileFeatureProvider.Dims shardDims = SVMLightFileFeatureProvider.findDims(trainFile);
+                    width = Math.max(width, shardDims.width);
+                    height += shardDims.height;
+                }
+                dims = new SVMLightFileFeatureProvider.Dims(width, height);
                 System.out.println("Dims: " + dims.width + " x " + dims.height);
             }
             else
@@ -140,62 +387,161 @@ public class TrainOverlapped
                     lossFunction = new HingeLoss();
                 }
 
-                boolean isAdagrad = "adagrad".equals(params.method);
+                Class<? extends LinearModel> classType = Train.learningMethodFor(params.method);
 
-                ModelFactory modelFactory = new LinearModelFactory(isAdagrad ? AdagradLinearModel.class : LinearModel.class);
+                LinearModelFactory modelFactory = new LinearModelFactory(classType);
+                modelFactory.setAverageStart(params.averageStart);
 
 
                 learner = params.numClasses > 2 ? new MultiClassSGDLearner(params.numClasses, lossFunction, params.lambda, params.eta0) :
                         new SGDLearner(lossFunction, params.lambda, params.eta0,
                                 modelFactory,
-                                isAdagrad ? new FixedLearningRateSchedule() : new RobbinsMonroUpdateSchedule());
+                                Train.scheduleFor(classType));
             }
 
             // Now start a thread for File IO, and then pull data until we hit the number of epochs
             // File cacheFile = new File(params.train + ".cache");
 
             OverlappedTrainingRunner asyncTrainer = new OverlappedTrainingRunner(learner);
+            TrainingStats stats = new TrainingStats();
+            stats.register(TrainOverlapped.class.getSimpleName());
+            if (params.reportSec > 0)
+            {
+                stats.startReporting(params.reportSec);
+            }
+            asyncTrainer.setStats(stats);
             asyncTrainer.setEpochs(params.epochs);
             asyncTrainer.setBufferSz(params.bufferSize);
             asyncTrainer.setLearnerUserData(dims.width);
-            // asyncTrainer.setCacheFile(cacheFile);
-
-            SVMLightFileFeatureProvider evalReader = new SVMLightFileFeatureProvider();
-
-            List<FeatureVector> evalSet = evalReader.load(new File(params.eval));
-
-
-            asyncTrainer.addListener(new TrainingEventListener()
+            asyncTrainer.setCacheFormat(OverlappedTrainingRunner.CacheFormat.valueOf(params.cacheFormat.toUpperCase().replace('-', '_')));
+            asyncTrainer.setCompressCache(params.compress);
+            asyncTrainer.setShuffle(params.shuffle);
+            asyncTrainer.setRecycleVectors(params.recycle);
+            asyncTrainer.setShuffleWindow(params.shuffleWindow);
+            asyncTrainer.setShuffleSeed(params.seed);
+            asyncTrainer.setNumReaders(params.numReaders);
+            asyncTrainer.setBatchSz(params.batchSize);
+            if (params.checkpoint != null)
             {
-
-
-                @Override
-                public void onEpochEnd(Learner learner, Model model, double sec)
+                File checkpointFile = new File(params.checkpoint);
+                asyncTrainer.setCheckpointFile(checkpointFile);
+                asyncTrainer.setCheckpointEvery(params.checkpointEvery);
+                asyncTrainer.setCheckpointSec(params.checkpointSec);
+                if (params.resume && checkpointFile.exists())
                 {
-                    if (evalSet != null)
+                    // Parsing on several threads reorders the examples, so the checkpoint's position means nothing
+                    if (params.pipeline && params.parseThreads > 1 && !reuseCache)
                     {
-                        Metrics metrics = new Metrics();
-                        learner.eval(model, evalSet, metrics);
-                        showMetrics(metrics, "Test Set Eval Metrics");
+                        throw new IllegalArgumentException("--resume needs --parse-threads 1 in --pipeline mode");
                     }
+                    asyncTrainer.setResumeFrom(checkpointFile);
                 }
-            });
+            }
+            if (params.warmStart != null)
+            {
+                asyncTrainer.setWarmStart(new File(params.warmStart));
+            }
+            if (params.saveState != null)
+            {
+                asyncTrainer.setSaveStateTo(new File(params.saveState));
+            }
+            if (params.cacheFile != null)
+            {
+                asyncTrainer.setCacheFile(new File(params.cacheFile));
+                asyncTrainer.setShardMetadata(shardSources);
+                asyncTrainer.setCacheReady(reuseCache);
+            }
 
-            asyncTrainer.start();
-            SVMLightFileFeatureProvider fileReader = new SVMLightFileFeatureProvider();
+            Sampler sampler = new Sampler(params.sampleRate);
+            if (params.classRates != null)
+            {
+                sampler.setClassRates(params.classRates);
+            }
+            if (!sampler.isKeepAll())
+            {
+                sampler.setImportanceWeighted(!params.unweighted);
+                sampler.setSeed(params.seed);
+                asyncTrainer.setSampler(sampler);
+            }
 
+            SVMLightFileFeatureProvider evalReader = new SVMLightFileFeatureProvider();
 
-            fileReader.open(trainFile);
+            List<FeatureVector> evalSet = params.eval == null ? null : evalReader.load(new File(params.eval));
+            String evalName = "Test Set Eval Metrics";
+            if (evalSet == null && params.watchSample > 0)
+            {
+                // Filled in on the first pass, in time for the first evaluation
+                Reservoir reservoir = new Reservoir(params.watchSample, params.seed);
+                asyncTrainer.setReservoir(reservoir);
+                evalSet = reservoir.getSample();
+                evalName = "Training Sample Eval Metrics";
+            }
+            final String evalTitle = evalName;
+
+            EvaluationListener evaluation = new EvaluationListener(evalSet, (epoch, metrics) ->
+                    showMetrics(metrics, evalTitle));
+            ForkJoinPool evalPool = params.evalThreads > 1 ? new ForkJoinPool(params.evalThreads) : null;
+            evaluation.setPool(evalPool);
+            evaluation.setAsync(params.asyncEval);
+            if (params.detailedEval)
+            {
+                evaluation.setPrototype(new ClassificationMetrics(params.numClasses));
+            }
+            // Early stopping evaluates on the training thread, since it has to decide before the next epoch, and
+            // reports the metrics itself
+            ConvergenceController convergence = null;
+            if (params.earlyStop && evalSet != null)
+            {
+                convergence = new ConvergenceController(evalSet,
+                        ConvergenceController.Criterion.valueOf(params.stopOn.toUpperCase()));
+                convergence.setMinImprovement(params.minImprovement);
+                convergence.setPatience(params.patience);
+                convergence.setMinEpochs(params.minEpochs);
+                convergence.setPool(evalPool);
+                convergence.setPrototype(evaluation.getPrototype());
+                convergence.setReporter((epoch, metrics) -> showMetrics(metrics, evalTitle));
+                convergence.setOnConverged(asyncTrainer::cancel);
+                asyncTrainer.addListener(convergence);
+            }
+            else if (evalSet != null)
+            {
+                asyncTrainer.addListener(evaluation);
+            }
 
-            FeatureVector fv;
+            asyncTrainer.start();
 
-            //buffer = new byte[262144];
-            while ((fv = fileReader.next()) != null)
+            // With a ready cache, there is nothing to parse
+            if (!reuseCache && params.pipeline)
             {
-                asyncTrainer.add(fv);
+                trainPipelined(params, trainFiles, asyncTrainer);
+            }
+            else if (!reuseCache)
+            {
+                List<SVMLightFileFeatureProvider> fileReaders = new ArrayList<SVMLightFileFeatureProvider>();
+                for (File trainFile : trainFiles)
+                {
+                    SVMLightFileFeatureProvider fileReader = new SVMLightFileFeatureProvider(maxFeatures);
+                    fileReader.open(trainFile);
+                    fileReaders.add(fileReader);
+                }
+                asyncTrainer.addShards(fileReaders);
+                for (SVMLightFileFeatureProvider fileReader : fileReaders)
+                {
+                    fileReader.close();
+                }
             }
 
             Model model = asyncTrainer.finish();
+            evaluation.await();
+            if (convergence != null && convergence.getBestModel() != null)
+            {
+                System.out.println("Keeping the model from epoch " + convergence.getBestEpoch());
+                model = convergence.getBestModel();
+            }
+            if (evalPool != null)
+            {
+                evalPool.shutdown();
+            }
             if (model instanceof LinearModel)
             {
                 double wnorm = ((LinearModel)model).mag();
@@ -206,6 +552,8 @@ public class TrainOverlapped
             double elapsed = (System.currentTimeMillis() - t0) / 1000.;
 
             System.out.println("Overlapped training completed in " + elapsed + "s");
+            System.out.println("Training stats: " + stats);
+            stats.close();
 
             if (params.model != null)
             {
@@ -2,11 +2,17 @@ package org.sgdtk.exec;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
+import org.sgdtk.EtaCache;
+import org.sgdtk.io.CONLLFileSentenceProvider;
 import org.sgdtk.io.CRFXXTemplateLoader;
+import org.sgdtk.io.SequenceCacheFeatureProvider;
+import org.sgdtk.io.SequenceToFeatures;
 import org.sgdtk.struct.*;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -41,9 +47,56 @@ public class TrainStruct
         @Parameter(description = "Initial learning rate", names = {"--eta", "-s"})
         public Double eta = 0.;
 
+        @Parameter(description = "Train by averaged SGD", names = {"--averaged"})
+        public Boolean averaged = false;
+
+        @Parameter(description = "Epochs to train before averaging starts (1.0)", names = {"--average-start"})
+        public Double averageStart = 1.;
+
         @Parameter(description = "Min occurs for each feature (3)", names = {"-f", "--cutoff"})
         public Integer cutoff = 3;
 
+        @Parameter(description = "Stream the training data through a sequence cache instead of loading it", names = {"--stream"})
+        public Boolean stream = false;
+
+        @Parameter(description = "Sequence cache file when streaming (default is a temp file)", names = {"--cache"})
+        public String cacheFile;
+
+        @Parameter(description = "Train from a ring buffer, overlapped with reading and caching", names = {"--overlapped"})
+        public Boolean overlapped = false;
+
+        @Parameter(description = "Ring buffer size for overlapped training", names = {"--bufsz"})
+        public Integer bufferSize = 1024;
+
+        @Parameter(description = "Counters per row of the feature count sketch when streaming", names = {"--sketch-width"})
+        public Integer sketchWidth = 1 << 22;
+
+        @Parameter(description = "Rows of the feature count sketch when streaming", names = {"--sketch-depth"})
+        public Integer sketchDepth = 4;
+
+        @Parameter(description = "Number of candidate learning rates to try at once when picking eta", names = {"--calibration-threads"})
+        public Integer calibrationThreads = 1;
+
+        @Parameter(description = "File of learning rates picked before, to reuse when training on the same data", names = {"--eta-cache"})
+        public String etaCache;
+
+        @Parameter(description = "Stop once the watched score stops improving, and keep the best model", names = {"--early-stop"})
+        public Boolean earlyStop = false;
+
+        @Parameter(description = "Held-out file to watch for early stopping (default is a sample of the training data)", names = {"--holdout"})
+        public String holdout;
+
+        @Parameter(description = "Score to watch for early stopping (cost|loss|error)", names = {"--stop-on"})
+        public String stopOn = "loss";
+
+        @Parameter(description = "Smallest relative improvement that counts as progress", names = {"--min-improvement"})
+        public Double minImprovement = 1e-3;
+
+        @Parameter(description = "Epochs in a row without progress before stopping", names = {"--patience"})
+        public Integer patience = 1;
+
+        @Parameter(description = "Epochs to train before stopping is allowed", names = {"--min-epochs"})
+        public Integer minEpochs = 1;
 
     }
 
@@ -61,27 +114,121 @@ public class TrainStruct
             CRFXXTemplateLoader templateLoader = new CRFXXTemplateLoader();
             FeatureTemplate template = templateLoader.load(templateFile);
 
-            JointFixedFeatureNameEncoder jointFeatureEncoder = ExecUtils.createJointEncoder(params.train, 3, template);
-            List<FeatureVectorSequence> trainingData = ExecUtils.load(params.train, template, jointFeatureEncoder, false);
+            SGDSequentialLearner learner = new SGDSequentialLearner(params.c, params.eta);
+            if (params.averaged)
+            {
+                learner.setAverageStart(params.averageStart);
+            }
+            learner.setCalibrationThreads(params.calibrationThreads);
+            if (params.etaCache != null)
+            {
+                // The features also depend on the template and cutoff
+                learner.setEtaCache(new EtaCache(new File(params.etaCache)).forData(
+                        EtaCache.describe(new File(params.train)) + "/" + EtaCache.describe(templateFile) + "/" +
+                                params.cutoff));
+            }
+            JointFixedFeatureNameEncoder jointFeatureEncoder;
+            ConvergenceController convergence = null;
+            SequentialModel model;
+            double t0;
+            double eElapsed = 0;
 
-            SequentialLearner learner = new SGDSequentialLearner(params.c, params.eta);
+            if (params.overlapped)
+            {
+                OverlappedSequentialTrainingRunner runner;
+                if (params.stream)
+                {
+                    StreamCache streamCache = streamToCache(params, template);
+                    jointFeatureEncoder = streamCache.encoder;
+                    convergence = createConvergence(params, template, jointFeatureEncoder);
+                    runner = createRunner(params, learner, jointFeatureEncoder, convergence);
+                    runner.setCacheFile(streamCache.file);
+                    runner.setCacheReady(true);
+                    runner.setNumExamples(streamCache.numSequences);
+                    t0 = System.currentTimeMillis();
+                    runner.start();
+                }
+                else
+                {
+                    jointFeatureEncoder = ExecUtils.createJointEncoder(params.train, params.cutoff, template);
+                    convergence = createConvergence(params, template, jointFeatureEncoder);
+                    runner = createRunner(params, learner, jointFeatureEncoder, convergence);
+                    if (params.cacheFile != null)
+                    {
+                        runner.setCacheFile(new File(params.cacheFile));
+                    }
+                    t0 = System.currentTimeMillis();
+                    runner.start();
+                    CONLLFileSentenceProvider sequenceProvider = new CONLLFileSentenceProvider(new File(params.train));
+                    SequentialFeatureProvider featureProvider = new SequenceToFeatures(sequenceProvider, template, jointFeatureEncoder, false);
+                    FeatureVectorSequence sequence;
+                    while ((sequence = featureProvider.next()) != null)
+                    {
+                        runner.add(sequence);
+                    }
+                    sequenceProvider.close();
+                }
+                model = runner.finish();
+            }
+            else if (params.stream)
+            {
+                StreamCache streamCache = streamToCache(params, template);
+                jointFeatureEncoder = streamCache.encoder;
+                File cacheFile = streamCache.file;
+                int numSequences = streamCache.numSequences;
+                convergence = createConvergence(params, template, jointFeatureEncoder);
 
+                model = learner.create(jointFeatureEncoder.length(), jointFeatureEncoder.getLabelEncoder().length());
+                t0 = System.currentTimeMillis();
+                learner.preprocess(model,
+                        SequenceCacheFeatureProvider.sample(cacheFile, SGDSequentialLearner.MAX_SAMPLE_SZ), numSequences);
 
-            SequentialModel model = learner.create(jointFeatureEncoder.length(), jointFeatureEncoder.getLabelEncoder().length());
-            double t0 = System.currentTimeMillis();
-            double eElapsed = 0;
-            for (int i = 0; i < params.epochs; ++i)
+                for (int i = 0; i < params.epochs; ++i)
+                {
+                    double e0 = System.currentTimeMillis();
+                    SequenceCacheFeatureProvider provider = new SequenceCacheFeatureProvider(cacheFile);
+                    learner.trainEpoch(model, provider);
+                    provider.close();
+
+                    double eNow = System.currentTimeMillis();
+                    eElapsed += (eNow - e0);
+                    System.out.println("Epoch " + (i + 1) + " (" + eElapsed/1000. + "s)");
+                    if (converged(convergence, learner, model))
+                    {
+                        break;
+                    }
+                }
+            }
+            else
             {
-                double e0 = System.currentTimeMillis();
-                learner.trainEpoch(model, trainingData);
+                jointFeatureEncoder = ExecUtils.createJointEncoder(params.train, params.cutoff, template);
+                List<FeatureVectorSequence> trainingData = ExecUtils.load(params.train, template, jointFeatureEncoder, false);
+                convergence = createConvergence(params, template, jointFeatureEncoder);
+
+                model = learner.create(jointFeatureEncoder.length(), jointFeatureEncoder.getLabelEncoder().length());
+                t0 = System.currentTimeMillis();
+                for (int i = 0; i < params.epochs; ++i)
+                {
+                    double e0 = System.currentTimeMillis();
+                    learner.trainEpoch(model, trainingData);
 
-                double eNow = System.currentTimeMillis();
-                eElapsed += (eNow - e0);
-                System.out.println("Epoch " + (i + 1) + " (" + eElapsed/1000. + "s)");
+                    double eNow = System.currentTimeMillis();
+                    eElapsed += (eNow - e0);
+                    System.out.println("Epoch " + (i + 1) + " (" + eElapsed/1000. + "s)");
+                    if (converged(convergence, learner, model))
+                    {
+                        break;
+                    }
+                }
             }
 
             double tNow = System.currentTimeMillis();
             System.out.println("Training time " + " (" + (tNow - t0)/1000. + "s)");
+            if (convergence != null && convergence.getBestSequentialModel() != null)
+            {
+                System.out.println("Keeping the model from epoch " + convergence.getBestEpoch());
+                model = convergence.getBestSequentialModel();
+            }
 
             if (params.model != null)
             {
@@ -101,6 +248,99 @@ public class TrainStruct
         }
     }
 
+    // The training data encoded once to a sequence cache, for --stream
+    private static class StreamCache
+    {
+        JointFixedFeatureNameEncoder encoder;
+        File file;
+        int numSequences;
+    }
+
+    // Two streaming passes over the text: count features into a sketch, then encode to the cache
+    private static StreamCache streamToCache(Params params, FeatureTemplate template) throws IOException
+    {
+        StreamCache streamCache = new StreamCache();
+        streamCache.encoder = ExecUtils.createJointEncoder(params.train, params.cutoff, template,
+                params.sketchWidth, params.sketchDepth);
+        streamCache.file = params.cacheFile == null ? File.createTempFile("crfsc", "cache") : new File(params.cacheFile);
+        if (params.cacheFile == null)
+        {
+            streamCache.file.deleteOnExit();
+        }
+        streamCache.numSequences = ExecUtils.cacheSequences(params.train, template, streamCache.encoder, streamCache.file);
+        streamCache.encoder.freeze();
+        System.out.println("Cached " + streamCache.numSequences + " sequences with " + streamCache.encoder.length() + " features");
+        return streamCache;
+    }
 
+    // Watch the held-out data, or else the head of the training data
+    private static ConvergenceController createConvergence(Params params, FeatureTemplate template,
+                                                           JointFixedFeatureNameEncoder jointFeatureEncoder) throws IOException
+    {
+        if (!params.earlyStop)
+        {
+            return null;
+        }
+        List<FeatureVectorSequence> watchSet;
+        if (params.holdout != null)
+        {
+            watchSet = ExecUtils.load(params.holdout, template, jointFeatureEncoder, false);
+        }
+        else
+        {
+            watchSet = new ArrayList<FeatureVectorSequence>();
+            CONLLFileSentenceProvider sequenceProvider = new CONLLFileSentenceProvider(new File(params.train));
+            SequentialFeatureProvider featureProvider = new SequenceToFeatures(sequenceProvider, template, jointFeatureEncoder, false);
+            FeatureVectorSequence sequence;
+            while (watchSet.size() < SGDSequentialLearner.MAX_SAMPLE_SZ && (sequence = featureProvider.next()) != null)
+            {
+                watchSet.add(sequence);
+            }
+            sequenceProvider.close();
+        }
+        ConvergenceController convergence = ConvergenceController.forSequences(watchSet,
+                ConvergenceController.Criterion.valueOf(params.stopOn.toUpperCase()));
+        convergence.setMinImprovement(params.minImprovement);
+        convergence.setPatience(params.patience);
+        convergence.setMinEpochs(params.minEpochs);
+        return convergence;
+    }
+
+    private static boolean converged(ConvergenceController convergence, SequentialLearner learner, SequentialModel model)
+    {
+        if (convergence != null && convergence.observe(convergence.score(learner, model), model::prototype))
+        {
+            System.out.println("Stopping early");
+            return true;
+        }
+        return false;
+    }
+
+    private static OverlappedSequentialTrainingRunner createRunner(Params params, SequentialLearner learner,
+                                                                   JointFixedFeatureNameEncoder jointFeatureEncoder,
+                                                                   ConvergenceController convergence)
+    {
+        OverlappedSequentialTrainingRunner runner = new OverlappedSequentialTrainingRunner(learner,
+                jointFeatureEncoder.length(), jointFeatureEncoder.getLabelEncoder().length());
+        if (convergence != null)
+        {
+            convergence.setOnConverged(runner::cancel);
+            runner.addListener(convergence);
+        }
+        runner.setEpochs(params.epochs);
+        runner.setBufferSz(params.bufferSize);
+        runner.addListener(new SequentialTrainingEventListener()
+        {
+            int epoch = 0;
+            double elapsed = 0;
+            @Override
+            public void onEpochEnd(SequentialLearner learner, SequentialModel model, double epochSeconds)
+            {
+                elapsed += epochSeconds;
+                System.out.println("Epoch " + (++epoch) + " (" + elapsed + "s)");
+            }
+        });
+        return runner;
+    }
 
 }
\ No newline at end of file
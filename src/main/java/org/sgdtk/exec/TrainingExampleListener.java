@@ -0,0 +1,24 @@
+package org.sgdtk.exec;
+
+import org.sgdtk.Learner;
+import org.sgdtk.Model;
+
+/**
+ * Called by the training thread after every example it trains on
+ *
+ * This runs inline with training, so it should usually just count, and only occasionally do anything heavier, such as
+ * copying the model.
+ *
+ * @author dpressel
+ */
+public interface TrainingExampleListener
+{
+    /**
+     * Called after each example
+     * @param learner The learner
+     * @param model The live model, which is only safe to touch from this thread
+     * @param epoch The current (0-based) epoch
+     * @param examplesInEpoch Number of examples trained on so far in this epoch
+     */
+    void onExample(Learner learner, Model model, int epoch, long examplesInEpoch);
+}
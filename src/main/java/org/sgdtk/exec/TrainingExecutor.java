@@ -40,6 +40,14 @@ public interface TrainingExecutor
     void join();
 
     void kill();
+
+    /**
+     * Stop training early.  Anything still in the buffer, or added after this, is passed over without training, and
+     * {@link #join()} no longer waits for the rest of the epochs.  This can be called from the training thread, for
+     * instance by a listener at the end of an epoch
+     */
+    void stop();
+
     /**
      * Get the number of epochs
      * @return Number of epochs
@@ -59,4 +67,86 @@ public interface TrainingExecutor
      */
     void add(FeatureVector featureVector);
 
+    /**
+     * Take checkpoints while training.  Call before initialize
+     * @param checkpointer The checkpointer, or null for none
+     */
+    void setCheckpointer(Checkpointer checkpointer);
+
+    /**
+     * Have a listener called by the training thread after each example.  Call before initialize
+     * @param listener The listener
+     */
+    void addExampleListener(TrainingExampleListener listener);
+
+    /**
+     * Report throughput, buffer occupancy and wait times into stats.  Call before initialize
+     * @param stats The stats, or null to not keep any
+     */
+    void setStats(TrainingStats stats);
+
+    /**
+     * Resume from a checkpoint: examples before this position are passed over without training.  Call before
+     * initialize
+     * @param epoch The (0-based) epoch to resume in
+     * @param examplesInEpoch The number of examples of that epoch already trained on
+     */
+    void setResumePosition(int epoch, long examplesInEpoch);
+
+    /**
+     * Add several feature vectors with a single claim and publish
+     * @param featureVectors An array of feature vectors
+     * @param n The number of vectors to take from the front of the array
+     */
+    void add(FeatureVector[] featureVectors, int n);
+
+    /**
+     * Claim the next slot in the buffer, blocking if there is none available.  The claimed slot must be
+     * published with {@link #publish(long)} or {@link #publishEndOfEpoch(long)} before another can be claimed.
+     * @return The sequence of the claimed slot
+     */
+    long claim();
+
+    /**
+     * Claim a batch of consecutive slots, blocking until they are all available
+     * @param n The number of slots, which must not be more than the buffer size
+     * @return The highest claimed sequence.  The batch starts at this minus n plus one
+     */
+    long claim(int n);
+
+    /**
+     * Get the feature vector owned by a claimed slot, emptied so it can be filled in.  This storage is recycled
+     * once the slot has been consumed, so nothing should hang on to it after publishing
+     * @param sequence The claimed sequence
+     * @return The slot's feature vector
+     */
+    FeatureVector slot(long sequence);
+
+    /**
+     * Publish a claimed slot, making its feature vector available for training
+     * @param sequence The claimed sequence
+     */
+    void publish(long sequence);
+
+    /**
+     * Publish a filled range of claimed slots
+     * @param lo The first sequence
+     * @param hi The last sequence, inclusive.  If this is less than lo, nothing is published
+     */
+    void publish(long lo, long hi);
+
+    /**
+     * Publish a range of claimed slots that were not filled, for instance at the end of a producer's input.  These
+     * are skipped by the consumer
+     * @param lo The first sequence
+     * @param hi The last sequence, inclusive.  If this is less than lo, nothing is published
+     */
+    void publishSkip(long lo, long hi);
+
+    /**
+     * Publish a claimed slot as the end of an epoch, instead of as a feature vector
+     * @param sequence The claimed sequence
+     */
+    void publishEndOfEpoch(long sequence);
+
 }
@@ -0,0 +1,333 @@
+package org.sgdtk.exec;
+
+import org.sgdtk.FeatureVector;
+import org.sgdtk.VectorN;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Throughput and latency counters for a training job
+ *
+ * The executor, runner and learner each report what they see into one of these, if they are given one:
+ * <ul>
+ *     <li>examples and features trained on, and their rates</li>
+ *     <li>how full the ring buffer is, right now</li>
+ *     <li>how long producers waited for room in the buffer, which means training is the bottleneck</li>
+ *     <li>how long the trainer sat idle waiting for examples, which means input is the bottleneck</li>
+ *     <li>cache bytes written on the first pass and read back on the others</li>
+ *     <li>wall clock and CPU time per epoch, where CPU time is the training threads' own</li>
+ * </ul>
+ *
+ * Everything here can be read while training from any thread.  The stats can be published as an MXBean with
+ * {@link #register(String)}, and logged periodically with {@link #startReporting(double)}.
+ *
+ * @author dpressel
+ */
+public class TrainingStats implements TrainingStatsMXBean
+{
+    private static final Logger log = LoggerFactory.getLogger(TrainingStats.class);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final LongAdder examples = new LongAdder();
+    private final LongAdder features = new LongAdder();
+    private final LongAdder producerWaitNanos = new LongAdder();
+    private final LongAdder consumerIdleNanos = new LongAdder();
+    private final LongAdder cacheBytesRead = new LongAdder();
+    private final LongAdder cacheBytesWritten = new LongAdder();
+    // CPU time reported since the last epoch ended
+    private final LongAdder epochCpuNanos = new LongAdder();
+    private final long startNanos = System.nanoTime();
+    private volatile IntSupplier bufferOccupancy;
+    private volatile int bufferCapacity;
+    private volatile int epochs;
+    private volatile double lastEpochWallSec;
+    private volatile double lastEpochCpuSec;
+    private volatile double totalEpochWallSec;
+    private volatile double totalEpochCpuSec;
+    private ObjectName objectName;
+    private ScheduledExecutorService reporter;
+
+    /**
+     * Count the features in a vector, which is the non-zeros for a sparse vector and the length for a dense one
+     * @param fv A feature vector
+     * @return The number of features
+     */
+    public static int countFeatures(FeatureVector fv)
+    {
+        VectorN x = fv.getX();
+        return x.getType() == VectorN.Type.DENSE ? x.length() : x.getNonZeroOffsets().size();
+    }
+
+    /**
+     * The CPU time of the calling thread, if the JVM measures it
+     * @return CPU time in nanoseconds, or 0 if not supported
+     */
+    public static long currentThreadCpuNanos()
+    {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0L;
+    }
+
+    public void addExamples(long n)
+    {
+        examples.add(n);
+    }
+
+    public void addFeatures(long n)
+    {
+        features.add(n);
+    }
+
+    public void addProducerWait(long nanos)
+    {
+        producerWaitNanos.add(nanos);
+    }
+
+    public void addConsumerIdle(long nanos)
+    {
+        consumerIdleNanos.add(nanos);
+    }
+
+    public void addCacheBytesRead(long n)
+    {
+        cacheBytesRead.add(n);
+    }
+
+    public void addCacheBytesWritten(long n)
+    {
+        cacheBytesWritten.add(n);
+    }
+
+    /**
+     * Add CPU time spent training, to go into the current epoch.  Several threads training parts of one epoch each add
+     * their own
+     * @param nanos CPU time in nanoseconds
+     */
+    public void addCpu(long nanos)
+    {
+        epochCpuNanos.add(nanos);
+    }
+
+    /**
+     * Record a finished epoch, with the CPU time added since the last one
+     * @param wallSec Wall clock time for the epoch
+     */
+    public synchronized void endEpoch(double wallSec)
+    {
+        endEpoch(wallSec, epochCpuNanos.sumThenReset() / 1e9);
+    }
+
+    /**
+     * Record a finished epoch
+     * @param wallSec Wall clock time for the epoch
+     * @param cpuSec CPU time the training thread used in the epoch
+     */
+    public synchronized void endEpoch(double wallSec, double cpuSec)
+    {
+        lastEpochWallSec = wallSec;
+        lastEpochCpuSec = cpuSec;
+        totalEpochWallSec += wallSec;
+        totalEpochCpuSec += cpuSec;
+        ++epochs;
+    }
+
+    /**
+     * Watch a buffer's occupancy
+     * @param occupancy Gets the number of items in the buffer
+     * @param capacity The buffer's size
+     */
+    public void setBuffer(IntSupplier occupancy, int capacity)
+    {
+        this.bufferOccupancy = occupancy;
+        this.bufferCapacity = capacity;
+    }
+
+    @Override
+    public long getExamples()
+    {
+        return examples.sum();
+    }
+
+    @Override
+    public long getFeatures()
+    {
+        return features.sum();
+    }
+
+    /**
+     * Seconds since these stats were created
+     * @return seconds
+     */
+    public double getElapsedSec()
+    {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+
+    @Override
+    public double getExamplesPerSec()
+    {
+        return getExamples() / getElapsedSec();
+    }
+
+    @Override
+    public double getFeaturesPerSec()
+    {
+        return getFeatures() / getElapsedSec();
+    }
+
+    @Override
+    public int getBufferOccupancy()
+    {
+        IntSupplier occupancy = bufferOccupancy;
+        return occupancy == null ? 0 : occupancy.getAsInt();
+    }
+
+    @Override
+    public int getBufferCapacity()
+    {
+        return bufferCapacity;
+    }
+
+    @Override
+    public double getProducerWaitSec()
+    {
+        return producerWaitNanos.sum() / 1e9;
+    }
+
+    @Override
+    public double getConsumerIdleSec()
+    {
+        return consumerIdleNanos.sum() / 1e9;
+    }
+
+    @Override
+    public long getCacheBytesRead()
+    {
+        return cacheBytesRead.sum();
+    }
+
+    @Override
+    public long getCacheBytesWritten()
+    {
+        return cacheBytesWritten.sum();
+    }
+
+    @Override
+    public int getEpochs()
+    {
+        return epochs;
+    }
+
+    @Override
+    public double getLastEpochWallSec()
+    {
+        return lastEpochWallSec;
+    }
+
+    @Override
+    public double getLastEpochCpuSec()
+    {
+        return lastEpochCpuSec;
+    }
+
+    @Override
+    public double getTotalEpochWallSec()
+    {
+        return totalEpochWallSec;
+    }
+
+    @Override
+    public double getTotalEpochCpuSec()
+    {
+        return totalEpochCpuSec;
+    }
+
+    /**
+     * Publish these stats to the platform MBean server, as org.sgdtk:type=TrainingStats,name=<i>name</i>
+     * @param name A name for the job
+     * @throws JMException If the name is taken or invalid
+     */
+    public synchronized void register(String name) throws JMException
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        objectName = new ObjectName("org.sgdtk:type=TrainingStats,name=" + ObjectName.quote(name));
+        server.registerMBean(this, objectName);
+    }
+
+    /**
+     * Log these stats every so often, on a background thread.  Each report also includes the rates since the last
+     * @param everySec Seconds between reports
+     */
+    public synchronized void startReporting(double everySec)
+    {
+        if (reporter != null)
+        {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "sgdtk-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long periodNanos = (long) (everySec * 1e9);
+        final long[] last = { System.nanoTime(), 0L, 0L };
+        reporter.scheduleAtFixedRate(() ->
+        {
+            long now = System.nanoTime();
+            long numExamples = getExamples();
+            long numFeatures = getFeatures();
+            double sec = (now - last[0]) / 1e9;
+            log.info(String.format("%.1f examples/s %.1f features/s (last %.1fs), %s",
+                    (numExamples - last[1]) / sec, (numFeatures - last[2]) / sec, sec, this));
+            last[0] = now;
+            last[1] = numExamples;
+            last[2] = numFeatures;
+        }, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop reporting, and remove the MXBean if it was registered
+     */
+    public synchronized void close()
+    {
+        if (reporter != null)
+        {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        if (objectName != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+            catch (JMException jmEx)
+            {
+                log.warn("Couldn't unregister " + objectName, jmEx);
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("examples=%d (%.1f/s) features=%d (%.1f/s) buffer=%d/%d producerWait=%.2fs consumerIdle=%.2fs " +
+                        "cacheWritten=%d cacheRead=%d epochs=%d lastEpoch=%.2fs/%.2fs cpu",
+                getExamples(), getExamplesPerSec(), getFeatures(), getFeaturesPerSec(), getBufferOccupancy(),
+                bufferCapacity, getProducerWaitSec(), getConsumerIdleSec(), getCacheBytesWritten(), getCacheBytesRead(),
+                epochs, lastEpochWallSec, lastEpochCpuSec);
+    }
+}
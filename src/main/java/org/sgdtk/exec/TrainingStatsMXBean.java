@@ -0,0 +1,39 @@
+package org.sgdtk.exec;
+
+/**
+ * The JMX view of {@link TrainingStats}
+ *
+ * @author dpressel
+ */
+public interface TrainingStatsMXBean
+{
+    long getExamples();
+
+    long getFeatures();
+
+    double getExamplesPerSec();
+
+    double getFeaturesPerSec();
+
+    int getBufferOccupancy();
+
+    int getBufferCapacity();
+
+    double getProducerWaitSec();
+
+    double getConsumerIdleSec();
+
+    long getCacheBytesRead();
+
+    long getCacheBytesWritten();
+
+    int getEpochs();
+
+    double getLastEpochWallSec();
+
+    double getLastEpochCpuSec();
+
+    double getTotalEpochWallSec();
+
+    double getTotalEpochCpuSec();
+}
@@ -0,0 +1,263 @@
+package org.sgdtk.io;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompress a BGZF file, inflating its blocks in parallel
+ *
+ * BGZF (the blocked gzip used by samtools/htslib and friends) is a series of independent gzip members of at most
+ * 64K each, and every member carries its own compressed size in a 'BC' extra field.  That means the member
+ * boundaries can be found without inflating anything, so a reader thread can split the file into blocks and hand them
+ * to a pool, while the consumer takes the inflated blocks back in file order.  Any gzip tool can still read the file.
+ *
+ * The number of blocks in flight is bounded, so a slow consumer creates back-pressure rather than a backlog.
+ *
+ * @author dpressel
+ */
+public class BgzfInputStream extends InputStream
+{
+    private static final int GZIP_HEADER_SZ = 12;
+    private static final int GZIP_TRAILER_SZ = 8;
+    private static final byte[] EOF = new byte[0];
+
+    private final DataInputStream source;
+    private final ExecutorService pool;
+    private final BlockingQueue<Future<byte[]>> queue;
+    private final Thread thread;
+    private byte[] block;
+    private int pos;
+    private boolean done;
+
+    /**
+     * Is this the start of a BGZF block?
+     * @param header At least the first 16 bytes of the file
+     * @param n The number of valid bytes in header
+     * @return true if so
+     */
+    public static boolean isBgzf(byte[] header, int n)
+    {
+        return n >= 16 && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b && header[2] == 8 &&
+                (header[3] & 4) != 0 && header[12] == 'B' && header[13] == 'C' && header[14] == 2 && header[15] == 0;
+    }
+
+    /**
+     * Start splitting the source into blocks
+     * @param source The raw (compressed) BGZF stream, which now belongs to this
+     * @param pool Where to inflate the blocks
+     * @param maxBlocksInFlight The most blocks to have read ahead of the consumer
+     */
+    public BgzfInputStream(InputStream source, ExecutorService pool, int maxBlocksInFlight)
+    {
+        this.source = new DataInputStream(source);
+        this.pool = pool;
+        this.queue = new ArrayBlockingQueue<Future<byte[]>>(maxBlocksInFlight);
+        this.thread = new Thread(this::split, "sgdtk-bgzf-input");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Read the blocks off the source and queue them to be inflated, in order
+    private void split()
+    {
+        try
+        {
+            byte[] compressed;
+            while ((compressed = readBlock()) != null)
+            {
+                final byte[] member = compressed;
+                queue.put(pool.submit(() -> inflate(member)));
+            }
+            queue.put(CompletableFuture.completedFuture(EOF));
+        }
+        catch (IOException ioEx)
+        {
+            CompletableFuture<byte[]> failed = new CompletableFuture<byte[]>();
+            failed.completeExceptionally(ioEx);
+            try
+            {
+                queue.put(failed);
+            }
+            catch (InterruptedException interruptedEx)
+            {
+                // Closed by the consumer, so nobody is listening
+            }
+        }
+        catch (InterruptedException interruptedEx)
+        {
+            // Closed by the consumer
+        }
+    }
+
+    // Get one whole gzip member, or null at the end of the file
+    private byte[] readBlock() throws IOException
+    {
+        byte[] header = new byte[GZIP_HEADER_SZ];
+        int first = source.read();
+        if (first < 0)
+        {
+            return null;
+        }
+        header[0] = (byte) first;
+        source.readFully(header, 1, GZIP_HEADER_SZ - 1);
+        if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || (header[3] & 4) == 0)
+        {
+            throw new IOException("Not a BGZF block");
+        }
+        int xlen = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+        byte[] extra = new byte[xlen];
+        source.readFully(extra);
+        int blockSz = -1;
+        for (int i = 0; i + 4 <= xlen; )
+        {
+            int slen = (extra[i + 2] & 0xff) | (extra[i + 3] & 0xff) << 8;
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && slen == 2 && i + 6 <= xlen)
+            {
+                blockSz = ((extra[i + 4] & 0xff) | (extra[i + 5] & 0xff) << 8) + 1;
+                break;
+            }
+            i += 4 + slen;
+        }
+        if (blockSz < 0)
+        {
+            throw new IOException("BGZF block has no size");
+        }
+        byte[] rest = new byte[blockSz - GZIP_HEADER_SZ - xlen];
+        try
+        {
+            source.readFully(rest);
+        }
+        catch (EOFException eof)
+        {
+            throw new IOException("Truncated BGZF block", eof);
+        }
+        return rest;
+    }
+
+    // Inflate the deflate data and check it against the member trailer
+    private static byte[] inflate(byte[] member) throws IOException
+    {
+        int dataSz = member.length - GZIP_TRAILER_SZ;
+        int crcExpected = readIntLE(member, dataSz);
+        int size = readIntLE(member, dataSz + 4);
+        byte[] out = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try
+        {
+            inflater.setInput(member, 0, dataSz);
+            int n = 0;
+            while (n < size)
+            {
+                int k = inflater.inflate(out, n, size - n);
+                if (k == 0 && (inflater.finished() || inflater.needsInput()))
+                {
+                    break;
+                }
+                n += k;
+            }
+            if (n != size)
+            {
+                throw new IOException("BGZF block inflated to " + n + " bytes, expected " + size);
+            }
+        }
+        catch (DataFormatException formatEx)
+        {
+            throw new IOException(formatEx);
+        }
+        finally
+        {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(out, 0, size);
+        if ((int) crc.getValue() != crcExpected)
+        {
+            throw new IOException("BGZF block failed CRC check");
+        }
+        return out;
+    }
+
+    private static int readIntLE(byte[] b, int off)
+    {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+
+    // Make sure there is something to read, returning false at the end of the stream
+    private boolean fill() throws IOException
+    {
+        // Empty blocks are legal (BGZF ends with one), so keep going
+        while (!done && (block == null || pos == block.length))
+        {
+            try
+            {
+                block = queue.take().get();
+            }
+            catch (InterruptedException interruptedEx)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException(interruptedEx);
+            }
+            catch (ExecutionException executionEx)
+            {
+                done = true;
+                Throwable cause = executionEx.getCause();
+                throw cause instanceof IOException ? new IOException(cause.getMessage(), cause) : new IOException(cause);
+            }
+            pos = 0;
+            done = block == EOF;
+        }
+        return !done;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        return fill() ? block[pos++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0)
+        {
+            return 0;
+        }
+        if (!fill())
+        {
+            return -1;
+        }
+        int n = Math.min(len, block.length - pos);
+        System.arraycopy(block, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available()
+    {
+        return block == null ? 0 : block.length - pos;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        done = true;
+        thread.interrupt();
+        for (Future<byte[]> pending : queue)
+        {
+            pending.cancel(false);
+        }
+        source.close();
+    }
+}
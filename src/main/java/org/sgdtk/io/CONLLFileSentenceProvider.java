@@ -5,7 +5,6 @@ import org.sgdtk.struct.State;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -50,7 +49,7 @@ public class CONLLFileSentenceProvider implements SequenceProvider
      */
     public void open(File file) throws IOException
     {
-        reader = new BufferedReader(new FileReader(file));
+        reader = InputFiles.openReader(file);
     }
 
     /**
@@ -0,0 +1,258 @@
+package org.sgdtk.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Describes what a feature vector cache was built from, so that it can be safely reused
+ *
+ * A cache built from a text file is only valid while that file and the settings used to read it are unchanged.
+ * We record the source's canonical path, size, modification time and a checksum, plus a free-form settings string
+ * supplied by the caller (e.g. the reader type and feature width).  The checksum is a CRC32 over evenly spaced
+ * samples of the file rather than the whole thing, which keeps the check cheap on large inputs while still catching
+ * edits that preserve size and mtime in most cases.
+ *
+ * Along with the source description, the writer stores the number of records, the largest vector width and the
+ * block index, so a reused cache can skip both parsing and the dimension scan.  This is all written as a trailer
+ * when the cache is closed: a cache without one was not finished, and is never reused.
+ *
+ * @author dpressel
+ */
+public class CacheMetadata
+{
+    private static final int NUM_SAMPLES = 16;
+    private static final int SAMPLE_SZ = 1 << 16;
+
+    private String sourcePath = "";
+    private long sourceSize;
+    private long sourceModified;
+    private long sourceChecksum;
+    private String settings = "";
+    private long numRecords;
+    private int width;
+    private FeatureVectorCacheIndex index = new FeatureVectorCacheIndex();
+
+    /**
+     * Describe a source file as it is right now
+     * @param source The text file the cache is (or would be) built from
+     * @param settings Anything else that changes what the cache contains
+     * @return A description of the source
+     * @throws IOException
+     */
+    public static CacheMetadata describe(File source, String settings) throws IOException
+    {
+        CacheMetadata metadata = new CacheMetadata();
+        metadata.sourcePath = source.getCanonicalPath();
+        metadata.sourceSize = source.length();
+        metadata.sourceModified = source.lastModified();
+        metadata.sourceChecksum = sampledChecksum(source);
+        metadata.settings = settings == null ? "" : settings;
+        return metadata;
+    }
+
+    /**
+     * Describe a source made of several files (shards) as it is right now.  The shards are combined in order: the
+     * paths are joined, sizes summed, the latest modification time is kept, and the checksums are folded together
+     * @param sources The text files the cache is (or would be) built from
+     * @param settings Anything else that changes what the cache contains
+     * @return A description of the source
+     * @throws IOException
+     */
+    public static CacheMetadata describe(List<File> sources, String settings) throws IOException
+    {
+        if (sources.size() == 1)
+        {
+            return describe(sources.get(0), settings);
+        }
+        CacheMetadata metadata = new CacheMetadata();
+        StringBuilder paths = new StringBuilder();
+        CRC32 crc = new CRC32();
+        for (File source : sources)
+        {
+            if (paths.length() > 0)
+            {
+                paths.append(File.pathSeparatorChar);
+            }
+            paths.append(source.getCanonicalPath());
+            metadata.sourceSize += source.length();
+            metadata.sourceModified = Math.max(metadata.sourceModified, source.lastModified());
+            long checksum = sampledChecksum(source);
+            for (int i = 0; i < 8; ++i)
+            {
+                crc.update((int) (checksum >>> (i * 8)));
+            }
+        }
+        metadata.sourcePath = paths.toString();
+        metadata.sourceChecksum = crc.getValue();
+        metadata.settings = settings == null ? "" : settings;
+        return metadata;
+    }
+
+    /**
+     * CRC32 over a fixed number of evenly spaced samples of the file (or the whole file, if it is small)
+     * @param file A file
+     * @return The checksum
+     * @throws IOException
+     */
+    public static long sampledChecksum(File file) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[SAMPLE_SZ];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            long length = raf.length();
+            long stride = Math.max(SAMPLE_SZ, length / NUM_SAMPLES);
+            for (long pos = 0; pos < length; pos += stride)
+            {
+                raf.seek(pos);
+                int n = (int) Math.min(SAMPLE_SZ, length - pos);
+                raf.readFully(buffer, 0, n);
+                crc.update(buffer, 0, n);
+            }
+            // Always include the tail, which is where appends go
+            if (length > SAMPLE_SZ)
+            {
+                raf.seek(length - SAMPLE_SZ);
+                raf.readFully(buffer, 0, SAMPLE_SZ);
+                crc.update(buffer, 0, SAMPLE_SZ);
+            }
+        }
+        finally
+        {
+            raf.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Does this describe the same source, read the same way, as another?
+     * @param other Another description, which may be null
+     * @return true if a cache with one description can stand in for the other
+     */
+    public boolean isSameSource(CacheMetadata other)
+    {
+        return other != null &&
+                sourcePath.equals(other.sourcePath) &&
+                sourceSize == other.sourceSize &&
+                sourceModified == other.sourceModified &&
+                sourceChecksum == other.sourceChecksum &&
+                settings.equals(other.settings);
+    }
+
+    /**
+     * Write to a cache trailer
+     * @param output The output
+     * @throws IOException
+     */
+    public void write(DataOutput output) throws IOException
+    {
+        output.writeUTF(sourcePath);
+        output.writeLong(sourceSize);
+        output.writeLong(sourceModified);
+        output.writeLong(sourceChecksum);
+        output.writeUTF(settings);
+        output.writeLong(numRecords);
+        output.writeInt(width);
+        int sz = index.size();
+        output.writeInt(sz);
+        for (int i = 0; i < sz; ++i)
+        {
+            output.writeLong(index.getOffset(i));
+            output.writeInt(index.getNumRecords(i));
+        }
+    }
+
+    /**
+     * Read from a cache trailer
+     * @param input The input
+     * @return The metadata
+     * @throws IOException
+     */
+    public static CacheMetadata read(DataInput input) throws IOException
+    {
+        CacheMetadata metadata = new CacheMetadata();
+        metadata.sourcePath = input.readUTF();
+        metadata.sourceSize = input.readLong();
+        metadata.sourceModified = input.readLong();
+        metadata.sourceChecksum = input.readLong();
+        metadata.settings = input.readUTF();
+        metadata.numRecords = input.readLong();
+        metadata.width = input.readInt();
+        int sz = input.readInt();
+        for (int i = 0; i < sz; ++i)
+        {
+            long offset = input.readLong();
+            metadata.index.add(offset, input.readInt());
+        }
+        return metadata;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "source=" + sourcePath + " size=" + sourceSize + " mtime=" + sourceModified +
+                " crc=" + Long.toHexString(sourceChecksum) + " settings=[" + settings + "] records=" + numRecords +
+                " width=" + width + " blocks=" + index.size();
+    }
+
+    public String getSourcePath()
+    {
+        return sourcePath;
+    }
+
+    public long getSourceSize()
+    {
+        return sourceSize;
+    }
+
+    public long getSourceModified()
+    {
+        return sourceModified;
+    }
+
+    public long getSourceChecksum()
+    {
+        return sourceChecksum;
+    }
+
+    public String getSettings()
+    {
+        return settings;
+    }
+
+    public long getNumRecords()
+    {
+        return numRecords;
+    }
+
+    public void setNumRecords(long numRecords)
+    {
+        this.numRecords = numRecords;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public void setWidth(int width)
+    {
+        this.width = width;
+    }
+
+    public FeatureVectorCacheIndex getIndex()
+    {
+        return index;
+    }
+
+    public void setIndex(FeatureVectorCacheIndex index)
+    {
+        this.index = index;
+    }
+}
@@ -0,0 +1,214 @@
+package org.sgdtk.io;
+
+import org.sgdtk.*;
+
+import java.util.List;
+
+/**
+ * A compact {@link org.sgdtk.FeatureVector} encoding for caches
+ *
+ * Each record starts with a flags byte and the label.  Sparse indices are written as zig-zag varint deltas from the
+ * previous index, so sorted indices that are close together take a byte or two apiece instead of 4.  If every value
+ * in a sparse vector is 1.0 (which is the usual case for binary features), the values are left out entirely.
+ * Otherwise values are written as doubles, or as floats if the codec was created that way.  Float values are lossy,
+ * but it rarely matters for SGD and it halves the value storage.
+ *
+ * Dense vectors are written as a varint length followed by the values.
+ *
+ * @author dpressel
+ */
+public class CompactFeatureVectorCodec implements FeatureVectorCodec
+{
+    public static final byte ID = 2;
+    public static final byte FLOAT_ID = 3;
+
+    static final int DENSE = 1;
+    static final int ALL_ONES = 2;
+    static final int FLOAT = 4;
+
+    private final boolean floatValues;
+
+    /**
+     * Create a codec which keeps double precision values
+     */
+    public CompactFeatureVectorCodec()
+    {
+        this(false);
+    }
+
+    /**
+     * Create a codec
+     * @param floatValues Store values as floats
+     */
+    public CompactFeatureVectorCodec(boolean floatValues)
+    {
+        this.floatValues = floatValues;
+    }
+
+    @Override
+    public byte getId()
+    {
+        return floatValues ? FLOAT_ID : ID;
+    }
+
+    @Override
+    public int getMaxEncodedSize(FeatureVector fv)
+    {
+        int n = fv.getX().getType() == VectorN.Type.DENSE ?
+                ((DenseVectorN) fv.getX()).getX().size() : fv.getNonZeroOffsets().size();
+        return 1 + UnsafeMemory.SIZE_OF_DOUBLE + UnsafeMemory.MAX_SIZE_OF_VAR_INT +
+                n * (UnsafeMemory.MAX_SIZE_OF_VAR_INT + UnsafeMemory.SIZE_OF_DOUBLE);
+    }
+
+    @Override
+    public int encode(FeatureVector fv, byte[] buffer)
+    {
+        UnsafeMemory memory = new UnsafeMemory(buffer);
+        int flags = floatValues ? FLOAT : 0;
+
+        if (fv.getX().getType() == VectorN.Type.DENSE)
+        {
+            ArrayDouble xa = ((DenseVectorN) fv.getX()).getX();
+            int sz = xa.size();
+            memory.putByte((byte) (flags | DENSE));
+            memory.putDouble(fv.getY());
+            memory.putVarInt(sz);
+            for (int i = 0; i < sz; ++i)
+            {
+                putValue(memory, xa.get(i));
+            }
+            return memory.getPos();
+        }
+
+        List<Offset> offsets = fv.getNonZeroOffsets();
+        int sz = offsets.size();
+        boolean allOnes = true;
+        for (int i = 0; i < sz && allOnes; ++i)
+        {
+            allOnes = offsets.get(i).value == 1.0;
+        }
+        if (allOnes)
+        {
+            flags |= ALL_ONES;
+        }
+        memory.putByte((byte) flags);
+        memory.putDouble(fv.getY());
+        memory.putVarInt(sz);
+        int last = 0;
+        for (int i = 0; i < sz; ++i)
+        {
+            int index = offsets.get(i).index;
+            int delta = index - last;
+            // Zig-zag, so an out of order index costs a few bytes instead of being wrong
+            memory.putVarInt((delta << 1) ^ (delta >> 31));
+            last = index;
+        }
+        if (!allOnes)
+        {
+            for (int i = 0; i < sz; ++i)
+            {
+                putValue(memory, offsets.get(i).value);
+            }
+        }
+        return memory.getPos();
+    }
+
+    private void putValue(UnsafeMemory memory, double value)
+    {
+        if (floatValues)
+        {
+            memory.putFloat((float) value);
+        }
+        else
+        {
+            memory.putDouble(value);
+        }
+    }
+
+    private static double getValue(UnsafeMemory memory, boolean floatValues)
+    {
+        return floatValues ? memory.getFloat() : memory.getDouble();
+    }
+
+    @Override
+    public FeatureVector decode(byte[] buffer, int offset, int length)
+    {
+        UnsafeMemory memory = new UnsafeMemory(buffer, offset);
+        int flags = memory.getByte();
+        boolean isFloat = (flags & FLOAT) != 0;
+        double y = memory.getDouble();
+        int sz = memory.getVarInt();
+
+        if ((flags & DENSE) != 0)
+        {
+            DenseVectorN dv = new DenseVectorN(sz);
+            for (int i = 0; i < sz; ++i)
+            {
+                dv.set(i, getValue(memory, isFloat));
+            }
+            return new FeatureVector(y, dv);
+        }
+
+        int[] indices = new int[sz];
+        int last = 0;
+        for (int i = 0; i < sz; ++i)
+        {
+            int zz = memory.getVarInt();
+            last += (zz >>> 1) ^ -(zz & 1);
+            indices[i] = last;
+        }
+        FeatureVector fv = FeatureVector.newSparse(y);
+        boolean allOnes = (flags & ALL_ONES) != 0;
+        for (int i = 0; i < sz; ++i)
+        {
+            fv.add(new Offset(indices[i], allOnes ? 1.0 : getValue(memory, isFloat)));
+        }
+        fv.getX().organize();
+        return fv;
+    }
+
+    @Override
+    public void decode(byte[] buffer, int offset, int length, FeatureVector fv)
+    {
+        UnsafeMemory memory = new UnsafeMemory(buffer, offset);
+        int flags = memory.getByte();
+        boolean isFloat = (flags & FLOAT) != 0;
+        fv.setY(memory.getDouble());
+        int sz = memory.getVarInt();
+        VectorN x = fv.getX();
+
+        if ((flags & DENSE) != 0)
+        {
+            for (int i = 0; i < sz; ++i)
+            {
+                double v = getValue(memory, isFloat);
+                if (v != 0.)
+                {
+                    x.add(i, v);
+                }
+            }
+            return;
+        }
+
+        // The values follow all of the indices, so find where they start, then walk both
+        UnsafeMemory values = new UnsafeMemory(buffer, memory.getPos());
+        for (int i = 0; i < sz; ++i)
+        {
+            values.getVarInt();
+        }
+        boolean allOnes = (flags & ALL_ONES) != 0;
+        int last = 0;
+        for (int i = 0; i < sz; ++i)
+        {
+            int zz = memory.getVarInt();
+            last += (zz >>> 1) ^ -(zz & 1);
+            x.add(last, allOnes ? 1.0 : getValue(values, isFloat));
+        }
+        x.organize();
+    }
+
+    public boolean isFloatValues()
+    {
+        return floatValues;
+    }
+}
@@ -0,0 +1,118 @@
+package org.sgdtk.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Expand a grid of settings into one config per combination
+ *
+ * A grid is read like any other config, by {@link JsonConfigReader}, but any learner or model setting can be given as
+ * a list of values instead of a single one.  Each list is an axis of the grid, and there is a config for every
+ * combination of values, for instance:
+ *
+ * <pre>
+ * {
+ *     "name": "nightly",
+ *     "learner": { "lambda": [1e-4, 1e-5, 1e-6], "lossFunction": ["org.sgdtk.HingeLoss", "org.sgdtk.LogLoss"] },
+ *     "model": { "optim": ["org.sgdtk.LinearModel", "org.sgdtk.AdagradLinearModel"] }
+ * }
+ * </pre>
+ *
+ * is 12 configs.  Each is named after the grid, followed by the settings that vary, so the name tells it apart from
+ * the others.  The axes are expanded in the order they are given, learner first, with the last one varying fastest.
+ *
+ * @author dpressel
+ */
+public class ConfigGrid
+{
+    private ConfigGrid()
+    {
+
+    }
+
+    /**
+     * Expand a grid
+     * @param grid A config, where any setting can be a list of values
+     * @return The configs, one per combination of values.  If nothing is a list, this is just the grid
+     */
+    public static List<Config> expand(Config grid)
+    {
+        List<Config> configs = new ArrayList<Config>();
+        Config first = new Config();
+        first.setLearner(new LinkedHashMap<String, Object>());
+        first.setModel(new LinkedHashMap<String, Object>());
+        configs.add(first);
+
+        List<String> varying = new ArrayList<String>();
+        configs = expand(configs, grid.getLearner(), true, varying);
+        configs = expand(configs, grid.getModel(), false, varying);
+
+        // Name each after the values it was given along the axes
+        String name = grid.getName() == null ? "config" : grid.getName();
+        for (Config config : configs)
+        {
+            StringBuilder sb = new StringBuilder(name);
+            String sep = "[";
+            for (String key : varying)
+            {
+                Map<String, Object> settings = key.startsWith("model.") ? config.getModel() : config.getLearner();
+                String setting = key.substring(key.indexOf('.') + 1);
+                sb.append(sep).append(setting).append('=').append(shortName(settings.get(setting)));
+                sep = ",";
+            }
+            if (!varying.isEmpty())
+            {
+                sb.append(']');
+            }
+            config.setName(sb.toString());
+        }
+        return configs;
+    }
+
+    // Expand each config so far along each axis in these settings
+    private static List<Config> expand(List<Config> configs, Map<String, Object> settings, boolean learner,
+                                       List<String> varying)
+    {
+        if (settings == null)
+        {
+            return configs;
+        }
+        for (Map.Entry<String, Object> setting : settings.entrySet())
+        {
+            List<?> values = setting.getValue() instanceof List ? (List<?>) setting.getValue() :
+                    Collections.singletonList(setting.getValue());
+            if (values.isEmpty())
+            {
+                throw new IllegalArgumentException("No values to try for " + setting.getKey());
+            }
+            if (values.size() > 1)
+            {
+                varying.add((learner ? "learner." : "model.") + setting.getKey());
+            }
+            List<Config> expanded = new ArrayList<Config>(configs.size() * values.size());
+            for (Config config : configs)
+            {
+                for (Object value : values)
+                {
+                    Config copy = new Config();
+                    copy.setLearner(new LinkedHashMap<String, Object>(config.getLearner()));
+                    copy.setModel(new LinkedHashMap<String, Object>(config.getModel()));
+                    (learner ? copy.getLearner() : copy.getModel()).put(setting.getKey(), value);
+                    expanded.add(copy);
+                }
+            }
+            configs = expanded;
+        }
+        return configs;
+    }
+
+    // Class names are shortened to the simple name
+    private static String shortName(Object value)
+    {
+        String s = String.valueOf(value);
+        return value instanceof String ? s.substring(s.lastIndexOf('.') + 1) : s;
+    }
+}
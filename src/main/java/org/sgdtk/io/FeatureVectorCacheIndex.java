@@ -0,0 +1,69 @@
+package org.sgdtk.io;
+
+import java.util.Arrays;
+
+/**
+ * Where each block of records starts in a feature vector cache, and how many records it holds
+ *
+ * This is built by {@link org.sgdtk.io.FeatureVectorCacheWriter} as the cache is written.  A block is the unit of
+ * random access: a reader can seek to any block start and read its records sequentially, which is what
+ * {@link org.sgdtk.io.ShuffledFeatureVectorCacheReader} does to replay a cache in a different order every epoch.
+ *
+ * @author dpressel
+ */
+public class FeatureVectorCacheIndex
+{
+    private long[] offsets = new long[64];
+    private int[] numRecords = new int[64];
+    private int size;
+
+    /**
+     * Add a block
+     * @param offset The file offset where the block starts
+     * @param count The number of records in the block
+     */
+    public void add(long offset, int count)
+    {
+        if (size == offsets.length)
+        {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            numRecords = Arrays.copyOf(numRecords, size * 2);
+        }
+        offsets[size] = offset;
+        numRecords[size] = count;
+        ++size;
+    }
+
+    /**
+     * Number of blocks
+     * @return size
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    public long getOffset(int i)
+    {
+        return offsets[i];
+    }
+
+    public int getNumRecords(int i)
+    {
+        return numRecords[i];
+    }
+
+    /**
+     * Total number of records in the cache
+     * @return count
+     */
+    public long getTotalRecords()
+    {
+        long total = 0;
+        for (int i = 0; i < size; ++i)
+        {
+            total += numRecords[i];
+        }
+        return total;
+    }
+}
@@ -0,0 +1,463 @@
+package org.sgdtk.io;
+
+import org.sgdtk.ArrayDouble;
+import org.sgdtk.FeatureProvider;
+import org.sgdtk.FeatureVector;
+import org.sgdtk.UnsafeMemory;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read {@link org.sgdtk.FeatureVector}s back from a cache written by {@link org.sgdtk.io.FeatureVectorCacheWriter}
+ *
+ * The codec and compression are taken from the cache header.  The reader can {@link #seek(long)} to any block
+ * start from a {@link org.sgdtk.io.FeatureVectorCacheIndex}.  The {@link org.sgdtk.io.CacheMetadata} trailer is read
+ * up front, and records are read up to where it starts.  If the trailer is missing, the cache is incomplete, and the
+ * records are read up to the end of the file.
+ *
+ * @author dpressel
+ */
+public class FeatureVectorCacheReader implements FeatureProvider, Closeable
+{
+    private static final int INPUT_BUFFER_SZ = 1 << 16;
+
+    private final ChannelInput channelInput;
+    private final DataInputStream input;
+    private final FeatureVectorCodec codec;
+    private final boolean compressed;
+    private byte[] buffer = new byte[1024];
+    private byte[] block;
+    private int blockPos;
+    private int blockLength;
+    private int largestVectorSeen;
+    private final CacheMetadata metadata;
+    private final long dataEnd;
+    private long pos;
+    private byte[] recordBuffer;
+    private int recordOffset;
+
+    /**
+     * Open a cache file and read its header
+     * @param file The cache file
+     * @throws IOException If the file is not a cache, or is from an unknown version
+     */
+    public FeatureVectorCacheReader(File file) throws IOException
+    {
+        FileInputStream fileInput = new FileInputStream(file);
+        channelInput = new ChannelInput(fileInput, INPUT_BUFFER_SZ);
+        input = new DataInputStream(channelInput);
+        try
+        {
+            if (input.readInt() != FeatureVectorCacheWriter.MAGIC)
+            {
+                throw new IOException("Not a feature vector cache: " + file);
+            }
+            int version = input.readByte();
+            if (version != FeatureVectorCacheWriter.VERSION)
+            {
+                throw new IOException("Unsupported cache version " + version + ": " + file);
+            }
+            codec = newCodec(input.readByte());
+            compressed = input.readBoolean();
+            pos = FeatureVectorCacheWriter.HEADER_SZ;
+            FileChannel channel = channelInput.channel;
+            long trailerOffset = trailerOffset(channel);
+            metadata = trailerOffset < 0 ? null : readTrailer(channel, trailerOffset);
+            dataEnd = metadata == null ? channel.size() : trailerOffset;
+        }
+        catch (IOException ioEx)
+        {
+            input.close();
+            throw ioEx;
+        }
+    }
+
+    private static final int TAIL_SZ = 12;
+
+    /**
+     * A buffered stream over the file that can be moved without giving up its buffer.  It reads by position, so the
+     * channel's own position never matters.  A seek that lands inside what is already buffered just moves within it
+     */
+    private static final class ChannelInput extends InputStream
+    {
+        private final FileInputStream fileInput;
+        private final FileChannel channel;
+        private final byte[] buf;
+        private final ByteBuffer wrapped;
+        // The file offset of buf[0]
+        private long bufStart;
+        private int count;
+        private int bufPos;
+
+        ChannelInput(FileInputStream fileInput, int bufferSz)
+        {
+            this.fileInput = fileInput;
+            this.channel = fileInput.getChannel();
+            this.buf = new byte[bufferSz];
+            this.wrapped = ByteBuffer.wrap(buf);
+        }
+
+        void seek(long offset)
+        {
+            if (offset >= bufStart && offset <= bufStart + count)
+            {
+                bufPos = (int) (offset - bufStart);
+                return;
+            }
+            bufStart = offset;
+            count = 0;
+            bufPos = 0;
+        }
+
+        private boolean fill() throws IOException
+        {
+            bufStart += count;
+            count = 0;
+            bufPos = 0;
+            wrapped.clear();
+            int n = channel.read(wrapped, bufStart);
+            if (n <= 0)
+            {
+                return false;
+            }
+            count = n;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (bufPos >= count && !fill())
+            {
+                return -1;
+            }
+            return buf[bufPos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (bufPos >= count)
+            {
+                if (len >= buf.length)
+                {
+                    // Too big to be worth copying through the buffer
+                    long at = bufStart + count;
+                    int n = channel.read(ByteBuffer.wrap(b, off, len), at);
+                    if (n > 0)
+                    {
+                        bufStart = at + n;
+                        count = 0;
+                        bufPos = 0;
+                    }
+                    return n;
+                }
+                if (!fill())
+                {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, count - bufPos);
+            System.arraycopy(buf, bufPos, b, off, n);
+            bufPos += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            fileInput.close();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0)
+            {
+                throw new IOException("Unexpected end of cache");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Get the trailer offset from the end of a complete cache.  This uses positional reads, so the stream is not moved
+     * @param channel The cache file channel
+     * @return The trailer offset, or -1 if the cache is not complete
+     * @throws IOException
+     */
+    private static long trailerOffset(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+        if (size < FeatureVectorCacheWriter.HEADER_SZ + TAIL_SZ)
+        {
+            return -1;
+        }
+        ByteBuffer tail = ByteBuffer.allocate(TAIL_SZ);
+        readFully(channel, tail, size - TAIL_SZ);
+        long offset = tail.getLong();
+        int magic = tail.getInt();
+        if (magic != FeatureVectorCacheWriter.TRAILER_MAGIC || offset < FeatureVectorCacheWriter.HEADER_SZ || offset > size - TAIL_SZ)
+        {
+            return -1;
+        }
+        return offset;
+    }
+
+    private static CacheMetadata readTrailer(FileChannel channel, long offset) throws IOException
+    {
+        ByteBuffer trailer = ByteBuffer.allocate((int) (channel.size() - TAIL_SZ - offset));
+        readFully(channel, trailer, offset);
+        return CacheMetadata.read(new DataInputStream(new ByteArrayInputStream(trailer.array())));
+    }
+
+    /**
+     * Read just the metadata from a cache, for instance to see if it can be reused
+     * @param file The cache file
+     * @return The metadata, or null if the file does not exist, is not a cache or is not complete
+     */
+    public static CacheMetadata readMetadata(File file)
+    {
+        if (!file.isFile())
+        {
+            return null;
+        }
+        try
+        {
+            FeatureVectorCacheReader reader = new FeatureVectorCacheReader(file);
+            reader.close();
+            return reader.getMetadata();
+        }
+        catch (IOException ioEx)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Jump to a block start.  Buffered data is kept if the block starts within it
+     * @param offset A file offset from a {@link org.sgdtk.io.FeatureVectorCacheIndex}
+     * @throws IOException
+     */
+    public void seek(long offset) throws IOException
+    {
+        channelInput.seek(offset);
+        pos = offset;
+        blockPos = 0;
+        blockLength = 0;
+    }
+
+    /**
+     * Create the codec that goes with an id from a cache header
+     * @param id The codec id
+     * @return A codec
+     * @throws IOException If the id is unknown
+     */
+    public static FeatureVectorCodec newCodec(byte id) throws IOException
+    {
+        switch (id)
+        {
+            case RawFeatureVectorCodec.SPARSE_ID:
+                return new RawFeatureVectorCodec(false);
+            case RawFeatureVectorCodec.DENSE_ID:
+                return new RawFeatureVectorCodec(true);
+            case CompactFeatureVectorCodec.ID:
+                return new CompactFeatureVectorCodec(false);
+            case CompactFeatureVectorCodec.FLOAT_ID:
+                return new CompactFeatureVectorCodec(true);
+        }
+        throw new IOException("Unknown cache codec " + id);
+    }
+
+    /**
+     * Get the next feature vector
+     * @return A feature vector, or null at the end of the cache
+     * @throws IOException
+     */
+    @Override
+    public FeatureVector next() throws IOException
+    {
+        int length = nextRecord();
+        if (length < 0)
+        {
+            return null;
+        }
+        FeatureVector fv = codec.decode(recordBuffer, recordOffset, length);
+        largestVectorSeen = Math.max(largestVectorSeen, fv.length());
+        return fv;
+    }
+
+    /**
+     * Decode the next feature vector into an existing one, which should have been reset
+     * @param fv The feature vector to fill in
+     * @return false at the end of the cache
+     * @throws IOException
+     */
+    @Override
+    public boolean next(FeatureVector fv) throws IOException
+    {
+        int length = nextRecord();
+        if (length < 0)
+        {
+            return false;
+        }
+        codec.decode(recordBuffer, recordOffset, length, fv);
+        largestVectorSeen = Math.max(largestVectorSeen, fv.length());
+        return true;
+    }
+
+    /**
+     * Read the next record without decoding it.  The encoded bytes are in {@link #getRecordBuffer()} starting at
+     * {@link #getRecordOffset()}, and they are only good until the next read
+     * @return The record length, or -1 at the end of the cache
+     * @throws IOException
+     */
+    public int nextRecord() throws IOException
+    {
+        return compressed ? nextRecordFromBlock() : nextRecordFromStream();
+    }
+
+    public byte[] getRecordBuffer()
+    {
+        return recordBuffer;
+    }
+
+    public int getRecordOffset()
+    {
+        return recordOffset;
+    }
+
+    private int nextRecordFromStream() throws IOException
+    {
+        if (pos >= dataEnd)
+        {
+            return -1;
+        }
+        int b = input.read();
+        if (b < 0)
+        {
+            return -1;
+        }
+        ++pos;
+        int length = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7)
+        {
+            b = input.readUnsignedByte();
+            ++pos;
+            length |= (b & 0x7F) << shift;
+        }
+        pos += length;
+        if (length > buffer.length)
+        {
+            buffer = new byte[ArrayDouble.nextPowerOf2(length)];
+        }
+        input.readFully(buffer, 0, length);
+        recordBuffer = buffer;
+        recordOffset = 0;
+        return length;
+    }
+
+    private int nextRecordFromBlock() throws IOException
+    {
+        if (blockPos >= blockLength && !readBlock())
+        {
+            return -1;
+        }
+        UnsafeMemory memory = new UnsafeMemory(block, blockPos);
+        int length = memory.getVarInt();
+        recordBuffer = block;
+        recordOffset = memory.getPos();
+        blockPos = recordOffset + length;
+        return length;
+    }
+
+    private boolean readBlock() throws IOException
+    {
+        if (pos >= dataEnd)
+        {
+            return false;
+        }
+        int rawLength;
+        try
+        {
+            rawLength = input.readInt();
+        }
+        catch (EOFException eof)
+        {
+            return false;
+        }
+        int storedLength = input.readInt();
+        pos += 8 + storedLength;
+        if (block == null || block.length < rawLength)
+        {
+            block = new byte[ArrayDouble.nextPowerOf2(rawLength)];
+        }
+        if (storedLength == rawLength)
+        {
+            input.readFully(block, 0, rawLength);
+        }
+        else
+        {
+            if (buffer.length < storedLength)
+            {
+                buffer = new byte[ArrayDouble.nextPowerOf2(storedLength)];
+            }
+            input.readFully(buffer, 0, storedLength);
+            int n = LZ4BlockCompressor.decompress(buffer, 0, storedLength, block, 0, rawLength);
+            if (n != rawLength)
+            {
+                throw new IOException("Corrupt cache block: expected " + rawLength + " bytes, got " + n);
+            }
+        }
+        blockPos = 0;
+        blockLength = rawLength;
+        return true;
+    }
+
+    @Override
+    public int getLargestVectorSeen()
+    {
+        return largestVectorSeen;
+    }
+
+    /**
+     * The cache metadata from the trailer
+     * @return The metadata, or null if the cache was not completed
+     */
+    public CacheMetadata getMetadata()
+    {
+        return metadata;
+    }
+
+    public FeatureVectorCodec getCodec()
+    {
+        return codec;
+    }
+
+    public boolean isCompressed()
+    {
+        return compressed;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        input.close();
+    }
+}
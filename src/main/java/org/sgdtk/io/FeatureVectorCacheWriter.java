@@ -0,0 +1,270 @@
+package org.sgdtk.io;
+
+import org.sgdtk.ArrayDouble;
+import org.sgdtk.FeatureVector;
+import org.sgdtk.UnsafeMemory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Write {@link org.sgdtk.FeatureVector}s to a binary cache file for fast replay
+ *
+ * The file starts with a small header (magic, version, codec id and whether blocks are compressed).  Each record is
+ * a varint length followed by the bytes from the {@link org.sgdtk.io.FeatureVectorCodec}.  When compression is on,
+ * records are gathered into blocks of about {@link #BLOCK_SZ} bytes, and each block is written as its raw length,
+ * its stored length and the LZ4 compressed bytes (or the raw bytes, if compression did not help).
+ *
+ * As the records are written, a {@link org.sgdtk.io.FeatureVectorCacheIndex} of blocks is kept so that the cache can
+ * be replayed out of order.  Uncompressed records are indexed in runs of about {@link #BLOCK_SZ} bytes.
+ *
+ * On close, a trailer holding the {@link org.sgdtk.io.CacheMetadata} (source description, record count, width and
+ * block index) is appended, followed by the trailer offset and {@link #TRAILER_MAGIC}.  A cache which is missing
+ * the trailer was not completed.
+ *
+ * @author dpressel
+ */
+public class FeatureVectorCacheWriter implements Closeable
+{
+    public static final int MAGIC = 0x53474443;
+    public static final int VERSION = 2;
+    public static final int TRAILER_MAGIC = 0x53474445;
+    public static final int HEADER_SZ = 7;
+    public static final int BLOCK_SZ = 1 << 16;
+    private static final int OUTPUT_BUFFER_SZ = 1 << 16;
+
+    private final DataOutputStream output;
+    private final FeatureVectorCodec codec;
+    private final LZ4BlockCompressor compressor;
+    private final byte[] lengthBuffer = new byte[UnsafeMemory.MAX_SIZE_OF_VAR_INT];
+    private byte[] scratch = new byte[1024];
+    private byte[] block;
+    private byte[] compressed;
+    private int blockPos;
+    private long numRecords;
+    private long bytesWritten;
+    private final FeatureVectorCacheIndex index = new FeatureVectorCacheIndex();
+    private long blockStart;
+    private int blockRecords;
+    private int largestVectorSeen;
+    private CacheMetadata metadata;
+    private boolean closed;
+
+    /**
+     * Create a cache file, and write the header
+     * @param file The cache file
+     * @param codec The record encoding
+     * @param compress Compress blocks of records
+     * @throws IOException
+     */
+    public FeatureVectorCacheWriter(File file, FeatureVectorCodec codec, boolean compress) throws IOException
+    {
+        this.codec = codec;
+        this.compressor = compress ? new LZ4BlockCompressor() : null;
+        if (compress)
+        {
+            block = new byte[BLOCK_SZ];
+        }
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), OUTPUT_BUFFER_SZ));
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        output.writeByte(codec.getId());
+        output.writeBoolean(compress);
+        bytesWritten = HEADER_SZ;
+        blockStart = bytesWritten;
+    }
+
+    /**
+     * Append a feature vector to the cache
+     * @param fv A feature vector
+     * @throws IOException
+     */
+    public void write(FeatureVector fv) throws IOException
+    {
+        int maxSize = codec.getMaxEncodedSize(fv);
+        if (maxSize > scratch.length)
+        {
+            scratch = new byte[ArrayDouble.nextPowerOf2(maxSize)];
+        }
+        int length = codec.encode(fv, scratch);
+        ++numRecords;
+        ++blockRecords;
+        largestVectorSeen = Math.max(largestVectorSeen, fv.length());
+
+        if (compressor == null)
+        {
+            UnsafeMemory memory = new UnsafeMemory(lengthBuffer);
+            memory.putVarInt(length);
+            output.write(lengthBuffer, 0, memory.getPos());
+            output.write(scratch, 0, length);
+            bytesWritten += memory.getPos() + length;
+            if (bytesWritten - blockStart >= BLOCK_SZ)
+            {
+                endBlock();
+            }
+            return;
+        }
+
+        int required = length + UnsafeMemory.MAX_SIZE_OF_VAR_INT;
+        if (blockPos > 0 && blockPos + required > block.length)
+        {
+            // This record starts the next block
+            --blockRecords;
+            flushBlock();
+            blockRecords = 1;
+        }
+        if (required > block.length)
+        {
+            block = new byte[ArrayDouble.nextPowerOf2(required)];
+        }
+        UnsafeMemory memory = new UnsafeMemory(block, blockPos);
+        memory.putVarInt(length);
+        System.arraycopy(scratch, 0, block, memory.getPos(), length);
+        blockPos = memory.getPos() + length;
+    }
+
+    private void flushBlock() throws IOException
+    {
+        if (blockPos == 0)
+        {
+            return;
+        }
+        int maxLength = LZ4BlockCompressor.maxCompressedLength(blockPos);
+        if (compressed == null || compressed.length < maxLength)
+        {
+            compressed = new byte[ArrayDouble.nextPowerOf2(maxLength)];
+        }
+        int compressedLength = compressor.compress(block, 0, blockPos, compressed, 0);
+
+        output.writeInt(blockPos);
+        // A stored length equal to the raw length means the block was not worth compressing
+        if (compressedLength < blockPos)
+        {
+            output.writeInt(compressedLength);
+            output.write(compressed, 0, compressedLength);
+            bytesWritten += 8 + compressedLength;
+        }
+        else
+        {
+            output.writeInt(blockPos);
+            output.write(block, 0, blockPos);
+            bytesWritten += 8 + blockPos;
+        }
+        blockPos = 0;
+        endBlock();
+    }
+
+    private void endBlock()
+    {
+        if (blockRecords > 0)
+        {
+            index.add(blockStart, blockRecords);
+        }
+        blockStart = bytesWritten;
+        blockRecords = 0;
+    }
+
+    /**
+     * Write any pending block and the trailer, and close the file.  Calling this again has no effect
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        if (compressor != null)
+        {
+            flushBlock();
+        }
+        else
+        {
+            endBlock();
+        }
+
+        CacheMetadata trailer = metadata == null ? new CacheMetadata() : metadata;
+        trailer.setNumRecords(numRecords);
+        trailer.setWidth(largestVectorSeen);
+        trailer.setIndex(index);
+        long trailerOffset = bytesWritten;
+        trailer.write(output);
+        output.writeLong(trailerOffset);
+        output.writeInt(TRAILER_MAGIC);
+        output.close();
+    }
+
+    /**
+     * Close the file without writing the trailer, so it will never be mistaken for a complete cache
+     * @throws IOException
+     */
+    public void abort() throws IOException
+    {
+        if (!closed)
+        {
+            closed = true;
+            output.close();
+        }
+    }
+
+    /**
+     * Set the description of the source, which is written to the trailer on close
+     * @param metadata The source description
+     */
+    public void setMetadata(CacheMetadata metadata)
+    {
+        this.metadata = metadata;
+    }
+
+    public CacheMetadata getMetadata()
+    {
+        return metadata;
+    }
+
+    /**
+     * The largest vector length written so far
+     * @return width
+     */
+    public int getLargestVectorSeen()
+    {
+        return largestVectorSeen;
+    }
+
+    public FeatureVectorCodec getCodec()
+    {
+        return codec;
+    }
+
+    /**
+     * The block index.  This is complete once the writer is closed
+     * @return index
+     */
+    public FeatureVectorCacheIndex getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * Number of records written so far
+     * @return count
+     */
+    public long getNumRecords()
+    {
+        return numRecords;
+    }
+
+    /**
+     * Number of bytes written to the file so far, not counting a pending block
+     * @return count
+     */
+    public long getBytesWritten()
+    {
+        return bytesWritten;
+    }
+}
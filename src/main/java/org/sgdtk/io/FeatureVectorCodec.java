@@ -0,0 +1,55 @@
+package org.sgdtk.io;
+
+import org.sgdtk.FeatureVector;
+
+/**
+ * Binary encoding of a {@link org.sgdtk.FeatureVector} for use in a training cache
+ *
+ * A codec only deals with the bytes of a single vector.  Framing (record lengths, blocks, compression) is handled
+ * by {@link org.sgdtk.io.FeatureVectorCacheWriter} and {@link org.sgdtk.io.FeatureVectorCacheReader}, which store
+ * the codec id in the cache header so that a cache can be read back without being told how it was written.
+ *
+ * @author dpressel
+ */
+public interface FeatureVectorCodec
+{
+    /**
+     * Identifier for this codec, which is written in the cache header
+     * @return id
+     */
+    byte getId();
+
+    /**
+     * An upper bound on the number of bytes needed to encode this vector
+     * @param fv A feature vector
+     * @return Number of bytes to make available to {@link #encode(org.sgdtk.FeatureVector, byte[])}
+     */
+    int getMaxEncodedSize(FeatureVector fv);
+
+    /**
+     * Encode a feature vector at the start of the buffer
+     * @param fv A feature vector
+     * @param buffer A buffer with at least {@link #getMaxEncodedSize(org.sgdtk.FeatureVector)} bytes
+     * @return The number of bytes actually used
+     */
+    int encode(FeatureVector fv, byte[] buffer);
+
+    /**
+     * Decode a feature vector
+     * @param buffer A buffer
+     * @param offset Where the encoded vector starts
+     * @param length The encoded length
+     * @return The feature vector
+     */
+    FeatureVector decode(byte[] buffer, int offset, int length);
+
+    /**
+     * Decode a feature vector into an existing one, which should have been reset.  With a
+     * {@link org.sgdtk.PooledSparseVectorN} underneath, this does not allocate
+     * @param buffer A buffer
+     * @param offset Where the encoded vector starts
+     * @param length The encoded length
+     * @param fv The feature vector to fill in
+     */
+    void decode(byte[] buffer, int offset, int length, FeatureVector fv);
+}
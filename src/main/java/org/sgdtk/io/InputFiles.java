@@ -0,0 +1,152 @@
+package org.sgdtk.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Open input files, decompressing them transparently
+ *
+ * The readers all go through here, so a compressed file can be given anywhere a plain one can.  The raw bytes are
+ * read ahead of the parser by a {@link PrefetchingInputStream}, sized by {@link #setPrefetch(int, int)}, so disk
+ * latency is kept off the parsing thread.  The format is sniffed from the magic bytes rather than the file name:
+ * <ul>
+ *     <li>BGZF (blocked gzip) is inflated a block at a time on a shared pool, see {@link BgzfInputStream}</li>
+ *     <li>Any other gzip, including multi-member files, is inflated on its own thread, one chunk ahead of the reader,
+ *     see {@link PipelinedInputStream}.  Without block sizes in the headers, members can't be found without inflating,
+ *     so this can't go parallel</li>
+ *     <li>zstd is detected, but there is no decoder on the classpath, so it fails with a clear message</li>
+ *     <li>Anything else is read as-is</li>
+ * </ul>
+ *
+ * @author dpressel
+ */
+public final class InputFiles
+{
+    private static final int READ_BUFFER_SZ = 1 << 16;
+    private static final int MAGIC_SZ = 16;
+    private static final int ZSTD_MAGIC = 0xFD2FB528;
+
+    private static ExecutorService decompressPool;
+    private static volatile int prefetchBufferSz = PrefetchingInputStream.DEFAULT_BUFFER_SZ;
+    private static volatile int numPrefetchBuffers = PrefetchingInputStream.DEFAULT_NUM_BUFFERS;
+
+    private InputFiles()
+    {
+
+    }
+
+    // The pool for BGZF blocks is shared by all open files, since they are usually read at the same time anyway
+    private static synchronized ExecutorService getDecompressPool()
+    {
+        if (decompressPool == null)
+        {
+            decompressPool = Executors.newFixedThreadPool(getNumDecompressThreads(), runnable ->
+            {
+                Thread thread = new Thread(runnable, "sgdtk-inflate");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return decompressPool;
+    }
+
+    /**
+     * Number of threads used to inflate BGZF blocks
+     * @return The number of available processors
+     */
+    public static int getNumDecompressThreads()
+    {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Set up read-ahead for files opened after this
+     * @param bufferSz The size of each read-ahead buffer
+     * @param numBuffers The number of buffers.  If this is 0, files are read on the calling thread
+     */
+    public static void setPrefetch(int bufferSz, int numBuffers)
+    {
+        prefetchBufferSz = bufferSz;
+        numPrefetchBuffers = numBuffers;
+    }
+
+    public static int getPrefetchBufferSz()
+    {
+        return prefetchBufferSz;
+    }
+
+    public static int getNumPrefetchBuffers()
+    {
+        return numPrefetchBuffers;
+    }
+
+    // Peek at the start of the file
+    private static int readMagic(File file, byte[] magic) throws IOException
+    {
+        FileInputStream input = new FileInputStream(file);
+        try
+        {
+            int n = 0;
+            int k;
+            while (n < magic.length && (k = input.read(magic, n, magic.length - n)) > 0)
+            {
+                n += k;
+            }
+            return n;
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Open a file as a stream of (decompressed) bytes
+     * @param file A plain, gzip or BGZF file
+     * @return A stream
+     * @throws IOException If the file can't be opened, or is compressed in a format we can't read
+     */
+    public static InputStream open(File file) throws IOException
+    {
+        byte[] magic = new byte[MAGIC_SZ];
+        int n = readMagic(file, magic);
+        if (n >= 4 && ((magic[0] & 0xff) | (magic[1] & 0xff) << 8 | (magic[2] & 0xff) << 16 | (magic[3] & 0xff) << 24) == ZSTD_MAGIC)
+        {
+            throw new IOException(file + " is zstd compressed, which is not supported.  Recompress it with gzip or bgzip");
+        }
+
+        InputStream input = numPrefetchBuffers > 0 ?
+                new PrefetchingInputStream(file, prefetchBufferSz, numPrefetchBuffers) :
+                new BufferedInputStream(new FileInputStream(file), READ_BUFFER_SZ);
+
+        if (BgzfInputStream.isBgzf(magic, n))
+        {
+            int threads = getNumDecompressThreads();
+            return new BgzfInputStream(input, getDecompressPool(), 2 * threads);
+        }
+        if (n >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b)
+        {
+            return new PipelinedInputStream(new GZIPInputStream(input, READ_BUFFER_SZ));
+        }
+        return input;
+    }
+
+    /**
+     * Open a file for reading lines, in the platform's default encoding
+     * @param file A plain, gzip or BGZF text file
+     * @return A reader
+     * @throws IOException If the file can't be opened, or is compressed in a format we can't read
+     */
+    public static BufferedReader openReader(File file) throws IOException
+    {
+        return new BufferedReader(new InputStreamReader(open(file)));
+    }
+}
@@ -0,0 +1,236 @@
+package org.sgdtk.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A small, dependency-free compressor for the LZ4 block format
+ *
+ * This writes the standard LZ4 block format (token, literals, 2-byte little-endian offset, match length), so the
+ * output can be read by any LZ4 block decoder.  The match finder is the simple greedy single-probe hash table that
+ * the reference "fast" mode uses, which is plenty for cache files full of small varints and repeated labels.
+ * Decompression is a straight copy loop, which is what we care about since a cache is written once and read many times.
+ *
+ * An instance keeps its hash table between calls, so it is not thread-safe.  Decompression is static.
+ *
+ * @author dpressel
+ */
+public class LZ4BlockCompressor
+{
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_LOG = 14;
+    private static final int MF_LIMIT = 12;
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int SKIP_TRIGGER = 6;
+
+    private final int[] hashTable = new int[1 << HASH_LOG];
+
+    /**
+     * The worst case compressed size for an input, which happens when nothing matches
+     * @param length Input length
+     * @return Max output length
+     */
+    public static int maxCompressedLength(int length)
+    {
+        return length + length / 255 + 16;
+    }
+
+    private static int readInt(byte[] b, int i)
+    {
+        return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | ((b[i + 3] & 0xFF) << 24);
+    }
+
+    private static int hash(int v)
+    {
+        return (v * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int writeLength(byte[] dst, int dp, int n)
+    {
+        while (n >= 255)
+        {
+            dst[dp++] = (byte) 255;
+            n -= 255;
+        }
+        dst[dp++] = (byte) n;
+        return dp;
+    }
+
+    /**
+     * Compress a block
+     * @param src The input
+     * @param srcOff Start of the input
+     * @param srcLen Input length
+     * @param dst The output, which must have at least {@link #maxCompressedLength(int)} bytes from dstOff
+     * @param dstOff Start of the output
+     * @return The compressed length
+     */
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff)
+    {
+        final int srcEnd = srcOff + srcLen;
+        int dp = dstOff;
+        int anchor = srcOff;
+
+        if (srcLen > MF_LIMIT)
+        {
+            Arrays.fill(hashTable, -1);
+            final int matchLimit = srcEnd - LAST_LITERALS;
+            final int mfLimit = srcEnd - MF_LIMIT;
+            int sp = srcOff;
+            int searches = 1 << SKIP_TRIGGER;
+
+            while (sp < mfLimit)
+            {
+                int seq = readInt(src, sp);
+                int h = hash(seq);
+                int ref = hashTable[h];
+                hashTable[h] = sp;
+
+                if (ref < 0 || sp - ref > MAX_DISTANCE || readInt(src, ref) != seq)
+                {
+                    // Step further the longer we go without finding anything
+                    sp += searches++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                searches = 1 << SKIP_TRIGGER;
+
+                while (sp > anchor && ref > srcOff && src[sp - 1] == src[ref - 1])
+                {
+                    --sp;
+                    --ref;
+                }
+
+                int matchLen = MIN_MATCH;
+                while (sp + matchLen < matchLimit && src[sp + matchLen] == src[ref + matchLen])
+                {
+                    ++matchLen;
+                }
+
+                // Emit the literals since the last match, then this match
+                int litLen = sp - anchor;
+                int ml = matchLen - MIN_MATCH;
+                int token = dp++;
+                dst[token] = (byte) ((Math.min(litLen, 15) << 4) | Math.min(ml, 15));
+                if (litLen >= 15)
+                {
+                    dp = writeLength(dst, dp, litLen - 15);
+                }
+                System.arraycopy(src, anchor, dst, dp, litLen);
+                dp += litLen;
+                int offset = sp - ref;
+                dst[dp++] = (byte) offset;
+                dst[dp++] = (byte) (offset >>> 8);
+                if (ml >= 15)
+                {
+                    dp = writeLength(dst, dp, ml - 15);
+                }
+
+                sp += matchLen;
+                anchor = sp;
+                if (sp < mfLimit)
+                {
+                    hashTable[hash(readInt(src, sp - 2))] = sp - 2;
+                }
+            }
+        }
+
+        // The remainder is always literals
+        int litLen = srcEnd - anchor;
+        dst[dp++] = (byte) (Math.min(litLen, 15) << 4);
+        if (litLen >= 15)
+        {
+            dp = writeLength(dst, dp, litLen - 15);
+        }
+        System.arraycopy(src, anchor, dst, dp, litLen);
+        dp += litLen;
+        return dp - dstOff;
+    }
+
+    /**
+     * Decompress a block
+     * @param src The compressed input
+     * @param srcOff Start of the input
+     * @param srcLen Compressed length
+     * @param dst The output
+     * @param dstOff Start of the output
+     * @param dstLen The room in the output, which should be the uncompressed length
+     * @return The number of bytes written
+     * @throws IOException If the input is malformed or too big for the output
+     */
+    public static int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen) throws IOException
+    {
+        final int srcEnd = srcOff + srcLen;
+        final int dstEnd = dstOff + dstLen;
+        int sp = srcOff;
+        int dp = dstOff;
+
+        try
+        {
+            while (sp < srcEnd)
+            {
+                int token = src[sp++] & 0xFF;
+                int litLen = token >>> 4;
+                if (litLen == 15)
+                {
+                    int b;
+                    do
+                    {
+                        b = src[sp++] & 0xFF;
+                        litLen += b;
+                    }
+                    while (b == 255);
+                }
+                if (sp + litLen > srcEnd || dp + litLen > dstEnd)
+                {
+                    throw new IOException("Corrupt LZ4 block: literals overrun");
+                }
+                System.arraycopy(src, sp, dst, dp, litLen);
+                sp += litLen;
+                dp += litLen;
+
+                if (sp >= srcEnd)
+                {
+                    break;
+                }
+
+                int offset = (src[sp++] & 0xFF) | ((src[sp++] & 0xFF) << 8);
+                int matchLen = token & 15;
+                if (matchLen == 15)
+                {
+                    int b;
+                    do
+                    {
+                        b = src[sp++] & 0xFF;
+                        matchLen += b;
+                    }
+                    while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                int ref = dp - offset;
+                if (offset == 0 || ref < dstOff || dp + matchLen > dstEnd)
+                {
+                    throw new IOException("Corrupt LZ4 block: bad match");
+                }
+                if (offset >= matchLen)
+                {
+                    System.arraycopy(dst, ref, dst, dp, matchLen);
+                    dp += matchLen;
+                }
+                else
+                {
+                    // Overlapping copy repeats the last offset bytes
+                    for (int i = 0; i < matchLen; ++i)
+                    {
+                        dst[dp++] = dst[ref++];
+                    }
+                }
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException oob)
+        {
+            throw new IOException("Corrupt LZ4 block: truncated", oob);
+        }
+        return dp - dstOff;
+    }
+}
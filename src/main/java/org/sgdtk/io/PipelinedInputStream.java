@@ -0,0 +1,157 @@
+package org.sgdtk.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Read an input stream on a background thread, a chunk ahead of the consumer
+ *
+ * This is meant for sources that do real work on read, like a {@link java.util.zip.GZIPInputStream}.  The source is
+ * drained into a bounded queue of chunks by its own thread, so decompression overlaps with whatever the consumer is
+ * doing (parsing, usually), and the queue bound keeps memory in check if the consumer falls behind.  Any exception
+ * from the source, checked or not, is handed over and rethrown to the consumer on its next read, as an
+ * {@link IOException}.
+ *
+ * @author dpressel
+ */
+public class PipelinedInputStream extends InputStream
+{
+    public static final int DEFAULT_CHUNK_SZ = 1 << 16;
+    public static final int DEFAULT_DEPTH = 8;
+
+    private static final byte[] EOF = new byte[0];
+
+    private final InputStream source;
+    private final BlockingQueue<Object> queue;
+    private final Thread thread;
+    private byte[] chunk;
+    private int pos;
+    private boolean done;
+
+    /**
+     * Start reading the source in the background with default chunk size and depth
+     * @param source The source stream, which now belongs to this
+     */
+    public PipelinedInputStream(InputStream source)
+    {
+        this(source, DEFAULT_CHUNK_SZ, DEFAULT_DEPTH);
+    }
+
+    /**
+     * Start reading the source in the background
+     * @param source The source stream, which now belongs to this
+     * @param chunkSz The most to read from the source at once
+     * @param depth How many chunks can be waiting for the consumer
+     */
+    public PipelinedInputStream(final InputStream source, final int chunkSz, int depth)
+    {
+        this.source = source;
+        this.queue = new ArrayBlockingQueue<Object>(depth);
+        this.thread = new Thread(() ->
+        {
+            try
+            {
+                byte[] buffer = new byte[chunkSz];
+                int n;
+                while ((n = source.read(buffer)) >= 0)
+                {
+                    if (n > 0)
+                    {
+                        queue.put(Arrays.copyOf(buffer, n));
+                    }
+                }
+                queue.put(EOF);
+            }
+            catch (InterruptedException interruptedEx)
+            {
+                // Closed by the consumer
+            }
+            catch (Throwable t)
+            {
+                // Anything at all, or the consumer would wait forever on a thread that is gone
+                handOff(t);
+            }
+        }, "sgdtk-pipelined-input");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void handOff(Throwable t)
+    {
+        try
+        {
+            queue.put(t);
+        }
+        catch (InterruptedException interruptedEx)
+        {
+            // Closed by the consumer, so nobody is listening
+        }
+    }
+
+    // Make sure there is something to read, returning false at the end of the stream
+    private boolean fill() throws IOException
+    {
+        while (!done && (chunk == null || pos == chunk.length))
+        {
+            Object next;
+            try
+            {
+                next = queue.take();
+            }
+            catch (InterruptedException interruptedEx)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException(interruptedEx);
+            }
+            if (next instanceof Throwable)
+            {
+                done = true;
+                throw new IOException((Throwable) next);
+            }
+            chunk = (byte[]) next;
+            pos = 0;
+            done = chunk == EOF;
+        }
+        return !done;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        return fill() ? chunk[pos++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0)
+        {
+            return 0;
+        }
+        if (!fill())
+        {
+            return -1;
+        }
+        int n = Math.min(len, chunk.length - pos);
+        System.arraycopy(chunk, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available()
+    {
+        return chunk == null ? 0 : chunk.length - pos;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        done = true;
+        thread.interrupt();
+        source.close();
+    }
+}
@@ -0,0 +1,180 @@
+package org.sgdtk.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Read a file ahead of the consumer on a background thread
+ *
+ * A fixed set of large direct buffers cycles between two queues.  The read-ahead thread takes an empty buffer, fills
+ * it from the file's channel and hands it over full; the consumer drains it and gives it back.  With two buffers, this
+ * is classic double-buffering: the disk is read while the last buffer is being parsed, so a cold cache or a remote
+ * mount costs latency only when the parser is actually faster than the disk.  More buffers absorb burstier storage.
+ *
+ * Nothing is allocated per read: the buffers are made once, up front.  Any exception from the read-ahead thread is
+ * rethrown to the consumer on its next read.
+ *
+ * @author dpressel
+ */
+public class PrefetchingInputStream extends InputStream
+{
+    public static final int DEFAULT_BUFFER_SZ = 1 << 20;
+    public static final int DEFAULT_NUM_BUFFERS = 2;
+
+    // Marks the end of the file in the full queue
+    private static final ByteBuffer EOF = ByteBuffer.allocate(0);
+
+    private final FileChannel channel;
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<Object> full;
+    private final Thread thread;
+    private ByteBuffer current;
+    private boolean done;
+
+    /**
+     * Start reading a file with the default buffer size and count
+     * @param file The file
+     * @throws IOException
+     */
+    public PrefetchingInputStream(File file) throws IOException
+    {
+        this(file, DEFAULT_BUFFER_SZ, DEFAULT_NUM_BUFFERS);
+    }
+
+    /**
+     * Start reading a file
+     * @param file The file
+     * @param bufferSz The size of each buffer
+     * @param numBuffers The number of buffers, at least 2
+     * @throws IOException
+     */
+    public PrefetchingInputStream(File file, int bufferSz, int numBuffers) throws IOException
+    {
+        numBuffers = Math.max(2, numBuffers);
+        channel = new FileInputStream(file).getChannel();
+        free = new ArrayBlockingQueue<ByteBuffer>(numBuffers);
+        // Room for every buffer plus the end marker, so the read-ahead thread only ever waits on free
+        full = new ArrayBlockingQueue<Object>(numBuffers + 1);
+        for (int i = 0; i < numBuffers; ++i)
+        {
+            free.add(ByteBuffer.allocateDirect(bufferSz));
+        }
+        thread = new Thread(this::readAhead, "sgdtk-prefetch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void readAhead()
+    {
+        try
+        {
+            while (true)
+            {
+                ByteBuffer buffer = free.take();
+                buffer.clear();
+                int n = 0;
+                while (buffer.hasRemaining() && n >= 0)
+                {
+                    n = channel.read(buffer);
+                }
+                buffer.flip();
+                if (buffer.hasRemaining())
+                {
+                    full.put(buffer);
+                }
+                if (n < 0)
+                {
+                    full.put(EOF);
+                    return;
+                }
+            }
+        }
+        catch (IOException ioEx)
+        {
+            full.offer(ioEx);
+        }
+        catch (InterruptedException interruptedEx)
+        {
+            // Closed by the consumer
+        }
+    }
+
+    // Make sure there is something to read, returning false at the end of the file
+    private boolean fill() throws IOException
+    {
+        while (!done && (current == null || !current.hasRemaining()))
+        {
+            if (current != null)
+            {
+                free.add(current);
+                current = null;
+            }
+            Object next;
+            try
+            {
+                next = full.take();
+            }
+            catch (InterruptedException interruptedEx)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException(interruptedEx);
+            }
+            if (next instanceof IOException)
+            {
+                done = true;
+                throw new IOException((IOException) next);
+            }
+            if (next == EOF)
+            {
+                done = true;
+            }
+            else
+            {
+                current = (ByteBuffer) next;
+            }
+        }
+        return !done;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        return fill() ? current.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0)
+        {
+            return 0;
+        }
+        if (!fill())
+        {
+            return -1;
+        }
+        int n = Math.min(len, current.remaining());
+        current.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int available()
+    {
+        return current == null ? 0 : current.remaining();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        done = true;
+        thread.interrupt();
+        channel.close();
+    }
+}
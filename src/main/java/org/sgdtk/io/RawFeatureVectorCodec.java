@@ -0,0 +1,86 @@
+package org.sgdtk.io;
+
+import org.sgdtk.FeatureVector;
+import org.sgdtk.UnsafeMemory;
+import org.sgdtk.VectorN;
+
+/**
+ * The native {@link org.sgdtk.FeatureVector} serialization, an int index and a double value per feature
+ *
+ * This is the fastest to encode and decode, but it is large.  Whether the vectors are dense or sparse must be known
+ * up front, since it is not stored in the record.
+ *
+ * @author dpressel
+ */
+public class RawFeatureVectorCodec implements FeatureVectorCodec
+{
+    public static final byte SPARSE_ID = 0;
+    public static final byte DENSE_ID = 1;
+
+    private final boolean dense;
+
+    /**
+     * Create a codec
+     * @param dense Are the vectors dense?
+     */
+    public RawFeatureVectorCodec(boolean dense)
+    {
+        this.dense = dense;
+    }
+
+    @Override
+    public byte getId()
+    {
+        return dense ? DENSE_ID : SPARSE_ID;
+    }
+
+    @Override
+    public int getMaxEncodedSize(FeatureVector fv)
+    {
+        return fv.getSerializationSize();
+    }
+
+    @Override
+    public int encode(FeatureVector fv, byte[] buffer)
+    {
+        return fv.serialize(buffer).getPos();
+    }
+
+    @Override
+    public FeatureVector decode(byte[] buffer, int offset, int length)
+    {
+        return dense ? FeatureVector.deserializeDense(buffer, offset) : FeatureVector.deserializeSparse(buffer, offset);
+    }
+
+    @Override
+    public void decode(byte[] buffer, int offset, int length, FeatureVector fv)
+    {
+        UnsafeMemory memory = new UnsafeMemory(buffer, offset);
+        fv.setY(memory.getDouble());
+        int sz = memory.getInt();
+        VectorN x = fv.getX();
+        if (dense)
+        {
+            for (int i = 0; i < sz; ++i)
+            {
+                double v = memory.getDouble();
+                if (v != 0.)
+                {
+                    x.add(i, v);
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < sz; ++i)
+        {
+            int index = memory.getInt();
+            x.add(index, memory.getDouble());
+        }
+        x.organize();
+    }
+
+    public boolean isDense()
+    {
+        return dense;
+    }
+}
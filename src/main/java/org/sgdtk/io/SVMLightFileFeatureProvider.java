@@ -3,10 +3,10 @@ package org.sgdtk.io;
 import org.sgdtk.FeatureProvider;
 import org.sgdtk.FeatureVector;
 import org.sgdtk.Offset;
+import org.sgdtk.VectorN;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -54,7 +54,7 @@ public class SVMLightFileFeatureProvider implements FeatureProvider
      */
     public static Dims findDims(File file) throws IOException
     {
-        BufferedReader reader = new BufferedReader(new FileReader(file));
+        BufferedReader reader = InputFiles.openReader(file);
         String line;
 
         // If we arent going to hash or pick an arbitrary end in this format, we actually have to
@@ -97,13 +97,13 @@ public class SVMLightFileFeatureProvider implements FeatureProvider
 
     /**
      * Open a file for reading.  All files are read only up to maxFeatures.
-     * @param file An SVM light type file
+     * @param file An SVM light type file, which may be gzip or BGZF compressed
      * @throws IOException
      */
     public final void open(File file) throws IOException
     {
         //largestVectorSeen = 0;
-        reader = new BufferedReader(new FileReader(file));
+        reader = InputFiles.openReader(file);
     }
 
     /**
@@ -181,4 +181,114 @@ public class SVMLightFileFeatureProvider implements FeatureProvider
         return fv;
     }
 
+    private static int parseInt(String s, int from, int to)
+    {
+        boolean negative = false;
+        char c = s.charAt(from);
+        if (c == '-' || c == '+')
+        {
+            negative = c == '-';
+            ++from;
+        }
+        if (from >= to)
+        {
+            throw new NumberFormatException("Bad integer: " + s.substring(from, to));
+        }
+        int n = 0;
+        for (int i = from; i < to; ++i)
+        {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9)
+            {
+                throw new NumberFormatException("Bad integer: " + s.substring(from, to));
+            }
+            n = n * 10 + d;
+        }
+        return negative ? -n : n;
+    }
+
+    private static int skipSpaces(String s, int i)
+    {
+        final int len = s.length();
+        while (i < len && s.charAt(i) == ' ')
+        {
+            ++i;
+        }
+        return i;
+    }
+
+    private static int nextSpace(String s, int i)
+    {
+        final int len = s.length();
+        while (i < len && s.charAt(i) != ' ')
+        {
+            ++i;
+        }
+        return i;
+    }
+
+    /**
+     * Parse the next line straight into an existing feature vector, which should have been reset.  This scans the
+     * line in place instead of tokenizing it, and the common binary value "1" is not run through the double parser,
+     * so with a {@link org.sgdtk.PooledSparseVectorN} underneath, very little is allocated besides the line itself
+     *
+     * @param fv The feature vector to fill in
+     * @return false if we are out of lines
+     * @throws IOException
+     */
+    @Override
+    public final boolean next(FeatureVector fv) throws IOException
+    {
+        final String line = reader.readLine();
+
+        if (line == null)
+        {
+            return false;
+        }
+
+        largestVectorSeen = Math.max(largestVectorSeen, parse(line, fv, maxFeatures));
+        return true;
+    }
+
+    /**
+     * Parse one SVM light line into an existing feature vector, which should have been reset.  This is safe to call
+     * from several threads at once, on different vectors
+     *
+     * @param line An SVM light line
+     * @param fv The feature vector to fill in
+     * @param maxFeatures Features at or past this index are dropped, unless it is 0
+     * @return The width needed for all of the features on the line, including any dropped ones
+     * @throws IOException If the line is malformed
+     */
+    public static int parse(String line, FeatureVector fv, int maxFeatures) throws IOException
+    {
+        final int len = line.length();
+        final int lastIdxTotal = maxFeatures - 1;
+        int width = 0;
+        int pos = skipSpaces(line, 0);
+        int end = nextSpace(line, pos);
+        fv.setY(parseInt(line, pos, end));
+        final VectorN x = fv.getX();
+
+        while ((pos = skipSpaces(line, end)) < len)
+        {
+            end = nextSpace(line, pos);
+            final int to = line.indexOf(':', pos);
+            if (to < 0 || to >= end)
+            {
+                throw new IOException("Bad feature: " + line.substring(pos, end));
+            }
+            final int idx = parseInt(line, pos, to);
+            width = Math.max(width, idx + 1);
+            if (lastIdxTotal > 0 && idx > lastIdxTotal)
+                continue;
+
+            final double value = (end - to == 2 && line.charAt(to + 1) == '1') ? 1.0 :
+                    Double.parseDouble(line.substring(to + 1, end));
+            x.add(idx, value);
+        }
+        x.organize();
+        return width;
+    }
+
 }
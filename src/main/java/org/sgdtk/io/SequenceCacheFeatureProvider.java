@@ -0,0 +1,113 @@
+package org.sgdtk.io;
+
+import org.sgdtk.ArrayDouble;
+import org.sgdtk.struct.FeatureVectorSequence;
+import org.sgdtk.struct.SequentialFeatureProvider;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stream {@link org.sgdtk.struct.FeatureVectorSequence}s back from a binary cache file
+ *
+ * The cache is just a series of length-prefixed records written by
+ * {@link org.sgdtk.struct.FeatureVectorSequence#serializeTo(java.io.DataOutput, byte[])}.  Reading it back avoids
+ * re-parsing the text and re-running the feature extractors on every epoch, and only one sequence is in memory
+ * at a time.  The read buffer is reused and grown as necessary.
+ *
+ * @author dpressel
+ */
+public class SequenceCacheFeatureProvider implements SequentialFeatureProvider
+{
+    private static final int READ_BUFFER_SZ = 1 << 16;
+    private DataInputStream input;
+    private byte[] buffer = new byte[READ_BUFFER_SZ];
+
+    /**
+     * Default constructor, requires an open call prior to running
+     */
+    public SequenceCacheFeatureProvider()
+    {
+
+    }
+
+    /**
+     * Open a cache file
+     * @param file The cache file
+     * @throws IOException
+     */
+    public SequenceCacheFeatureProvider(File file) throws IOException
+    {
+        open(file);
+    }
+
+    /**
+     * Open the cache file
+     * @param file The cache file
+     * @throws IOException
+     */
+    public void open(File file) throws IOException
+    {
+        input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), READ_BUFFER_SZ));
+    }
+
+    /**
+     * Close the underlying file handle
+     * @throws IOException
+     */
+    public void close() throws IOException
+    {
+        input.close();
+    }
+
+    /**
+     * Get the next sequence from the cache
+     * @return A sequence, or null at the end of the file
+     * @throws IOException
+     */
+    @Override
+    public FeatureVectorSequence next() throws IOException
+    {
+        int sz;
+        try
+        {
+            sz = (int) input.readLong();
+        }
+        catch (EOFException eof)
+        {
+            return null;
+        }
+        if (sz > buffer.length)
+        {
+            buffer = new byte[ArrayDouble.nextPowerOf2(sz)];
+        }
+        input.readFully(buffer, 0, sz);
+        return FeatureVectorSequence.deserialize(buffer);
+    }
+
+    /**
+     * Read up to maxSize sequences from the head of a cache file, for instance to pick a learning rate
+     * @param file The cache file
+     * @param maxSize The largest sample to take
+     * @return The sample
+     * @throws IOException
+     */
+    public static List<FeatureVectorSequence> sample(File file, int maxSize) throws IOException
+    {
+        SequenceCacheFeatureProvider provider = new SequenceCacheFeatureProvider(file);
+        List<FeatureVectorSequence> sample = new ArrayList<FeatureVectorSequence>();
+        FeatureVectorSequence sequence;
+        while (sample.size() < maxSize && (sequence = provider.next()) != null)
+        {
+            sample.add(sequence);
+        }
+        provider.close();
+        return sample;
+    }
+}
@@ -0,0 +1,172 @@
+package org.sgdtk.io;
+
+import org.sgdtk.ArrayDouble;
+import org.sgdtk.FeatureProvider;
+import org.sgdtk.FeatureVector;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Replay a feature vector cache in a randomized order without loading it into memory
+ *
+ * This is a two-level shuffle.  The blocks from the {@link org.sgdtk.io.FeatureVectorCacheIndex} are visited in a
+ * random permutation, and a window of several blocks at a time is read in and shuffled before it is handed out.
+ * Each block is read front to back, so reads are still mostly sequential, and only the window is held in memory.
+ * A wider window gets closer to a true shuffle.
+ *
+ * The window holds the encoded records rather than decoded vectors, which keeps it compact, and means that
+ * {@link #next(org.sgdtk.FeatureVector)} can decode straight into a recycled vector.
+ *
+ * @author dpressel
+ */
+public class ShuffledFeatureVectorCacheReader implements FeatureProvider, Closeable
+{
+    private final FeatureVectorCacheReader reader;
+    private final FeatureVectorCodec codec;
+    private final FeatureVectorCacheIndex index;
+    private final int[] order;
+    private final int windowSize;
+    private final Random random;
+
+    private byte[] window = new byte[1 << 16];
+    private int[] offsets = new int[1024];
+    private int[] lengths = new int[1024];
+    private int[] permutation = new int[1024];
+    private int numRecords;
+    private int nextBlock;
+    private int windowPos;
+    private int largestVectorSeen;
+
+    /**
+     * Open a cache for shuffled reading
+     * @param file The cache file
+     * @param index The block index that was built when the cache was written
+     * @param windowSize The number of blocks to shuffle together
+     * @param random The random number generator, which should be seeded differently for each epoch
+     * @throws IOException
+     */
+    public ShuffledFeatureVectorCacheReader(File file, FeatureVectorCacheIndex index, int windowSize, Random random) throws IOException
+    {
+        this.reader = new FeatureVectorCacheReader(file);
+        this.codec = reader.getCodec();
+        this.index = index;
+        this.windowSize = Math.max(1, windowSize);
+        this.random = random;
+
+        order = new int[index.size()];
+        for (int i = 0; i < order.length; ++i)
+        {
+            order[i] = i;
+        }
+        shuffle(order, order.length);
+    }
+
+    // Fisher-Yates
+    private void shuffle(int[] a, int n)
+    {
+        for (int i = n - 1; i > 0; --i)
+        {
+            int j = random.nextInt(i + 1);
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+    private void addRecord(byte[] buffer, int offset, int length, int at)
+    {
+        if (numRecords == offsets.length)
+        {
+            offsets = Arrays.copyOf(offsets, numRecords * 2);
+            lengths = Arrays.copyOf(lengths, numRecords * 2);
+            permutation = Arrays.copyOf(permutation, numRecords * 2);
+        }
+        if (at + length > window.length)
+        {
+            window = Arrays.copyOf(window, ArrayDouble.nextPowerOf2(at + length));
+        }
+        System.arraycopy(buffer, offset, window, at, length);
+        offsets[numRecords] = at;
+        lengths[numRecords] = length;
+        permutation[numRecords] = numRecords;
+        ++numRecords;
+    }
+
+    private boolean fillWindow() throws IOException
+    {
+        numRecords = 0;
+        windowPos = 0;
+        int at = 0;
+        for (int i = 0; i < windowSize && nextBlock < order.length; ++i)
+        {
+            int block = order[nextBlock++];
+            reader.seek(index.getOffset(block));
+            int n = index.getNumRecords(block);
+            for (int j = 0; j < n; ++j)
+            {
+                int length = reader.nextRecord();
+                if (length < 0)
+                {
+                    throw new IOException("Cache is shorter than its index");
+                }
+                addRecord(reader.getRecordBuffer(), reader.getRecordOffset(), length, at);
+                at += length;
+            }
+        }
+        shuffle(permutation, numRecords);
+        return numRecords > 0;
+    }
+
+    /**
+     * Get the next feature vector in shuffled order
+     * @return A feature vector or null when every block has been read
+     * @throws IOException
+     */
+    @Override
+    public FeatureVector next() throws IOException
+    {
+        if (windowPos >= numRecords && !fillWindow())
+        {
+            return null;
+        }
+        int r = permutation[windowPos++];
+        FeatureVector fv = codec.decode(window, offsets[r], lengths[r]);
+        largestVectorSeen = Math.max(largestVectorSeen, fv.length());
+        return fv;
+    }
+
+    /**
+     * Decode the next feature vector in shuffled order into an existing one, which should have been reset
+     * @param fv The feature vector to fill in
+     * @return false when every block has been read
+     * @throws IOException
+     */
+    @Override
+    public boolean next(FeatureVector fv) throws IOException
+    {
+        if (windowPos >= numRecords && !fillWindow())
+        {
+            return false;
+        }
+        int r = permutation[windowPos++];
+        codec.decode(window, offsets[r], lengths[r], fv);
+        largestVectorSeen = Math.max(largestVectorSeen, fv.length());
+        return true;
+    }
+
+    @Override
+    public int getLargestVectorSeen()
+    {
+        return largestVectorSeen;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        reader.close();
+    }
+}
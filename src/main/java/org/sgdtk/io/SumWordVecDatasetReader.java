@@ -4,7 +4,6 @@ import org.sgdtk.*;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 
@@ -55,7 +54,7 @@ public class SumWordVecDatasetReader implements DatasetReader
     @Override
     public final void open(File... file) throws IOException
     {
-        reader = new BufferedReader(new FileReader(file[0]));
+        reader = InputFiles.openReader(file[0]);
     }
 
     /**
@@ -0,0 +1,16 @@
+package org.sgdtk.pipeline;
+
+/**
+ * Hands a stage's output to the next stage's queue
+ *
+ * @author dpressel
+ */
+public interface Emitter<T>
+{
+    /**
+     * Send an item downstream, waiting for room if the queue is full
+     * @param item The item, which must not be null
+     * @throws InterruptedException If the pipeline is cancelled while waiting
+     */
+    void emit(T item) throws InterruptedException;
+}
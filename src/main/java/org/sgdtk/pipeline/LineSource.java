@@ -0,0 +1,58 @@
+package org.sgdtk.pipeline;
+
+import org.sgdtk.io.InputFiles;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read a text file as chunks of lines
+ *
+ * Handing lines downstream one at a time costs a queue operation per line, which can be more than parsing it, so
+ * lines are grouped into chunks.  The file is opened through {@link org.sgdtk.io.InputFiles}, so it can be compressed,
+ * and is closed when it runs out.
+ *
+ * @author dpressel
+ */
+public class LineSource implements Source<List<String>>
+{
+    private final BufferedReader reader;
+    private final int chunkSz;
+    private boolean done;
+
+    /**
+     * Open a file
+     * @param file The file
+     * @param chunkSz Number of lines in each chunk
+     * @throws IOException
+     */
+    public LineSource(File file, int chunkSz) throws IOException
+    {
+        this.reader = InputFiles.openReader(file);
+        this.chunkSz = chunkSz;
+    }
+
+    @Override
+    public List<String> next() throws IOException
+    {
+        if (done)
+        {
+            return null;
+        }
+        List<String> chunk = new ArrayList<String>(chunkSz);
+        String line;
+        while (chunk.size() < chunkSz && (line = reader.readLine()) != null)
+        {
+            chunk.add(line);
+        }
+        if (chunk.size() < chunkSz)
+        {
+            done = true;
+            reader.close();
+        }
+        return chunk.isEmpty() ? null : chunk;
+    }
+}
@@ -0,0 +1,341 @@
+package org.sgdtk.pipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A chain of concurrent stages connected by bounded queues
+ *
+ * A pipeline starts with one or more {@link Source}s, each read on its own thread, passes through any number of
+ * {@link Stage}s, and ends with a {@link Sink}.  Every stage and the sink has its own input queue and its own number
+ * of worker threads.  Since the queues are bounded, a slow stage creates back-pressure all the way up to the sources,
+ * rather than a backlog in memory.
+ *
+ * For example, to read shards, parse on 4 threads and train on one:
+ * <pre>
+ *     Pipeline pipeline = Pipeline.from("read", sources)
+ *         .then("parse", parser, 4, 64)
+ *         .to("train", trainer, 1, 64);
+ *     pipeline.start();
+ *     pipeline.await();
+ * </pre>
+ *
+ * Each step keeps {@link StageStats}, so a running pipeline can report per-stage throughput, queue depth and how the
+ * workers' time splits between work, waiting for input and waiting on the next stage.  That shows where the
+ * bottleneck is, and {@link #report()} prints it.
+ *
+ * Items flow in order within a single thread, but once a stage runs on more than one thread, the order downstream
+ * is only approximately the order of the sources.  If any stage throws, the whole pipeline is cancelled and
+ * {@link #await()} rethrows the first failure.
+ *
+ * @author dpressel
+ */
+public class Pipeline
+{
+    private static final Logger log = LoggerFactory.getLogger(Pipeline.class);
+
+    // Sent downstream once per worker when a step is done
+    private static final Object END = new Object();
+
+    private final List<Step> steps = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile Throwable failure;
+    private volatile boolean started;
+
+    private Pipeline()
+    {
+
+    }
+
+    /**
+     * Start building a pipeline from a single source
+     * @param name What to call the reading step
+     * @param source The source
+     * @return A builder
+     */
+    public static <T> Builder<T> from(String name, Source<T> source)
+    {
+        return from(name, Collections.singletonList(source));
+    }
+
+    /**
+     * Start building a pipeline from several sources, each read on its own thread
+     * @param name What to call the reading step
+     * @param sources The sources, for instance one per input shard
+     * @return A builder
+     */
+    public static <T> Builder<T> from(String name, List<? extends Source<T>> sources)
+    {
+        Pipeline pipeline = new Pipeline();
+        pipeline.steps.add(new Step(name, new ArrayList<Source<?>>(sources), null, null, sources.size(), 0));
+        return new Builder<T>(pipeline);
+    }
+
+    /**
+     * Adds steps to a pipeline.  The type parameter is the type of item coming out of the last step added
+     */
+    public static class Builder<T>
+    {
+        private final Pipeline pipeline;
+
+        private Builder(Pipeline pipeline)
+        {
+            this.pipeline = pipeline;
+        }
+
+        /**
+         * Add a stage
+         * @param name What to call it
+         * @param stage The stage
+         * @param parallelism Number of threads to run it on
+         * @param queueSz Size of its input queue
+         * @return A builder for the stage's output
+         */
+        public <O> Builder<O> then(String name, Stage<T, O> stage, int parallelism, int queueSz)
+        {
+            pipeline.steps.add(new Step(name, null, stage, null, parallelism, queueSz));
+            return new Builder<O>(pipeline);
+        }
+
+        /**
+         * Finish the pipeline with a sink
+         * @param name What to call it
+         * @param sink The sink
+         * @param parallelism Number of threads to run it on.  The sink must be thread-safe if this is more than 1
+         * @param queueSz Size of its input queue
+         * @return The pipeline, ready to start
+         */
+        public Pipeline to(String name, Sink<T> sink, int parallelism, int queueSz)
+        {
+            pipeline.steps.add(new Step(name, null, null, sink, parallelism, queueSz));
+            return pipeline;
+        }
+    }
+
+    // One source, stage or sink with its input queue and stats
+    private static class Step
+    {
+        final List<Source<?>> sources;
+        final Stage<Object, Object> stage;
+        final Sink<Object> sink;
+        final int parallelism;
+        final BlockingQueue<Object> input;
+        final StageStats stats;
+        final AtomicInteger running;
+
+        @SuppressWarnings("unchecked")
+        Step(String name, List<Source<?>> sources, Stage<?, ?> stage, Sink<?> sink, int parallelism, int queueSz)
+        {
+            this.sources = sources;
+            this.stage = (Stage<Object, Object>) stage;
+            this.sink = (Sink<Object>) sink;
+            this.parallelism = Math.max(1, parallelism);
+            this.input = sources == null ? new ArrayBlockingQueue<Object>(Math.max(1, queueSz)) : null;
+            this.stats = new StageStats(name, this.parallelism, input, sources == null ? Math.max(1, queueSz) : 0);
+            this.running = new AtomicInteger(this.parallelism);
+        }
+    }
+
+    /**
+     * Start all of the threads
+     */
+    public synchronized void start()
+    {
+        if (started)
+        {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        started = true;
+        for (int i = 0; i < steps.size(); ++i)
+        {
+            final Step step = steps.get(i);
+            final Step next = i + 1 < steps.size() ? steps.get(i + 1) : null;
+            step.stats.start();
+            for (int j = 0; j < step.parallelism; ++j)
+            {
+                final Source<?> source = step.sources == null ? null : step.sources.get(j);
+                Thread thread = new Thread(() -> work(step, source, next), "sgdtk-" + step.stats.getName() + "-" + j);
+                thread.setDaemon(true);
+                threads.add(thread);
+            }
+        }
+        for (Thread thread : threads)
+        {
+            thread.start();
+        }
+    }
+
+    // A worker's emitter, which keeps track of how long the worker waits on the next queue
+    private static class QueueEmitter implements Emitter<Object>
+    {
+        private final StageStats stats;
+        private final BlockingQueue<Object> output;
+        long blockedNanos;
+
+        QueueEmitter(StageStats stats, BlockingQueue<Object> output)
+        {
+            this.stats = stats;
+            this.output = output;
+        }
+
+        @Override
+        public void emit(Object item) throws InterruptedException
+        {
+            if (item == null)
+            {
+                throw new NullPointerException("Stages can't emit null");
+            }
+            long t0 = System.nanoTime();
+            output.put(item);
+            long waited = System.nanoTime() - t0;
+            blockedNanos += waited;
+            stats.addBlocked(waited);
+            stats.addOut();
+        }
+    }
+
+    private void work(Step step, Source<?> source, Step next)
+    {
+        StageStats stats = step.stats;
+        QueueEmitter emitter = next == null ? null : new QueueEmitter(stats, next.input);
+        try
+        {
+            while (true)
+            {
+                Object item;
+                long t0 = System.nanoTime();
+                if (source != null)
+                {
+                    item = source.next();
+                    if (item == null)
+                    {
+                        break;
+                    }
+                    stats.addBusy(System.nanoTime() - t0);
+                    emitter.emit(item);
+                    continue;
+                }
+
+                item = step.input.take();
+                long t1 = System.nanoTime();
+                stats.addStarved(t1 - t0);
+                if (item == END)
+                {
+                    break;
+                }
+                stats.addIn();
+                if (step.sink != null)
+                {
+                    step.sink.accept(item);
+                    stats.addOut();
+                    stats.addBusy(System.nanoTime() - t1);
+                }
+                else
+                {
+                    long blockedBefore = emitter.blockedNanos;
+                    step.stage.process(item, emitter);
+                    stats.addBusy(System.nanoTime() - t1 - (emitter.blockedNanos - blockedBefore));
+                }
+            }
+
+            // The last worker out tells the next step's workers
+            if (step.running.decrementAndGet() == 0)
+            {
+                stats.end();
+                if (next != null)
+                {
+                    for (int i = 0; i < next.parallelism; ++i)
+                    {
+                        next.input.put(END);
+                    }
+                }
+            }
+        }
+        catch (InterruptedException interruptedEx)
+        {
+            // Cancelled
+        }
+        catch (Throwable t)
+        {
+            fail(t);
+        }
+    }
+
+    private synchronized void fail(Throwable t)
+    {
+        if (failure == null)
+        {
+            failure = t;
+            log.error("Pipeline failed in " + Thread.currentThread().getName(), t);
+            cancel();
+        }
+    }
+
+    /**
+     * Stop all of the threads, abandoning anything in flight
+     */
+    public synchronized void cancel()
+    {
+        for (Thread thread : threads)
+        {
+            if (thread != Thread.currentThread())
+            {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Wait for everything to make it through the sink
+     * @throws IOException If any step failed, with the first failure as the cause
+     * @throws InterruptedException
+     */
+    public void await() throws IOException, InterruptedException
+    {
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        Throwable t = failure;
+        if (t != null)
+        {
+            throw t instanceof IOException ? new IOException(t.getMessage(), t) : new IOException(t);
+        }
+    }
+
+    /**
+     * Get stats for each step, from source to sink
+     * @return The stats
+     */
+    public List<StageStats> getStats()
+    {
+        List<StageStats> stats = new ArrayList<>(steps.size());
+        for (Step step : steps)
+        {
+            stats.add(step.stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Describe every step, one per line
+     * @return A report
+     */
+    public String report()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Step step : steps)
+        {
+            sb.append(step.stats).append('\n');
+        }
+        return sb.toString();
+    }
+}
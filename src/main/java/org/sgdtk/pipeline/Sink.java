@@ -0,0 +1,18 @@
+package org.sgdtk.pipeline;
+
+import java.io.IOException;
+
+/**
+ * The tail of a {@link Pipeline}, consuming the fully processed items (e.g. training on them)
+ *
+ * @author dpressel
+ */
+public interface Sink<T>
+{
+    /**
+     * Consume an item
+     * @param item The item
+     * @throws IOException
+     */
+    void accept(T item) throws IOException;
+}
@@ -0,0 +1,20 @@
+package org.sgdtk.pipeline;
+
+import java.io.IOException;
+
+/**
+ * The head of a {@link Pipeline}, producing the items that the stages work on
+ *
+ * Each source is read by its own thread, so a source only needs to be safe for one reader.
+ *
+ * @author dpressel
+ */
+public interface Source<T>
+{
+    /**
+     * Get the next item
+     * @return An item, or null when the source is exhausted
+     * @throws IOException
+     */
+    T next() throws IOException;
+}
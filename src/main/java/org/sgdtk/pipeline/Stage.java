@@ -0,0 +1,24 @@
+package org.sgdtk.pipeline;
+
+import java.io.IOException;
+
+/**
+ * A step in a {@link Pipeline}, turning each input item into zero or more output items
+ *
+ * A stage given a parallelism greater than 1 is run by that many threads at once, so it must be safe to call
+ * concurrently (usually by keeping no state, or only thread-local state).  Emitting nothing filters an item out, and
+ * emitting several fans it out.
+ *
+ * @author dpressel
+ */
+public interface Stage<I, O>
+{
+    /**
+     * Process an item
+     * @param item The input
+     * @param emitter Where outputs go.  This blocks if the next stage is backed up
+     * @throws IOException
+     * @throws InterruptedException If the pipeline is cancelled while emitting
+     */
+    void process(I item, Emitter<O> emitter) throws IOException, InterruptedException;
+}
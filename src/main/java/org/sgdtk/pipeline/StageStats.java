@@ -0,0 +1,164 @@
+package org.sgdtk.pipeline;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters for one step of a {@link Pipeline}
+ *
+ * Each worker's time is split three ways: busy (in the stage's own code), starved (waiting on the input queue) and
+ * blocked (waiting for room in the next stage's queue).  A stage that is mostly busy, with a full input queue and a
+ * starved downstream, is the bottleneck, and is the one to give more threads.  A stage that is mostly blocked is
+ * waiting on something downstream of it.
+ *
+ * @author dpressel
+ */
+public class StageStats
+{
+    private final String name;
+    private final int parallelism;
+    private final BlockingQueue<?> input;
+    private final int queueCapacity;
+    private final LongAdder itemsIn = new LongAdder();
+    private final LongAdder itemsOut = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder starvedNanos = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    StageStats(String name, int parallelism, BlockingQueue<?> input, int queueCapacity)
+    {
+        this.name = name;
+        this.parallelism = parallelism;
+        this.input = input;
+        this.queueCapacity = queueCapacity;
+    }
+
+    void start()
+    {
+        startNanos = System.nanoTime();
+    }
+
+    void end()
+    {
+        endNanos = System.nanoTime();
+    }
+
+    void addIn()
+    {
+        itemsIn.increment();
+    }
+
+    void addOut()
+    {
+        itemsOut.increment();
+    }
+
+    void addBusy(long nanos)
+    {
+        busyNanos.add(nanos);
+    }
+
+    void addStarved(long nanos)
+    {
+        starvedNanos.add(nanos);
+    }
+
+    void addBlocked(long nanos)
+    {
+        blockedNanos.add(nanos);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    public long getItemsIn()
+    {
+        return itemsIn.sum();
+    }
+
+    public long getItemsOut()
+    {
+        return itemsOut.sum();
+    }
+
+    /**
+     * Items currently waiting in this stage's input queue
+     * @return The queue depth, or 0 for a source
+     */
+    public int getQueueDepth()
+    {
+        return input == null ? 0 : input.size();
+    }
+
+    public int getQueueCapacity()
+    {
+        return queueCapacity;
+    }
+
+    /**
+     * Wall clock time since the stage started, up to when it finished if it has
+     * @return seconds
+     */
+    public double getElapsedSec()
+    {
+        long start = startNanos;
+        if (start == 0)
+        {
+            return 0.;
+        }
+        long end = endNanos == 0 ? System.nanoTime() : endNanos;
+        return (end - start) / 1e9;
+    }
+
+    public double getBusySec()
+    {
+        return busyNanos.sum() / 1e9;
+    }
+
+    public double getStarvedSec()
+    {
+        return starvedNanos.sum() / 1e9;
+    }
+
+    public double getBlockedSec()
+    {
+        return blockedNanos.sum() / 1e9;
+    }
+
+    /**
+     * Items out per second of wall clock time
+     * @return throughput
+     */
+    public double getThroughput()
+    {
+        double elapsed = getElapsedSec();
+        return elapsed > 0 ? getItemsOut() / elapsed : 0.;
+    }
+
+    /**
+     * Fraction of the stage's thread time spent doing its own work
+     * @return utilization between 0 and 1
+     */
+    public double getUtilization()
+    {
+        double elapsed = getElapsedSec();
+        return elapsed > 0 ? Math.min(1., getBusySec() / (elapsed * parallelism)) : 0.;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%-12s x%-3d in=%-10d out=%-10d %10.1f/s queue=%d/%d busy=%.0f%% starved=%.1fs blocked=%.1fs",
+                name, parallelism, getItemsIn(), getItemsOut(), getThroughput(), getQueueDepth(), queueCapacity,
+                100 * getUtilization(), getStarvedSec(), getBlockedSec());
+    }
+}
@@ -0,0 +1,216 @@
+package org.sgdtk.struct;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * CRF model trained by averaged SGD (ASGD), following Bottou's crfasgd.cpp
+ *
+ * {@link SGDSequentialLearner} trains the weights exactly as for a {@link CRFModel}, but this also keeps the running
+ * average of the weights since averaging started, and predicts with that.  The weights are stored as
+ * <i>w</i> * wscale, as in {@link CRFModel}, and the average as (<i>a</i> + wfrac * <i>w</i>) * ascale, so each
+ * update only touches <i>a</i> where the gradient touches <i>w</i>.  Both are folded back into plain vectors when
+ * the scales get small, the same way {@link #rescale()} does for the weights alone.
+ *
+ * The averaged weights are what is predicted with and saved, and the saved model is an ordinary {@link CRFModel}.
+ *
+ * @author dpressel
+ */
+public class AveragedCRFModel extends CRFModel
+{
+    double[] avg;
+    double ascale = 1.;
+    double wfrac;
+    private long numUpdates;
+    private long averageStart;
+    private boolean averaging;
+    private volatile CRFModel averaged;
+
+    /**
+     * Default constructor.  This is usually only going to be called prior to a {@link #load(java.io.InputStream)} call
+     */
+    public AveragedCRFModel()
+    {
+
+    }
+
+    /**
+     * Construct a model prior to training
+     *
+     * @param wlength This is the weight vector's width
+     * @param wscale scaling
+     * @param numLabels number of labels
+     */
+    public AveragedCRFModel(int wlength, double wscale, int numLabels)
+    {
+        super(wlength, wscale, numLabels);
+        avg = new double[wlength];
+        ascale = wscale;
+    }
+
+    private AveragedCRFModel(AveragedCRFModel other)
+    {
+        super(other.getWeights(), other.getWscale(), other.getNumLabels());
+        avg = other.avg.clone();
+        ascale = other.ascale;
+        wfrac = other.wfrac;
+        numUpdates = other.numUpdates;
+        averageStart = other.averageStart;
+        averaging = other.averaging;
+    }
+
+    /**
+     * Fold the latest weights into the average.  The learner calls this after each example's update
+     */
+    void average()
+    {
+        ++numUpdates;
+        if (!averaging)
+        {
+            if (numUpdates > averageStart)
+            {
+                startAveraging();
+            }
+            return;
+        }
+        averaged = null;
+        double mu = 1. / (numUpdates - averageStart);
+        ascale *= (1 - mu);
+        wfrac += mu * getWscale() / ascale;
+        if (ascale < 1e-5)
+        {
+            rescale();
+        }
+    }
+
+    // The average starts out as the current weights, which count as one update, as in AveragedLinearModel
+    private void startAveraging()
+    {
+        numUpdates = Math.max(numUpdates, averageStart + 1);
+        Arrays.fill(avg, 0.);
+        ascale = getWscale();
+        wfrac = 1.;
+        averaging = true;
+        averaged = null;
+    }
+
+    /**
+     * Whether averaging has started, so that the model predicts with the average.  Until then, the learner's updates
+     * leave the average alone
+     * @return true once past the averaging start
+     */
+    public boolean isAveraging()
+    {
+        return averaging;
+    }
+
+    /**
+     * Rescale both the weights and the average, and reset their scales
+     */
+    @Override
+    public void rescale()
+    {
+        if (!averaging)
+        {
+            super.rescale();
+            return;
+        }
+        double[] weights = getWeights();
+        double wscale = getWscale();
+        for (int i = 0; i < weights.length; ++i)
+        {
+            avg[i] = (avg[i] + wfrac * weights[i]) * ascale;
+            weights[i] *= wscale;
+        }
+        setWscale(1.);
+        ascale = 1.;
+        wfrac = 0.;
+        averaged = null;
+    }
+
+    // The averaged weights as a plain model, built once per batch of updates
+    private CRFModel averaged()
+    {
+        CRFModel model = averaged;
+        if (model == null)
+        {
+            double[] weights = getWeights();
+            double[] a = new double[weights.length];
+            for (int i = 0; i < a.length; ++i)
+            {
+                a[i] = avg[i] + wfrac * weights[i];
+            }
+            model = new CRFModel(a, ascale, getNumLabels());
+            averaged = model;
+        }
+        return model;
+    }
+
+    /**
+     * Find the best path with the averaged weights
+     *
+     * @param sequence The sequence to predict.
+     */
+    @Override
+    public Path predict(FeatureVectorSequence sequence)
+    {
+        if (!averaging)
+        {
+            return super.predict(sequence);
+        }
+        return averaged().predict(sequence);
+    }
+
+    /**
+     * Save the averaged weights, as a {@link CRFModel}
+     *
+     * @param outputStream Stream to save to
+     * @throws IOException
+     */
+    @Override
+    public void save(OutputStream outputStream) throws IOException
+    {
+        if (!averaging)
+        {
+            super.save(outputStream);
+            return;
+        }
+        averaged().save(outputStream);
+    }
+
+    /**
+     * Load a {@link CRFModel}, and start both the weights and the average from it
+     *
+     * @param inputStream
+     * @throws IOException
+     */
+    @Override
+    public void load(InputStream inputStream) throws IOException
+    {
+        super.load(inputStream);
+        avg = new double[getWeights().length];
+        startAveraging();
+    }
+
+    @Override
+    public SequentialModel prototype()
+    {
+        return new AveragedCRFModel(this);
+    }
+
+    public long getAverageStart()
+    {
+        return averageStart;
+    }
+
+    /**
+     * Start averaging after this many updates
+     * @param averageStart The number of updates, typically about one epoch
+     */
+    public void setAverageStart(long averageStart)
+    {
+        this.averageStart = averageStart;
+    }
+}
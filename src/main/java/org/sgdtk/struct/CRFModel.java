@@ -20,7 +20,7 @@ import java.util.Arrays;
 public class CRFModel implements SequentialModel
 {
 
-    private CRFModel(double[] weights, double wscale, int numLabels)
+    protected CRFModel(double[] weights, double wscale, int numLabels)
     {
         this.weights = new double[weights.length];
         System.arraycopy(weights, 0, this.weights, 0, weights.length);
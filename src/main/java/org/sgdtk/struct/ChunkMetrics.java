@@ -0,0 +1,385 @@
+package org.sgdtk.struct;
+
+import org.sgdtk.FeatureNameEncoder;
+import org.sgdtk.Metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Span-level precision, recall and F1 for chunking and named entity tagging, as computed by conlleval
+ *
+ * Pass one of these to {@link SequentialLearner#evalOne(SequentialModel, FeatureVectorSequence, Metrics)} and along
+ * with the usual token error, it counts the chunks (spans of labels of one type) in the gold and predicted paths, and
+ * the ones that match exactly, per type.  The labels can be in any of the usual schemes, which can be told apart by
+ * their prefixes:
+ * <ul>
+ *     <li>BIO or IOB1, where B- starts a chunk and I- continues it</li>
+ *     <li>BIOES, which adds E- to end a chunk and S- for a chunk of one step, along with the equivalent BILOU</li>
+ *     <li>plain labels, such as IO tagging, where a run of the same label is one chunk</li>
+ * </ul>
+ * O is outside of any chunk.  As in conlleval, an I- after O, or after a label of another type, starts a new chunk
+ * rather than being thrown away.
+ *
+ * Nothing is kept but counts, so this runs in a single pass alongside tagging, and each worker of a parallel
+ * evaluation can keep its own and {@link #merge(Metrics)} them after.
+ *
+ * @author dpressel
+ */
+public class ChunkMetrics extends Metrics
+{
+    private static final char OUTSIDE = 'O';
+    private static final char BEGIN = 'B';
+    private static final char INSIDE = 'I';
+    private static final char END = 'E';
+    private static final char SINGLE = 'S';
+
+    private final String[] labels;
+    private final String[] types;
+    // For each label, its position in a chunk and the index of its type
+    private final char[] tags;
+    private final int[] typeOf;
+    private final long[] goldChunks;
+    private final long[] guessChunks;
+    private final long[] correctChunks;
+
+    /**
+     * Create metrics for a set of labels
+     * @param labels The name of each label, by index
+     */
+    public ChunkMetrics(String[] labels)
+    {
+        this.labels = labels;
+        tags = new char[labels.length];
+        typeOf = new int[labels.length];
+        Map<String, Integer> typeIndex = new HashMap<String, Integer>();
+        for (int i = 0; i < labels.length; ++i)
+        {
+            String label = labels[i];
+            String type;
+            if (label.equals("O"))
+            {
+                tags[i] = OUTSIDE;
+                type = "";
+            }
+            else if (label.length() > 2 && label.charAt(1) == '-' && "BIESUL".indexOf(label.charAt(0)) >= 0)
+            {
+                tags[i] = toBIOES(label.charAt(0));
+                type = label.substring(2);
+            }
+            else
+            {
+                tags[i] = INSIDE;
+                type = label;
+            }
+            Integer index = typeIndex.get(type);
+            if (index == null)
+            {
+                index = typeIndex.size();
+                typeIndex.put(type, index);
+            }
+            typeOf[i] = index;
+        }
+        types = new String[typeIndex.size()];
+        for (Map.Entry<String, Integer> entry : typeIndex.entrySet())
+        {
+            types[entry.getValue()] = entry.getKey();
+        }
+        goldChunks = new long[types.length];
+        guessChunks = new long[types.length];
+        correctChunks = new long[types.length];
+    }
+
+    /**
+     * Create metrics for the labels of an encoder
+     * @param labelEncoder The label encoder, typically from {@link JointFixedFeatureNameEncoder#getLabelEncoder()}
+     */
+    public ChunkMetrics(FeatureNameEncoder labelEncoder)
+    {
+        this(labelNames(labelEncoder));
+    }
+
+    private static String[] labelNames(FeatureNameEncoder labelEncoder)
+    {
+        String[] names = new String[labelEncoder.length()];
+        for (int i = 0; i < names.length; ++i)
+        {
+            names[i] = labelEncoder.nameOf(i);
+        }
+        return names;
+    }
+
+    // BILOU's unit and last are BIOES's single and end
+    private static char toBIOES(char prefix)
+    {
+        switch (prefix)
+        {
+            case 'U':
+                return SINGLE;
+            case 'L':
+                return END;
+            default:
+                return prefix;
+        }
+    }
+
+    // Whether a chunk ended at the previous step, given this one
+    private static boolean endsChunk(char prevTag, int prevType, char tag, int type)
+    {
+        if (prevTag == OUTSIDE)
+        {
+            return false;
+        }
+        if (prevTag == END || prevTag == SINGLE)
+        {
+            return true;
+        }
+        return tag == BEGIN || tag == SINGLE || tag == OUTSIDE || prevType != type;
+    }
+
+    // Whether a chunk starts at this step, given the previous one
+    private static boolean startsChunk(char prevTag, int prevType, char tag, int type)
+    {
+        if (tag == OUTSIDE)
+        {
+            return false;
+        }
+        if (tag == BEGIN || tag == SINGLE)
+        {
+            return true;
+        }
+        return prevTag == OUTSIDE || prevTag == END || prevTag == SINGLE || prevType != type;
+    }
+
+    @Override
+    public void addSequence(int[] gold, int[] guess)
+    {
+        char prevGoldTag = OUTSIDE;
+        char prevGuessTag = OUTSIDE;
+        int prevGoldType = -1;
+        int prevGuessType = -1;
+        // Whether the gold and guessed chunks we are in so far started together and match
+        boolean inCorrect = false;
+
+        for (int i = 0; i < gold.length; ++i)
+        {
+            char goldTag = tags[gold[i]];
+            char guessTag = tags[guess[i]];
+            int goldType = typeOf[gold[i]];
+            int guessType = typeOf[guess[i]];
+
+            boolean goldEnd = endsChunk(prevGoldTag, prevGoldType, goldTag, goldType);
+            boolean guessEnd = endsChunk(prevGuessTag, prevGuessType, guessTag, guessType);
+            boolean goldStart = startsChunk(prevGoldTag, prevGoldType, goldTag, goldType);
+            boolean guessStart = startsChunk(prevGuessTag, prevGuessType, guessTag, guessType);
+
+            if (inCorrect)
+            {
+                if (goldEnd && guessEnd)
+                {
+                    ++correctChunks[prevGoldType];
+                    inCorrect = false;
+                }
+                else if (goldEnd != guessEnd || goldType != guessType)
+                {
+                    inCorrect = false;
+                }
+            }
+            if (goldStart && guessStart && goldType == guessType)
+            {
+                inCorrect = true;
+            }
+            if (goldStart)
+            {
+                ++goldChunks[goldType];
+            }
+            if (guessStart)
+            {
+                ++guessChunks[guessType];
+            }
+
+            prevGoldTag = goldTag;
+            prevGuessTag = guessTag;
+            prevGoldType = goldType;
+            prevGuessType = guessType;
+        }
+        // Every chunk ends with the sequence
+        if (inCorrect)
+        {
+            ++correctChunks[prevGoldType];
+        }
+    }
+
+    @Override
+    public Metrics emptyCopy()
+    {
+        return new ChunkMetrics(labels);
+    }
+
+    @Override
+    public void merge(Metrics other)
+    {
+        super.merge(other);
+        if (!(other instanceof ChunkMetrics))
+        {
+            return;
+        }
+        ChunkMetrics that = (ChunkMetrics) other;
+        if (that.types.length != types.length)
+        {
+            throw new IllegalArgumentException("Can't merge metrics for different labels");
+        }
+        for (int i = 0; i < types.length; ++i)
+        {
+            goldChunks[i] += that.goldChunks[i];
+            guessChunks[i] += that.guessChunks[i];
+            correctChunks[i] += that.correctChunks[i];
+        }
+    }
+
+    /**
+     * The chunk types, which are the labels without their B-, I-, etc. prefixes
+     * @return The types, in the order of their first label
+     */
+    public String[] getTypes()
+    {
+        return types;
+    }
+
+    private static long sum(long[] counts)
+    {
+        long total = 0;
+        for (long count : counts)
+        {
+            total += count;
+        }
+        return total;
+    }
+
+    private int typeIndex(String type)
+    {
+        for (int i = 0; i < types.length; ++i)
+        {
+            if (types[i].equals(type))
+            {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No chunk type " + type);
+    }
+
+    private static double ratio(long num, long den)
+    {
+        return den == 0 ? 0. : num / (double) den;
+    }
+
+    private static double f1(double precision, double recall)
+    {
+        return precision + recall == 0. ? 0. : 2 * precision * recall / (precision + recall);
+    }
+
+    /**
+     * The fraction of steps labeled right
+     * @return Token accuracy
+     */
+    public double getTokenAccuracy()
+    {
+        return 1. - getError();
+    }
+
+    public long getGoldChunks()
+    {
+        return sum(goldChunks);
+    }
+
+    public long getGuessChunks()
+    {
+        return sum(guessChunks);
+    }
+
+    public long getCorrectChunks()
+    {
+        return sum(correctChunks);
+    }
+
+    /**
+     * Of the predicted chunks, the fraction that were exactly right
+     * @return Precision over all types
+     */
+    public double getPrecision()
+    {
+        return ratio(getCorrectChunks(), getGuessChunks());
+    }
+
+    /**
+     * Of the gold chunks, the fraction that were predicted exactly
+     * @return Recall over all types
+     */
+    public double getRecall()
+    {
+        return ratio(getCorrectChunks(), getGoldChunks());
+    }
+
+    public double getF1()
+    {
+        return f1(getPrecision(), getRecall());
+    }
+
+    public long getGoldChunks(String type)
+    {
+        return goldChunks[typeIndex(type)];
+    }
+
+    public long getGuessChunks(String type)
+    {
+        return guessChunks[typeIndex(type)];
+    }
+
+    public long getCorrectChunks(String type)
+    {
+        return correctChunks[typeIndex(type)];
+    }
+
+    public double getPrecision(String type)
+    {
+        int t = typeIndex(type);
+        return ratio(correctChunks[t], guessChunks[t]);
+    }
+
+    public double getRecall(String type)
+    {
+        int t = typeIndex(type);
+        return ratio(correctChunks[t], goldChunks[t]);
+    }
+
+    public double getF1(String type)
+    {
+        return f1(getPrecision(type), getRecall(type));
+    }
+
+    /**
+     * Describe everything in about the same form as conlleval, for printing
+     * @return A multi-line report
+     */
+    public String report()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("processed %d tokens with %d phrases; found: %d phrases; correct: %d.%n",
+                (long) getNumEventsSeen(), getGoldChunks(), getGuessChunks(), getCorrectChunks()));
+        sb.append(String.format("accuracy: %6.2f%%; precision: %6.2f%%; recall: %6.2f%%; FB1: %6.2f%n",
+                100 * getTokenAccuracy(), 100 * getPrecision(), 100 * getRecall(), 100 * getF1()));
+        for (int t = 0; t < types.length; ++t)
+        {
+            // The outside type has no chunks
+            if (goldChunks[t] == 0 && guessChunks[t] == 0)
+            {
+                continue;
+            }
+            double precision = ratio(correctChunks[t], guessChunks[t]);
+            double recall = ratio(correctChunks[t], goldChunks[t]);
+            sb.append(String.format("%17s: precision: %6.2f%%; recall: %6.2f%%; FB1: %6.2f  %d%n", types[t],
+                    100 * precision, 100 * recall, 100 * f1(precision, recall), guessChunks[t]));
+        }
+        return sb.toString();
+    }
+}
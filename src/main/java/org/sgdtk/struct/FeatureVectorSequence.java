@@ -1,7 +1,11 @@
 package org.sgdtk.struct;
 
 import org.sgdtk.Offset;
+import org.sgdtk.UnsafeMemory;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -112,4 +116,121 @@ public class FeatureVectorSequence
         return states;
     }
 
+    /**
+     * Get the number of bytes required to serialize this sequence.  The raw states are never serialized, so this
+     * only covers the labels and the unigram and bigram offsets
+     * @return number of bytes
+     */
+    public int getSerializationSize()
+    {
+        int part = UnsafeMemory.SIZE_OF_INT + UnsafeMemory.SIZE_OF_DOUBLE;
+        int total = UnsafeMemory.SIZE_OF_INT;
+        for (int pos = 0, sz = length(); pos < sz; ++pos)
+        {
+            total += 3 * UnsafeMemory.SIZE_OF_INT;
+            total += (u.get(pos).size() + b.get(pos).size()) * part;
+        }
+        return total;
+    }
+
+    /**
+     * Write out the sequence to UnsafeMemory backed by the provided buffer.  The layout is the length, then for
+     * each step, the label, the unigram offsets and the bigram offsets (each list prefixed by its size).
+     * The contents will be in UnsafeMemory.getBuffer() with length UnsafeMemory.getPos()
+     *
+     * @param buffer A working buffer of at least {@link #getSerializationSize()} bytes or null
+     * @return The memory
+     */
+    public UnsafeMemory serialize(byte[] buffer)
+    {
+        if (buffer == null)
+        {
+            buffer = new byte[getSerializationSize()];
+        }
+        UnsafeMemory memory = new UnsafeMemory(buffer);
+        int nPos = length();
+        memory.putInt(nPos);
+        for (int pos = 0; pos < nPos; ++pos)
+        {
+            memory.putInt(y.get(pos));
+            putOffsets(memory, u.get(pos));
+            putOffsets(memory, b.get(pos));
+        }
+        return memory;
+    }
+
+    private static void putOffsets(UnsafeMemory memory, List<Offset> offsets)
+    {
+        int sz = offsets.size();
+        memory.putInt(sz);
+        for (int i = 0; i < sz; ++i)
+        {
+            Offset offset = offsets.get(i);
+            memory.putInt(offset.index);
+            memory.putDouble(offset.value);
+        }
+    }
+
+    private static List<Offset> getOffsets(UnsafeMemory memory)
+    {
+        int sz = memory.getInt();
+        List<Offset> offsets = new ArrayList<Offset>(sz);
+        for (int i = 0; i < sz; ++i)
+        {
+            offsets.add(new Offset(memory.getInt(), memory.getDouble()));
+        }
+        return offsets;
+    }
+
+    /**
+     * Write out the sequence at the current position of the output, using the working buffer.  The record
+     * is prefixed by its length, like {@link org.sgdtk.FeatureVector#serializeTo(java.io.RandomAccessFile, byte[])}
+     *
+     * @param output A file or stream open at the desired write offset
+     * @param buffer A working buffer of at least {@link #getSerializationSize()} bytes or null
+     * @throws IOException
+     */
+    public void serializeTo(DataOutput output, byte[] buffer) throws IOException
+    {
+        UnsafeMemory memory = serialize(buffer);
+        long sz = memory.getPos();
+        output.writeLong(sz);
+        output.write(memory.getBuffer(), 0, (int) sz);
+    }
+
+    /**
+     * Read a sequence back from a buffer
+     * @param buffer The serialized sequence
+     * @return A sequence without states
+     */
+    public static FeatureVectorSequence deserialize(byte[] buffer)
+    {
+        UnsafeMemory memory = new UnsafeMemory(buffer);
+        FeatureVectorSequence sequence = new FeatureVectorSequence();
+        int nPos = memory.getInt();
+        for (int pos = 0; pos < nPos; ++pos)
+        {
+            int label = memory.getInt();
+            List<Offset> us = getOffsets(memory);
+            List<Offset> bs = getOffsets(memory);
+            sequence.addStep(label, us, bs, null);
+        }
+        return sequence;
+    }
+
+    /**
+     * Read a length-prefixed sequence from a file or stream.  Working memory will be allocated underneath
+     *
+     * @param input A file or stream
+     * @return A sequence without states
+     * @throws IOException
+     */
+    public static FeatureVectorSequence deserializeFrom(DataInput input) throws IOException
+    {
+        int sz = (int) input.readLong();
+        byte[] buffer = new byte[sz];
+        input.readFully(buffer, 0, sz);
+        return deserialize(buffer);
+    }
+
 }
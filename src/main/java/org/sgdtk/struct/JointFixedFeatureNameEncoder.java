@@ -1,6 +1,7 @@
 package org.sgdtk.struct;
 
 import org.sgdtk.CollectionsManip;
+import org.sgdtk.CountMinSketch;
 import org.sgdtk.FeatureNameEncoder;
 
 import java.io.*;
@@ -21,6 +22,12 @@ import java.util.*;
  * In the second use-case, we have already trained our data, and persisted the feature encodings to a file, and now we
  * want to score some data.  Here we just call the default constructor, and then {@link #load(java.io.InputStream)}
  * the encoder again from the file that was saved in the training.
+ * <p>
+ * When the training data has too many distinct features to hold a frequency table in memory, the encoder can instead
+ * be built in two streaming passes.  The first pass counts features into a {@link org.sgdtk.CountMinSketch}, and the
+ * encoder is constructed from that sketch.  During the second pass, {@link #lookupOrCreate(String)} admits each feature
+ * the first time it is seen if its estimated count clears the cutoff.  Call {@link #freeze()} once the second pass is
+ * done to drop the sketch.  In this mode the indices are assigned in order of first occurrence, not alphabetically.
  *
  * @see org.sgdtk.exec.ExecUtils
  * @author dpressel
@@ -36,6 +43,10 @@ public class JointFixedFeatureNameEncoder implements FeatureNameEncoder
 
     int featureOffset = 0;
 
+    // Only set while the encoder is being built from a sketch
+    private transient CountMinSketch admissionCounts;
+    private transient int minValue;
+
     private void toFeatureIndex(Map<String, Integer> map, int minValue, int numLabels)
     {
         List<Map.Entry<String, Integer>> list =
@@ -74,6 +85,22 @@ public class JointFixedFeatureNameEncoder implements FeatureNameEncoder
 
     }
 
+    private int add(String k)
+    {
+        int numLabels = labelEncoder.length();
+        int offset = featureOffset;
+        featureIndex.put(k, offset);
+        if (k.startsWith("B"))
+        {
+            featureOffset += numLabels * numLabels;
+        }
+        else
+        {
+            featureOffset += numLabels;
+        }
+        return offset;
+    }
+
     /**
      * Empty constructor, this is usually used prior to loading a previously stored encoder.
      */
@@ -99,6 +126,31 @@ public class JointFixedFeatureNameEncoder implements FeatureNameEncoder
 
     }
 
+    /**
+     * Start an encoder that admits features lazily using approximate counts from a previous pass.  The label encoder
+     * is assumed to be fully loaded already, since the offsets depend on the number of labels.
+     *
+     * @param counts Approximate feature frequencies
+     * @param minValue Cull features estimated below this value
+     * @param labelEncoder The label encoder, which should be already mapped
+     * @see org.sgdtk.exec.ExecUtils#createJointEncoder(String, int, FeatureTemplate, int, int)
+     */
+    public JointFixedFeatureNameEncoder(CountMinSketch counts, int minValue, FeatureNameEncoder labelEncoder)
+    {
+        this.featureIndex = new HashMap<String, Integer>();
+        this.labelEncoder = labelEncoder;
+        this.admissionCounts = counts;
+        this.minValue = minValue;
+    }
+
+    /**
+     * Stop admitting new features.  After this, the encoder behaves exactly like one that was loaded from disk.
+     */
+    public void freeze()
+    {
+        admissionCounts = null;
+    }
+
     /**
      * Load this encoder from a serialized state
      *
@@ -141,7 +193,8 @@ public class JointFixedFeatureNameEncoder implements FeatureNameEncoder
 
     /**
      * lookup a feature.  In this subclass impl., if the feature is not found, dont create it, as it should have
-     * been created already during initialization
+     * been created already during initialization.  The exception is an encoder that is still being built from a
+     * sketch, which creates the feature if its estimated count is high enough
      *
      * @param name A feature name
      * @return A feature index or -1 if not found
@@ -150,6 +203,10 @@ public class JointFixedFeatureNameEncoder implements FeatureNameEncoder
     public int lookupOrCreate(String name)
     {
         Integer x = indexOf(name);
+        if (x == null && admissionCounts != null && admissionCounts.estimate(name) >= minValue)
+        {
+            return add(name);
+        }
         return (x == null) ? -1: x;
     }
 
@@ -1,10 +1,15 @@
 package org.sgdtk.struct;
 
+import org.sgdtk.EtaCache;
+import org.sgdtk.EtaSearch;
 import org.sgdtk.Metrics;
+import org.sgdtk.Offset;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.IntToDoubleFunction;
 
 /**
  * Use SGD to train a CRF using Leon Bottou's approach
@@ -13,6 +18,9 @@ import java.util.List;
  * if kEta is not provided, it will attempt to iteratively pick the learning rate.  This is approach is
  * described in Bottou's tutorials/writings on SGD.
  *
+ * With averaging turned on, the learner creates an {@link AveragedCRFModel} and follows crfasgd.cpp instead, with a
+ * learning rate that decays as t^-0.75 rather than 1/t.
+ *
  * @author dpressel
  */
 public class SGDSequentialLearner implements SequentialLearner
@@ -22,9 +30,13 @@ public class SGDSequentialLearner implements SequentialLearner
 
     // This is the schedule for adjusting the learning rate
     double t = 0;
+    double t0 = 0;
     double lambda = -1;
     final double c;
     final double kEta;
+    double averageStart = -1;
+    int calibrationThreads = 1;
+    EtaCache etaCache;
 
     /**
      * Create a learner by providing params
@@ -56,7 +68,7 @@ public class SGDSequentialLearner implements SequentialLearner
     {
         t = 0;
         lambda = -1;
-        CRFModel crf = new CRFModel(wlength, 1., numLabels);
+        CRFModel crf = isAveraged() ? new AveragedCRFModel(wlength, 1., numLabels) : new CRFModel(wlength, 1., numLabels);
         return crf;
     }
 
@@ -75,40 +87,96 @@ public class SGDSequentialLearner implements SequentialLearner
 
         if (lambda == -1)
         {
-            init(trainingExamples, crf);
-            double eta = 1. / (lambda * t);
-            log.info("Taking eta=" + eta + " t0=" + t);
+            preprocess(crf, trainingExamples.subList(0, Math.min(MAX_SAMPLE_SZ, trainingExamples.size())), trainingExamples.size());
         }
 
         for (FeatureVectorSequence sequence : trainingExamples)
         {
-            double eta = 1. / (lambda * t);
-            double wscale = crf.getWscale();
-            Scorer scorer = new Scorer(crf, sequence);
-            scorer.gradCorrect(1, eta);
-            scorer.gradForward(-1, eta);
-            wscale *= (1 - eta * lambda);
-            crf.setWscale(wscale);
-            ++t;
+            trainOne(crf, sequence);
         }
 
+        double wnorm = crf.mag();
+        log.info("wnorm=" + wnorm);
+        return crf;
+    }
 
-        if (crf.getWscale() < 1e-5)
+    /**
+     * Train a single pass over a stream of examples
+     * @param model A sequential model
+     * @param provider A source of training examples
+     * @return updated model
+     * @throws IOException
+     */
+    @Override
+    public SequentialModel trainEpoch(SequentialModel model, SequentialFeatureProvider provider) throws IOException
+    {
+        CRFModel crf = (CRFModel)model;
+        FeatureVectorSequence sequence;
+        while ((sequence = provider.next()) != null)
         {
-            crf.rescale();
+            trainOne(crf, sequence);
         }
         double wnorm = crf.mag();
         log.info("wnorm=" + wnorm);
         return crf;
     }
 
+    /**
+     * Train on a single sequence.  The weight vector is rescaled if the scale factor gets too small
+     * @param model A sequential model
+     * @param sequence A training example
+     */
+    @Override
+    public void trainOne(SequentialModel model, FeatureVectorSequence sequence)
+    {
+        if (lambda == -1)
+        {
+            throw new IllegalStateException("Learning schedule is not initialized, call preprocess() first");
+        }
+        CRFModel crf = (CRFModel)model;
+        // This is eta0 / (1 + lambda * eta0 * n)^power, where t0 = 1 / (lambda * eta0) and t = t0 + n
+        double eta = crf instanceof AveragedCRFModel ? Math.pow(t / t0, -0.75) / (lambda * t0) : 1. / (lambda * t);
+        double wscale = crf.getWscale();
+        Scorer scorer = new Scorer(crf, sequence);
+        scorer.gradCorrect(1, eta);
+        scorer.gradForward(-1, eta);
+        wscale *= (1 - eta * lambda);
+        crf.setWscale(wscale);
+        ++t;
+
+        if (wscale < 1e-5)
+        {
+            crf.rescale();
+        }
+        if (crf instanceof AveragedCRFModel)
+        {
+            ((AveragedCRFModel) crf).average();
+        }
+    }
+
+    /**
+     * Initialize lambda and the learning schedule from a sample.  If kEta was not given, it is picked by trying
+     * candidate values on the sample
+     *
+     * @param model A sequential model, empty but initialized
+     * @param sample A sample of the training examples
+     * @param numExamples The total number of training examples
+     */
+    @Override
+    public void preprocess(SequentialModel model, List<FeatureVectorSequence> sample, int numExamples)
+    {
+        init(sample, numExamples, (CRFModel) model);
+        double eta = 1. / (lambda * t);
+        log.info("Taking eta=" + eta + " t0=" + t);
+    }
+
     public static final int MAX_SAMPLE_SZ = 1000;
 
-    private void init(List<FeatureVectorSequence> trainingExamples, CRFModel model)
+    private void init(List<FeatureVectorSequence> sample, int numExamples, CRFModel model)
     {
 
         double s0 = System.currentTimeMillis();
-        t = trainingExamples.size();
+        t = numExamples;
         lambda = 1.0 / (c * t);
         if (kEta != 0.0)
         {
@@ -118,7 +186,12 @@ public class SGDSequentialLearner implements SequentialLearner
         else
         {
             // Otherwise find it
-            initSchedule(trainingExamples.subList(0, Math.min(MAX_SAMPLE_SZ, trainingExamples.size())), model, ETA_0);
+            initSchedule(sample.subList(0, Math.min(MAX_SAMPLE_SZ, sample.size())), model, ETA_0);
+        }
+        t0 = t;
+        if (model instanceof AveragedCRFModel)
+        {
+            ((AveragedCRFModel) model).setAverageStart((long) (averageStart * numExamples));
         }
 
         double sNow = System.currentTimeMillis();
@@ -143,6 +216,29 @@ public class SGDSequentialLearner implements SequentialLearner
         return loss / sSz + 0.5 * wnorm * lambda;
     }
 
+    /**
+     * The training objective on a set of sequences: the average negative log likelihood, and optionally the
+     * regularization term.  For an {@link AveragedCRFModel}, this is of the SGD weights, not the average.  Call after
+     * {@link #preprocess(SequentialModel, java.util.List, int)}, which sets lambda
+     *
+     * @param model A model
+     * @param sequences The sequences
+     * @param regularized Whether to add the regularization term
+     * @return The objective
+     */
+    public double objective(SequentialModel model, List<FeatureVectorSequence> sequences, boolean regularized)
+    {
+        CRFModel crf = (CRFModel) model;
+        double loss = 0.;
+        for (FeatureVectorSequence sequence : sequences)
+        {
+            Scorer scorer = new Scorer(crf, sequence);
+            loss += scorer.computeForward() - scorer.computeCorrect();
+        }
+        loss /= sequences.size();
+        return regularized ? loss + 0.5 * crf.mag() * lambda : loss;
+    }
+
     private double tryEtaBySampling(List<FeatureVectorSequence> sample, CRFModel model, double eta)
     {
 
@@ -166,62 +262,286 @@ public class SGDSequentialLearner implements SequentialLearner
 
     private void initSchedule(List<FeatureVectorSequence> sample, CRFModel model, double eta0)
     {
+        String cacheKey = null;
+        if (etaCache != null)
+        {
+            cacheKey = "crf/" + etaCache.dataKey(fingerprint(sample)) + "/" + model.getNumLabels() + "/" + lambda +
+                    "/" + eta0;
+            Double cached = etaCache.get(cacheKey);
+            if (cached != null)
+            {
+                log.info("Cached eta=" + cached);
+                t = 1.0 / (cached * lambda);
+                return;
+            }
+        }
+
         double obj0 = findObjBySampling(sample, model);
 
         log.info("Initial objective=" + obj0);
         double bestEta = BEST_ETA_INIT;
         double bestObj = obj0;
-        double etaGuess = eta0;
 
         boolean phase2 = false;
 
-        for (int k = 10; k > 0 || !phase2; )
+        // Candidate j is eta0 * FACTOR^j
+        EtaSearch search = new EtaSearch(trialsFor(sample, model, eta0), calibrationThreads);
+        try
+        {
+            int j = 0;
+            for (int k = 10; k > 0 || !phase2; )
+            {
+                double etaGuess = eta0 * Math.pow(FACTOR, j);
+                double obj = search.cost(j);
+                boolean ok = (obj < obj0);
+
+                log.info("Trying eta=" + etaGuess + " obj=" + obj);
+                if (ok)
+                {
+                    log.info(" (possible)");
+                }
+                else
+                {
+                    log.info("(too large)");
+                }
+                if (ok)
+                {
+                    --k;
+                    if (obj < bestObj)
+                    {
+                        bestObj = obj;
+
+                        bestEta = etaGuess;
+                    }
+                }
+                if (!phase2)
+                {
+                    if (ok)
+                    {
+                        ++j;
+                    }
+                    else
+                    {
+                        phase2 = true;
+                        j = 0;
+                    }
+                }
+                if (phase2)
+                {
+                    --j;
+                }
+
+            }
+        }
+        finally
+        {
+            search.close();
+        }
+        log.info("Tried " + search.getNumTrials() + " etas");
+        bestEta /= FACTOR;
+        t = 1.0 / (bestEta * lambda);
+        if (etaCache != null)
+        {
+            etaCache.put(cacheKey, bestEta);
+        }
+
+    }
+
+    // The objective after training on the sample at each candidate eta0 * FACTOR^j
+    private IntToDoubleFunction trialsFor(List<FeatureVectorSequence> sample, CRFModel model, final double eta0)
+    {
+        // Number the weight blocks the sample touches from 0.  A unigram feature's block has a weight per label,
+        // and a bigram feature's has one per pair of labels
+        final int numLabels = model.getNumLabels();
+        Map<Integer, Integer> compactOffsets = new HashMap<Integer, Integer>();
+        TreeMap<Integer, Integer> widths = new TreeMap<Integer, Integer>();
+        int compactLength = 0;
+        for (FeatureVectorSequence sequence : sample)
+        {
+            for (int pos = 0, sz = sequence.length(); pos < sz; ++pos)
+            {
+                compactLength = addBlocks(sequence.getOffsetsForU(pos), numLabels, compactOffsets, widths, compactLength);
+                compactLength = addBlocks(sequence.getOffsetsForB(pos), numLabels * numLabels, compactOffsets, widths,
+                        compactLength);
+            }
+        }
+        if (compactLength < 0 || !disjoint(widths))
+        {
+            // The blocks overlap, so a trial needs the real layout
+            return j -> tryEta(sample, model, eta0 * Math.pow(FACTOR, j), 0.);
+        }
+
+        double[] weights = model.getWeights();
+        double[] compactWeights = new double[compactLength];
+        double compactDot = 0.;
+        for (Map.Entry<Integer, Integer> entry : widths.entrySet())
+        {
+            int from = entry.getKey();
+            int to = compactOffsets.get(from);
+            for (int i = 0; i < entry.getValue(); ++i)
+            {
+                double w = weights[from + i];
+                compactWeights[to + i] = w;
+                compactDot += w * w;
+            }
+        }
+        double fullDot = 0.;
+        for (double w : weights)
         {
-            CRFModel clone = (CRFModel)model.prototype();
-            double obj = tryEtaBySampling(sample, clone, etaGuess);
-            boolean ok = (obj < obj0);
+            fullDot += w * w;
+        }
+        final double restDot = Math.max(0., fullDot - compactDot);
+        final CRFModel compact = new CRFModel(compactWeights, model.getWscale(), numLabels);
 
-            log.info("Trying eta=" + etaGuess + " obj=" + obj);
-            if (ok)
+        final List<FeatureVectorSequence> compactSample = new ArrayList<FeatureVectorSequence>(sample.size());
+        for (FeatureVectorSequence sequence : sample)
+        {
+            FeatureVectorSequence compactSequence = new FeatureVectorSequence();
+            for (int pos = 0, sz = sequence.length(); pos < sz; ++pos)
             {
-                log.info(" (possible)");
+                compactSequence.addStep(sequence.getY(pos), remap(sequence.getOffsetsForU(pos), compactOffsets),
+                        remap(sequence.getOffsetsForB(pos), compactOffsets), null);
             }
-            else
+            compactSample.add(compactSequence);
+        }
+        return j -> tryEta(compactSample, compact, eta0 * Math.pow(FACTOR, j), restDot);
+    }
+
+    // Give each new block the next compact offset, or return -1 if a block is seen with two widths
+    private static int addBlocks(List<Offset> offsets, int width, Map<Integer, Integer> compactOffsets,
+                                 Map<Integer, Integer> widths, int compactLength)
+    {
+        if (compactLength < 0)
+        {
+            return compactLength;
+        }
+        for (Offset offset : offsets)
+        {
+            Integer seen = widths.get(offset.index);
+            if (seen == null)
             {
-                log.info("(too large)");
+                widths.put(offset.index, width);
+                compactOffsets.put(offset.index, compactLength);
+                compactLength += width;
             }
-            if (ok)
+            else if (seen != width)
             {
-                --k;
-                if (obj < bestObj)
-                {
-                    bestObj = obj;
+                return -1;
+            }
+        }
+        return compactLength;
+    }
 
-                    bestEta = etaGuess;
-                }
+    private static boolean disjoint(TreeMap<Integer, Integer> widths)
+    {
+        int end = Integer.MIN_VALUE;
+        for (Map.Entry<Integer, Integer> entry : widths.entrySet())
+        {
+            if (entry.getKey() < end)
+            {
+                return false;
             }
-            if (!phase2)
+            end = entry.getKey() + entry.getValue();
+        }
+        return true;
+    }
+
+    private static List<Offset> remap(List<Offset> offsets, Map<Integer, Integer> compactOffsets)
+    {
+        List<Offset> remapped = new ArrayList<Offset>(offsets.size());
+        for (Offset offset : offsets)
+        {
+            remapped.add(new Offset(compactOffsets.get(offset.index), offset.value));
+        }
+        return remapped;
+    }
+
+    /**
+     * Train a copy of the model on the sample at a fixed eta, and get its objective on the sample
+     * @param sample The sample
+     * @param model The model
+     * @param eta The learning rate to try
+     * @param restDot The squared norm of any unscaled weights the model is missing, which the sample doesn't touch,
+     *                so that they only shrink with the scale
+     * @return The objective
+     */
+    private double tryEta(List<FeatureVectorSequence> sample, CRFModel model, double eta, double restDot)
+    {
+        CRFModel clone = (CRFModel) model.prototype();
+        double obj = tryEtaBySampling(sample, clone, eta);
+        double wscale = clone.getWscale();
+        return obj + 0.5 * restDot * wscale * wscale * lambda;
+    }
+
+    // A fingerprint of the sample's labels and features, in order
+    private static long fingerprint(List<FeatureVectorSequence> sample)
+    {
+        long hash = EtaCache.mix(0L, sample.size());
+        for (FeatureVectorSequence sequence : sample)
+        {
+            hash = EtaCache.mix(hash, sequence.length());
+            for (int pos = 0, sz = sequence.length(); pos < sz; ++pos)
             {
-                if (ok)
+                hash = EtaCache.mix(hash, sequence.getY(pos));
+                for (Offset offset : sequence.getOffsetsForU(pos))
                 {
-                    etaGuess *= FACTOR;
+                    hash = EtaCache.mix(EtaCache.mix(hash, offset.index), offset.value);
                 }
-                else
+                hash = EtaCache.mix(hash, -1);
+                for (Offset offset : sequence.getOffsetsForB(pos))
                 {
-                    phase2 = true;
-                    etaGuess = eta0;
+                    hash = EtaCache.mix(EtaCache.mix(hash, offset.index), offset.value);
                 }
             }
-            if (phase2)
-            {
-                etaGuess /= FACTOR;
-            }
-
         }
-        bestEta /= FACTOR;
-        t = 1.0 / (bestEta * lambda);
+        return hash;
+    }
 
+    public int getCalibrationThreads()
+    {
+        return calibrationThreads;
+    }
 
+    /**
+     * Try this many candidate learning rates at once when picking eta
+     * @param calibrationThreads The number of threads
+     */
+    public void setCalibrationThreads(int calibrationThreads)
+    {
+        this.calibrationThreads = calibrationThreads;
+    }
+
+    public EtaCache getEtaCache()
+    {
+        return etaCache;
+    }
+
+    /**
+     * Look up eta in a cache before picking it, and store it there after
+     * @param etaCache The cache, or null to always pick eta
+     */
+    public void setEtaCache(EtaCache etaCache)
+    {
+        this.etaCache = etaCache;
+    }
+
+    /**
+     * Train an {@link AveragedCRFModel} by averaged SGD.  Call before {@link #create(int, int)}
+     * @param averageStart Epochs to train before averaging starts, or a negative number for plain SGD
+     */
+    public void setAverageStart(double averageStart)
+    {
+        this.averageStart = averageStart;
+    }
+
+    public double getAverageStart()
+    {
+        return averageStart;
+    }
+
+    public boolean isAveraged()
+    {
+        return averageStart >= 0;
     }
 
     /**
@@ -238,16 +558,19 @@ public class SGDSequentialLearner implements SequentialLearner
         int nErrors = 0;
 
         int nPos = sequence.length();
+        int[] gold = new int[nPos];
         for (int pos = 0; pos < nPos; ++pos)
         {
             int yGuess = path.at(pos);
             int yActual = sequence.getY(pos);
+            gold[pos] = yActual;
 
             if (yGuess != yActual)
             {
                 ++nErrors;
             }
         }
+        metric.addSequence(gold, path.steps);
         metric.addToTotalError(nErrors);
         metric.addToTotalEvents(sequence.length());
         metric.addToTotalExamples(1);
@@ -51,6 +51,24 @@ class Scorer
         double wscale = model.getWscale();
         double[] weights = model.getWeights();
         double gain = eta / wscale;
+        if (model instanceof AveragedCRFModel && ((AveragedCRFModel) model).isAveraging())
+        {
+            // Leave the average where it was
+            AveragedCRFModel averaged = (AveragedCRFModel) model;
+            double[] avg = averaged.avg;
+            double wfrac = averaged.wfrac;
+            for (Offset offset : offsets)
+            {
+                int l = offset.index + off;
+                for (int k = 0; k < numy; ++k, ++l)
+                {
+                    double delta = g[k] * offset.value * gain;
+                    weights[l] += delta;
+                    avg[l] -= wfrac * delta;
+                }
+            }
+            return;
+        }
         for (Offset offset : offsets)
         {
             int l = offset.index + off;
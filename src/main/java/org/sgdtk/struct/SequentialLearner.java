@@ -2,6 +2,7 @@ package org.sgdtk.struct;
 
 import org.sgdtk.Metrics;
 
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -35,6 +36,33 @@ public interface SequentialLearner
      */
     SequentialModel trainEpoch(SequentialModel model, List<FeatureVectorSequence> trainingExamples);
 
+    /**
+     * Train a single pass of the model on examples streamed from a provider.  Since the whole set isnt available
+     * up front, {@link #preprocess(SequentialModel, java.util.List, int)} must be called before the first pass.
+     *
+     * @param model A sequential model
+     * @param provider A source of training examples, which is consumed by this call
+     * @return The updated model
+     * @throws IOException
+     */
+    SequentialModel trainEpoch(SequentialModel model, SequentialFeatureProvider provider) throws IOException;
+
+    /**
+     * Train on a single example
+     * @param model A sequential model
+     * @param sequence A training example
+     */
+    void trainOne(SequentialModel model, FeatureVectorSequence sequence);
+
+    /**
+     * Set up the learning schedule without having the full training set in memory.
+     *
+     * @param model A sequential model, empty but initialized
+     * @param sample A sample of the training examples (typically the head of the set)
+     * @param numExamples The total number of training examples
+     */
+    void preprocess(SequentialModel model, List<FeatureVectorSequence> sample, int numExamples);
+
     /**
      * Evaluate a single feature vector using a model.  This is basically wrapping
      * the {@link org.sgdtk.struct.SequentialModel#predict(FeatureVectorSequence)} call, but with some error metrics
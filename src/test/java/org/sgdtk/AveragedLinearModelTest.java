@@ -0,0 +1,81 @@
+package org.sgdtk;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class AveragedLinearModelTest
+{
+    @Test
+    public void testMatchesExplicitAverage() throws Exception
+    {
+        final int width = 20;
+        final int averageStart = 50;
+        Random random = new Random(11);
+        LinearModel sgd = new LinearModel(width);
+        AveragedLinearModel asgd = new AveragedLinearModel(width, averageStart);
+        Loss loss = new HingeLoss();
+        FeatureVector probe = TestData.randomExample(random, width, 2);
+
+        // A prediction is linear in the weights, so the average of the predictions is the prediction of the average
+        double sumPredictions = 0.;
+        int numAveraged = 0;
+        for (int i = 0; i < 500; ++i)
+        {
+            FeatureVector fv = TestData.randomExample(random, width, 2);
+            double eta = 0.1 / (1 + 0.01 * i);
+            double dLoss = loss.dLoss(sgd.predict(fv), fv.getY());
+            assertEquals(sgd.predict(fv), asgd.predictForUpdate(fv), 1e-9);
+            sgd.updateWeights(fv.getX(), eta, 1e-3, dLoss, fv.getY());
+            asgd.updateWeights(fv.getX(), eta, 1e-3, dLoss, fv.getY());
+            if (i + 1 > averageStart)
+            {
+                sumPredictions += sgd.predict(probe);
+                ++numAveraged;
+                assertEquals(sumPredictions / numAveraged, asgd.predict(probe), 1e-9);
+            }
+            else
+            {
+                assertEquals(sgd.predict(probe), asgd.predict(probe), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void testTrainAfterLoad() throws Exception
+    {
+        final int width = 20;
+        Random random = new Random(5);
+        AveragedLinearModel asgd = new AveragedLinearModel(width, 10);
+        Loss loss = new HingeLoss();
+        for (int i = 0; i < 100; ++i)
+        {
+            FeatureVector fv = TestData.randomExample(random, width, 2);
+            asgd.updateWeights(fv.getX(), 0.05, 1e-3, loss.dLoss(asgd.predictForUpdate(fv), fv.getY()), fv.getY());
+        }
+        ByteArrayOutputStream saved = new ByteArrayOutputStream();
+        asgd.save(saved);
+
+        // The loaded weights are the average so far, so the first update is averaged in with them at mu = 1/2
+        AveragedLinearModel loaded = new AveragedLinearModel();
+        loaded.load(new ByteArrayInputStream(saved.toByteArray()));
+        LinearModel sgd = new LinearModel();
+        sgd.load(new ByteArrayInputStream(saved.toByteArray()));
+        FeatureVector probe = TestData.randomExample(random, width, 2);
+        double before = sgd.predict(probe);
+        assertEquals(before, loaded.predict(probe), 1e-9);
+
+        FeatureVector fv = TestData.randomExample(random, width, 2);
+        double dLoss = loss.dLoss(sgd.predict(fv), fv.getY());
+        sgd.updateWeights(fv.getX(), 0.05, 1e-3, dLoss, fv.getY());
+        loaded.updateWeights(fv.getX(), 0.05, 1e-3, dLoss, fv.getY());
+        double after = loaded.predict(probe);
+        assertTrue(!Double.isNaN(after));
+        assertEquals((before + sgd.predict(probe)) / 2, after, 1e-9);
+    }
+}
@@ -0,0 +1,115 @@
+package org.sgdtk;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class ClassificationMetricsTest
+{
+
+    @Test
+    public void testBinary() throws Exception
+    {
+        ClassificationMetrics metrics = new ClassificationMetrics(2);
+        // Every positive outscores every negative, but one of each is on the wrong side of 0
+        metrics.addScores(1, new double[] { 3. });
+        metrics.addScores(1, new double[] { 2. });
+        metrics.addScores(1, new double[] { -0.5 });
+        metrics.addScores(-1, new double[] { -1. });
+        metrics.addScores(-1, new double[] { -2. });
+        metrics.addScores(-1, new double[] { -3. });
+
+        assertEquals(1.0, metrics.getAuc(), 1e-9);
+        assertEquals(2L, metrics.getConfusion(1, 1));
+        assertEquals(1L, metrics.getConfusion(1, -1));
+        assertEquals(3L, metrics.getConfusion(-1, -1));
+        assertEquals(1.0, metrics.getPrecision(1), 1e-9);
+        assertEquals(2. / 3., metrics.getRecall(1), 1e-9);
+        assertEquals(0.75, metrics.getPrecision(-1), 1e-9);
+
+        // Flip the order and AUC goes to 0
+        ClassificationMetrics reversed = new ClassificationMetrics(2);
+        reversed.addScores(1, new double[] { -3. });
+        reversed.addScores(-1, new double[] { 3. });
+        assertEquals(0.0, reversed.getAuc(), 1e-9);
+    }
+
+    @Test
+    public void testAucInTheTails() throws Exception
+    {
+        // Every score is a probability above 0.999 or below 0.001, but they are still told apart
+        ClassificationMetrics metrics = new ClassificationMetrics(2);
+        for (int i = 0; i < 100; ++i)
+        {
+            metrics.addScores(1, new double[] { 8. + i * 0.01 });
+            metrics.addScores(-1, new double[] { 7. + i * 0.01 });
+            metrics.addScores(1, new double[] { -12. + i * 0.01 });
+            metrics.addScores(-1, new double[] { -13. + i * 0.01 });
+        }
+        // Within each tail, the positives are all above the negatives, so only low positives against high negatives are wrong
+        assertEquals(0.75, metrics.getAuc(), 1e-3);
+    }
+
+    @Test
+    public void testAucMatchesExact() throws Exception
+    {
+        Random random = new Random(3);
+        ClassificationMetrics metrics = new ClassificationMetrics(2);
+        double[] pos = new double[2000];
+        double[] neg = new double[2000];
+        for (int i = 0; i < pos.length; ++i)
+        {
+            pos[i] = random.nextGaussian() * 3. + 1.;
+            neg[i] = random.nextGaussian() * 3.;
+            metrics.addScores(1, new double[] { pos[i] });
+            metrics.addScores(-1, new double[] { neg[i] });
+        }
+        double numRight = 0.;
+        for (double p : pos)
+        {
+            for (double n : neg)
+            {
+                numRight += p > n ? 1. : p == n ? 0.5 : 0.;
+            }
+        }
+        assertEquals(numRight / ((double) pos.length * neg.length), metrics.getAuc(), 1e-3);
+    }
+
+    @Test
+    public void testMergeMatchesOnePass() throws Exception
+    {
+        Random random = new Random(7);
+        ClassificationMetrics all = new ClassificationMetrics(3);
+        ClassificationMetrics first = (ClassificationMetrics) all.emptyCopy();
+        ClassificationMetrics second = (ClassificationMetrics) all.emptyCopy();
+        for (int i = 0; i < 1000; ++i)
+        {
+            double y = 1 + random.nextInt(3);
+            double[] scores = { random.nextGaussian(), random.nextGaussian(), random.nextGaussian() };
+            scores[(int) y - 1] += 1.;
+            all.addScores(y, scores);
+            (i % 2 == 0 ? first : second).addScores(y, scores);
+        }
+        first.merge(second);
+
+        for (int truth = 1; truth <= 3; ++truth)
+        {
+            for (int predicted = 1; predicted <= 3; ++predicted)
+            {
+                assertEquals(all.getConfusion(truth, predicted), first.getConfusion(truth, predicted));
+            }
+            assertEquals(all.getAuc(truth), first.getAuc(truth), 1e-12);
+        }
+        assertEquals(all.getMacroF1(), first.getMacroF1(), 1e-12);
+        assertEquals(all.getLogLoss(), first.getLogLoss(), 1e-12);
+        double[][] calibration = all.getCalibration(10);
+        double[][] mergedCalibration = first.getCalibration(10);
+        for (int i = 0; i < calibration.length; ++i)
+        {
+            assertEquals(calibration[i][1], mergedCalibration[i][1], 1e-12);
+            assertEquals(calibration[i][3], mergedCalibration[i][3], 1e-12);
+        }
+    }
+}
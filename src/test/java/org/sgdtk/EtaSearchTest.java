@@ -0,0 +1,56 @@
+package org.sgdtk;
+
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class EtaSearchTest
+{
+    // A cost with its minimum at k = -5, like a sample that wants eta = 1/32
+    private static double cost(int k)
+    {
+        return (k + 5) * (k + 5);
+    }
+
+    private static int walkDown(EtaSearch search)
+    {
+        int k = 0;
+        while (search.cost(k - 1) < search.cost(k))
+        {
+            --k;
+        }
+        return k;
+    }
+
+    @Test
+    public void testParallelMatchesSerial() throws Exception
+    {
+        final ConcurrentHashMap<Integer, AtomicInteger> calls = new ConcurrentHashMap<Integer, AtomicInteger>();
+        EtaSearch serial = new EtaSearch(EtaSearchTest::cost, 1);
+        EtaSearch parallel = new EtaSearch(k ->
+        {
+            calls.computeIfAbsent(k, key -> new AtomicInteger()).incrementAndGet();
+            return cost(k);
+        }, 4);
+        try
+        {
+            assertEquals(-5, walkDown(serial));
+            assertEquals(-5, walkDown(parallel));
+        }
+        finally
+        {
+            parallel.close();
+        }
+        assertEquals(7, serial.getNumTrials());
+        // Every candidate the walk needed was tried, and none more than once
+        for (int k = -6; k <= 0; ++k)
+        {
+            assertEquals(1, calls.get(k).get());
+        }
+        assertTrue(parallel.getNumTrials() >= serial.getNumTrials());
+    }
+}
@@ -142,4 +142,33 @@ public class FeatureVectorTest
     }
 
 
+
+    @Test
+    public void testPooledSparseOrganize() throws Exception
+    {
+        int[] indices = { 9, 3, 7, 3, 1, 9, 12 };
+        SparseVectorN sv = new SparseVectorN();
+        PooledSparseVectorN pv = new PooledSparseVectorN(2);
+        for (int round = 0; round < 2; ++round)
+        {
+            sv.reset();
+            pv.reset();
+            for (int i = 0; i < indices.length; ++i)
+            {
+                sv.add(new Offset(indices[i], i + round));
+                pv.add(indices[i], i + round);
+            }
+            sv.organize();
+            pv.organize();
+            List<Offset> expected = sv.getNonZeroOffsets();
+            List<Offset> actual = pv.getNonZeroOffsets();
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); ++i)
+            {
+                assertEquals(expected.get(i).index, actual.get(i).index);
+                assertEquals(expected.get(i).value, actual.get(i).value);
+            }
+            assertEquals(sv.length(), pv.length());
+        }
+    }
 }
@@ -0,0 +1,56 @@
+package org.sgdtk;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class ParallelEvaluatorTest
+{
+    private static void assertSameMetrics(Learner learner, Model model, List<FeatureVector> examples)
+    {
+        Metrics sequential = new Metrics();
+        learner.eval(model, examples, sequential);
+        Metrics parallel = new Metrics();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        learner.eval(model, examples, parallel, pool);
+        pool.shutdown();
+
+        assertEquals(sequential.getNumExamplesSeen(), parallel.getNumExamplesSeen());
+        assertEquals(sequential.getTotalError(), parallel.getTotalError());
+        assertEquals(sequential.getLoss(), parallel.getLoss(), 1e-9);
+        assertEquals(sequential.getCost(), parallel.getCost(), 1e-9);
+    }
+
+    @Test
+    public void testBinaryMatchesSequential() throws Exception
+    {
+        Random random = new Random(7);
+        List<FeatureVector> examples = TestData.randomExamples(random, 10000, 10, 2);
+        SGDLearner learner = new SGDLearner(new HingeLoss(), 1e-5, 0.1);
+        Model model = learner.create(10);
+        learner.trainEpoch(model, examples.subList(0, 2000));
+        assertSameMetrics(learner, model, examples);
+    }
+
+    @Test
+    public void testMultiClassMatchesSequential() throws Exception
+    {
+        Random random = new Random(11);
+        List<FeatureVector> examples = TestData.randomExamples(random, 10000, 10, 4);
+        MultiClassSGDLearner learner = new MultiClassSGDLearner(4, new HingeLoss(), 1e-5, 0.1);
+        Model model = learner.create(10);
+        learner.trainEpoch(model, examples.subList(0, 2000));
+        assertSameMetrics(learner, model, examples);
+
+        // Labels are put back after evaluating
+        List<FeatureVector> original = TestData.randomExamples(new Random(11), 10000, 10, 4);
+        for (int i = 0; i < original.size(); ++i)
+        {
+            assertEquals(original.get(i).getY(), examples.get(i).getY());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.sgdtk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Seeded random examples for tests
+ *
+ * Labels are -1/1 for two classes, and 1..numClasses otherwise, as the learners expect.
+ *
+ * @author dpressel
+ */
+public class TestData
+{
+    /**
+     * An example with about a third of its features set to noise, and a label that has nothing to do with them
+     * @param random The source of randomness
+     * @param width The number of features
+     * @param numClasses The number of classes
+     * @return The example
+     */
+    public static FeatureVector randomExample(Random random, int width, int numClasses)
+    {
+        SparseVectorN x = new SparseVectorN();
+        for (int j = 0; j < width; ++j)
+        {
+            if (random.nextInt(3) == 0)
+            {
+                x.set(j, random.nextGaussian());
+            }
+        }
+        return new FeatureVector(label(random.nextInt(numClasses), numClasses), x);
+    }
+
+    public static List<FeatureVector> randomExamples(Random random, int n, int width, int numClasses)
+    {
+        List<FeatureVector> examples = new ArrayList<FeatureVector>(n);
+        for (int i = 0; i < n; ++i)
+        {
+            examples.add(randomExample(random, width, numClasses));
+        }
+        return examples;
+    }
+
+    /**
+     * An example that can be learned.  Features 0 and 1 are a point in the plane, and the label is the slice of the
+     * plane around the origin it falls in.  For two classes that is which side of the line x0 + x1 = 0.  If the width
+     * allows, one more feature is set to 1, which on its own says nothing about the label
+     * @param random The source of randomness
+     * @param width The number of features, at least 2
+     * @param numClasses The number of classes
+     * @return The example
+     */
+    public static FeatureVector separableExample(Random random, int width, int numClasses)
+    {
+        SparseVectorN x = new SparseVectorN();
+        double a = random.nextGaussian();
+        double b = random.nextGaussian();
+        x.set(0, a);
+        x.set(1, b);
+        if (width > 2)
+        {
+            x.set(2 + random.nextInt(width - 2), 1.);
+        }
+        // The angle of the point, turned so that two classes split along x0 + x1 = 0
+        double turns = (Math.atan2(b, a) + Math.PI / 4) / (2 * Math.PI);
+        turns -= Math.floor(turns);
+        return new FeatureVector(label(Math.min((int) (turns * numClasses), numClasses - 1), numClasses), x);
+    }
+
+    public static List<FeatureVector> separableExamples(Random random, int n, int width, int numClasses)
+    {
+        List<FeatureVector> examples = new ArrayList<FeatureVector>(n);
+        for (int i = 0; i < n; ++i)
+        {
+            examples.add(separableExample(random, width, numClasses));
+        }
+        return examples;
+    }
+
+    private static double label(int index, int numClasses)
+    {
+        if (numClasses == 2)
+        {
+            return index == 0 ? 1 : -1;
+        }
+        return index + 1;
+    }
+}
@@ -0,0 +1,141 @@
+package org.sgdtk;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+public class TrainingStateTest
+{
+    private static final int WIDTH = 10;
+
+    private static List<FeatureVector> examples(int n, int numClasses)
+    {
+        return TestData.randomExamples(new Random(5), n, WIDTH, numClasses);
+    }
+
+    private static SGDLearner learner(Class<? extends LinearModel> modelClass)
+    {
+        return new SGDLearner(new HingeLoss(), 1e-3, 0.1, new LinearModelFactory(modelClass));
+    }
+
+    private static File tempFile() throws IOException
+    {
+        File file = File.createTempFile("state", ".bin");
+        file.deleteOnExit();
+        return file;
+    }
+
+    // Train on the first half, save, load into a new learner and model, and train on the second half
+    private static Model trainInTwoRuns(Class<? extends LinearModel> modelClass, List<FeatureVector> examples) throws Exception
+    {
+        int half = examples.size() / 2;
+        SGDLearner first = learner(modelClass);
+        Model model = first.create(WIDTH);
+        for (FeatureVector fv : examples.subList(0, half))
+        {
+            first.trainOne(model, fv);
+        }
+        File file = tempFile();
+        TrainingState.save(file, first, model);
+
+        SGDLearner second = learner(modelClass);
+        Model continued = second.create(WIDTH);
+        TrainingState state = TrainingState.load(file, second, continued);
+        assertEquals((long) half, state.getNumSeen());
+        assertEquals(0.1, state.getEta0());
+        assertEquals((long) half, second.getNumSeen());
+        for (FeatureVector fv : examples.subList(half, examples.size()))
+        {
+            second.trainOne(continued, fv);
+        }
+        return continued;
+    }
+
+    private static void assertWarmStartMatchesOneRun(Class<? extends LinearModel> modelClass) throws Exception
+    {
+        List<FeatureVector> examples = examples(400, 2);
+        SGDLearner learner = learner(modelClass);
+        Model model = learner.create(WIDTH);
+        for (FeatureVector fv : examples)
+        {
+            learner.trainOne(model, fv);
+        }
+        Model continued = trainInTwoRuns(modelClass, examples);
+        for (FeatureVector fv : examples)
+        {
+            assertEquals(model.predict(fv), continued.predict(fv), 1e-9);
+        }
+    }
+
+    @Test
+    public void testWarmStartMatchesOneRun() throws Exception
+    {
+        assertWarmStartMatchesOneRun(LinearModel.class);
+    }
+
+    @Test
+    public void testWarmStartKeepsAdagradState() throws Exception
+    {
+        assertWarmStartMatchesOneRun(AdagradLinearModel.class);
+    }
+
+    @Test
+    public void testWarmStartAveraged() throws Exception
+    {
+        // The average itself isn't saved, only the weights, so averaging starts over in the second run
+        List<FeatureVector> examples = examples(400, 2);
+        Model continued = trainInTwoRuns(AveragedLinearModel.class, examples);
+        assertTrue(((AveragedLinearModel) continued).isAveraging());
+        for (FeatureVector fv : examples)
+        {
+            assertFalse(Double.isNaN(continued.predict(fv)));
+        }
+    }
+
+    @Test
+    public void testMultiClassRoundTrip() throws Exception
+    {
+        List<FeatureVector> examples = examples(300, 3);
+        MultiClassSGDLearner learner = new MultiClassSGDLearner(3, new HingeLoss(), 1e-3, 0.1);
+        Model model = learner.create(WIDTH);
+        for (FeatureVector fv : examples)
+        {
+            learner.trainOne(model, fv);
+        }
+        File file = tempFile();
+        TrainingState.save(file, learner, model);
+
+        MultiClassSGDLearner other = new MultiClassSGDLearner(3, new HingeLoss(), 1e-3, 0.1);
+        Model loaded = other.create(WIDTH);
+        TrainingState.load(file, other, loaded);
+        for (int i = 0; i < 3; ++i)
+        {
+            assertEquals(learner.learners[i].getNumSeen(), other.learners[i].getNumSeen());
+        }
+        for (FeatureVector fv : examples)
+        {
+            assertEquals(model.predict(fv), loaded.predict(fv), 1e-9);
+        }
+
+        // A learner with a different number of classes can't pick up the schedule
+        MultiClassSGDLearner mismatched = new MultiClassSGDLearner(4, new HingeLoss(), 1e-3, 0.1);
+        mismatched.create(WIDTH);
+        try
+        {
+            TrainingState.read(new FileInputStream(file), new MultiClassSGDLearner(3).create(WIDTH)).restore(mismatched);
+            fail("Restored 3 classes into 4");
+        }
+        catch (IOException expected)
+        {
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.sgdtk.exec;
+
+import org.junit.Test;
+import org.sgdtk.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+public class CheckpointTest
+{
+    private static final int WIDTH = 4;
+
+    private static List<FeatureVector> examples(int n)
+    {
+        return TestData.separableExamples(new Random(11), n, WIDTH, 2);
+    }
+
+    private static Model train(OverlappedTrainingRunner runner, List<FeatureVector> examples) throws Exception
+    {
+        runner.setEpochs(2);
+        runner.setLearnerUserData(WIDTH);
+        runner.start();
+        for (FeatureVector fv : examples)
+        {
+            runner.add(fv);
+        }
+        return runner.finish();
+    }
+
+    // The models are the same if they score every example the same
+    private static void assertSameModel(Model expected, Model actual, List<FeatureVector> examples)
+    {
+        for (FeatureVector fv : examples)
+        {
+            assertEquals(expected.predict(fv), actual.predict(fv), 1e-9);
+        }
+    }
+
+    @Test
+    public void testWriteRead() throws Exception
+    {
+        List<FeatureVector> examples = examples(100);
+        SGDLearner learner = new SGDLearner(new LogLoss(), 1e-4, 0.1);
+        Model model = learner.create(WIDTH);
+        for (FeatureVector fv : examples)
+        {
+            learner.trainOne(model, fv);
+        }
+        File file = File.createTempFile("ckpt", ".bin");
+        file.deleteOnExit();
+        Checkpoint checkpoint = new Checkpoint(1, 37L, TrainingState.capture(learner, model));
+        checkpoint.write(file);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        SGDLearner other = new SGDLearner(new LogLoss(), 1e-4, 0.1);
+        Model loaded = other.create(WIDTH);
+        Checkpoint read = Checkpoint.read(file, loaded);
+        assertEquals(1, read.getEpoch());
+        assertEquals(37L, read.getExamplesInEpoch());
+        assertEquals(100L, read.getNumSeen());
+        assertEquals(checkpoint.getTimestamp(), read.getTimestamp());
+        assertSameModel(model, loaded, examples);
+        read.getState().restore(other);
+        assertEquals(learner.getNumSeen(), other.getNumSeen());
+    }
+
+    @Test
+    public void testCheckpointByTime() throws Exception
+    {
+        File file = File.createTempFile("ckpt", ".bin");
+        file.delete();
+        file.deleteOnExit();
+        SGDLearner learner = new SGDLearner(new HingeLoss(), 1e-4, 0.1);
+        Model model = learner.create(WIDTH);
+        Checkpointer checkpointer = new Checkpointer(file, 0, 0.05);
+        checkpointer.onExample(learner, model, 0, 1L);
+        Thread.sleep(100);
+        // Only a couple of examples, but the interval has passed
+        checkpointer.onExample(learner, model, 0, 2L);
+        checkpointer.close();
+        assertEquals(2L, Checkpoint.read(file, learner.create(WIDTH)).getExamplesInEpoch());
+    }
+
+    @Test
+    public void testResumeMatchesUninterruptedRun() throws Exception
+    {
+        List<FeatureVector> examples = examples(500);
+        Model uninterrupted = train(new OverlappedTrainingRunner(new SGDLearner(new HingeLoss(), 1e-4, 0.1)), examples);
+
+        // Get to partway through the second epoch, as if that is where the last checkpoint was taken
+        final int examplesInEpoch = 123;
+        SGDLearner learner = new SGDLearner(new HingeLoss(), 1e-4, 0.1);
+        Model model = learner.create(WIDTH);
+        for (FeatureVector fv : examples)
+        {
+            learner.trainOne(model, fv);
+        }
+        for (int i = 0; i < examplesInEpoch; ++i)
+        {
+            learner.trainOne(model, examples.get(i));
+        }
+        File file = File.createTempFile("ckpt", ".bin");
+        file.deleteOnExit();
+        new Checkpoint(1, examplesInEpoch, TrainingState.capture(learner, model)).write(file);
+
+        OverlappedTrainingRunner runner = new OverlappedTrainingRunner(new SGDLearner(new HingeLoss(), 1e-4, 0.1));
+        runner.setResumeFrom(file);
+        assertSameModel(uninterrupted, train(runner, examples), examples);
+    }
+
+    @Test
+    public void testResumeRejectsSeveralProducers() throws Exception
+    {
+        File file = File.createTempFile("ckpt", ".bin");
+        file.deleteOnExit();
+        SGDLearner learner = new SGDLearner(new HingeLoss(), 1e-4, 0.1);
+        new Checkpoint(0, 10L, TrainingState.capture(learner, learner.create(WIDTH))).write(file);
+
+        OverlappedTrainingRunner runner = new OverlappedTrainingRunner(new SGDLearner(new HingeLoss(), 1e-4, 0.1));
+        runner.setResumeFrom(file);
+        runner.setNumReaders(2);
+        runner.setLearnerUserData(WIDTH);
+        try
+        {
+            runner.start();
+            fail("Resumed with several readers");
+        }
+        catch (IllegalStateException expected)
+        {
+            assertTrue(expected.getMessage().contains("resume"));
+        }
+    }
+}
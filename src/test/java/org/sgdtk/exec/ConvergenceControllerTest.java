@@ -0,0 +1,44 @@
+package org.sgdtk.exec;
+
+import org.junit.Test;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class ConvergenceControllerTest
+{
+    @Test
+    public void testStopsAfterPatienceAndKeepsBest() throws Exception
+    {
+        ConvergenceController convergence = new ConvergenceController();
+        convergence.setMinImprovement(0.01);
+        convergence.setPatience(2);
+        final int[] stops = { 0 };
+        convergence.setOnConverged(() -> ++stops[0]);
+
+        assertFalse(convergence.observe(1.0, () -> "epoch1"));
+        assertFalse(convergence.observe(0.5, () -> "epoch2"));
+        // Better, but by too little to count as progress
+        assertFalse(convergence.observe(0.499, () -> "epoch3"));
+        assertTrue(convergence.observe(0.6, () -> "epoch4"));
+        assertEquals(1, stops[0]);
+        assertEquals(3, convergence.getBestEpoch());
+        assertEquals(0.499, convergence.getBestScore(), 1e-12);
+
+        // Still converged, and the stop action isn't run again
+        assertTrue(convergence.observe(0.1, () -> "epoch5"));
+        assertEquals(1, stops[0]);
+    }
+
+    @Test
+    public void testMinEpochs() throws Exception
+    {
+        ConvergenceController convergence = new ConvergenceController();
+        convergence.setMinEpochs(3);
+        assertFalse(convergence.observe(1.0, () -> null));
+        assertFalse(convergence.observe(2.0, () -> null));
+        assertTrue(convergence.observe(3.0, () -> null));
+        assertEquals(1, convergence.getBestEpoch());
+    }
+}
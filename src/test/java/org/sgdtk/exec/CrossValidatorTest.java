@@ -0,0 +1,59 @@
+package org.sgdtk.exec;
+
+import org.junit.Test;
+import org.sgdtk.*;
+
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class CrossValidatorTest
+{
+    @Test
+    public void testFoldsAreBalanced() throws Exception
+    {
+        int[] folds = CrossValidator.assignFolds(103, 5, 7L);
+        int[] counts = new int[5];
+        for (int f : folds)
+        {
+            ++counts[f];
+        }
+        for (int count : counts)
+        {
+            assertTrue(count == 20 || count == 21);
+        }
+        int[] again = CrossValidator.assignFolds(103, 5, 7L);
+        for (int i = 0; i < folds.length; ++i)
+        {
+            assertEquals(folds[i], again[i]);
+        }
+    }
+
+    @Test
+    public void testEveryExampleHeldOutOnce() throws Exception
+    {
+        List<FeatureVector> examples = TestData.separableExamples(new Random(3), 1000, 2, 2);
+        CrossValidator crossValidator = new CrossValidator(4);
+        crossValidator.setNumEpochs(2);
+        CrossValidator.Result result = crossValidator.run(examples,
+                fold -> new SGDLearner(new HingeLoss(), 1e-4, 0.1), 2);
+
+        assertEquals(4, result.getFolds().size());
+        double seen = 0.;
+        for (Metrics metrics : result.getFolds())
+        {
+            seen += metrics.getNumExamplesSeen();
+        }
+        assertEquals(1000., seen);
+        assertEquals(1000., result.getPooled().getNumExamplesSeen());
+        assertTrue(result.mean(ConvergenceController.Criterion.ERROR) < 0.05);
+
+        // The folds train on their own threads, but the result doesn't depend on it
+        crossValidator.setNumThreads(1);
+        CrossValidator.Result serial = crossValidator.run(examples,
+                fold -> new SGDLearner(new HingeLoss(), 1e-4, 0.1), 2);
+        assertEquals(result.getPooled().getLoss(), serial.getPooled().getLoss(), 1e-12);
+    }
+}
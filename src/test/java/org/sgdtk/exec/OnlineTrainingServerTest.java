@@ -0,0 +1,139 @@
+package org.sgdtk.exec;
+
+import org.junit.Test;
+import org.sgdtk.*;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class OnlineTrainingServerTest
+{
+    private static final int WIDTH = 4;
+
+    private static FeatureVector example(Random random)
+    {
+        return TestData.separableExample(random, WIDTH, 2);
+    }
+
+    private static OnlineTrainingServer server(long publishEvery, double publishSec) throws Exception
+    {
+        SGDLearner learner = new SGDLearner(new HingeLoss(), 1e-4, 0.1);
+        OnlineTrainingServer server = new OnlineTrainingServer(learner, learner.create(WIDTH));
+        server.setPublishEvery(publishEvery);
+        server.setPublishSec(publishSec);
+        server.start();
+        return server;
+    }
+
+    @Test
+    public void testPublishByCount() throws Exception
+    {
+        OnlineTrainingServer server = server(100, 0.);
+        assertEquals(0L, server.getSnapshot().getVersion());
+        Random random = new Random(1);
+        for (int i = 0; i < 1050; ++i)
+        {
+            server.train(example(random));
+        }
+        server.flush();
+        // Ten by count, and the flush publishes the last 50
+        OnlineTrainingServer.Snapshot snapshot = server.getSnapshot();
+        assertEquals(11L, snapshot.getVersion());
+        assertEquals(1050L, snapshot.getNumTrained());
+        server.stop();
+    }
+
+    @Test
+    public void testPublishByTimeWhileTrickling() throws Exception
+    {
+        OnlineTrainingServer server = server(0, 0.05);
+        Random random = new Random(2);
+        server.train(example(random));
+        Thread.sleep(100);
+        server.train(example(random));
+        // The second example comes after the interval, so it publishes without waiting for more
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getSnapshot().getVersion() == 0 && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(5);
+        }
+        assertEquals(1L, server.getSnapshot().getVersion());
+        assertEquals(2L, server.getSnapshot().getNumTrained());
+        server.stop();
+    }
+
+    @Test
+    public void testSnapshotNeverChanges() throws Exception
+    {
+        OnlineTrainingServer server = server(0, 0.);
+        Random random = new Random(3);
+        FeatureVector probe = example(random);
+        for (int i = 0; i < 100; ++i)
+        {
+            server.train(example(random));
+        }
+        server.flush();
+        OnlineTrainingServer.Snapshot before = server.getSnapshot();
+        double prediction = before.getModel().predict(probe);
+        for (int i = 0; i < 100; ++i)
+        {
+            server.train(example(random));
+        }
+        server.flush();
+        assertEquals(prediction, before.getModel().predict(probe));
+        assertEquals(before.getVersion() + 1, server.getSnapshot().getVersion());
+        server.stop();
+    }
+
+    @Test
+    public void testFlushIncludesEverythingBefore() throws Exception
+    {
+        final OnlineTrainingServer server = server(37, 0.);
+        final int numThreads = 4;
+        final int numRounds = 50;
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try
+        {
+            Future<?>[] futures = new Future<?>[numThreads];
+            for (int t = 0; t < numThreads; ++t)
+            {
+                final Random random = new Random(10 + t);
+                futures[t] = pool.submit(() ->
+                {
+                    long added = 0;
+                    for (int round = 0; round < numRounds; ++round)
+                    {
+                        int n = 1 + random.nextInt(20);
+                        for (int i = 0; i < n; ++i)
+                        {
+                            server.train(example(random));
+                        }
+                        added += n;
+                        server.flush();
+                        // Whatever the other threads did, this thread's examples are all in
+                        assertTrue(server.getSnapshot().getNumTrained() >= added);
+                    }
+                    return added;
+                });
+            }
+            long total = 0;
+            for (Future<?> future : futures)
+            {
+                total += (Long) future.get(30, TimeUnit.SECONDS);
+            }
+            server.flush();
+            assertEquals(total, server.getSnapshot().getNumTrained());
+        }
+        finally
+        {
+            pool.shutdownNow();
+            server.stop();
+        }
+    }
+}
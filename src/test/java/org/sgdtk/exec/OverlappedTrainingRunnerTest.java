@@ -0,0 +1,46 @@
+package org.sgdtk.exec;
+
+import org.junit.Test;
+import org.sgdtk.*;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class OverlappedTrainingRunnerTest
+{
+    private static final int WIDTH = 4;
+
+    private static int countEpochs(File cacheFile, boolean cacheReady) throws Exception
+    {
+        OverlappedTrainingRunner runner = new OverlappedTrainingRunner(new SGDLearner(new HingeLoss(), 1e-4, 0.1));
+        final AtomicInteger epochs = new AtomicInteger();
+        runner.addListener((learner, model, epochSeconds) -> epochs.incrementAndGet());
+        runner.setEpochs(3);
+        runner.setLearnerUserData(WIDTH);
+        runner.setCacheFile(cacheFile);
+        runner.setCacheReady(cacheReady);
+        runner.start();
+        if (!cacheReady)
+        {
+            for (FeatureVector fv : TestData.randomExamples(new Random(6), 200, WIDTH, 2))
+            {
+                runner.add(fv);
+            }
+        }
+        runner.finish();
+        return epochs.get();
+    }
+
+    @Test
+    public void testRunsExactlyTheEpochsAskedFor() throws Exception
+    {
+        File cacheFile = File.createTempFile("runner", ".cache");
+        cacheFile.deleteOnExit();
+        // Once while building the cache, and again replaying it from the start
+        assertEquals(3, countEpochs(cacheFile, false));
+        assertEquals(3, countEpochs(cacheFile, true));
+    }
+}
@@ -0,0 +1,130 @@
+package org.sgdtk.exec;
+
+import org.junit.Test;
+import org.sgdtk.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class ParameterMixingTrainerTest
+{
+    private static final int WIDTH = 6;
+
+    private static FeatureVector example(Random random, int numClasses)
+    {
+        return TestData.separableExample(random, WIDTH, numClasses);
+    }
+
+    private static List<FeatureVector> examples(int n, int numClasses)
+    {
+        return TestData.separableExamples(new Random(21), n, WIDTH, numClasses);
+    }
+
+    @Test
+    public void testAverageAccountsForWdiv() throws Exception
+    {
+        // Each model has a different scale factored out of its weights, as regularization leaves them
+        Random random = new Random(4);
+        LinearModel[] models = new LinearModel[3];
+        for (int i = 0; i < models.length; ++i)
+        {
+            models[i] = new LinearModel(WIDTH, 1. + 3. * i, 0.);
+            for (int j = 0; j < 20; ++j)
+            {
+                FeatureVector fv = example(random, 2);
+                models[i].updateWeights(fv.getX(), 0.1, 1e-2, random.nextGaussian(), fv.getY());
+            }
+        }
+        LinearModel average = new LinearModel(WIDTH);
+        average.average(models);
+
+        // A prediction is linear in the weights, so the prediction of the average is the average of the predictions
+        for (int j = 0; j < 20; ++j)
+        {
+            FeatureVector probe = example(random, 2);
+            double sum = 0.;
+            for (LinearModel model : models)
+            {
+                sum += model.predict(probe);
+            }
+            assertEquals(sum / models.length, average.predict(probe), 1e-9);
+        }
+    }
+
+    @Test
+    public void testAverageMultiClass() throws Exception
+    {
+        Random random = new Random(8);
+        MultiClassSGDLearner learner = new MultiClassSGDLearner(3, new HingeLoss(), 1e-3, 0.1);
+        Model[] models = new Model[2];
+        for (int i = 0; i < models.length; ++i)
+        {
+            models[i] = learner.create(WIDTH);
+            for (int j = 0; j < 100; ++j)
+            {
+                learner.trainOne(models[i], example(random, 3));
+            }
+        }
+        Model average = models[0].prototype();
+        ParameterMixingTrainer.average(models, average);
+        FeatureVector probe = example(random, 3);
+        double[] a = models[0].score(probe);
+        double[] b = models[1].score(probe);
+        double[] avg = average.score(probe);
+        for (int i = 0; i < avg.length; ++i)
+        {
+            assertEquals((a[i] + b[i]) / 2., avg[i], 1e-9);
+        }
+    }
+
+    @Test
+    public void testOneWorkerIsPlainTraining() throws Exception
+    {
+        // Mixing a single model with itself changes nothing, so this is the same as training without mixing
+        List<FeatureVector> examples = examples(1000, 2);
+        SGDLearner single = new SGDLearner(new HingeLoss(), 1e-4, 0.1);
+        Model expected = single.create(WIDTH);
+        single.trainEpoch(expected, examples);
+
+        ParameterMixingTrainer trainer = new ParameterMixingTrainer(
+                Collections.<Learner>singletonList(new SGDLearner(new HingeLoss(), 1e-4, 0.1)));
+        trainer.setMixesPerEpoch(3);
+        trainer.create(WIDTH);
+        Model mixed = trainer.trainEpoch(examples);
+        trainer.shutdown();
+        for (FeatureVector fv : examples)
+        {
+            assertEquals(expected.predict(fv), mixed.predict(fv), 1e-9);
+        }
+    }
+
+    @Test
+    public void testSeveralWorkersLearn() throws Exception
+    {
+        List<FeatureVector> examples = examples(4000, 2);
+        List<Learner> learners = new ArrayList<Learner>();
+        for (int i = 0; i < 4; ++i)
+        {
+            learners.add(new SGDLearner(new HingeLoss(), 1e-4, 0.1));
+        }
+        ParameterMixingTrainer trainer = new ParameterMixingTrainer(learners);
+        trainer.setMixesPerEpoch(2);
+        trainer.create(WIDTH);
+        Model model = null;
+        for (int epoch = 0; epoch < 3; ++epoch)
+        {
+            model = trainer.trainEpoch(examples);
+        }
+        trainer.shutdown();
+        assertTrue(model == trainer.getModel());
+
+        Metrics metrics = new Metrics();
+        learners.get(0).eval(model, examples, metrics);
+        assertTrue(metrics.getError() < 0.05);
+    }
+}
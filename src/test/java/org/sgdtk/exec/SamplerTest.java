@@ -0,0 +1,94 @@
+package org.sgdtk.exec;
+
+import org.junit.Test;
+import org.sgdtk.FeatureVector;
+
+import java.util.List;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class SamplerTest
+{
+    private static final int N = 200000;
+
+    @Test
+    public void testClassRatesAndWeights() throws Exception
+    {
+        Sampler sampler = new Sampler();
+        sampler.setClassRates("-1:0.01, 1:1");
+        sampler.setSeed(5L);
+        assertFalse(sampler.isKeepAll());
+        assertEquals(1.0, sampler.rateFor(2));
+
+        int negatives = 0;
+        double weightedNegatives = 0.;
+        for (int i = 0; i < N; ++i)
+        {
+            FeatureVector neg = FeatureVector.newSparse(-1);
+            if (sampler.sample(neg))
+            {
+                ++negatives;
+                weightedNegatives += neg.getWeight();
+            }
+            FeatureVector pos = FeatureVector.newSparse(1);
+            assertTrue(sampler.sample(pos));
+            assertEquals(1.0, pos.getWeight());
+        }
+        // About 1% are kept, and weighted, they add back up to about all of them
+        assertEquals(0.01 * N, negatives, 0.1 * 0.01 * N);
+        assertEquals(N, weightedNegatives, 0.1 * N);
+        assertEquals(2L * N, sampler.getNumSeen());
+        assertEquals(N + negatives, sampler.getNumKept());
+    }
+
+    @Test
+    public void testUnweightedAndSeeded() throws Exception
+    {
+        Sampler a = new Sampler(0.3);
+        a.setImportanceWeighted(false);
+        a.setSeed(9L);
+        Sampler b = new Sampler(0.3);
+        b.setSeed(9L);
+        for (int i = 0; i < 1000; ++i)
+        {
+            FeatureVector fv = FeatureVector.newSparse(1);
+            boolean kept = a.sample(fv);
+            assertEquals(1.0, fv.getWeight());
+            assertEquals(kept, b.sample(FeatureVector.newSparse(1)));
+        }
+    }
+
+    @Test
+    public void testReservoirIsUniform() throws Exception
+    {
+        final int capacity = 100;
+        final int streamLength = 1000;
+        int[] counts = new int[streamLength];
+        for (int trial = 0; trial < 200; ++trial)
+        {
+            Reservoir reservoir = new Reservoir(capacity, trial);
+            for (int i = 0; i < streamLength; ++i)
+            {
+                reservoir.offer(FeatureVector.newSparse(i));
+            }
+            List<FeatureVector> sample = reservoir.getSample();
+            assertEquals(capacity, sample.size());
+            for (FeatureVector fv : sample)
+            {
+                ++counts[(int) fv.getY()];
+            }
+        }
+        // Each example should be in about 10% of the samples, early or late in the stream
+        int early = 0;
+        int late = 0;
+        for (int i = 0; i < 100; ++i)
+        {
+            early += counts[i];
+            late += counts[streamLength - 1 - i];
+        }
+        assertEquals(2000., early, 300.);
+        assertEquals(2000., late, 300.);
+    }
+}
@@ -0,0 +1,54 @@
+package org.sgdtk.io;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class ConfigGridTest
+{
+    @Test
+    public void testExpandsEveryCombination() throws Exception
+    {
+        Map<String, Object> learner = new LinkedHashMap<String, Object>();
+        learner.put("lambda", Arrays.asList(1e-4, 1e-5, 1e-6));
+        learner.put("eta0", 0.1);
+        Map<String, Object> model = new LinkedHashMap<String, Object>();
+        model.put("optim", Arrays.asList("org.sgdtk.LinearModel", "org.sgdtk.AdagradLinearModel"));
+        Config grid = new Config();
+        grid.setName("sweep");
+        grid.setLearner(learner);
+        grid.setModel(model);
+
+        List<Config> configs = ConfigGrid.expand(grid);
+        assertEquals(6, configs.size());
+        assertEquals("sweep[lambda=1.0E-4,optim=LinearModel]", configs.get(0).getName());
+        assertEquals("sweep[lambda=1.0E-6,optim=AdagradLinearModel]", configs.get(5).getName());
+        for (int i = 0; i < configs.size(); ++i)
+        {
+            Config config = configs.get(i);
+            assertEquals(learner.get("eta0"), config.getLearner().get("eta0"));
+            assertEquals(((List) learner.get("lambda")).get(i / 2), config.getLearner().get("lambda"));
+            assertEquals(((List) model.get("optim")).get(i % 2), config.getModel().get("optim"));
+        }
+    }
+
+    @Test
+    public void testNoListsIsOneConfig() throws Exception
+    {
+        Map<String, Object> learner = new LinkedHashMap<String, Object>();
+        learner.put("lambda", 1e-5);
+        Config grid = new Config();
+        grid.setName("single");
+        grid.setLearner(learner);
+
+        List<Config> configs = ConfigGrid.expand(grid);
+        assertEquals(1, configs.size());
+        assertEquals("single", configs.get(0).getName());
+        assertEquals(1e-5, configs.get(0).getLearner().get("lambda"));
+    }
+}
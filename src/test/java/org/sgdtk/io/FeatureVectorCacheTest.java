@@ -0,0 +1,212 @@
+package org.sgdtk.io;
+
+import org.junit.Test;
+import org.sgdtk.FeatureVector;
+import org.sgdtk.Offset;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.assertNull;
+
+public class FeatureVectorCacheTest
+{
+    private List<FeatureVector> makeSparse(int n, boolean binary)
+    {
+        Random random = new Random(7);
+        List<FeatureVector> fvs = new ArrayList<FeatureVector>();
+        for (int i = 0; i < n; ++i)
+        {
+            FeatureVector fv = FeatureVector.newSparse(random.nextBoolean() ? 1 : -1);
+            int idx = 0;
+            for (int j = 0; j < 30; ++j)
+            {
+                idx += 1 + random.nextInt(200);
+                fv.add(new Offset(idx, binary ? 1.0 : random.nextDouble()));
+            }
+            fv.getX().organize();
+            fvs.add(fv);
+        }
+        return fvs;
+    }
+
+    private void roundTrip(List<FeatureVector> fvs, FeatureVectorCodec codec, boolean compress, double tol) throws Exception
+    {
+        File file = File.createTempFile("fvcache", "test");
+        file.deleteOnExit();
+        FeatureVectorCacheWriter writer = new FeatureVectorCacheWriter(file, codec, compress);
+        for (FeatureVector fv : fvs)
+        {
+            writer.write(fv);
+        }
+        writer.close();
+        assertEquals(fvs.size(), writer.getNumRecords());
+
+        FeatureVectorCacheReader reader = new FeatureVectorCacheReader(file);
+        for (FeatureVector fv : fvs)
+        {
+            FeatureVector fv2 = reader.next();
+            assertEquals(fv.getY(), fv2.getY());
+            List<Offset> expected = fv.getNonZeroOffsets();
+            List<Offset> actual = fv2.getNonZeroOffsets();
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); ++i)
+            {
+                assertEquals(expected.get(i).index, actual.get(i).index);
+                assertEquals(expected.get(i).value, actual.get(i).value, tol);
+            }
+        }
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void testRawRoundTrip() throws Exception
+    {
+        roundTrip(makeSparse(500, false), new RawFeatureVectorCodec(false), false, 0);
+        roundTrip(makeSparse(500, false), new RawFeatureVectorCodec(false), true, 0);
+    }
+
+    @Test
+    public void testCompactRoundTrip() throws Exception
+    {
+        roundTrip(makeSparse(5000, true), new CompactFeatureVectorCodec(), false, 0);
+        roundTrip(makeSparse(5000, true), new CompactFeatureVectorCodec(), true, 0);
+        roundTrip(makeSparse(500, false), new CompactFeatureVectorCodec(), true, 0);
+        roundTrip(makeSparse(500, false), new CompactFeatureVectorCodec(true), false, 1e-6);
+    }
+
+    @Test
+    public void testLZ4RoundTrip() throws Exception
+    {
+        Random random = new Random(11);
+        byte[] src = new byte[100000];
+        for (int i = 0; i < src.length; ++i)
+        {
+            // Some repetition, some noise
+            src[i] = (byte) (i % 1000 < 700 ? (i % 37) : random.nextInt());
+        }
+        byte[] dst = new byte[LZ4BlockCompressor.maxCompressedLength(src.length)];
+        int n = new LZ4BlockCompressor().compress(src, 0, src.length, dst, 0);
+        byte[] back = new byte[src.length];
+        assertEquals(src.length, LZ4BlockCompressor.decompress(dst, 0, n, back, 0, back.length));
+        for (int i = 0; i < src.length; ++i)
+        {
+            assertEquals(src[i], back[i]);
+        }
+    }
+
+    @Test
+    public void testShuffledReplay() throws Exception
+    {
+        for (boolean compress : new boolean[] { false, true })
+        {
+            List<FeatureVector> fvs = makeSparse(5000, true);
+            File file = File.createTempFile("fvcache", "test");
+            file.deleteOnExit();
+            FeatureVectorCacheWriter writer = new FeatureVectorCacheWriter(file, new CompactFeatureVectorCodec(), compress);
+            for (int i = 0; i < fvs.size(); ++i)
+            {
+                // Use the label as a record id
+                fvs.get(i).setY(i);
+                writer.write(fvs.get(i));
+            }
+            writer.close();
+            assertEquals(fvs.size(), writer.getIndex().getTotalRecords());
+
+            ShuffledFeatureVectorCacheReader reader = new ShuffledFeatureVectorCacheReader(file, writer.getIndex(), 4, new Random(1));
+            Set<Integer> seen = new HashSet<Integer>();
+            boolean inOrder = true;
+            FeatureVector fv;
+            while ((fv = reader.next()) != null)
+            {
+                int id = (int) fv.getY();
+                inOrder &= (id == seen.size());
+                assertEquals(fvs.get(id).getNonZeroOffsets().get(0).index, fv.getNonZeroOffsets().get(0).index);
+                seen.add(id);
+            }
+            reader.close();
+            assertEquals(fvs.size(), seen.size());
+            assertFalse(inOrder);
+        }
+    }
+
+    @Test
+    public void testSeek() throws Exception
+    {
+        for (boolean compress : new boolean[] { false, true })
+        {
+            List<FeatureVector> fvs = makeSparse(5000, true);
+            File file = File.createTempFile("fvcache", "test");
+            file.deleteOnExit();
+            FeatureVectorCacheWriter writer = new FeatureVectorCacheWriter(file, new CompactFeatureVectorCodec(), compress);
+            for (int i = 0; i < fvs.size(); ++i)
+            {
+                fvs.get(i).setY(i);
+                writer.write(fvs.get(i));
+            }
+            writer.close();
+            FeatureVectorCacheIndex index = writer.getIndex();
+            assertTrue(index.size() > 2);
+
+            // Back and forth, including back into what was just read and is still buffered
+            FeatureVectorCacheReader reader = new FeatureVectorCacheReader(file);
+            int[] blocks = { index.size() - 1, 1, 0, 1, 1, index.size() / 2, 0 };
+            for (int block : blocks)
+            {
+                reader.seek(index.getOffset(block));
+                long first = 0;
+                for (int i = 0; i < block; ++i)
+                {
+                    first += index.getNumRecords(i);
+                }
+                for (int j = 0; j < index.getNumRecords(block); ++j)
+                {
+                    assertEquals((double) (first + j), reader.next().getY());
+                }
+            }
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testCacheMetadata() throws Exception
+    {
+        File source = File.createTempFile("source", "test");
+        source.deleteOnExit();
+        java.io.FileWriter sourceWriter = new java.io.FileWriter(source);
+        sourceWriter.write("1 1:1 3:1\n-1 2:1\n");
+        sourceWriter.close();
+
+        List<FeatureVector> fvs = makeSparse(100, true);
+        File file = File.createTempFile("fvcache", "test");
+        file.deleteOnExit();
+        FeatureVectorCacheWriter writer = new FeatureVectorCacheWriter(file, new CompactFeatureVectorCodec(), true);
+        writer.setMetadata(CacheMetadata.describe(source, "test"));
+        for (FeatureVector fv : fvs)
+        {
+            writer.write(fv);
+        }
+        writer.close();
+
+        CacheMetadata metadata = FeatureVectorCacheReader.readMetadata(file);
+        assertTrue(CacheMetadata.describe(source, "test").isSameSource(metadata));
+        assertFalse(CacheMetadata.describe(source, "other").isSameSource(metadata));
+        assertEquals(fvs.size(), metadata.getNumRecords());
+        assertEquals(writer.getIndex().size(), metadata.getIndex().size());
+
+        // An unfinished cache is never reused
+        writer = new FeatureVectorCacheWriter(file, new CompactFeatureVectorCodec(), true);
+        writer.setMetadata(CacheMetadata.describe(source, "test"));
+        writer.write(fvs.get(0));
+        writer.abort();
+        assertNull(FeatureVectorCacheReader.readMetadata(file));
+    }
+}
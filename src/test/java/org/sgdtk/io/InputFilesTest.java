@@ -0,0 +1,171 @@
+package org.sgdtk.io;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+public class InputFilesTest
+{
+    private static final int NUM_LINES = 20000;
+
+    private static String line(int i)
+    {
+        return (i % 2 == 0 ? "1" : "-1") + " " + (i % 97 + 1) + ":1 " + (i % 1013 + 100) + ":0.5";
+    }
+
+    private static byte[] text()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < NUM_LINES; ++i)
+        {
+            sb.append(line(i)).append('\n');
+        }
+        return sb.toString().getBytes();
+    }
+
+    private static void writeIntLE(OutputStream out, int v) throws IOException
+    {
+        out.write(v);
+        out.write(v >>> 8);
+        out.write(v >>> 16);
+        out.write(v >>> 24);
+    }
+
+    // One gzip member with the BGZF 'BC' extra field
+    private static void writeBgzfBlock(OutputStream out, byte[] data, int off, int len) throws IOException
+    {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data, off, len);
+        deflater.finish();
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        while (!deflater.finished())
+        {
+            deflated.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+
+        int blockSz = 18 + deflated.size() + 8;
+        out.write(new byte[] { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0 });
+        out.write((blockSz - 1) & 0xff);
+        out.write((blockSz - 1) >>> 8);
+        deflated.writeTo(out);
+        CRC32 crc = new CRC32();
+        crc.update(data, off, len);
+        writeIntLE(out, (int) crc.getValue());
+        writeIntLE(out, len);
+    }
+
+    private static void assertLines(File file) throws IOException
+    {
+        BufferedReader reader = InputFiles.openReader(file);
+        for (int i = 0; i < NUM_LINES; ++i)
+        {
+            assertEquals(line(i), reader.readLine());
+        }
+        assertNull(reader.readLine());
+        reader.close();
+    }
+
+    private static File tempFile() throws IOException
+    {
+        File file = File.createTempFile("inputfiles", "test");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void testPlain() throws Exception
+    {
+        File file = tempFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(text());
+        out.close();
+        assertLines(file);
+    }
+
+    @Test
+    public void testPrefetchSmallBuffers() throws Exception
+    {
+        byte[] text = text();
+        File file = tempFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(text);
+        out.close();
+
+        // Buffers much smaller than the file, and a size that doesn't divide it, so they all get recycled
+        PrefetchingInputStream input = new PrefetchingInputStream(file, 1000, 3);
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        byte[] buffer = new byte[777];
+        int n;
+        while ((n = input.read(buffer)) >= 0)
+        {
+            read.write(buffer, 0, n);
+        }
+        input.close();
+        assertTrue(Arrays.equals(text, read.toByteArray()));
+    }
+
+    @Test
+    public void testMultiMemberGzip() throws Exception
+    {
+        byte[] text = text();
+        File file = tempFile();
+        FileOutputStream out = new FileOutputStream(file);
+        int half = text.length / 2;
+        GZIPOutputStream first = new GZIPOutputStream(out);
+        first.write(text, 0, half);
+        first.finish();
+        GZIPOutputStream second = new GZIPOutputStream(out);
+        second.write(text, half, text.length - half);
+        second.close();
+        assertLines(file);
+    }
+
+    @Test
+    public void testBgzf() throws Exception
+    {
+        byte[] text = text();
+        File file = tempFile();
+        FileOutputStream out = new FileOutputStream(file);
+        for (int off = 0; off < text.length; off += 30000)
+        {
+            writeBgzfBlock(out, text, off, Math.min(30000, text.length - off));
+        }
+        // BGZF ends with an empty block
+        writeBgzfBlock(out, text, 0, 0);
+        out.close();
+        assertLines(file);
+    }
+
+    @Test
+    public void testZstdRejected() throws Exception
+    {
+        File file = tempFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[] { 0x28, (byte) 0xb5, 0x2f, (byte) 0xfd, 0, 0, 0, 0 });
+        out.close();
+        try
+        {
+            InputFiles.open(file);
+            assertTrue(false);
+        }
+        catch (IOException ioEx)
+        {
+            assertTrue(ioEx.getMessage().contains("zstd"));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.sgdtk.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+public class PipelinedInputStreamTest
+{
+    // Gives up some bytes, then fails with whatever it is given
+    private static InputStream failingAfter(final int n, final RuntimeException failure)
+    {
+        return new InputStream()
+        {
+            int count;
+
+            @Override
+            public int read()
+            {
+                if (count == n)
+                {
+                    throw failure;
+                }
+                return count++ & 0xff;
+            }
+        };
+    }
+
+    @Test
+    public void testReadsEverything() throws Exception
+    {
+        byte[] bytes = new byte[10000];
+        for (int i = 0; i < bytes.length; ++i)
+        {
+            bytes[i] = (byte) (i * 31);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PipelinedInputStream in = new PipelinedInputStream(new ByteArrayInputStream(bytes), 333, 2))
+        {
+            byte[] buffer = new byte[1000];
+            int n;
+            while ((n = in.read(buffer)) >= 0)
+            {
+                out.write(buffer, 0, n);
+            }
+        }
+        assertTrue(Arrays.equals(bytes, out.toByteArray()));
+    }
+
+    @Test(timeout = 10000)
+    public void testUncheckedFailureReachesConsumer() throws Exception
+    {
+        IllegalStateException failure = new IllegalStateException("corrupt");
+        try (PipelinedInputStream in = new PipelinedInputStream(failingAfter(10, failure), 4, 2))
+        {
+            while (in.read() >= 0)
+            {
+            }
+            fail("Read to the end of a stream that failed");
+        }
+        catch (IOException expected)
+        {
+            assertEquals(failure, expected.getCause());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.sgdtk.pipeline;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class PipelineTest
+{
+    private static Source<Integer> range(final int from, final int to)
+    {
+        return new Source<Integer>()
+        {
+            int i = from;
+
+            @Override
+            public Integer next()
+            {
+                return i < to ? i++ : null;
+            }
+        };
+    }
+
+    @Test
+    public void testAllItemsArrive() throws Exception
+    {
+        List<Source<Integer>> sources = new ArrayList<Source<Integer>>();
+        sources.add(range(0, 5000));
+        sources.add(range(5000, 10000));
+        final AtomicLong sum = new AtomicLong();
+        Pipeline pipeline = Pipeline.from("read", sources)
+                .<Long>then("square", (i, emitter) -> emitter.emit((long) i * i), 3, 8)
+                .<Long>then("evens", (i, emitter) ->
+                {
+                    if (i % 2 == 0)
+                    {
+                        emitter.emit(i);
+                    }
+                }, 2, 8)
+                .to("sum", sum::addAndGet, 1, 8);
+        pipeline.start();
+        pipeline.await();
+
+        long expected = 0;
+        for (long i = 0; i < 10000; i += 2)
+        {
+            expected += i * i;
+        }
+        assertEquals(expected, sum.get());
+
+        List<StageStats> stats = pipeline.getStats();
+        assertEquals(4, stats.size());
+        assertEquals(10000, stats.get(0).getItemsOut());
+        assertEquals(10000, stats.get(1).getItemsIn());
+        assertEquals(5000, stats.get(2).getItemsOut());
+        assertEquals(5000, stats.get(3).getItemsIn());
+    }
+
+    @Test
+    public void testFailureIsRethrown() throws Exception
+    {
+        Pipeline pipeline = Pipeline.from("read", range(0, 100000))
+                .<Integer>then("fail", (i, emitter) ->
+                {
+                    if (i == 500)
+                    {
+                        throw new IOException("bad item");
+                    }
+                    emitter.emit(i);
+                }, 2, 4)
+                .to("drop", i -> { }, 1, 4);
+        pipeline.start();
+        try
+        {
+            pipeline.await();
+            assertTrue(false);
+        }
+        catch (IOException ioEx)
+        {
+            assertTrue(ioEx.getMessage().contains("bad item"));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.sgdtk.struct;
+
+import org.junit.Test;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class ChunkMetricsTest
+{
+    private static final String[] BIO = { "O", "B-NP", "I-NP", "B-VP", "I-VP" };
+    private static final String[] BIOES = { "O", "B-PER", "I-PER", "E-PER", "S-PER", "S-LOC" };
+
+    @Test
+    public void testBIO() throws Exception
+    {
+        ChunkMetrics metrics = new ChunkMetrics(BIO);
+        // Gold: [NP the cat] [VP sat] O [NP mat]
+        int[] gold = { 1, 2, 3, 0, 1 };
+        // Guess gets the first NP and the VP, and cuts the last NP short by starting it with I-, which still counts
+        int[] guess = { 1, 2, 3, 0, 2 };
+        metrics.addSequence(gold, guess);
+        assertEquals(3L, metrics.getGoldChunks());
+        assertEquals(3L, metrics.getGuessChunks());
+        assertEquals(3L, metrics.getCorrectChunks());
+
+        // Splitting the first NP in two gets neither half right
+        int[] split = { 1, 1, 3, 0, 1 };
+        metrics.addSequence(gold, split);
+        assertEquals(6L, metrics.getGoldChunks());
+        assertEquals(7L, metrics.getGuessChunks());
+        assertEquals(5L, metrics.getCorrectChunks());
+        assertEquals(4L, metrics.getGoldChunks("NP"));
+        assertEquals(3L, metrics.getCorrectChunks("NP"));
+        assertEquals(1.0, metrics.getRecall("VP"), 1e-9);
+        assertEquals(5. / 7., metrics.getPrecision(), 1e-9);
+    }
+
+    @Test
+    public void testBIOESAndMerge() throws Exception
+    {
+        ChunkMetrics first = new ChunkMetrics(BIOES);
+        ChunkMetrics second = (ChunkMetrics) first.emptyCopy();
+        // Gold: [PER B I E] [LOC S] [PER S]
+        int[] gold = { 1, 2, 3, 5, 4 };
+        // The PER spans are right but the type of the single is wrong
+        int[] guess = { 1, 2, 3, 4, 4 };
+        first.addSequence(gold, guess);
+        // A chunk running off the end of the sequence still ends there
+        second.addSequence(new int[] { 0, 1, 2 }, new int[] { 0, 1, 2 });
+        first.merge(second);
+
+        assertEquals(3L, first.getCorrectChunks("PER"));
+        assertEquals(1L, first.getGoldChunks("LOC"));
+        assertEquals(0L, first.getGuessChunks("LOC"));
+        assertEquals(4L, first.getGuessChunks("PER"));
+        assertEquals(3L, first.getGoldChunks("PER"));
+        assertEquals(3L, first.getCorrectChunks());
+        assertEquals(4L, first.getGoldChunks());
+    }
+}